@@ -202,6 +202,9 @@ public abstract class AbstractElement
      * Creates the attribute list.
      */
     protected NamedNodeMap createAttributes() {
+        if (ownerDocument != null && ownerDocument.getCompactAttributes()) {
+            return new ExtendedCompactNamedNodeMap();
+        }
         return new ExtendedNamedNodeHashMap();
     }
 
@@ -216,8 +219,13 @@ public abstract class AbstractElement
         if (attributes == null) {
             attributes = createAttributes();
         }
-        ((ExtendedNamedNodeHashMap)attributes).
-            setUnspecifiedAttribute(nsURI, name, value);
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).
+                put(nsURI, name, value, true, false);
+        } else {
+            ((ExtendedNamedNodeHashMap)attributes).
+                setUnspecifiedAttribute(nsURI, name, value);
+        }
     }
 
     /**
@@ -346,4 +354,27 @@ public abstract class AbstractElement
             return n;
         }
     }
+
+    /**
+     * A compact implementation of the {@link NamedNodeMap}, that resets
+     * the removed attributes to their default value.
+     */
+    protected class ExtendedCompactNamedNodeMap extends CompactNamedNodeMap {
+
+        /**
+         * Creates a new ExtendedCompactNamedNodeMap object.
+         */
+        public ExtendedCompactNamedNodeMap() {
+        }
+
+        /**
+         * Called when an attribute has been removed from the map.
+         */
+        protected void removed( String ns, String name, AbstractAttr n ) {
+            // Reset the attribute to its default value
+            if ( !resetAttribute( ns, n.getPrefix(), name ) ) {
+                super.removed( ns, name, n );
+            }
+        }
+    }
 }
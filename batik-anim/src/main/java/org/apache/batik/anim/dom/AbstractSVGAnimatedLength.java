@@ -288,16 +288,16 @@ public abstract class AbstractSVGAnimatedLength
             missing = false;
             valid = true;
 
-            Attr attr = element.getAttributeNodeNS(namespaceURI, localName);
+            String v = element.getAttributeValueNS(namespaceURI, localName);
             String s;
-            if (attr == null) {
+            if (v == null) {
                 s = getDefaultValue();
                 if (s == null) {
                     missing = true;
                     return;
                 }
             } else {
-                s = attr.getValue();
+                s = v;
             }
 
             parse(s);
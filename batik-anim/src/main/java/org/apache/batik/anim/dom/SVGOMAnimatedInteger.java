@@ -89,11 +89,11 @@ public class SVGOMAnimatedInteger
      * Updates the base value from the attribute.
      */
     protected void update() {
-        Attr attr = element.getAttributeNodeNS(namespaceURI, localName);
-        if (attr == null) {
+        String v = element.getAttributeValueNS(namespaceURI, localName);
+        if (v == null) {
             baseVal = defaultValue;
         } else {
-            baseVal = Integer.parseInt(attr.getValue());
+            baseVal = Integer.parseInt(v);
         }
         valid = true;
     }
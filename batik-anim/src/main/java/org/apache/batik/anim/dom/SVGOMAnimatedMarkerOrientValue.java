@@ -232,12 +232,12 @@ public class SVGOMAnimatedMarkerOrientValue extends AbstractSVGAnimatedValue {
          */
         protected void revalidate() {
             if (!valid) {
-                Attr attr = element.getAttributeNodeNS(namespaceURI, localName);
-                if (attr == null) {
+                String v = element.getAttributeValueNS(namespaceURI, localName);
+                if (v == null) {
                     setUnitType(SVGAngle.SVG_ANGLETYPE_UNSPECIFIED);
                     value = 0;
                 } else {
-                    parse(attr.getValue());
+                    parse(v);
                 }
                 valid = true;
             }
@@ -310,11 +310,11 @@ public class SVGOMAnimatedPathData
          * Returns the value of the DOM attribute containing the path data.
          */
         protected String getValueAsString() {
-            Attr attr = element.getAttributeNodeNS(namespaceURI, localName);
-            if (attr == null) {
+            String v = element.getAttributeValueNS(namespaceURI, localName);
+            if (v == null) {
                 return defaultValue;
             }
-            return attr.getValue();
+            return v;
         }
 
         /**
@@ -419,11 +419,11 @@ public class SVGOMAnimatedPathData
          * Returns the value of the DOM attribute containing the path data.
          */
         protected String getValueAsString() throws SVGException {
-            Attr attr = element.getAttributeNodeNS(namespaceURI, localName);
-            if (attr == null) {
+            String v = element.getAttributeValueNS(namespaceURI, localName);
+            if (v == null) {
                 return defaultValue;
             }
-            return attr.getValue();
+            return v;
         }
 
         /**
@@ -234,11 +234,11 @@ public class SVGOMAnimatedPoints
          * Returns the value of the DOM attribute containing the point list.
          */
         protected String getValueAsString() {
-            Attr attr = element.getAttributeNodeNS(namespaceURI, localName);
-            if (attr == null) {
+            String v = element.getAttributeValueNS(namespaceURI, localName);
+            if (v == null) {
                 return defaultValue;
             }
-            return attr.getValue();
+            return v;
         }
 
         /**
@@ -22,7 +22,6 @@ import org.apache.batik.dom.AbstractDocument;
 import org.apache.batik.util.DoublyIndexedTable;
 import org.apache.batik.util.SVGTypes;
 
-import org.w3c.dom.Attr;
 import org.w3c.dom.Node;
 import org.w3c.dom.svg.SVGAnimatedLength;
 import org.w3c.dom.svg.SVGRadialGradientElement;
@@ -123,22 +122,22 @@ public class SVGOMRadialGradientElement
             (this, null, SVG_FX_ATTRIBUTE,
              SVGOMAnimatedLength.HORIZONTAL_LENGTH, false) {
                 protected String getDefaultValue() {
-                    Attr attr = getAttributeNodeNS(null, SVG_CX_ATTRIBUTE);
-                    if (attr == null) {
+                    String v = getAttributeValueNS(null, SVG_CX_ATTRIBUTE);
+                    if (v == null) {
                         return SVG_RADIAL_GRADIENT_CX_DEFAULT_VALUE;
                     }
-                    return attr.getValue();
+                    return v;
                 }
             };
         fy = new AbstractSVGAnimatedLength
             (this, null, SVG_FY_ATTRIBUTE,
              SVGOMAnimatedLength.VERTICAL_LENGTH, false) {
                 protected String getDefaultValue() {
-                    Attr attr = getAttributeNodeNS(null, SVG_CY_ATTRIBUTE);
-                    if (attr == null) {
+                    String v = getAttributeValueNS(null, SVG_CY_ATTRIBUTE);
+                    if (v == null) {
                         return SVG_RADIAL_GRADIENT_CY_DEFAULT_VALUE;
                     }
-                    return attr.getValue();
+                    return v;
                 }
             };
 
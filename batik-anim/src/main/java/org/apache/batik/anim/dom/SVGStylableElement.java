@@ -377,10 +377,10 @@ public abstract class SVGStylableElement
             cssEngine = eng;
             property = prop;
 
-            Attr attr = getAttributeNodeNS(null, prop);
-            if (attr != null) {
+            String v = getAttributeValueNS(null, prop);
+            if (v != null) {
                 value = cssEngine.parsePropertyValue
-                    (SVGStylableElement.this, prop, attr.getValue());
+                    (SVGStylableElement.this, prop, v);
             }
         }
 
@@ -478,10 +478,10 @@ public abstract class SVGStylableElement
             cssEngine = eng;
             property = prop;
 
-            Attr attr = getAttributeNodeNS(null, prop);
-            if (attr != null) {
+            String v = getAttributeValueNS(null, prop);
+            if (v != null) {
                 value = cssEngine.parsePropertyValue
-                    (SVGStylableElement.this, prop, attr.getValue());
+                    (SVGStylableElement.this, prop, v);
             }
         }
 
@@ -580,10 +580,10 @@ public abstract class SVGStylableElement
             cssEngine = eng;
             property = prop;
 
-            Attr attr = getAttributeNodeNS(null, prop);
-            if (attr != null) {
+            String v = getAttributeValueNS(null, prop);
+            if (v != null) {
                 value = cssEngine.parsePropertyValue
-                    (SVGStylableElement.this, prop, attr.getValue());
+                    (SVGStylableElement.this, prop, v);
             }
         }
 
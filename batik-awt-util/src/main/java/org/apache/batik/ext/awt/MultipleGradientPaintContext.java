@@ -34,6 +34,9 @@ import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 
@@ -183,6 +186,124 @@ abstract class MultipleGradientPaintContext implements PaintContext {
      */
     private static final int MAX_GRADIENT_ARRAY_SIZE = 5000;
 
+    /**
+     * The gradient colors computed for a set of stops.  They only
+     * depend on the stops, the cycle method and the color spaces, so
+     * the contexts painting the same gradient share them.  Nothing
+     * may modify the arrays once they are computed.
+     */
+    static final class Ramp {
+        final float[] fractions;
+        final float[] normalizedIntervals;
+        final int gradientUnderflow;
+        final int gradientOverflow;
+        final boolean hasDiscontinuity;
+        final boolean isSimpleLookup;
+        final int fastGradientArraySize;
+        final int[] gradient;
+        final int[][] gradients;
+        final int gradientsLength;
+        final int gradientAverage;
+        final int transparencyTest;
+
+        /**
+         * Records the gradient computed by <code>ctx</code>.
+         */
+        Ramp(MultipleGradientPaintContext ctx) {
+            fractions             = ctx.fractions;
+            normalizedIntervals   = ctx.normalizedIntervals;
+            gradientUnderflow     = ctx.gradientUnderflow;
+            gradientOverflow      = ctx.gradientOverflow;
+            hasDiscontinuity      = ctx.hasDiscontinuity;
+            isSimpleLookup        = ctx.isSimpleLookup;
+            fastGradientArraySize = ctx.fastGradientArraySize;
+            gradient              = ctx.gradient;
+            gradients             = ctx.gradients;
+            gradientsLength       = ctx.gradientsLength;
+            gradientAverage       = ctx.gradientAverage;
+            transparencyTest      = ctx.transparencyTest;
+        }
+
+        /**
+         * Sets up <code>ctx</code> to paint this gradient.
+         */
+        void applyTo(MultipleGradientPaintContext ctx) {
+            ctx.fractions             = fractions;
+            ctx.normalizedIntervals   = normalizedIntervals;
+            ctx.gradientUnderflow     = gradientUnderflow;
+            ctx.gradientOverflow      = gradientOverflow;
+            ctx.hasDiscontinuity      = hasDiscontinuity;
+            ctx.isSimpleLookup        = isSimpleLookup;
+            ctx.fastGradientArraySize = fastGradientArraySize;
+            ctx.gradient              = gradient;
+            ctx.gradients             = gradients;
+            ctx.gradientsLength       = gradientsLength;
+            ctx.gradientAverage       = gradientAverage;
+            ctx.transparencyTest      = transparencyTest;
+            ctx.useOpaqueModel();
+        }
+    }
+
+    /**
+     * The key of a {@link Ramp}.
+     */
+    static final class RampKey {
+        final float[] fractions;
+        final int[] colors;
+        final Object cycleMethod;
+        final Object colorSpace;
+        final ColorSpace dataColorSpace;
+        final int hash;
+
+        RampKey(float[] fractions, Color[] colors,
+                Object cycleMethod, Object colorSpace,
+                ColorSpace dataColorSpace) {
+            this.fractions = fractions.clone();
+            this.colors = new int[colors.length];
+            for (int i = 0; i < colors.length; i++)
+                this.colors[i] = colors[i].getRGB();
+            this.cycleMethod    = cycleMethod;
+            this.colorSpace     = colorSpace;
+            this.dataColorSpace = dataColorSpace;
+
+            int h = Arrays.hashCode(this.fractions);
+            h = h * 31 + Arrays.hashCode(this.colors);
+            h = h * 31 + cycleMethod.hashCode();
+            h = h * 31 + colorSpace.hashCode();
+            hash = h * 31 + dataColorSpace.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof RampKey))
+                return false;
+            RampKey k = (RampKey)o;
+            return ((hash == k.hash) &&
+                    (cycleMethod == k.cycleMethod) &&
+                    (colorSpace == k.colorSpace) &&
+                    (dataColorSpace == k.dataColorSpace) &&
+                    Arrays.equals(fractions, k.fractions) &&
+                    Arrays.equals(colors, k.colors));
+        }
+    }
+
+    /**
+     * The maximum number of ramps kept in {@link #ramps}.
+     */
+    static final int MAX_RAMPS = 256;
+
+    /**
+     * The recently used ramps.
+     */
+    static final Map ramps = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_RAMPS;
+            }
+        };
+
    /** Constructor for superclass. Does some initialization, but leaves most
     * of the heavy-duty math for calculateGradient(), so the subclass may do
     * some other manipulation beforehand if necessary.  This is not possible
@@ -202,6 +323,57 @@ abstract class MultipleGradientPaintContext implements PaintContext {
                                         colorSpace)
         throws NoninvertibleTransformException
     {
+        // The inverse transform is needed to from device to user space.
+        // Get all the components of the inverse transform matrix.
+        AffineTransform tInv = t.createInverse();
+
+        double[] m = new double[6];
+        tInv.getMatrix(m);
+        a00 = (float)m[0];
+        a10 = (float)m[1];
+        a01 = (float)m[2];
+        a11 = (float)m[3];
+        a02 = (float)m[4];
+        a12 = (float)m[5];
+
+        //copy some flags
+        this.cycleMethod = cycleMethod;
+        this.colorSpace = colorSpace;
+
+        // Setup an example Model, we may refine it later.
+        if (cm.getColorSpace() == lrgbmodel_A.getColorSpace())
+            dataModel = lrgbmodel_A;
+        else if (cm.getColorSpace() == srgbmodel_A.getColorSpace())
+            dataModel = srgbmodel_A;
+        else
+            throw new IllegalArgumentException
+                ("Unsupported ColorSpace for interpolation");
+
+        // Reuse the colors of an identical gradient if possible.
+        RampKey key = new RampKey(fractions, colors, cycleMethod,
+                                  colorSpace, dataModel.getColorSpace());
+        Ramp ramp;
+        synchronized (ramps) {
+            ramp = (Ramp)ramps.get(key);
+        }
+        if (ramp != null) {
+            ramp.applyTo(this);
+        } else {
+            calculateRamp(fractions, colors);
+            ramp = new Ramp(this);
+            synchronized (ramps) {
+                ramps.put(key, ramp);
+            }
+        }
+
+        model = GraphicsUtil.coerceColorModel(dataModel,
+                                              cm.isAlphaPremultiplied());
+    }
+
+    /**
+     * Computes the gradient colors for the given stops.
+     */
+    private void calculateRamp(float[] fractions, Color[] colors) {
         //We have to deal with the cases where the 1st gradient stop is not
         //equal to 0 and/or the last gradient stop is not equal to 1.
         //In both cases, create a new point and replicate the previous
@@ -268,36 +440,7 @@ abstract class MultipleGradientPaintContext implements PaintContext {
             this.fractions[idx] = 1;
         }
 
-        // The inverse transform is needed to from device to user space.
-        // Get all the components of the inverse transform matrix.
-        AffineTransform tInv = t.createInverse();
-
-        double[] m = new double[6];
-        tInv.getMatrix(m);
-        a00 = (float)m[0];
-        a10 = (float)m[1];
-        a01 = (float)m[2];
-        a11 = (float)m[3];
-        a02 = (float)m[4];
-        a12 = (float)m[5];
-
-        //copy some flags
-        this.cycleMethod = cycleMethod;
-        this.colorSpace = colorSpace;
-
-        // Setup an example Model, we may refine it later.
-        if (cm.getColorSpace() == lrgbmodel_A.getColorSpace())
-            dataModel = lrgbmodel_A;
-        else if (cm.getColorSpace() == srgbmodel_A.getColorSpace())
-            dataModel = srgbmodel_A;
-        else
-            throw new IllegalArgumentException
-                ("Unsupported ColorSpace for interpolation");
-
         calculateGradientFractions(loColors, hiColors);
-
-        model = GraphicsUtil.coerceColorModel(dataModel,
-                                              cm.isAlphaPremultiplied());
     }
 
 
@@ -381,7 +524,14 @@ abstract class MultipleGradientPaintContext implements PaintContext {
                 hasDiscontinuity = true;
         }
 
-        // Use the most 'economical' model (no alpha).
+        useOpaqueModel();
+    }
+
+    /**
+     * Use the most 'economical' model (no alpha) if the gradient
+     * colors are all opaque.
+     */
+    private void useOpaqueModel() {
         if((transparencyTest >>> 24) == 0xff) {
             if (dataModel.getColorSpace() == lrgbmodel_NA.getColorSpace())
                 dataModel = lrgbmodel_NA;
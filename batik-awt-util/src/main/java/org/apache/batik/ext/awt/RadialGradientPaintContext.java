@@ -25,6 +25,8 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.ColorModel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Provides the actual implementation for the RadialGradientPaint.
@@ -349,26 +351,53 @@ final class RadialGradientPaintContext extends MultipleGradientPaintContext {
     private static final int MAX_PRECISION = 256;
 
     /** Square root lookup table */
-    private int[] sqrtLutFixed = new int[MAX_PRECISION];
+    private int[] sqrtLutFixed;
 
     /**
-     * Build square root lookup table
+     * The maximum number of tables kept in {@link #sqrtLuts}.
+     */
+    private static final int MAX_SQRT_LUTS = 32;
+
+    /**
+     * The recently used square root lookup tables, by gradient array
+     * size.  They are never modified once built.
+     */
+    private static final Map sqrtLuts = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_SQRT_LUTS;
+            }
+        };
+
+    /**
+     * Build square root lookup table, or reuse one built for the
+     * same gradient array size.
      */
     private void calculateFixedPointSqrtLookupTable() {
         float sqStepFloat;
         sqStepFloat = (fastGradientArraySize * fastGradientArraySize)
                        / (MAX_PRECISION - 2.0f);
+        invSqStepFloat = 1.0f/sqStepFloat;
+
+        Integer key = fastGradientArraySize;
+        synchronized (sqrtLuts) {
+            sqrtLutFixed = (int[])sqrtLuts.get(key);
+        }
+        if (sqrtLutFixed != null)
+            return;
 
         // The last two values are the same so that linear square root
         // interpolation can happen on the maximum reachable element in the
         // lookup table (precision-2)
-        int[] workTbl = sqrtLutFixed;      // local is cheaper
+        int[] workTbl = new int[MAX_PRECISION];
         int i;
         for (i = 0; i < MAX_PRECISION - 1; i++) {
             workTbl[i] = (int)Math.sqrt(i*sqStepFloat);
         }
         workTbl[i] = workTbl[i-1];
-        invSqStepFloat = 1.0f/sqStepFloat;
+        sqrtLutFixed = workTbl;
+        synchronized (sqrtLuts) {
+            sqrtLuts.put(key, workTbl);
+        }
     }
 
     /** Fill the raster, cycling the gradient colors when a point falls outside
@@ -77,9 +77,17 @@ public final class RenderingHintsKeyExt {
     public static final Object VALUE_AVOID_TILE_PAINTING_OFF = new Object();
     public static final Object VALUE_AVOID_TILE_PAINTING_DEFAULT = new Object();
 
+    /**
+     * Hint that the areas of a rendering are painted separately, for
+     * example on several threads, and must be painted as parts of the
+     * whole rendering. Its value is a Boolean.
+     */
+    public static final RenderingHints.Key KEY_TILED_RENDERING;
+
     static {
         int base = 10100;
-        RenderingHints.Key trans=null, aoi=null, bi=null, cs=null, atp=null;
+        RenderingHints.Key trans=null, aoi=null, bi=null, cs=null, atp=null,
+            tr=null;
         while (true) {
             int val = base;
 
@@ -89,6 +97,7 @@ public final class RenderingHintsKeyExt {
                 bi    = new BufferedImageHintKey (val++);
                 cs    = new ColorSpaceHintKey    (val++);
                 atp   = new AvoidTilingHintKey   (val++);
+                tr    = new TiledRenderingHintKey(val++);
             } catch (Exception e) {
                 System.err.println
                     ("You have loaded the Batik jar files more than once\n" +
@@ -106,6 +115,7 @@ public final class RenderingHintsKeyExt {
         KEY_BUFFERED_IMAGE      = bi;
         KEY_COLORSPACE          = cs;
         KEY_AVOID_TILE_PAINTING = atp;
+        KEY_TILED_RENDERING     = tr;
     }
 
     /**
@@ -22,7 +22,10 @@ import java.awt.Shape;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Arc2D;
+import java.awt.geom.FlatteningPathIterator;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.IllegalPathStateException;
+import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
@@ -31,9 +34,10 @@ import java.util.Arrays;
 /**
  * The <code>ExtendedGeneralPath</code> class represents a geometric
  * path constructed from straight lines, quadratic and cubic (Bezier)
- * curves and elliptical arc. This class delegates lines and curves to
- * an enclosed <code>GeneralPath</code>. Elliptical arc is implemented
- * using an <code>Arc2D</code> in float precision.
+ * curves and elliptical arc. The segments are stored once, as an
+ * array of segment types and an array of float values, and the
+ * <code>Shape</code> view of the path is produced from them, arcs
+ * being converted to <code>Arc2D</code> curves in float precision.
  *
  * <p><b>Warning</b> : An elliptical arc may be composed of several
  * path segments. For futher details, see the SVG Appendix&nbsp;F.6
@@ -43,9 +47,18 @@ import java.util.Arrays;
  */
 public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
 
-    /** The enclosed general path. */
+    /**
+     * A <code>GeneralPath</code> holding the <code>Shape</code> view of
+     * this path.  It is no longer kept up to date as segments are
+     * added: it is null until {@link #getGeneralPath()} builds it, and
+     * reset to null when the path changes.
+     * @deprecated Use {@link #getGeneralPath()}.
+     */
     protected GeneralPath path;
 
+    /** The winding rule of the path. */
+    protected int windingRule;
+
     int      numVals = 0;
     int      numSeg  = 0;
     float [] values  = null;
@@ -53,11 +66,26 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
 
     float    mx, my, cx, cy;
 
+    /**
+     * Whether a segment other than a moveto has been added.
+     */
+    boolean drawn;
+
+    /**
+     * The cached bounds of the path, null if not computed yet.
+     */
+    Rectangle2D.Float bounds;
+
+    /**
+     * The cached flattening of the path, null if not computed yet.
+     */
+    PathLength pathLength;
+
    /**
      * Constructs a new <code>ExtendedGeneralPath</code>.
      */
     public ExtendedGeneralPath() {
-        path = new GeneralPath();
+        this(PathIterator.WIND_NON_ZERO);
     }
 
     /**
@@ -66,7 +94,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * interior of the path to be defined.
      */
     public ExtendedGeneralPath(int rule) {
-        path = new GeneralPath(rule);
+        setWindingRule(rule);
     }
 
     /**
@@ -75,7 +103,19 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * to store path coordinates.
      */
     public ExtendedGeneralPath(int rule, int initialCapacity) {
-        path = new GeneralPath(rule, initialCapacity);
+        this(rule, initialCapacity, initialCapacity * 2);
+    }
+
+    /**
+     * Constructs a new <code>ExtendedGeneralPath</code> object with
+     * the specified winding rule, and room for the specified number of
+     * segments and values (coordinates and arc parameters), so that
+     * building a path of a known size does not grow the storage.
+     */
+    public ExtendedGeneralPath(int rule, int numSegments, int numValues) {
+        setWindingRule(rule);
+        values = new float[numValues];
+        types  = new int[Math.max(numSegments, 2)];
     }
 
     /**
@@ -122,8 +162,6 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
             return;
         }
 
-        checkMoveTo();  // check if prev command was moveto
-
         // Get the current (x, y) coordinates of the path
         double x0 = cx;
         double y0 = cy;
@@ -133,15 +171,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
             return;
         }
 
-        Arc2D arc = computeArc(x0, y0, rx, ry, angle,
-                               largeArcFlag, sweepFlag, x, y);
-        if (arc == null) return;
-
-        AffineTransform t = AffineTransform.getRotateInstance
-            (Math.toRadians(angle), arc.getCenterX(), arc.getCenterY());
-        Shape s = t.createTransformedShape(arc);
-        path.append(s, true);
+        if (computeArc(x0, y0, rx, ry, angle,
+                       largeArcFlag, sweepFlag, x, y) == null) return;
 
+        drawn = true;
         makeRoom(7);
         types [numSeg++]  = ExtendedPathIterator.SEG_ARCTO;
         values[numVals++] = rx;
@@ -262,7 +295,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Adds a moveto segment.
      */
     public synchronized void moveTo(float x, float y) {
         // Don't add moveto to general path unless there is a reason.
@@ -274,11 +307,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Adds a lineto segment.
      */
     public synchronized void lineTo(float x, float y) {
         checkMoveTo();  // check if prev command was moveto
-        path.lineTo(x, y);
 
         makeRoom(2);
         types [numSeg++]  = PathIterator.SEG_LINETO;
@@ -287,11 +319,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Adds a quadratic curve segment.
      */
     public synchronized void quadTo(float x1, float y1, float x2, float y2) {
         checkMoveTo();  // check if prev command was moveto
-        path.quadTo(x1, y1, x2, y2);
 
         makeRoom(4);
         types [numSeg++]  = PathIterator.SEG_QUADTO;
@@ -302,13 +333,12 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Adds a cubic curve segment.
      */
     public synchronized void curveTo(float x1, float y1,
                                      float x2, float y2,
                                      float x3, float y3) {
         checkMoveTo();   // check if prev command was moveto
-        path.curveTo(x1, y1, x2, y2, x3, y3);
 
         makeRoom(6);
         types [numSeg++]  = PathIterator.SEG_CUBICTO;
@@ -321,17 +351,13 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Closes the current sub-path.
      */
     public synchronized void closePath() {
         // Don't double close path.
         if ((numSeg != 0) && (types[numSeg-1] == PathIterator.SEG_CLOSE))
             return;
 
-        // Only close path if the previous command wasn't a moveto
-        if ((numSeg != 0) && (types[numSeg-1] != PathIterator.SEG_MOVETO))
-            path.closePath();
-
         makeRoom(0);
         types [numSeg++]  = PathIterator.SEG_CLOSE;
         cx = mx;
@@ -339,38 +365,45 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Checks if previous command was a moveto command,
-     * skipping a close command (if present).
+     * Checks that a line or curve can be added: the path must have
+     * started with a moveto.
      */
     protected void checkMoveTo() {
-        if (numSeg == 0) return;
+        if (!drawn && !needsMoveTo(types, numSeg)) {
+            throw new IllegalPathStateException
+                ("missing initial moveto in path definition");
+        }
+        drawn = true;
+    }
 
-        switch(types[numSeg-1]) {
+    /**
+     * Tells whether the segment at index <code>seg</code>, a line, a
+     * curve or an arc, starts a new sub-path: that is when the previous
+     * command was a moveto command, skipping a close command (if
+     * present).
+     */
+    static boolean needsMoveTo(int[] types, int seg) {
+        if (seg == 0) return false;
 
+        switch(types[seg-1]) {
         case PathIterator.SEG_MOVETO:
-            path.moveTo(values[numVals-2], values[numVals-1]);
-            break;
-
+            return true;
         case PathIterator.SEG_CLOSE:
-            if (numSeg == 1) return;
-            if (types[numSeg-2] == PathIterator.SEG_MOVETO)
-                path.moveTo(values[numVals-2], values[numVals-1]);
-            break;
-
+            return (seg > 1) && (types[seg-2] == PathIterator.SEG_MOVETO);
         default:
-            break;
+            return false;
         }
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Appends the segments of a shape.
      */
     public void append(Shape s, boolean connect) {
         append(s.getPathIterator(new AffineTransform()), connect);
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Appends the segments of a path iterator.
      */
     public void append(PathIterator pi, boolean connect) {
         double [] vals = new double[6];
@@ -415,7 +448,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Appends the segments of an extended path iterator.
      */
     public void append(ExtendedPathIterator epi, boolean connect) {
         float[] vals = new float[ 7 ];
@@ -463,17 +496,25 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Returns the winding rule of the path.
      */
     public synchronized int getWindingRule() {
-        return path.getWindingRule();
+        return windingRule;
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Sets the winding rule of the path.
      */
     public void setWindingRule(int rule) {
-        path.setWindingRule(rule);
+        if (rule != PathIterator.WIND_EVEN_ODD &&
+            rule != PathIterator.WIND_NON_ZERO) {
+            throw new IllegalArgumentException
+                ("winding rule must be WIND_EVEN_ODD or WIND_NON_ZERO");
+        }
+        windingRule = rule;
+        if (path != null) {
+            path.setWindingRule(rule);
+        }
     }
 
     /**
@@ -485,10 +526,13 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Removes all the segments of the path.
      */
     public synchronized void reset() {
-        path.reset();
+        drawn = false;
+        path = null;
+        bounds = null;
+        pathLength = null;
 
         numSeg = 0;
         numVals = 0;
@@ -497,7 +541,8 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * ExtendedGeneralPaths can not be transformed, see {@link
+     * #createTransformedShape(AffineTransform)}.
      */
     public void transform(AffineTransform at) {
         if (at.getType() != AffineTransform.TYPE_IDENTITY)
@@ -506,84 +551,151 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Returns a <code>GeneralPath</code> holding the transformed path.
      */
     public synchronized Shape createTransformedShape(AffineTransform at) {
-        return path.createTransformedShape(at);
+        GeneralPath gp = new GeneralPath(windingRule, Math.max(numSeg, 1));
+        gp.append(getPathIterator(at), false);
+        return gp;
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#getBounds()}.
      */
     public synchronized Rectangle getBounds() {
-        return path.getBounds();
+        return getBounds2D().getBounds();
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#getBounds2D()}.  The bounds include the
+     * control points of the curves, and are cached until the path
+     * changes.
      */
     public synchronized Rectangle2D getBounds2D() {
-        return path.getBounds2D();
+        if (bounds == null) {
+            float x1 = 0, y1 = 0, x2 = 0, y2 = 0;
+            boolean first = true;
+            float[] coords = new float[6];
+            PathIterator pi = getPathIterator(null);
+            while (!pi.isDone()) {
+                int n = 0;
+                switch (pi.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:  n = 2; break;
+                case PathIterator.SEG_QUADTO:  n = 4; break;
+                case PathIterator.SEG_CUBICTO: n = 6; break;
+                }
+                for (int i = 0; i < n; i += 2) {
+                    float x = coords[i];
+                    float y = coords[i+1];
+                    if (first) {
+                        x1 = x2 = x;
+                        y1 = y2 = y;
+                        first = false;
+                    } else {
+                        if (x < x1) x1 = x;
+                        if (y < y1) y1 = y;
+                        if (x > x2) x2 = x;
+                        if (y > y2) y2 = y;
+                    }
+                }
+                pi.next();
+            }
+            bounds = new Rectangle2D.Float(x1, y1, x2 - x1, y2 - y1);
+        }
+        return (Rectangle2D)bounds.clone();
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#contains(double,double)}.
      */
     public boolean contains(double x, double y) {
-        return path.contains(x, y);
+        return Path2D.contains(getPathIterator(null), x, y);
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#contains(Point2D)}.
      */
     public boolean contains(Point2D p) {
-        return path.contains(p);
+        return contains(p.getX(), p.getY());
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#contains(double,double,double,double)}.
      */
     public boolean contains(double x, double y, double w, double h) {
-        return path.contains(x, y, w, h);
+        return Path2D.contains(getPathIterator(null), x, y, w, h);
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#contains(Rectangle2D)}.
      */
     public boolean contains(Rectangle2D r) {
-        return path.contains(r);
+        return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#intersects(double,double,double,double)}.
      */
     public boolean intersects(double x, double y, double w, double h) {
-        return path.intersects(x, y, w, h);
+        return Path2D.intersects(getPathIterator(null), x, y, w, h);
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#intersects(Rectangle2D)}.
      */
     public boolean intersects(Rectangle2D r) {
-        return path.intersects(r);
+        return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#getPathIterator(AffineTransform)}.  The
+     * iterator reads the stored segments directly, so it only
+     * allocates memory to convert the arcs.
      */
     public PathIterator getPathIterator(AffineTransform at) {
-        return path.getPathIterator(at);
+        return new PI(at);
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Implements {@link Shape#getPathIterator(AffineTransform,double)}.
      */
     public PathIterator getPathIterator(AffineTransform at, double flatness) {
-        return path.getPathIterator(at, flatness);
+        return new FlatteningPathIterator(getPathIterator(at), flatness);
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Returns a <code>GeneralPath</code> holding the <code>Shape</code>
+     * view of this path, arcs being converted to curves.  It is built
+     * on the first call and kept in {@link #path} until the path
+     * changes.  The returned path must not be modified.
+     */
+    protected synchronized GeneralPath getGeneralPath() {
+        if (path == null) {
+            GeneralPath gp = new GeneralPath(windingRule,
+                                             Math.max(numSeg, 1));
+            gp.append(getPathIterator(null), false);
+            path = gp;
+        }
+        return path;
+    }
+
+    /**
+     * Returns a flattening of this path, computed once until the path
+     * changes.  It is shared by the {@link PathLength} objects created
+     * on this path.
+     */
+    synchronized PathLength getFlattening() {
+        if (pathLength == null) {
+            PathLength pl = new PathLength(this);
+            pl.flatten();
+            pathLength = pl;
+        }
+        return pathLength;
+    }
+
+    /**
+     * Returns an iterator over the segments of the path, arcs included.
      */
     public ExtendedPathIterator getExtendedPathIterator() {
         return new EPI();
@@ -659,7 +771,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         }
 
         public int getWindingRule() {
-            return path.getWindingRule();
+            return windingRule;
         }
         public boolean isDone() {
             return segNum == numSeg;
@@ -678,12 +790,213 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * The path iterator of the <code>Shape</code> view of the path.
+     * Moveto segments are only reported when a line, a curve or an
+     * arc follows them, and arcs are reported as the cubic curves of
+     * the equivalent <code>Arc2D</code>, connected to the current
+     * point.
+     */
+    class PI implements PathIterator {
+        AffineTransform at;
+
+        int segNum = 0;
+        int valsIdx = 0;
+
+        /** The current point and start of the sub-path in the segments. */
+        float curX, curY, moveX, moveY;
+
+        /** The segment being reported. */
+        int      type;
+        float [] coords = new float[6];
+        boolean  done;
+
+        /** Whether the pending moveto has been reported. */
+        boolean moveDone;
+
+        /** The last segment reported, to connect the arcs. */
+        int   lastType = -1;
+        float lastX, lastY;
+
+        /** The iterator of the arc being converted, and its state. */
+        PathIterator arc;
+        boolean      arcStart;
+        double []    arcCoords;
+
+        PI(AffineTransform at) {
+            if (at != null && !at.isIdentity()) {
+                this.at = at;
+            }
+            fetch();
+        }
+
+        /**
+         * Finds the next segment to report.
+         */
+        void fetch() {
+            for (;;) {
+                if (arc != null) {
+                    if (!arc.isDone()) {
+                        int t = arc.currentSegment(arcCoords);
+                        arc.next();
+                        int n = numCoords(t);
+                        for (int i = 0; i < n; i++) {
+                            coords[i] = (float)arcCoords[i];
+                        }
+                        if (arcStart) {
+                            arcStart = false;
+                            if (t == SEG_MOVETO && lastType != -1) {
+                                if (lastType != SEG_CLOSE &&
+                                    lastX == coords[0] &&
+                                    lastY == coords[1]) {
+                                    // Collapse the initial moveto.
+                                    continue;
+                                }
+                                t = SEG_LINETO;
+                            }
+                        }
+                        report(t);
+                        return;
+                    }
+                    arc = null;
+                }
+
+                if (segNum >= numSeg) {
+                    done = true;
+                    return;
+                }
+
+                int t = types[segNum];
+                switch (t) {
+                case SEG_MOVETO:
+                    moveX = curX = values[valsIdx];
+                    moveY = curY = values[valsIdx+1];
+                    valsIdx += 2;
+                    segNum++;
+                    continue;
+
+                case SEG_CLOSE:
+                    curX = moveX;
+                    curY = moveY;
+                    boolean close = (segNum > 0) &&
+                        (types[segNum-1] != SEG_MOVETO);
+                    segNum++;
+                    if (close) {
+                        report(SEG_CLOSE);
+                        return;
+                    }
+                    continue;
+                }
+
+                if (!moveDone && needsMoveTo(types, segNum)) {
+                    moveDone = true;
+                    coords[0] = moveX;
+                    coords[1] = moveY;
+                    report(SEG_MOVETO);
+                    return;
+                }
+                moveDone = false;
+
+                if (t == ExtendedPathIterator.SEG_ARCTO) {
+                    float rx    = values[valsIdx];
+                    float ry    = values[valsIdx+1];
+                    float angle = values[valsIdx+2];
+                    float x     = values[valsIdx+5];
+                    float y     = values[valsIdx+6];
+                    Arc2D a = computeArc(curX, curY, rx, ry, angle,
+                                         values[valsIdx+3] != 0,
+                                         values[valsIdx+4] != 0, x, y);
+                    AffineTransform rot = AffineTransform.getRotateInstance
+                        (Math.toRadians(angle), a.getCenterX(),
+                         a.getCenterY());
+                    arc = a.getPathIterator(rot);
+                    arcStart = true;
+                    if (arcCoords == null) {
+                        arcCoords = new double[6];
+                    }
+                    curX = x;
+                    curY = y;
+                    valsIdx += 7;
+                    segNum++;
+                    continue;
+                }
+
+                int n = numCoords(t);
+                System.arraycopy(values, valsIdx, coords, 0, n);
+                curX = coords[n-2];
+                curY = coords[n-1];
+                valsIdx += n;
+                segNum++;
+                report(t);
+                return;
+            }
+        }
+
+        void report(int t) {
+            type = t;
+            lastType = t;
+            if (t != SEG_CLOSE) {
+                int n = numCoords(t);
+                lastX = coords[n-2];
+                lastY = coords[n-1];
+            }
+        }
+
+        public int currentSegment(double[] c) {
+            int n = numCoords(type);
+            if (at != null) {
+                at.transform(coords, 0, c, 0, n / 2);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    c[i] = coords[i];
+                }
+            }
+            return type;
+        }
+
+        public int currentSegment(float[] c) {
+            int n = numCoords(type);
+            if (at != null) {
+                at.transform(coords, 0, c, 0, n / 2);
+            } else {
+                System.arraycopy(coords, 0, c, 0, n);
+            }
+            return type;
+        }
+
+        public int getWindingRule() {
+            return windingRule;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public void next() {
+            fetch();
+        }
+    }
+
+    /**
+     * Returns the number of coordinates of a segment of the given type.
+     */
+    static int numCoords(int type) {
+        switch (type) {
+        case PathIterator.SEG_MOVETO:
+        case PathIterator.SEG_LINETO:  return 2;
+        case PathIterator.SEG_QUADTO:  return 4;
+        case PathIterator.SEG_CUBICTO: return 6;
+        default:                       return 0;
+        }
+    }
+
+    /**
+     * Returns a copy of the path.
      */
     public Object clone() {
         try {
             ExtendedGeneralPath result = (ExtendedGeneralPath) super.clone();
-            result.path = (GeneralPath) path.clone();
+            result.path = null;
+            result.pathLength = null;
 
             if ( values != null ){
                 result.values = new float[values.length];
@@ -710,6 +1023,9 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * @param numValues number of requested coordinates
      */
     private void makeRoom(int numValues) {
+        path = null;
+        bounds = null;
+        pathLength = null;
         if (values == null) {
             values = new float[2*numValues];
             types  = new int[2];
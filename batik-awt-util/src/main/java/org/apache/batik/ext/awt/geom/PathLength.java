@@ -52,14 +52,39 @@ public class PathLength {
     protected Shape path;
 
     /**
-     * The list of flattened path segments.
+     * The list of flattened path segments, as {@link PathSegment}
+     * objects.  The calculations use the packed segment arrays below,
+     * so this list is null until {@link #getSegments()} builds it.
+     * @deprecated Use {@link #getSegments()}.
      */
     protected List segments;
 
+    /**
+     * The number of flattened path segments.
+     */
+    protected int numSegments;
+
+    /**
+     * The flattened path segments: the x and y coordinates of the end
+     * point of each segment, and the length of the path at that point.
+     */
+    protected float[] segmentValues;
+
+    /**
+     * The type of each flattened path segment, SEG_MOVETO or SEG_LINETO.
+     */
+    protected byte[] segmentTypes;
+
+    /**
+     * The index of the original path segment each flattened path
+     * segment is part of.
+     */
+    protected int[] segmentOrigIndexes;
+
     /**
      * Array where the index is the index of the original path segment
      * and the value is the index of the first of the flattened segments
-     * in {@link #segments} that corresponds to that original path segment.
+     * that corresponds to that original path segment.
      */
     protected int[] segmentIndexes;
 
@@ -95,6 +120,7 @@ public class PathLength {
      */
     public void setPath(Shape v) {
         this.path = v;
+        segments = null;
         initialised = false;
     }
 
@@ -110,16 +136,39 @@ public class PathLength {
     }
 
     /**
-     * Flattens the path and determines the path length.
+     * Flattens the path and determines the path length.  The flattening
+     * of an {@link ExtendedGeneralPath} is cached by the path, and
+     * shared by all the PathLength objects created on it.
      */
     protected void initialise() {
+        if (path instanceof ExtendedGeneralPath) {
+            PathLength pl = ((ExtendedGeneralPath) path).getFlattening();
+            numSegments        = pl.numSegments;
+            segmentValues      = pl.segmentValues;
+            segmentTypes       = pl.segmentTypes;
+            segmentOrigIndexes = pl.segmentOrigIndexes;
+            segmentIndexes     = pl.segmentIndexes;
+            pathLength         = pl.pathLength;
+        } else {
+            flatten();
+        }
+        initialised = true;
+    }
+
+    /**
+     * Flattens the path into the segment arrays.
+     */
+    protected void flatten() {
         pathLength = 0f;
 
         PathIterator pi = path.getPathIterator(new AffineTransform());
         SingleSegmentPathIterator sspi = new SingleSegmentPathIterator();
-        segments = new ArrayList(20);
-        List indexes = new ArrayList(20);
-        int index = 0;
+        numSegments = 0;
+        segmentValues = new float[60];
+        segmentTypes = new byte[20];
+        segmentOrigIndexes = new int[20];
+        int[] indexes = new int[20];
+        int numIndexes = 0;
         int origIndex = -1;
         float lastMoveX = 0f;
         float lastMoveY = 0f;
@@ -128,43 +177,43 @@ public class PathLength {
         float[] seg = new float[6];
         int segType;
 
-        segments.add(new PathSegment(PathIterator.SEG_MOVETO, 0f, 0f, 0f,
-                                     origIndex));
+        addSegment(PathIterator.SEG_MOVETO, 0f, 0f, 0f, origIndex);
 
         while (!pi.isDone()) {
             origIndex++;
-            indexes.add(index);
+            if (numIndexes == indexes.length) {
+                int[] t = new int[indexes.length * 2];
+                System.arraycopy(indexes, 0, t, 0, numIndexes);
+                indexes = t;
+            }
+            indexes[numIndexes++] = numSegments - 1;
             segType = pi.currentSegment(seg);
             switch (segType) {
                 case PathIterator.SEG_MOVETO:
-                    segments.add(new PathSegment(segType, seg[0], seg[1],
-                                                 pathLength, origIndex));
+                    addSegment(segType, seg[0], seg[1], pathLength,
+                               origIndex);
                     currentX = seg[0];
                     currentY = seg[1];
                     lastMoveX = currentX;
                     lastMoveY = currentY;
-                    index++;
                     pi.next();
                     break;
                 case PathIterator.SEG_LINETO:
                     pathLength += Point2D.distance(currentX, currentY, seg[0],
                                                    seg[1]);
-                    segments.add(new PathSegment(segType, seg[0], seg[1],
-                                                 pathLength, origIndex));
+                    addSegment(segType, seg[0], seg[1], pathLength,
+                               origIndex);
                     currentX = seg[0];
                     currentY = seg[1];
-                    index++;
                     pi.next();
                     break;
                 case PathIterator.SEG_CLOSE:
                     pathLength += Point2D.distance(currentX, currentY,
                                                    lastMoveX, lastMoveY);
-                    segments.add(new PathSegment(PathIterator.SEG_LINETO,
-                                                 lastMoveX, lastMoveY,
-                                                 pathLength, origIndex));
+                    addSegment(PathIterator.SEG_LINETO, lastMoveX, lastMoveY,
+                               pathLength, origIndex);
                     currentX = lastMoveX;
                     currentY = lastMoveY;
-                    index++;
                     pi.next();
                     break;
                 default:
@@ -176,22 +225,85 @@ public class PathLength {
                         if (segType == PathIterator.SEG_LINETO) {
                             pathLength += Point2D.distance(currentX, currentY,
                                                            seg[0], seg[1]);
-                            segments.add(new PathSegment(segType, seg[0],
-                                                         seg[1], pathLength,
-                                                         origIndex));
+                            addSegment(segType, seg[0], seg[1], pathLength,
+                                       origIndex);
                             currentX = seg[0];
                             currentY = seg[1];
-                            index++;
                         }
                         fpi.next();
                     }
             }
         }
-        segmentIndexes = new int[indexes.size()];
-        for (int i = 0; i < segmentIndexes.length; i++) {
-            segmentIndexes[i] = (Integer) indexes.get(i);
+        segmentIndexes = new int[numIndexes];
+        System.arraycopy(indexes, 0, segmentIndexes, 0, numIndexes);
+    }
+
+    /**
+     * Adds a flattened path segment.
+     */
+    private void addSegment(int type, float x, float y, float len, int idx) {
+        if (numSegments == segmentTypes.length) {
+            int n = numSegments * 2;
+            float[] v = new float[n * 3];
+            System.arraycopy(segmentValues, 0, v, 0, numSegments * 3);
+            segmentValues = v;
+            byte[] t = new byte[n];
+            System.arraycopy(segmentTypes, 0, t, 0, numSegments);
+            segmentTypes = t;
+            int[] o = new int[n];
+            System.arraycopy(segmentOrigIndexes, 0, o, 0, numSegments);
+            segmentOrigIndexes = o;
+        }
+        int i = numSegments * 3;
+        segmentValues[i]     = x;
+        segmentValues[i + 1] = y;
+        segmentValues[i + 2] = len;
+        segmentTypes[numSegments] = (byte) type;
+        segmentOrigIndexes[numSegments] = idx;
+        numSegments++;
+    }
+
+    /**
+     * Returns the x coordinate at the end of a flattened path segment.
+     */
+    private float segmentX(int i) {
+        return segmentValues[i * 3];
+    }
+
+    /**
+     * Returns the y coordinate at the end of a flattened path segment.
+     */
+    private float segmentY(int i) {
+        return segmentValues[i * 3 + 1];
+    }
+
+    /**
+     * Returns the length of the path at the end of a flattened path
+     * segment.
+     */
+    private float segmentLength(int i) {
+        return segmentValues[i * 3 + 2];
+    }
+
+    /**
+     * Returns the list of flattened path segments, as {@link
+     * PathSegment} objects.  The list is built on the first call and
+     * kept in {@link #segments}.
+     */
+    protected List getSegments() {
+        if (!initialised) {
+            initialise();
         }
-        initialised = true;
+        if (segments == null) {
+            List l = new ArrayList(numSegments);
+            for (int i = 0; i < numSegments; i++) {
+                l.add(new PathSegment(segmentTypes[i], segmentX(i),
+                                      segmentY(i), segmentLength(i),
+                                      segmentOrigIndexes[i]));
+            }
+            segments = l;
+        }
+        return segments;
     }
 
     /**
@@ -218,8 +330,7 @@ public class PathLength {
         if (index >= segmentIndexes.length) {
             return pathLength;
         }
-        PathSegment seg = (PathSegment) segments.get(segmentIndexes[index]);
-        return seg.getLength();
+        return segmentLength(segmentIndexes[index]);
     }
 
     /**
@@ -234,12 +345,10 @@ public class PathLength {
 
         if (upperIndex == 0) {
             // Length was probably zero, so return the upper segment.
-            PathSegment upper = (PathSegment) segments.get(upperIndex);
-            return upper.getIndex();
+            return segmentOrigIndexes[upperIndex];
         }
 
-        PathSegment lower = (PathSegment) segments.get(upperIndex - 1);
-        return lower.getIndex();
+        return segmentOrigIndexes[upperIndex - 1];
     }
 
     /**
@@ -253,14 +362,12 @@ public class PathLength {
         if (index < 0 || index >= segmentIndexes.length) {
             return null;
         }
-        PathSegment seg = (PathSegment) segments.get(segmentIndexes[index]);
-        float start = seg.getLength();
+        float start = segmentLength(segmentIndexes[index]);
         float end;
         if (index == segmentIndexes.length - 1) {
             end = pathLength;
         } else {
-            seg = (PathSegment) segments.get(segmentIndexes[index + 1]);
-            end = seg.getLength();
+            end = segmentLength(segmentIndexes[index + 1]);
         }
         return pointAtLength(start + (end - start) * proportion);
     }
@@ -277,24 +384,23 @@ public class PathLength {
             return null;
         }
 
-        PathSegment upper = (PathSegment) segments.get(upperIndex);
-
         if (upperIndex == 0) {
             // Length was probably zero, so return the upper point.
-            return new Point2D.Float(upper.getX(), upper.getY());
+            return new Point2D.Float(segmentX(upperIndex),
+                                     segmentY(upperIndex));
         }
 
-        PathSegment lower = (PathSegment) segments.get(upperIndex - 1);
+        int lower = upperIndex - 1;
 
         // Now work out where along the line would be the length.
-        float offset = length - lower.getLength();
+        float offset = length - segmentLength(lower);
 
         // Compute the slope.
-        double theta = Math.atan2(upper.getY() - lower.getY(),
-                                  upper.getX() - lower.getX());
+        double theta = Math.atan2(segmentY(upperIndex) - segmentY(lower),
+                                  segmentX(upperIndex) - segmentX(lower));
 
-        float xPoint = (float) (lower.getX() + offset * Math.cos(theta));
-        float yPoint = (float) (lower.getY() + offset * Math.sin(theta));
+        float xPoint = (float) (segmentX(lower) + offset * Math.cos(theta));
+        float yPoint = (float) (segmentY(lower) + offset * Math.sin(theta));
 
         return new Point2D.Float(xPoint, yPoint);
     }
@@ -313,14 +419,12 @@ public class PathLength {
         if (index < 0 || index >= segmentIndexes.length) {
             return 0f;
         }
-        PathSegment seg = (PathSegment) segments.get(segmentIndexes[index]);
-        float start = seg.getLength();
+        float start = segmentLength(segmentIndexes[index]);
         float end;
         if (index == segmentIndexes.length - 1) {
             end = pathLength;
         } else {
-            seg = (PathSegment) segments.get(segmentIndexes[index + 1]);
-            end = seg.getLength();
+            end = segmentLength(segmentIndexes[index + 1]);
         }
         return angleAtLength(start + (end - start) * proportion);
     }
@@ -338,7 +442,7 @@ public class PathLength {
             return 0f;
         }
 
-        PathSegment upper = (PathSegment) segments.get(upperIndex);
+        int upper = upperIndex;
 
         if (upperIndex == 0) {
             // Length was probably zero, so return the angle between the first
@@ -346,11 +450,11 @@ public class PathLength {
             upperIndex = 1;
         }
 
-        PathSegment lower = (PathSegment) segments.get(upperIndex - 1);
+        int lower = upperIndex - 1;
 
         // Compute the slope.
-        return (float) Math.atan2(upper.getY() - lower.getY(),
-                                  upper.getX() - lower.getX());
+        return (float) Math.atan2(segmentY(upper) - segmentY(lower),
+                                  segmentX(upper) - segmentX(lower));
     }
 
     /**
@@ -369,39 +473,25 @@ public class PathLength {
             return -1;
         }
 
-        // Find the two segments that are each side of the length.
+        // Find the first segment that ends at or after the length, the
+        // lengths being sorted.
         int lb = 0;
-        int ub = segments.size() - 1;
+        int ub = numSegments - 1;
         while (lb != ub) {
             int curr = (lb + ub) >> 1;
-            PathSegment ps = (PathSegment) segments.get(curr);
-            if (ps.getLength() >= length) {
+            if (segmentLength(curr) >= length) {
                 ub = curr;
             } else {
                 lb = curr + 1;
             }
         }
-        for (;;) {
-            PathSegment ps = (PathSegment) segments.get(ub);
-            if (ps.getSegType() != PathIterator.SEG_MOVETO
-                    || ub == segments.size() - 1) {
-                break;
-            }
-            ub++;
-        }
 
-        int upperIndex = -1;
-        int currentIndex = 0;
-        int numSegments = segments.size();
-        while (upperIndex <= 0 && currentIndex < numSegments) {
-            PathSegment ps = (PathSegment) segments.get(currentIndex);
-            if (ps.getLength() >= length
-                    && ps.getSegType() != PathIterator.SEG_MOVETO) {
-                upperIndex = currentIndex;
-            }
-            currentIndex++;
+        // Moves do not advance along the path, skip them.
+        while (ub < numSegments
+                && segmentTypes[ub] == PathIterator.SEG_MOVETO) {
+            ub++;
         }
-        return upperIndex;
+        return (ub < numSegments) ? ub : -1;
     }
 
     /**
@@ -278,11 +278,11 @@ public class FilterResRable8Bit extends AbstractRable
     Reference resRed = null;
     float     resScale = 0;
 
-    private float getResScale() {
+    private synchronized float getResScale() {
         return resScale;
     }
 
-    private RenderedImage getResRed(RenderingHints hints) {
+    private synchronized RenderedImage getResRed(RenderingHints hints) {
         Rectangle2D imageRect = getBounds2D();
         double resScaleX = getFilterResolutionX()/imageRect.getWidth();
         double resScaleY = getFilterResolutionY()/imageRect.getHeight();
@@ -0,0 +1,93 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.rendered.InstrumentedRed;
+import org.apache.batik.util.Instrument;
+
+/**
+ * A pass-through filter that reports the time spent rendering its
+ * source to an {@link Instrument}, both when the rendering is created
+ * and when its pixels are computed.
+ *
+ * @version $Id$
+ */
+public class InstrumentedRable extends AbstractRable {
+
+    protected Instrument instrument;
+    protected String stage;
+    protected String name;
+
+    /**
+     * @param src The filter to measure.
+     * @param inst The instrument to report to.
+     * @param stage The stage to report under.
+     * @param name The name to report under.
+     */
+    public InstrumentedRable(Filter src, Instrument inst,
+                             String stage, String name) {
+        super(src);
+        this.instrument = inst;
+        this.stage = stage;
+        this.name = name;
+    }
+
+    /**
+     * Returns the measured filter.
+     */
+    public Filter getSource() {
+        return (Filter)getSources().get(0);
+    }
+
+    public long getTimeStamp() {
+        return getSource().getTimeStamp();
+    }
+
+    public Rectangle2D getBounds2D() {
+        return getSource().getBounds2D();
+    }
+
+    public Object getProperty(String name) {
+        return getSource().getProperty(name);
+    }
+
+    public String [] getPropertyNames() {
+        return getSource().getPropertyNames();
+    }
+
+    public RenderedImage createRendering(RenderContext rc) {
+        RenderedImage ri;
+        Object token = instrument.enter(stage, name);
+        try {
+            ri = getSource().createRendering(rc);
+        } finally {
+            instrument.exit(token);
+        }
+        if (ri == null) {
+            return null;
+        }
+        return new InstrumentedRed(GraphicsUtil.wrap(ri), instrument,
+                                   stage, name);
+    }
+}
@@ -31,6 +31,7 @@ import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 
@@ -238,10 +239,16 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         // otherwise we let it default to null which means we create a new
         // one...
 
+        // The box passes work on tmpR1 in place, in the coordinates of
+        // wr, so that the last of them can write its result straight
+        // into wr when wr stores its pixels the same way.
+        WritableRaster ras = tmpR1.createWritableTranslatedChild(r.x, r.y);
+        WritableRaster out = isDirectDest(tmpR1, wr) ? wr : ras;
+        boolean done = false;
+
         // this lets the Vertical conv know how much is junk, so it
         // doesn't bother to convolve the top and bottom edges
         int skipX;
-        // long t1 = System.currentTimeMillis();
         if (xinset == 0) {
             skipX = 0;
         } else if (convOp[0] != null) {
@@ -254,18 +261,22 @@ public class GaussianBlurRed8Bit extends AbstractRed {
             WritableRaster tmp = tmpR1;
             tmpR1 = tmpR2;
             tmpR2 = tmp;
+            ras = tmpR1.createWritableTranslatedChild(r.x, r.y);
+            out = isDirectDest(tmpR1, wr) ? wr : ras;
         } else {
-            if ((dX&0x01) == 0){
-                tmpR1 = boxFilterH(tmpR1, tmpR1, 0,    0,   dX,   dX/2);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX/2, 0,   dX,   dX/2-1);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX-1, 0,   dX+1, dX/2);
+            if ((dX&0x01) == 0)
                 skipX = dX-1 + dX/2;
-            } else {
-                tmpR1 = boxFilterH(tmpR1, tmpR1, 0,    0,   dX, dX/2);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX/2, 0,   dX, dX/2);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX-2, 0,   dX, dX/2);
+            else
                 skipX = dX-2 + dX/2;
-            }
+            final WritableRaster bsrc = ras;
+            final WritableRaster bdst = (yinset == 0) ? out : ras;
+            ParallelBands.run
+                (0, r.height, r.width*r.height, new ParallelBands.Band() {
+                        public void run(int y0, int y1) {
+                            boxBlurH(bsrc, bdst, y0, y1);
+                        }
+                    });
+            done = (yinset == 0) && (out == wr);
         }
 
         if (yinset == 0) {
@@ -277,43 +288,103 @@ public class GaussianBlurRed8Bit extends AbstractRed {
             }
             tmpR2 = convOp[1].filter(tmpR1, tmpR2);
         } else {
-            if ((dY&0x01) == 0){
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, 0,    dY,   dY/2);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY/2, dY,   dY/2-1);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY-1, dY+1, dY/2);
-            }
-            else {
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, 0,    dY, dY/2);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY/2, dY, dY/2);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY-2, dY, dY/2);
+            final WritableRaster bsrc = ras;
+            final WritableRaster bdst = out;
+            if (r.width >= 2*skipX) {
+                ParallelBands.run
+                    (skipX, r.width-skipX, r.width*r.height,
+                     new ParallelBands.Band() {
+                         public void run(int x0, int x1) {
+                             boxBlurV(bsrc, bdst, x0, x1);
+                         }
+                     });
+                done = (out == wr);
             }
             tmpR2 = tmpR1;
         }
-        // long t2 = System.currentTimeMillis();
-        // System.out.println("Time: " + (t2-t1) +
-        //                       (((convOp[0] != null) || (convOp[1] != null))?
-        //                        " ConvOp":""));
-        // System.out.println("Rasters  WR :" + wr.getBounds());
-        // System.out.println("         tmp:" + tmpR2.getBounds());
-        // System.out.println("      bounds:" + getBounds());
-        // System.out.println("       skipX:" + skipX +
-        //                    " dx:" + dX + " Dy: " + dY);
-        tmpR2 = tmpR2.createWritableTranslatedChild(r.x, r.y);
-        GraphicsUtil.copyData(tmpR2, wr);
+        if (!done) {
+            tmpR2 = tmpR2.createWritableTranslatedChild(r.x, r.y);
+            GraphicsUtil.copyData(tmpR2, wr);
+        }
 
         return wr;
     }
 
+    /**
+     * Returns true if the box passes can write into <code>wr</code>
+     * directly, that is if it holds its pixels in ints packed like
+     * those of <code>ras</code>.
+     */
+    private static boolean isDirectDest(Raster ras, WritableRaster wr) {
+        if (!(wr.getSampleModel() instanceof SinglePixelPackedSampleModel) ||
+            !(wr.getDataBuffer() instanceof DataBufferInt) ||
+            !(ras.getSampleModel() instanceof SinglePixelPackedSampleModel))
+            return false;
+        int [] masks = ((SinglePixelPackedSampleModel)wr.getSampleModel())
+            .getBitMasks();
+        int [] rasMasks = ((SinglePixelPackedSampleModel)ras.getSampleModel())
+            .getBitMasks();
+        return Arrays.equals(masks, rasMasks);
+    }
+
+    /**
+     * Applies the three horizontal box passes to rows
+     * <code>y0</code> to <code>y1</code> of <code>ras</code>.  The
+     * first two work in place, the last one writes to
+     * <code>dest</code>, which may be <code>ras</code>.  The window
+     * of the passes is allocated once for the band.
+     */
+    private void boxBlurH(WritableRaster ras, WritableRaster dest,
+                          int y0, int y1) {
+        int [] buffer = new int [dX+1];
+        if ((dX&0x01) == 0){
+            boxFilterH(ras, ras,  0,    y0, y1, dX,   dX/2,   buffer);
+            boxFilterH(ras, ras,  dX/2, y0, y1, dX,   dX/2-1, buffer);
+            boxFilterH(ras, dest, dX-1, y0, y1, dX+1, dX/2,   buffer);
+        } else {
+            boxFilterH(ras, ras,  0,    y0, y1, dX, dX/2, buffer);
+            boxFilterH(ras, ras,  dX/2, y0, y1, dX, dX/2, buffer);
+            boxFilterH(ras, dest, dX-2, y0, y1, dX, dX/2, buffer);
+        }
+    }
+
+    /**
+     * Applies the three vertical box passes to columns
+     * <code>x0</code> to <code>x1</code> of <code>ras</code>.  The
+     * first two work in place, the last one writes to
+     * <code>dest</code>, which may be <code>ras</code>.  The window
+     * of the passes is allocated once for the band.
+     */
+    private void boxBlurV(WritableRaster ras, WritableRaster dest,
+                          int x0, int x1) {
+        int [] buffer = new int [dY+1];
+        if ((dY&0x01) == 0){
+            boxFilterV(ras, ras,  x0, x1, 0,    dY,   dY/2,   buffer);
+            boxFilterV(ras, ras,  x0, x1, dY/2, dY,   dY/2-1, buffer);
+            boxFilterV(ras, dest, x0, x1, dY-1, dY+1, dY/2,   buffer);
+        } else {
+            boxFilterV(ras, ras,  x0, x1, 0,    dY, dY/2, buffer);
+            boxFilterV(ras, ras,  x0, x1, dY/2, dY, dY/2, buffer);
+            boxFilterV(ras, dest, x0, x1, dY-2, dY, dY/2, buffer);
+        }
+    }
+
+    /**
+     * Applies one horizontal box pass to rows <code>y0</code> to
+     * <code>y1</code> of <code>src</code>.  <code>src</code> and
+     * <code>dest</code> share one coordinate space, and only the
+     * pixels that fall inside <code>dest</code> are written.
+     * @param buffer the window of the pass, at least
+     *        <code>boxSz</code> long.
+     */
     private WritableRaster boxFilterH(Raster src, WritableRaster dest,
-                                      int skipX, int skipY,
-                                      int boxSz, int loc) {
+                                      int skipX, int y0, int y1,
+                                      int boxSz, int loc, int [] buffer) {
 
         final int w = src.getWidth();
-        final int h = src.getHeight();
 
           // Check if the raster is wide enough to do _any_ work
         if (w < (2*skipX)+boxSz) return dest;
-        if (h < (2*skipY))       return dest;
 
         final SinglePixelPackedSampleModel srcSPPSM =
             (SinglePixelPackedSampleModel)src.getSampleModel();
@@ -346,7 +417,12 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         final int[] srcPixels  = srcDB.getBankData()[0];
         final int[] destPixels = dstDB.getBankData()[0];
 
-        final int [] buffer = new int [boxSz];
+        // Where the rows and columns of src lie in dest.
+        final int dx = src.getMinX()-dest.getMinX();
+        final int dy = src.getMinY()-dest.getMinY();
+        final int dw = dest.getWidth();
+        final int dh = dest.getHeight();
+
         int curr, prev;
 
           // Fixed point normalization factor (8.24)
@@ -362,9 +438,16 @@ public class GaussianBlurRed8Bit extends AbstractRed {
          *                    " srcStride: " + srcScanStride);
          */
 
-        for (int y=skipY; y<(h-skipY); y++) {
+        for (int y=y0; y<y1; y++) {
+            if ((y+dy < 0) || (y+dy >= dh)) continue;
+            // The number of results from the first one to the end
+            // of the row in dest.
+            int cnt = dw - (skipX+loc+dx);
+            if (cnt <= 0) continue;
+
             int sp     = srcOff + y*srcScanStride;
-            int dp     = dstOff + y*dstScanStride;
+            int dp     = dstOff + (y+dy)*dstScanStride;
+            int dpMin  = dp;
             int rowEnd = sp + (w-skipX);
 
             int k    = 0;
@@ -386,17 +469,19 @@ public class GaussianBlurRed8Bit extends AbstractRed {
                 sp++;
             }
 
-            dp += skipX + loc;
-            prev = destPixels[dp] = (( (sumA*scale)&0xFF000000)       |
-                                     (((sumR*scale)&0xFF000000)>>>8)  |
-                                     (((sumG*scale)&0xFF000000)>>>16) |
-                                     (((sumB*scale)&0xFF000000)>>>24));
+            if (rowEnd > sp+cnt-1) rowEnd = sp+cnt-1;
+            dp += skipX + loc + dx;
+            prev = (( (sumA*scale)&0xFF000000)       |
+                    (((sumR*scale)&0xFF000000)>>>8)  |
+                    (((sumG*scale)&0xFF000000)>>>16) |
+                    (((sumB*scale)&0xFF000000)>>>24));
+            if (dp >= dpMin) destPixels[dp] = prev;
             dp++;
             k=0;
             while (sp < rowEnd) {
                 curr = buffer[k];
                 if (curr == srcPixels[sp]) {
-                    destPixels[dp] = prev;
+                    if (dp >= dpMin) destPixels[dp] = prev;
                 } else {
                     sumA -= (curr>>> 24);
                     sumR -= (curr >> 16)&0xFF;
@@ -409,10 +494,11 @@ public class GaussianBlurRed8Bit extends AbstractRed {
                     sumR += (curr >> 16)&0xFF;
                     sumG += (curr >>  8)&0xFF;
                     sumB += (curr      )&0xFF;
-                    prev = destPixels[dp] = (( (sumA*scale)&0xFF000000)       |
-                                             (((sumR*scale)&0xFF000000)>>>8)  |
-                                             (((sumG*scale)&0xFF000000)>>>16) |
-                                             (((sumB*scale)&0xFF000000)>>>24));
+                    prev = (( (sumA*scale)&0xFF000000)       |
+                            (((sumR*scale)&0xFF000000)>>>8)  |
+                            (((sumG*scale)&0xFF000000)>>>16) |
+                            (((sumB*scale)&0xFF000000)>>>24));
+                    if (dp >= dpMin) destPixels[dp] = prev;
                 }
                 k = (k+1)%boxSz;
                 sp++;
@@ -422,15 +508,21 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         return dest;
     }
 
+    /**
+     * Applies one vertical box pass to columns <code>x0</code> to
+     * <code>x1</code> of <code>src</code>.  <code>src</code> and
+     * <code>dest</code> share one coordinate space, and only the
+     * pixels that fall inside <code>dest</code> are written.
+     * @param buffer the window of the pass, at least
+     *        <code>boxSz</code> long.
+     */
     private WritableRaster boxFilterV(Raster src, WritableRaster dest,
-                                      int skipX, int skipY,
-                                      int boxSz, int loc) {
+                                      int x0, int x1, int skipY,
+                                      int boxSz, int loc, int [] buffer) {
 
-        final int w = src.getWidth();
         final int h = src.getHeight();
 
-          // Check if the raster is wide enough to do _any_ work
-        if (w < (2*skipX))       return dest;
+          // Check if the raster is tall enough to do _any_ work
         if (h < (2*skipY)+boxSz) return dest;
 
         final SinglePixelPackedSampleModel srcSPPSM =
@@ -465,7 +557,12 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         final int[] srcPixels  = srcDB.getBankData()[0];
         final int[] destPixels = dstDB.getBankData()[0];
 
-        final int [] buffer = new int [boxSz];
+        // Where the rows and columns of src lie in dest.
+        final int dx = src.getMinX()-dest.getMinX();
+        final int dy = src.getMinY()-dest.getMinY();
+        final int dw = dest.getWidth();
+        final int dh = dest.getHeight();
+
         int curr, prev;
 
           // Fixed point normalization factor (8.24)
@@ -481,9 +578,16 @@ public class GaussianBlurRed8Bit extends AbstractRed {
          *                    " srcStride: " + srcScanStride);
          */
 
-        for (int x=skipX; x<(w-skipX); x++) {
+        for (int x=x0; x<x1; x++) {
+            if ((x+dx < 0) || (x+dx >= dw)) continue;
+            // The number of results from the first one to the end
+            // of the column in dest.
+            int cnt = dh - (skipY+loc+dy);
+            if (cnt <= 0) continue;
+
             int sp = srcOff + x;
-            int dp = dstOff + x;
+            int dp = dstOff + x+dx;
+            int dpMin = dp;
             int colEnd = sp + (h-skipY)*srcScanStride;
 
             int k=0;
@@ -506,17 +610,20 @@ public class GaussianBlurRed8Bit extends AbstractRed {
             }
 
 
-            dp += (skipY + loc)*dstScanStride;
-            prev = destPixels[dp] = (( (sumA*scale)&0xFF000000)       |
-                                     (((sumR*scale)&0xFF000000)>>>8)  |
-                                     (((sumG*scale)&0xFF000000)>>>16) |
-                                     (((sumB*scale)&0xFF000000)>>>24));
+            if (colEnd > sp+(cnt-1)*srcScanStride)
+                colEnd = sp+(cnt-1)*srcScanStride;
+            dp += (skipY + loc + dy)*dstScanStride;
+            prev = (( (sumA*scale)&0xFF000000)       |
+                    (((sumR*scale)&0xFF000000)>>>8)  |
+                    (((sumG*scale)&0xFF000000)>>>16) |
+                    (((sumB*scale)&0xFF000000)>>>24));
+            if (dp >= dpMin) destPixels[dp] = prev;
             dp+=dstScanStride;
             k=0;
             while (sp < colEnd) {
                 curr = buffer[k];
                 if (curr == srcPixels[sp]) {
-                    destPixels[dp] = prev;
+                    if (dp >= dpMin) destPixels[dp] = prev;
                 } else {
                     sumA -= (curr>>> 24);
                     sumR -= (curr >> 16)&0xFF;
@@ -529,10 +636,11 @@ public class GaussianBlurRed8Bit extends AbstractRed {
                     sumR += (curr >> 16)&0xFF;
                     sumG += (curr >>  8)&0xFF;
                     sumB += (curr      )&0xFF;
-                    prev = destPixels[dp] = (( (sumA*scale)&0xFF000000)       |
-                                             (((sumR*scale)&0xFF000000)>>>8)  |
-                                             (((sumG*scale)&0xFF000000)>>>16) |
-                                             (((sumB*scale)&0xFF000000)>>>24));
+                    prev = (( (sumA*scale)&0xFF000000)       |
+                            (((sumR*scale)&0xFF000000)>>>8)  |
+                            (((sumG*scale)&0xFF000000)>>>16) |
+                            (((sumB*scale)&0xFF000000)>>>24));
+                    if (dp >= dpMin) destPixels[dp] = prev;
                 }
                 k = (k+1)%boxSz;
                 sp+=srcScanStride;
@@ -23,15 +23,19 @@ import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.awt.image.IndexColorModel;
 import java.awt.image.MultiPixelPackedSampleModel;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
-import java.util.Iterator;
-import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 
@@ -39,11 +43,11 @@ import org.apache.batik.ext.awt.image.GraphicsUtil;
  * This class implements an adaptive palette generator to reduce images to a
  * specified number of colors.
  *
- * Ideally this would also support a better dither option than just 
- * the JDK's pattern dither.
- *
  * The algorithm used is the 'Median Cut Algorithm' published by
- * Paul Heckbert in early '80s.
+ * Paul Heckbert in early '80s.  The resulting palette can optionally
+ * be refined with a few k-means iterations, and the image dithered
+ * with Floyd-Steinberg error diffusion rather than the JDK's pattern
+ * dither.
  *
  * @author <a href="mailto:deweese@apache.org">Thomas DeWeese</a>
  * @author <a href="mailto:jun@oop-reserch.com">Jun Inamori</a>
@@ -53,46 +57,199 @@ import org.apache.batik.ext.awt.image.GraphicsUtil;
 public class IndexImage{
 
     /**
-     * Used to track a color and the number of pixels of that colors
+     * Counts the pixels of each color of an image, in an open
+     * addressing hash table.
      */
-    private static class Counter {
+    static class Histogram {
+
+        /**
+         * The colors, with their alpha set so that an empty slot
+         * (zero) can't be mistaken for black.
+         */
+        int[] keys;
 
         /**
-         * contains the 'packed' rgb-color for this point.
-         * Must not change after construction!
+         * The number of pixels of each color.
          */
-        final int val;
+        int[] counts;
 
         /**
-         * the number of image-pixels with this color.
+         * The number of distinct colors.
          */
-        int count=1;
+        int size;
+
+        int mask;
 
-        Counter(int val) {  this.val = val; }
+        Histogram() {
+            keys   = new int[1024];
+            counts = new int[1024];
+            mask   = 1023;
+        }
 
-        boolean add(int val) {
-            // See if the value matches us...
-            if (this.val != val)
-                return false;
-            count++;
-            return true;
+        static int hash(int key) {
+            int h = key * 0x9E3779B1;
+            return h ^ (h >>> 15);
         }
 
         /**
-         * convert the color-point of this counter to an rgb-array.
-         * To avoid creating lots of arrays, the caller passes the
-         * array to store the result.
-         *
-         * @param rgb an int[ 3 ] to store the result.
-         * @return an int-array with rgb-color-values (same as rgb-parameter)
+         * Adds <code>n</code> pixels of the given rgb color.
          */
-        int[] getRgb( int[] rgb ){
-            rgb[ Cube.RED ] = (val&0xFF0000)>>16;
-            rgb[ Cube.GRN ] = (val&0x00FF00)>>8;
-            rgb[ Cube.BLU ] = (val&0x0000FF);
-            return rgb;
+        void add(int rgb, int n) {
+            int key = rgb | 0xFF000000;
+            int i = hash(key) & mask;
+            while (true) {
+                int k = keys[i];
+                if (k == key) {
+                    counts[i] += n;
+                    return;
+                }
+                if (k == 0) break;
+                i = (i + 1) & mask;
+            }
+            keys[i]   = key;
+            counts[i] = n;
+            if (++size * 2 > keys.length) grow();
+        }
+
+        /**
+         * Returns the slot of the given rgb color, or -1.
+         */
+        int find(int rgb) {
+            int key = rgb | 0xFF000000;
+            int i = hash(key) & mask;
+            while (true) {
+                int k = keys[i];
+                if (k == key) return i;
+                if (k == 0)   return -1;
+                i = (i + 1) & mask;
+            }
+        }
+
+        void grow() {
+            int[] ok = keys;
+            int[] oc = counts;
+            keys   = new int[ok.length * 2];
+            counts = new int[ok.length * 2];
+            mask   = keys.length - 1;
+            size   = 0;
+            for (int i = 0; i < ok.length; i++) {
+                if (ok[i] != 0) add(ok[i], oc[i]);
+            }
+        }
+
+        /**
+         * Adds all the colors of <code>h</code> to this histogram.
+         */
+        void addAll(Histogram h) {
+            for (int i = 0; i < h.keys.length; i++) {
+                if (h.keys[i] != 0) add(h.keys[i], h.counts[i]);
+            }
+        }
+
+        /**
+         * Counts the pixels of rows <code>y0</code> to
+         * <code>y1</code> of <code>bi</code>.
+         */
+        void addRows(BufferedImage bi, int y0, int y1) {
+            int w = bi.getWidth();
+            if (w == 0) return;
+            int[] row = null;
+            int[] data = null;
+            int off = 0, stride = 0;
+            if (isPackedRGB(bi)) {
+                DataBufferInt db = (DataBufferInt)bi.getRaster().getDataBuffer();
+                SinglePixelPackedSampleModel sppsm =
+                    (SinglePixelPackedSampleModel)bi.getSampleModel();
+                WritableRaster ras = bi.getRaster();
+                data   = db.getBankData()[0];
+                stride = sppsm.getScanlineStride();
+                off    = db.getOffset() +
+                    sppsm.getOffset(-ras.getSampleModelTranslateX(),
+                                    -ras.getSampleModelTranslateY());
+            } else {
+                row = new int[w];
+            }
+
+            // Runs of the same color are common in rendered images,
+            // so count them before looking them up.
+            for (int y = y0; y < y1; y++) {
+                int p, end;
+                int[] pix;
+                if (data != null) {
+                    pix = data;
+                    p   = off + y * stride;
+                } else {
+                    pix = bi.getRGB(0, y, w, 1, row, 0, w);
+                    p   = 0;
+                }
+                end = p + w;
+                int last = pix[p] & 0xFFFFFF;
+                int n = 1;
+                for (p++; p < end; p++) {
+                    int rgb = pix[p] & 0xFFFFFF;
+                    if (rgb == last) {
+                        n++;
+                    } else {
+                        add(last, n);
+                        last = rgb;
+                        n = 1;
+                    }
+                }
+                add(last, n);
+            }
+        }
+    }
+
+    /**
+     * The colors of a histogram sorted by 12-bit bin (the high four
+     * bits of each component), so that the colors of a bin can be
+     * iterated over.
+     */
+    static class ColorTable {
+
+        /**
+         * The rgb colors, bin by bin.
+         */
+        final int[] vals;
+
+        /**
+         * The number of pixels of each color.
+         */
+        final int[] counts;
+
+        /**
+         * The colors of bin <code>i</code> are at
+         * <code>binStart[i]</code> to <code>binStart[i+1]</code>.
+         */
+        final int[] binStart = new int[(1<<12) + 1];
+
+        ColorTable(Histogram h) {
+            vals   = new int[h.size];
+            counts = new int[h.size];
+            int[] keys = h.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) binStart[bin(keys[i]) + 1]++;
+            }
+            for (int i = 0; i < (1<<12); i++) {
+                binStart[i + 1] += binStart[i];
+            }
+            int[] pos = new int[1<<12];
+            System.arraycopy(binStart, 0, pos, 0, 1<<12);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    int j = pos[bin(keys[i])]++;
+                    vals[j]   = keys[i] & 0xFFFFFF;
+                    counts[j] = h.counts[i];
+                }
+            }
         }
-   }
+
+        static int bin(int rgb) {
+            return (((rgb&0xF00000)>>> 12) |
+                    ((rgb&0x00F000)>>>  8) |
+                    ((rgb&0x0000F0)>>>  4));
+        }
+    }
 
     /**
      * Used to define a cube of the colorspace.  The cube can be split
@@ -107,11 +264,10 @@ public class IndexImage{
         
 
         /**
-         * the colors-array is not modified - in fact, all cubes use
-         * the same colors-array.  The Counter contains the
-         * rgb-color-code and the count of pixels with this color.
+         * the color table is not modified - in fact, all cubes use
+         * the same table.
          */
-        final Counter[][] colors;
+        final ColorTable colors;
 
         /**
          * the number of color-points in this cube.
@@ -127,7 +283,7 @@ public class IndexImage{
          * @param colors contains the 3D color histogram to be subdivided
          * @param count the total number of pixels in the 3D histogram.
          */
-        Cube( Counter[][] colors, int count) {
+        Cube( ColorTable colors, int count) {
             this.colors = colors;
             this.count = count;
         }
@@ -138,6 +294,21 @@ public class IndexImage{
          */
         public boolean isDone() { return done; }
 
+        /**
+         * convert a packed rgb-color to an rgb-array.
+         * To avoid creating lots of arrays, the caller passes the
+         * array to store the result.
+         *
+         * @param rgb an int[ 3 ] to store the result.
+         * @return an int-array with rgb-color-values (same as rgb-parameter)
+         */
+        static int[] getRgb( int val, int[] rgb ){
+            rgb[ RED ] = (val&0xFF0000)>>16;
+            rgb[ GRN ] = (val&0x00FF00)>>8;
+            rgb[ BLU ] = (val&0x0000FF);
+            return rgb;
+        }
+
         /**
          * check, if the color defined by val[] is inside this cube.
          *
@@ -445,20 +616,22 @@ public class IndexImage{
             int[] maxIdx = { maxR >> 4, maxG >> 4, maxB >> 4 };
 
             int [] vals = {0, 0, 0};
+            int [] cv = colors.vals;
+            int [] cc = colors.counts;
+            int [] bs = colors.binStart;
             for (int i=minIdx[splitChannel]; i<=maxIdx[splitChannel]; i++) {
                 int idx1 = i<<splitSh4;
                 for (int j=minIdx[c0]; j <=maxIdx[c0]; j++) {
                     int idx2 = idx1 | (j<<c0Sh4);
                     for (int k=minIdx[c1]; k<=maxIdx[c1]; k++) {
                         int idx = idx2 | (k<<c1Sh4);
-                        Counter[] v = colors[idx];
-                        for (Counter c : v) {
-                            vals = c.getRgb(vals);
+                        for (int c=bs[idx], e=bs[idx+1]; c<e; c++) {
+                            vals = getRgb(cv[c], vals);
                             if (contains(vals)) {
                                 // The vals[] lies completly within
                                 // this cube so count it.
-                                counts[vals[splitChannel]] += c.count;
-                                tcount += c.count;
+                                counts[vals[splitChannel]] += cc[c];
+                                tcount += cc[c];
                             }
                         }
                     }
@@ -521,6 +694,9 @@ public class IndexImage{
             int [] minIdx = {minR>>4, minG>>4, minB>>4};
             int [] maxIdx = {maxR>>4, maxG>>4, maxB>>4};
             int[] vals = new int[3];
+            int[] cv = colors.vals;
+            int[] cc = colors.counts;
+            int[] bs = colors.binStart;
 
             for (int i=minIdx[0]; i<=maxIdx[0]; i++) {
                 int idx1 = i<<8;
@@ -528,11 +704,10 @@ public class IndexImage{
                     int idx2 = idx1 | (j<<4);
                     for (int k=minIdx[2]; k<=maxIdx[2]; k++) {
                         int idx = idx2 | k;
-                        Counter[] v = colors[idx];
-                        for (Counter c : v) {
-                            vals = c.getRgb(vals);
+                        for (int c=bs[idx], e=bs[idx+1]; c<e; c++) {
+                            vals = getRgb(cv[c], vals);
                             if (contains(vals)) {
-                                float weight = (c.count / (float) count);
+                                float weight = (cc[c] / (float) count);
                                 red += (vals[0] * weight);
                                 grn += (vals[1] * weight);
                                 blu += (vals[2] * weight);
@@ -603,87 +778,349 @@ public class IndexImage{
 
 
     /**
-     * step 1: fill a data-structure with the count of each color in the image.
+     * step 1: count the pixels of each color in the image.  Large
+     * images are split into bands of rows which are counted in
+     * parallel, see {@link ParallelBands}.
      * @param bi input-image
-     * @return a List[] where each slot is a List of Counters (or null)
+     * @return the histogram of the image
+     */
+    static Histogram createHistogram( final BufferedImage bi ){
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+
+        final List hists = new ArrayList();
+        ParallelBands.run
+            (0, h, w*h, new ParallelBands.Band() {
+                    public void run(int lo, int hi) {
+                        Histogram hist = new Histogram();
+                        hist.addRows(bi, lo, hi);
+                        synchronized (hists) {
+                            hists.add(hist);
+                        }
+                    }
+                });
+
+        // Merge into the largest histogram.
+        Histogram ret = (Histogram)hists.get(0);
+        for (int i=1; i<hists.size(); i++) {
+            Histogram hist = (Histogram)hists.get(i);
+            if (hist.size > ret.size) {
+                Histogram tmp = ret; ret = hist; hist = tmp;
+            }
+            ret.addAll(hist);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if the pixels of <code>bi</code> can be read
+     * directly from its int data buffer.
      */
-    static List[] createColorList( BufferedImage bi ){
+    static boolean isPackedRGB( BufferedImage bi ){
+        int type = bi.getType();
+        if ((type != BufferedImage.TYPE_INT_RGB) &&
+            (type != BufferedImage.TYPE_INT_ARGB))
+            return false;
+        return ((bi.getRaster().getDataBuffer() instanceof DataBufferInt) &&
+                (bi.getSampleModel() instanceof SinglePixelPackedSampleModel));
+    }
 
-        int w= bi.getWidth();
-        int h= bi.getHeight();
+    /**
+     * Finds the nearest palette entry of colors.  The entries are
+     * sorted by red, so the search can stop as soon as the red
+     * distance alone exceeds the best match so far.
+     */
+    static class Palette {
+        final int[] r, g, b;
 
-        // Using 4 bits from RG & B.
-        List[] colors = new ArrayList[1<<12];
-
-        for(int i_w=0; i_w<w; i_w++){
-            for(int i_h=0; i_h<h; i_h++){
-                int rgb=(bi.getRGB(i_w,i_h) & 0x00FFFFFF);  // mask away alpha
-                // Get index from high four bits of each component.
-                int idx = (((rgb&0xF00000)>>> 12) |
-                           ((rgb&0x00F000)>>>  8) |
-                           ((rgb&0x0000F0)>>>  4));
-
-                // Get the 'hash vector' for that key.
-                List v = colors[idx];
-                if (v == null) {
-                    // No colors in this bin yet so create list and
-                    // add color.
-                    v = new ArrayList();
-                    v.add(new Counter(rgb));
-                    colors[idx] = v;
-                } else {
-                    // find our color in the bin or create a counter for it.
-                    Iterator i = v.iterator();
-                    while (true) {
-                        if (i.hasNext()) {
-                            // try adding our color to each counter...
-                            if (((Counter)i.next()).add(rgb)) break;
-                        } else {
-                            v.add(new Counter(rgb));
-                            break;
+        /**
+         * The palette index of each sorted entry.
+         */
+        final int[] idx;
+
+        Palette( byte[][] rgbTbl, int n ){
+            int[] keys = new int[n];
+            for (int i=0; i<n; i++) {
+                keys[i] = ((rgbTbl[Cube.RED][i]&0xFF)<<8) | i;
+            }
+            Arrays.sort(keys);
+            r   = new int[n];
+            g   = new int[n];
+            b   = new int[n];
+            idx = new int[n];
+            for (int i=0; i<n; i++) {
+                int j = keys[i]&0xFF;
+                idx[i] = j;
+                r[i]   = rgbTbl[Cube.RED][j]&0xFF;
+                g[i]   = rgbTbl[Cube.GRN][j]&0xFF;
+                b[i]   = rgbTbl[Cube.BLU][j]&0xFF;
+            }
+        }
+
+        /**
+         * Returns the index of the palette entry nearest to the
+         * given components.
+         */
+        int nearest( int cr, int cg, int cb ){
+            int n = r.length;
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (r[mid] < cr) lo = mid + 1;
+                else             hi = mid;
+            }
+            int best = -1;
+            int bestD = Integer.MAX_VALUE;
+            int up = lo, dn = lo - 1;
+            while ((up < n) || (dn >= 0)) {
+                if (up < n) {
+                    int dr = r[up] - cr;
+                    if (dr*dr >= bestD) {
+                        up = n;
+                    } else {
+                        int dg = g[up] - cg;
+                        int db = b[up] - cb;
+                        int d = dr*dr + dg*dg + db*db;
+                        if (d < bestD) {
+                            bestD = d;
+                            best  = up;
+                        }
+                        up++;
+                    }
+                }
+                if (dn >= 0) {
+                    int dr = r[dn] - cr;
+                    if (dr*dr >= bestD) {
+                        dn = -1;
+                    } else {
+                        int dg = g[dn] - cg;
+                        int db = b[dn] - cb;
+                        int d = dr*dr + dg*dg + db*db;
+                        if (d < bestD) {
+                            bestD = d;
+                            best  = dn;
                         }
+                        dn--;
                     }
                 }
             }
+            return idx[best];
         }
+    }
 
-        return colors;
+    /**
+     * The maximum number of k-means iterations used to refine the
+     * median cut palette.
+     */
+    static final int REFINE_ITERATIONS = 4;
+
+    /**
+     * step 4 (optional): refine the palette with a few k-means
+     * iterations over the colors of the image.  Each entry is moved
+     * to the weighted average of the colors nearest to it.  Entries
+     * nobody is nearest to are left alone.
+     *
+     * @param colors the colors of the image
+     * @param rgbTbl the palette, as computed by computeRGB; modified
+     * in place.
+     * @param nCubes number of entries in the palette
+     */
+    static void refinePalette( ColorTable colors, byte[][] rgbTbl,
+                               int nCubes ){
+        int[] cv = colors.vals;
+        int[] cc = colors.counts;
+        long[] sums = new long[nCubes*4];
+        for (int iter=0; iter<REFINE_ITERATIONS; iter++) {
+            Palette pal = new Palette(rgbTbl, nCubes);
+            Arrays.fill(sums, 0);
+            for (int i=0; i<cv.length; i++) {
+                int rgb = cv[i];
+                int cr = (rgb>>16)&0xFF;
+                int cg = (rgb>> 8)&0xFF;
+                int cb = (rgb    )&0xFF;
+                int j = pal.nearest(cr, cg, cb)*4;
+                long n = cc[i];
+                sums[j  ] += n;
+                sums[j+1] += cr*n;
+                sums[j+2] += cg*n;
+                sums[j+3] += cb*n;
+            }
+
+            boolean changed = false;
+            for (int i=0; i<nCubes; i++) {
+                long n = sums[i*4];
+                if (n == 0) continue;
+                byte nr = (byte)((sums[i*4+1] + n/2)/n);
+                byte ng = (byte)((sums[i*4+2] + n/2)/n);
+                byte nb = (byte)((sums[i*4+3] + n/2)/n);
+                if ((nr != rgbTbl[Cube.RED][i]) ||
+                    (ng != rgbTbl[Cube.GRN][i]) ||
+                    (nb != rgbTbl[Cube.BLU][i])) {
+                    rgbTbl[Cube.RED][i] = nr;
+                    rgbTbl[Cube.GRN][i] = ng;
+                    rgbTbl[Cube.BLU][i] = nb;
+                    changed = true;
+                }
+            }
+            if (!changed) break;
+        }
     }
 
+    /**
+     * The number of entries of the nearest color caches used while
+     * mapping pixels to the palette.
+     */
+    static final int MAP_CACHE_SIZE = 4096;
 
     /**
-     * step 2: convert the result of step 1 to an Cube[][] which is
-     * more efficient in the following iterations. All slots in the
-     * result are filled with at least an empty array - thus we avoid
-     * tests for null.  <br>Note: the converted slots in colors are no
-     * longer needed and removed.
+     * step 5 (optional): map the pixels of <code>bi</code> to the
+     * nearest palette entry, optionally with Floyd-Steinberg error
+     * diffusion.  Pixels that are not opaque are composited over
+     * palette entry zero, as drawing <code>bi</code> into the indexed
+     * image would.
      *
-     * @param colors the data-structure to convert. Note that it is
-     * empty after conversion!
-     * @return same data as in colors, but Lists are converted to arrays.
+     * @param bi the image to map
+     * @param indexed a TYPE_BYTE_INDEXED image of the same size as
+     *        <code>bi</code>, receives the palette indices.
+     * @param rgbTbl the palette
+     * @param nCubes number of entries in the palette
+     * @param dither true to diffuse the quantization error
      */
-    static Counter[][] convertColorList( List[] colors ){
+    static void mapPixels( final BufferedImage bi,
+                           final BufferedImage indexed,
+                           final byte[][] rgbTbl, final int nCubes,
+                           boolean dither ){
+        final int w = bi.getWidth();
+        int h = bi.getHeight();
+        final Palette pal = new Palette(rgbTbl, nCubes);
+
+        if (dither) {
+            // Error diffusion goes from one row to the next, so
+            // it can't be split in bands.
+            mapRows(bi, indexed, pal, rgbTbl, 0, h, true);
+            return;
+        }
 
-        // used to fill empty slots
-        final Counter[] EMPTY_COUNTER = new Counter[0];
+        ParallelBands.run
+            (0, h, w*h, new ParallelBands.Band() {
+                    public void run(int lo, int hi) {
+                        mapRows(bi, indexed, pal, rgbTbl, lo, hi, false);
+                    }
+                });
+    }
 
-        Counter[][] colorTbl= new Counter[ 1<< 12 ][];
-        for( int i= 0; i < colors.length; i++ ){
-            List cl = colors[ i ];
-            if ( cl == null ){
-                colorTbl[ i ] = EMPTY_COUNTER;
-                continue;
-            }
-            int nSlots = cl.size();
-            colorTbl[i] = (Counter[])cl.toArray( new Counter[ nSlots ] );
+    /**
+     * Maps rows <code>y0</code> to <code>y1</code> of <code>bi</code>
+     * to the palette.
+     */
+    static void mapRows( BufferedImage bi, BufferedImage indexed,
+                         Palette pal, byte[][] rgbTbl,
+                         int y0, int y1, boolean dither ){
+        int w = bi.getWidth();
+        byte[] dst = ((DataBufferByte)indexed.getRaster().getDataBuffer()).getData();
+        int dstStride = ((ComponentSampleModel)indexed.getSampleModel()).getScanlineStride();
+
+        int[] cacheKeys = new int[MAP_CACHE_SIZE];
+        byte[] cacheVals = new byte[MAP_CACHE_SIZE];
+
+        // the color pixels with alpha are composited over.
+        int bgR = rgbTbl[Cube.RED][0]&0xFF;
+        int bgG = rgbTbl[Cube.GRN][0]&0xFF;
+        int bgB = rgbTbl[Cube.BLU][0]&0xFF;
+        boolean hasAlpha = bi.getColorModel().hasAlpha();
+
+        // The errors diffused to the current and next rows, with a
+        // pixel of padding on each side.
+        int[] err  = null;
+        int[] nerr = null;
+        if (dither) {
+            err  = new int[(w+2)*3];
+            nerr = new int[(w+2)*3];
+        }
+
+        int[] row = new int[w];
+        for (int y=y0; y<y1; y++) {
+            bi.getRGB(0, y, w, 1, row, 0, w);
+            int dp = y*dstStride;
+            for (int x=0; x<w; x++) {
+                int argb = row[x];
+                int cr = (argb>>16)&0xFF;
+                int cg = (argb>> 8)&0xFF;
+                int cb = (argb    )&0xFF;
+                if (hasAlpha) {
+                    int a = argb>>>24;
+                    if (a != 255) {
+                        int ia = 255-a;
+                        cr = (cr*a + bgR*ia + 127)/255;
+                        cg = (cg*a + bgG*ia + 127)/255;
+                        cb = (cb*a + bgB*ia + 127)/255;
+                    }
+                }
 
-            // the colors[ i ] - data is no longer needed: discard
-            colors[ i ] = null;
+                int e = (x+1)*3;
+                if (dither) {
+                    cr = clamp(cr + err[e  ]/16);
+                    cg = clamp(cg + err[e+1]/16);
+                    cb = clamp(cb + err[e+2]/16);
+                }
+
+                int key = 0xFF000000 | (cr<<16) | (cg<<8) | cb;
+                int slot = Histogram.hash(key) & (MAP_CACHE_SIZE-1);
+                int pi;
+                if (cacheKeys[slot] == key) {
+                    pi = cacheVals[slot]&0xFF;
+                } else {
+                    pi = pal.nearest(cr, cg, cb);
+                    cacheKeys[slot] = key;
+                    cacheVals[slot] = (byte)pi;
+                }
+                dst[dp+x] = (byte)pi;
+
+                if (dither) {
+                    // Spread the error 7/16 right, 3/16 below
+                    // left, 5/16 below and 1/16 below right.
+                    int dr = cr - (rgbTbl[Cube.RED][pi]&0xFF);
+                    int dg = cg - (rgbTbl[Cube.GRN][pi]&0xFF);
+                    int db = cb - (rgbTbl[Cube.BLU][pi]&0xFF);
+                    err [e+3] += dr*7;  err [e+4] += dg*7;  err [e+5] += db*7;
+                    nerr[e-3] += dr*3;  nerr[e-2] += dg*3;  nerr[e-1] += db*3;
+                    nerr[e  ] += dr*5;  nerr[e+1] += dg*5;  nerr[e+2] += db*5;
+                    nerr[e+3] += dr;    nerr[e+4] += dg;    nerr[e+5] += db;
+                }
+            }
+            if (dither) {
+                int[] tmp = err; err = nerr; nerr = tmp;
+                Arrays.fill(nerr, 0);
+            }
         }
+    }
 
-        return colorTbl;
+    static int clamp( int v ){
+        if (v < 0)   return 0;
+        if (v > 255) return 255;
+        return v;
     }
 
+    /**
+     * Quality setting for getIndexedImage: the median cut palette is
+     * used as is and the image is dithered by the JDK.
+     */
+    public static final int QUALITY_FAST = 0;
+
+    /**
+     * Quality setting for getIndexedImage: the median cut palette is
+     * refined with a few k-means iterations and each pixel is mapped
+     * to its nearest palette entry, without dithering.
+     */
+    public static final int QUALITY_REFINED = 1;
+
+    /**
+     * Quality setting for getIndexedImage: the palette is refined as
+     * with QUALITY_REFINED and the image is dithered with
+     * Floyd-Steinberg error diffusion.
+     */
+    public static final int QUALITY_DITHERED = 2;
+
     /**
      * Converts the input image (must be TYPE_INT_RGB or
      * TYPE_INT_ARGB) to an indexed image.  Generating an adaptive
@@ -692,19 +1129,33 @@ public class IndexImage{
      * @param nColors number of colors in the palette
      */
     public static BufferedImage getIndexedImage( BufferedImage bi, int nColors) {
+        return getIndexedImage(bi, nColors, QUALITY_FAST);
+    }
+
+    /**
+     * Converts the input image (must be TYPE_INT_RGB or
+     * TYPE_INT_ARGB) to an indexed image.  Generating an adaptive
+     * palette with number of colors specified.
+     * @param bi the image to be processed.
+     * @param nColors number of colors in the palette
+     * @param quality one of QUALITY_FAST, QUALITY_REFINED or
+     *        QUALITY_DITHERED.
+     */
+    public static BufferedImage getIndexedImage( BufferedImage bi,
+                                                 int nColors,
+                                                 int quality ) {
         int w=bi.getWidth();
         int h=bi.getHeight();
 
         // Using 4 bits from RG & B.
-        List[] colors = createColorList( bi );
+        Histogram hist = createHistogram( bi );
 
-        // now we have initialized the colors[] with lists of Counters.
-        // from now on, this data-structure is just read, not modified.
-        // convert it to Counter[][] for faster iteration
-        Counter[][] colorTbl = convertColorList( colors );
+        // from now on, the colors are just read, not modified.
+        // sort them by bin for faster iteration
+        ColorTable colorTbl = new ColorTable( hist );
 
         // this is no longer needed: discard
-        colors = null;
+        hist = null;
 
         int nCubes=1;
         int fCube=0;
@@ -754,6 +1205,9 @@ public class IndexImage{
         // convert the remaining cubes to the colors they represent
         byte[][] rgbTbl = computeRGB( nCubes, cubes );
 
+        if (quality != QUALITY_FAST)
+            refinePalette( colorTbl, rgbTbl, nCubes );
+
         // The JDK doesn't seem to dither the image correctly if I go
         // below 8bits per pixel.  So I dither to an 8bit palette
         // image that only has nCubes colors.  Then I copy the data to
@@ -762,12 +1216,17 @@ public class IndexImage{
 
         BufferedImage indexed =new BufferedImage
             (w, h, BufferedImage.TYPE_BYTE_INDEXED, icm);
-        Graphics2D g2d=indexed.createGraphics();
-        g2d.setRenderingHint
-            (RenderingHints.KEY_DITHERING,
-             RenderingHints.VALUE_DITHER_ENABLE);
-        g2d.drawImage(bi, 0, 0, null);
-        g2d.dispose();
+        if (quality == QUALITY_FAST) {
+            Graphics2D g2d=indexed.createGraphics();
+            g2d.setRenderingHint
+                (RenderingHints.KEY_DITHERING,
+                 RenderingHints.VALUE_DITHER_ENABLE);
+            g2d.drawImage(bi, 0, 0, null);
+            g2d.dispose();
+        } else {
+            mapPixels( bi, indexed, rgbTbl, nCubes,
+                       quality == QUALITY_DITHERED );
+        }
 
 
         int bits;
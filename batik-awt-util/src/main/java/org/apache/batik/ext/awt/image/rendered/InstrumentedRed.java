@@ -0,0 +1,83 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.util.Instrument;
+
+/**
+ * A pass-through image that reports the time spent computing its
+ * source to an {@link Instrument}.
+ *
+ * @version $Id$
+ */
+public class InstrumentedRed extends AbstractRed {
+
+    protected Instrument instrument;
+    protected String stage;
+    protected String name;
+
+    /**
+     * @param src The image to measure.
+     * @param inst The instrument to report to.
+     * @param stage The stage to report under.
+     * @param name The name to report under.
+     */
+    public InstrumentedRed(CachableRed src, Instrument inst,
+                           String stage, String name) {
+        super(src, null);
+        this.instrument = inst;
+        this.stage = stage;
+        this.name = name;
+    }
+
+    protected CachableRed getSource() {
+        return (CachableRed)getSources().get(0);
+    }
+
+    public Raster getTile(int tileX, int tileY) {
+        Object token = instrument.enter(stage, name);
+        try {
+            return getSource().getTile(tileX, tileY);
+        } finally {
+            instrument.exit(token);
+        }
+    }
+
+    public Raster getData(Rectangle rect) {
+        Object token = instrument.enter(stage, name);
+        try {
+            return getSource().getData(rect);
+        } finally {
+            instrument.exit(token);
+        }
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        Object token = instrument.enter(stage, name);
+        try {
+            return getSource().copyData(wr);
+        } finally {
+            instrument.exit(token);
+        }
+    }
+}
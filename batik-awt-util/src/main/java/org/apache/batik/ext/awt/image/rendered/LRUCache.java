@@ -86,6 +86,18 @@ public class LRUCache {
                 return used.getSize();
         }
 
+        /**
+         * Called by users of the cache when a lookup found its object
+         * in the cache.  Does nothing by default.
+         */
+        public void recordHit() { }
+
+        /**
+         * Called by users of the cache when a lookup had to compute
+         * its object.  Does nothing by default.
+         */
+        public void recordMiss() { }
+
         public synchronized void setSize(int newSz) {
 
                 if (maxSize < newSz) {  // list grew...
@@ -231,590 +231,112 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
     }
 
     /*
-     * This method compares the two input variables according
-     * to the doDilation boolean variable.
+     * The line buffers of the van Herk/Gil-Werman algorithm.  The
+     * four channels of a pixel are spread over the four 16 bit lanes
+     * of a long, so all of them are handled at once.  Each thread
+     * uses its own buffers.
      */
-    static final boolean isBetter (final int v1, final int v2, final boolean doDilation) {
-        if (v1 > v2)
-            return doDilation;
-        if (v1 < v2)
-            return !doDilation;
-        return true;
+    static final class LineBuffers {
+        final long[] in;
+        final long[] g;
+        final long[] h;
+
+        LineBuffers(int n, int radius) {
+            int len = n + 2*radius;
+            in  = new long[len];
+            g   = new long[len];
+            h   = new long[len];
+        }
     }
 
     /*
-     * This method deals with the condition that the Kernel is wider than
-     * the Image
+     * The low bit above each lane of a spread pixel.
      */
-    private void specialProcessRow(Raster src, WritableRaster dest){
-        final int w = src.getWidth();
-        final int h = src.getHeight();
-
-        // Access the integer buffer for each image.
-        DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
-        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)src.getSampleModel();
-
-        final int srcOff = srcDB.getOffset() +
-            sppsm.getOffset(src.getMinX() - src.getSampleModelTranslateX(),
-                            src.getMinY() - src.getSampleModelTranslateY());
-
-
-        sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        final int dstOff = dstDB.getOffset() +
-            sppsm.getOffset(dest.getMinX() - dest.getSampleModelTranslateX(),
-                            dest.getMinY() - dest.getSampleModelTranslateY());
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
-        final int srcScanStride = ((SinglePixelPackedSampleModel)src.getSampleModel()).getScanlineStride();
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
-
-        // Access the pixel value array
-        final int[] srcPixels = srcDB.getBankData()[0];
-        final int[] destPixels = dstDB.getBankData()[0];
-
-        // The pointer of src and dest indicating where the pixel values are
-        int sp, dp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // If image width is less than or equal to the radiusX,
-        // all the pixels share the same max/min value
-        if (w<=radiusX){
-            for (int i=0; i<h; i++){
-                // pointing to the first pixels of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-
-                for (int k=1; k<w; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                    }
-                }
-                // all the element share the same max/min value
-                for (int k=0; k<w; k++){
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-            }
-        }
-
-        // When radiusX < w <= 2*radiusX
-        else {
-
-            // The width of the circular buffer is w
-            final int [] bufferA = new int [w];
-            final int [] bufferR = new int [w];
-            final int [] bufferG = new int [w];
-            final int [] bufferB = new int [w];
-
-            for (int i=0; i<h; i++){
-                // initialization of pointers, indice
-                // at the head of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusX; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                destPixels[dp++] = (a << 24) | r | g | b;
-
-                //
-                // 1 <= j <= w-radiusX-1 : The left margin of each row.
-                //
-                for (int j=1; j<=w-radiusX-1; j++){
-                    lastPixel = srcPixels[sp++];
-
-                    // here is the Alpha channel
-
-                    // we retrieve the previous max/min value
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[j+radiusX] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = j+radiusX;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[j+radiusX] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = j+radiusX;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[j+radiusX] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = j+radiusX;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[j+radiusX] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = j+radiusX;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-                // Now is the inner body of the row:
-                // all elements in this segment share the same max/min value
-                for (int j = w-radiusX; j<= radiusX; j++){
-                    destPixels[dp] = destPixels[dp-1];
-                    dp++;
-                }
-                // Now the circular buffer is full
-                // Now is the right margin of the row when radiusX < w <= 2*radiusX
-                for (int j = radiusX+1; j<w; j++){
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[bufferHead+1];
-                        maxIndexA = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    else {
-                        a = bufferA[maxIndexA];
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[bufferHead+1];
-                        maxIndexR = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    else {
-                        r = bufferR[maxIndexR];
-                    }
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[bufferHead+1];
-                        maxIndexG = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                    }
+    static final long LANE_CARRY = 0x0100010001000100L;
 
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[bufferHead+1];
-                        maxIndexB = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                    }
-
-                    // discard the leftmost element
-                    bufferHead++;
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-                // return to the first pixel of the next row
-            }
-        }// When radiusX < w <=2*radiusX
+    /*
+     * Returns the lane by lane max of two spread pixels, without
+     * branches: a lane of (x|carry)-y keeps its carry bit when its
+     * x is not smaller than its y.
+     */
+    static long max(long x, long y) {
+        long ge = (((x | LANE_CARRY) - y) & LANE_CARRY) >>> 8;
+        return y ^ ((x ^ y) & (ge * 0xFF));
     }
 
     /*
-     * This method deals with the condition when the Kernel is
-     * higher than the image.
+     * Spreads the channels of a packed pixel over four 16 bit lanes.
      */
-    private void specialProcessColumn(Raster src, WritableRaster dest){
-
-        final int w = src.getWidth();
-        final int h = src.getHeight();
-
-        // Access the integer buffer for each image.
-        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
-        final int dstOff = dstDB.getOffset();
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
+    static long spread(int pel) {
+        return (((pel & 0xFF000000L) << 24) |
+                ((pel & 0x00FF0000L) << 16) |
+                ((pel & 0x0000FF00L) <<  8) |
+                ((pel & 0x000000FFL)));
+    }
 
-        // Access the pixel value array
-        final int[] destPixels = dstDB.getBankData()[0];
+    /*
+     * Packs a spread pixel back into an int.
+     */
+    static int pack(long v) {
+        return (int)(((v >>> 24) & 0xFF000000L) |
+                     ((v >>> 16) & 0x00FF0000L) |
+                     ((v >>>  8) & 0x0000FF00L) |
+                     ((v       ) & 0x000000FFL));
+    }
 
-        // The pointer of src and dest indicating where the pixel values are
-        int dp, cp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // Here all the pixels share the same
-        // max/min value
-        if (h<=radiusY){
-            for (int j=0; j<w; j++){
-                dp = dstOff + j;
-                cp = dstOff + j;
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-
-                for (int k=1; k<h; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                    }
-                }
-                for (int k=0; k<h; k++){
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // return to the first pixel of the next column
+    /*
+     * Filters <code>n</code> pixels, <code>step</code> apart, of
+     * <code>srcPixels</code> into <code>dstPixels</code>, which may be
+     * the same array.  Each output pixel gets the lane by lane max of
+     * the <code>2*radius+1</code> pixels around it.
+     * <p>
+     * This is the van Herk/Gil-Werman algorithm: the line, padded
+     * with <code>radius</code> neutral values on each side, is cut
+     * into blocks of <code>2*radius+1</code> values; g[] holds the
+     * max from the start of each block and h[] the max to the end of
+     * each block.  A window straddles at most two blocks, so its max
+     * is the max of one h[] and one g[] value, whatever the radius.
+     * <p>
+     * Erosion is done as a dilation of the inverted values, so only
+     * the max is needed.
+     */
+    private void filterLine(int[] srcPixels, int sp,
+                            int[] dstPixels, int dp,
+                            int step, int n, int radius,
+                            LineBuffers lb) {
+        final long[] in = lb.in;
+        final long[] g  = lb.g;
+        final long[] h  = lb.h;
+        final int inv   = doDilation ? 0 : 0xFFFFFFFF;
+        final int range = 2*radius + 1;
+        final int len   = n + 2*radius;
+
+        for (int i=0; i<radius; i++)
+            in[i] = 0;
+        int end = radius + n;
+        for (int i=radius; i<end; i++, sp+=step)
+            in[i] = spread(srcPixels[sp] ^ inv);
+        for (int i=end; i<len; i++)
+            in[i] = 0;
+
+        for (int s=0; s<len; s+=range) {
+            int e = Math.min(s + range, len);
+            long m = in[s];
+            g[s] = m;
+            for (int i=s+1; i<e; i++) {
+                m = max(in[i], m);
+                g[i] = m;
+            }
+            m = in[e-1];
+            h[e-1] = m;
+            for (int i=e-2; i>=s; i--) {
+                m = max(in[i], m);
+                h[i] = m;
             }
         }
 
-        // When radiusY < h <= 2*radiusY
-        else {
-
-            // The height of the circular buffer is h
-            final int [] bufferA = new int [h];
-            final int [] bufferR = new int [h];
-            final int [] bufferG = new int [h];
-            final int [] bufferB = new int [h];
-
-            for (int j=0; j<w; j++){
-                // initialization of pointers, indice
-                // at the head of each column
-                dp = dstOff + j;
-                cp = dstOff + j;
-
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusY; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                // fill the first pixel of each column
-                destPixels[dp] = (a << 24) | r | g | b;
-                dp += dstScanStride;
-
-                //
-                // 1 <= i <= h-1-radiusY : The upper margin of each column.
-                //
-                for (int i=1; i<=h-radiusY-1; i++){
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-
-                    // here is the Alpha channel
-
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[i+radiusY] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = i+radiusY;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[i+radiusY] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = i+radiusY;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[i+radiusY] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = i+radiusY;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[i+radiusY] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = i+radiusY;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // Now is the inner body of the column
-                // when radiusY < h <= 2*radiusY
-                for (int i = h-radiusY; i<= radiusY; i++){
-                    destPixels[dp] = destPixels[dp-dstScanStride];
-                    dp += dstScanStride;
-                }
-                // The circular buffer is full now
-
-                for (int i = radiusY+1; i<h; i++){
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[bufferHead+1];
-                        maxIndexA = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    else {
-                        a = bufferA[maxIndexA];
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[bufferHead+1];
-                        maxIndexR = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    else {
-                        r = bufferR[maxIndexR];
-                    }
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[bufferHead+1];
-                        maxIndexG = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                    }
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[bufferHead+1];
-                        maxIndexB = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                    }
-
-                    // discard the leftmost element
-                    bufferHead++;
-
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // return to the first pixel of the next column
-            }
-        } // when radiusY < h <= 2*radiusY
+        for (int x=0, y=range-1; x<n; x++, y++, dp+=step)
+            dstPixels[dp] = pack(max(h[x], g[y])) ^ inv;
     }
 
     /**
@@ -823,7 +345,12 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
      * then the source is modified.
      * <p>
      * The filtering kernel(the operation range for each pixel) is a
-     * rectangle of width 2*radiusX+1 and height radiusY+1
+     * rectangle of width 2*radiusX+1 and height 2*radiusY+1.  The
+     * kernel is separable, so the rows are filtered first and the
+     * columns of the result next.  Each line is filtered with the
+     * van Herk/Gil-Werman algorithm, which takes three comparisons per
+     * pixel whatever the radius.  Large images are
+     * filtered in bands, see {@link ParallelBands}.
      * <p>
      * @param src the Raster to be filtered
      * @param dest stores the filtered image. If null, a destination will
@@ -832,12 +359,6 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
      */
     public WritableRaster filter(Raster src, WritableRaster dest){
 
-        //
-        //This method sorts the pixel values in the kernel window in two steps:
-        // 1. sort by row and store the result into an intermediate matrix
-        // 2. sort the intermediate matrix by column and output the max/min value
-        //    into the destination matrix element
-
         //check destation
         if(dest!=null) checkCompatible(dest.getSampleModel());
         else {
@@ -848,14 +369,24 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
 
         final int w = src.getWidth();
         final int h = src.getHeight();
+        if ((w == 0) || (h == 0))
+            return dest;
 
         // Access the integer buffer for each image.
         DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        final int srcOff = srcDB.getOffset();
-        final int dstOff = dstDB.getOffset();
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)src.getSampleModel();
+        final int srcOff = srcDB.getOffset() +
+            sppsm.getOffset(src.getMinX() - src.getSampleModelTranslateX(),
+                            src.getMinY() - src.getSampleModelTranslateY());
+
+        sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
+        final int dstOff = dstDB.getOffset() +
+            sppsm.getOffset(dest.getMinX() - dest.getSampleModelTranslateX(),
+                            dest.getMinY() - dest.getSampleModelTranslateY());
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
@@ -866,660 +397,35 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
         final int[] srcPixels = srcDB.getBankData()[0];
         final int[] destPixels = dstDB.getBankData()[0];
 
-        // The pointer of src and dest indicating where the pixel values are
-        int sp, dp, cp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // In both round, we are using an optimization approach
-        // to reduce excessive computation to sort values around
-        // the current pixel. The idea is as follows:
-        //           ----------------
-        //           |*|V|V|$|N|V|V|&|
-        //           ----------------
-        // For example, suppose we've finished pixel"$" and come
-        // to "N", the radius is 3. Then we must have got the max/min
-        // value and index array for "$". If the max/min is at
-        // "*"(using the index array to judge this),
-        // we need to recompute a max/min and the index array
-        // for "N"; if the max/min is not at "*", we can
-        // reuse the current max/min: we simply compare it with
-        // "&", and update the max/min and the index array.
-
         //
-        // The first round: sort by row
+        // The first round: filter the rows of src into dest
         //
-        if (w<=2*radiusX){
-            specialProcessRow(src, dest);
-        }
-
-        // when the size is large enough, we can
-        // use standard optimization method
-        else {
-
-            final int [] bufferA = new int [rangeX];
-            final int [] bufferR = new int [rangeX];
-            final int [] bufferG = new int [rangeX];
-            final int [] bufferB = new int [rangeX];
-
-            for (int i=0; i<h; i++){
-                // initialization of pointers, indice
-                // at the head of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                //
-                // j=0 : Initialization, compute the max/min and
-                //       index array for the use of other pixels.
-                //
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusX; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                destPixels[dp++] = (a << 24) | r | g | b;
-
-                //
-                // 1 <= j <= radiusX : The left margin of each row.
-                //
-                for (int j=1; j<=radiusX; j++){
-                    lastPixel = srcPixels[sp++];
-
-                    // here is the Alpha channel
-
-                    // we retrieve the previous max/min value
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[j+radiusX] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = j+radiusX;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[j+radiusX] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = j+radiusX;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[j+radiusX] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = j+radiusX;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[j+radiusX] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = j+radiusX;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-
-                //
-                // radiusX <= j <= w-1-radiusX : Inner body of the row, between
-                //                               left and right margins
-                //
-                for (int j=radiusX+1; j<=w-1-radiusX; j++){
-                    lastPixel = srcPixels[sp++];
-                    a1 = lastPixel>>>24;
-                    r1 = lastPixel&0xff0000;
-                    g1 = lastPixel&0xff00;
-                    b1 = lastPixel&0xff;
-                    bufferA[bufferHead] = a1;
-                    bufferR[bufferHead] = r1;
-                    bufferG[bufferHead] = g1;
-                    bufferB[bufferHead] = b1;
-
-                    // Alpha channel:
-                    // we need to recompute a local max/min
-                    // and update the max/min index
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[0];
-                        maxIndexA = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        a = bufferA[maxIndexA];
-                        if (isBetter(a1, a, doDilation)){
-                            a = a1;
-                            maxIndexA = bufferHead;
-                        }
-                    }
-
-                    // Red channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[0];
-                        maxIndexR = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        r = bufferR[maxIndexR];
-                        if (isBetter(r1, r, doDilation)){
-                            r = r1;
-                            maxIndexR = bufferHead;
-                        }
-                    }
-
-                    // Green channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[0];
-                        maxIndexG = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
+        ParallelBands.run
+            (0, h, w*h, new ParallelBands.Band() {
+                    public void run(int lo, int hi) {
+                        LineBuffers lb = new LineBuffers(w, radiusX);
+                        for (int i=lo; i<hi; i++) {
+                            filterLine(srcPixels, srcOff + i*srcScanStride,
+                                       destPixels, dstOff + i*dstScanStride,
+                                       1, w, radiusX, lb);
                         }
                     }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                        if (isBetter(g1, g, doDilation)){
-                            g = g1;
-                            maxIndexG = bufferHead;
-                        }
-                    }
-
-                    // Blue channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[0];
-                        maxIndexB = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                        if (isBetter(b1, b, doDilation)){
-                            b = b1;
-                            maxIndexB = bufferHead;
-                        }
-                    }
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                    bufferHead = (bufferHead+1)%rangeX;
-                }
-
-                //
-                // w-radiusX <= j < w : The right margin of the row
-                //
-
-                // Head will be updated to indicate the current head
-                // of the remaining buffer
-                int head;
-                // Tail is where the last element is
-                final int tail = (bufferHead == 0)?rangeX-1:bufferHead -1;
-                int count = rangeX-1;
-
-                for (int j=w-radiusX; j<w; j++){
-                    head = (bufferHead+1)%rangeX;
-                    // Dealing with Alpha Channel:
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            a1 = bufferA[hd];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Red Channel:
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            r1 = bufferR[hd];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Green Channel:
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            g1 = bufferG[hd];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Blue Channel:
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            b1 = bufferB[hd];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                    bufferHead = (bufferHead+1)%rangeX;
-                    // we throw another element
-                    count--;
-                }// end of the right margin of this row
-
-                // return to the beginning of the next row
-            }
-        }// end of the first round!
+                });
 
         //
-        // Second round: sort by column
-        // the difference from the first round is that
-        // now we are accessing the intermediate matrix
+        // The second round: filter the columns of dest in place
         //
-
-        // When the image size is smaller than the
-        // Kernel size
-        if (h<=2*radiusY){
-            specialProcessColumn(src, dest);
-        }
-
-        // when the size is large enough, we can
-        // use standard optimization method
-        else {
-            final int [] bufferA = new int [rangeY];
-            final int [] bufferR = new int [rangeY];
-            final int [] bufferG = new int [rangeY];
-            final int [] bufferB = new int [rangeY];
-
-            for (int j=0; j<w; j++){
-                // initialization of pointers, indice
-                // at the head of each column
-                dp = dstOff + j;
-                cp = dstOff + j;
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                // i=0 : The first pixel
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusY; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                destPixels[dp] = (a << 24) | r | g | b;
-                // go to the next element in the column.
-                dp += dstScanStride;
-
-                // 1 <= i <= radiusY : The upper margin of each row
-                for (int i=1; i<=radiusY; i++){
-                    int maxI = i+radiusY;
-                    // we can reuse the previous max/min value
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-
-                    // here is the Alpha channel
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[maxI] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = maxI;
-                    }
-
-                    // now we deal with the Red channel
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[maxI] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = maxI;
-                    }
-
-                    // now we deal with the Green channel
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[maxI] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = maxI;
-                    }
-
-                    // now we deal with the Blue channel
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[maxI] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = maxI;
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-
-                //
-                // radiusY +1 <= i <= h-1-radiusY:
-                //    inner body of the column between upper and lower margins
-                //
-
-                for (int i=radiusY+1; i<=h-1-radiusY; i++){
-
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = lastPixel>>>24;
-                    r1 = lastPixel&0xff0000;
-                    g1 = lastPixel&0xff00;
-                    b1 = lastPixel&0xff;
-                    bufferA[bufferHead] = a1;
-                    bufferR[bufferHead] = r1;
-                    bufferG[bufferHead] = g1;
-                    bufferB[bufferHead] = b1;
-
-                    // here we check if the previous max/min value can be
-                    // reused safely and, if possible, reuse the previous
-                    // maximum value
-
-                    // Alpha channel:
-
-                    // Recompute the local max/min
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[0];
-                        maxIndexA = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        a = bufferA[maxIndexA];
-                        if (isBetter(a1, a, doDilation)){
-                            a = a1;
-                            maxIndexA = bufferHead;
-                        }
-                    }
-
-                    // Red channel:
-
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[0];
-                        maxIndexR = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        r = bufferR[maxIndexR];
-                        if (isBetter(r1, r, doDilation)){
-                            r = r1;
-                            maxIndexR = bufferHead;
-                        }
-                    }
-
-                    // Green channel
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[0];
-                        maxIndexG = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                        if (isBetter(g1, g, doDilation)){
-                            g = g1;
-                            maxIndexG = bufferHead;
+        ParallelBands.run
+            (0, w, w*h, new ParallelBands.Band() {
+                    public void run(int lo, int hi) {
+                        LineBuffers lb = new LineBuffers(h, radiusY);
+                        for (int j=lo; j<hi; j++) {
+                            filterLine(destPixels, dstOff + j,
+                                       destPixels, dstOff + j,
+                                       dstScanStride, h, radiusY, lb);
                         }
                     }
-
-                    // Blue channel:
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[0];
-                        maxIndexB = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                        if (isBetter(b1, b, doDilation)){
-                            b = b1;
-                            maxIndexB = bufferHead;
-                        }
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                    bufferHead = (bufferHead+1)%rangeY;
-                }
-
-                //
-                // h-radiusY <= i <= h-1 : The lower margin of the column
-                //
-
-                // head will be updated to indicate the current head
-                // of the remaining buffer:
-                int head;
-                // tail is where the last element in the buffer is
-                final int tail = (bufferHead == 0)?2*radiusY:bufferHead -1;
-                int count = rangeY-1;
-
-                for (int i= h-radiusY; i<h-1; i++){
-                    head = (bufferHead +1)%rangeY;
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            a1 = bufferA[hd];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            r1 = bufferR[hd];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            g1 = bufferG[hd];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            b1 = bufferB[hd];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                    bufferHead = (bufferHead+1)%rangeY;
-                    // we throw out this useless element
-                    count--;
-                }
-                // return to the beginning of the next column
-            }
-        }// end of the second round!
+                });
 
         return dest;
     }// end of the filter() method for Raster
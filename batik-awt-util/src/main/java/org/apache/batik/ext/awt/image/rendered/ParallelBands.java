@@ -0,0 +1,141 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Splits the work of an image operation over ranges of rows or
+ * columns, and runs the pieces on an executor.  Used by the filters
+ * whose tiles are costly enough to be worth spreading across
+ * processors.  This is off by default: the work runs on the thread
+ * that requests the tile until an application supplies an executor
+ * with {@link #setExecutor}.
+ *
+ * @version $Id$
+ */
+public final class ParallelBands {
+
+    /**
+     * The smallest number of pixels for which the work is split
+     * across threads.
+     */
+    public static final int MIN_PARALLEL_PIXELS = 256*256;
+
+    /**
+     * The smallest number of rows or columns given to one thread.
+     */
+    public static final int MIN_BAND_SIZE = 16;
+
+    /**
+     * The executor the bands are run on, null to run them on the
+     * calling thread.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * A piece of work over a range of rows or columns.
+     */
+    public interface Band {
+        /**
+         * Does the work for <code>lo</code> (inclusive) to
+         * <code>hi</code> (exclusive).
+         */
+        void run(int lo, int hi);
+    }
+
+    private ParallelBands() {
+    }
+
+    /**
+     * Sets the executor the bands are run on.  The executor stays
+     * owned by the caller, which must shut it down once it has been
+     * replaced.  Passing null, the default, makes the operations run
+     * entirely on the thread that requests the tile.
+     */
+    public static synchronized void setExecutor(ExecutorService es) {
+        executor = es;
+    }
+
+    /**
+     * Returns the executor the bands are run on, or null if they run
+     * on the calling thread.
+     */
+    public static synchronized ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs <code>band</code> over <code>lo</code> to <code>hi</code>,
+     * split across the executor when <code>pixels</code> is at least
+     * {@link #MIN_PARALLEL_PIXELS}.  The calling thread takes part in
+     * the work, and runs any piece no pool thread has picked up yet,
+     * so this can't deadlock even when called from a thread of the
+     * executor.
+     */
+    public static void run(int lo, int hi, int pixels, final Band band) {
+        ExecutorService es = null;
+        if (pixels >= MIN_PARALLEL_PIXELS)
+            es = getExecutor();
+        int n = 1;
+        if (es != null) {
+            n = Math.min(Runtime.getRuntime().availableProcessors(),
+                         (hi-lo)/MIN_BAND_SIZE);
+        }
+        if (n <= 1) {
+            band.run(lo, hi);
+            return;
+        }
+
+        FutureTask [] tasks = new FutureTask[n-1];
+        int len = hi-lo;
+        try {
+            for (int i=0; i<n-1; i++) {
+                final int b0 = lo + (int)((long)len* i   /n);
+                final int b1 = lo + (int)((long)len*(i+1)/n);
+                tasks[i] = new FutureTask(new Runnable() {
+                        public void run() {
+                            band.run(b0, b1);
+                        }
+                    }, null);
+                es.execute(tasks[i]);
+            }
+            band.run(lo + (int)((long)len*(n-1)/n), hi);
+            for (int i=0; i<n-1; i++) {
+                tasks[i].run();
+                tasks[i].get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error)            throw (Error)t;
+            throw new RuntimeException(t);
+        } finally {
+            for (int i=0; i<n-1; i++) {
+                if (tasks[i] != null)
+                    tasks[i].cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.batik.util.CleanerThread;
+import org.apache.batik.util.DoublyLinkedList;
+
+/**
+ * An LRU cache split into independently locked stripes, with a
+ * memory budget expressed in bytes rather than in a number of
+ * entries.  Each object is always handled by the same stripe, so
+ * threads working on different tiles rarely contend for the same
+ * lock.  The least recently used order is kept per stripe, and each
+ * stripe gets an equal share of the budget.
+ *
+ * <p>The cache also keeps track of the memory used by each tile
+ * owner (see {@link TileLRUMember#getOwner()}) and counts hits,
+ * misses and evictions.  Owners are only weakly referenced, and the
+ * tiles of an owner that has been garbage collected are dropped.
+ *
+ * @version $Id$
+ */
+public class StripedLRUCache extends LRUCache {
+
+    /**
+     * The size accounted for objects whose size is not known.
+     */
+    protected static final long DEFAULT_OBJECT_SIZE = 1;
+
+    /**
+     * A node that remembers what it was accounted for.
+     */
+    protected static class SizedNode extends LRUNode {
+        long      size;
+        Reference owner;
+    }
+
+    /**
+     * The weak reference of a node to its owner.  The node is dropped
+     * once the owner has been garbage collected, as nothing can ask
+     * for its tile anymore.
+     */
+    protected class OwnerReference extends CleanerThread.WeakReferenceCleared {
+        Stripe    stripe;
+        SizedNode node;
+
+        OwnerReference(Object owner, Stripe stripe, SizedNode node) {
+            super(owner);
+            this.stripe = stripe;
+            this.node   = node;
+        }
+
+        public void cleared() {
+            synchronized (stripe) {
+                if ((node.owner == this) && (node.getObj() != null))
+                    unlink(stripe, node);
+            }
+        }
+    }
+
+    /**
+     * One independently locked part of the cache.
+     */
+    protected static class Stripe {
+        DoublyLinkedList used = new DoublyLinkedList();
+        long budget;
+        long size;
+        Map  owners = new WeakHashMap();
+    }
+
+    protected Stripe [] stripes;
+    protected volatile long budget;
+
+    protected final AtomicLong hits      = new AtomicLong();
+    protected final AtomicLong misses    = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * The default number of stripes.  Each stripe only gets a fraction
+     * of the budget, so more stripes means fewer tiles per stripe.
+     */
+    public static final int DEFAULT_STRIPES = 8;
+
+    /**
+     * Creates a cache with <code>DEFAULT_STRIPES</code> stripes.
+     * @param budget The memory budget, in bytes.
+     */
+    public StripedLRUCache(long budget) {
+        this(budget, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param budget The memory budget, in bytes.
+     * @param numStripes The number of stripes, rounded up to a power
+     *                   of two.
+     */
+    public StripedLRUCache(long budget, int numStripes) {
+        super(1);
+        int n = 1;
+        while (n < numStripes) n <<= 1;
+        stripes = new Stripe[n];
+        for (int i=0; i<n; i++)
+            stripes[i] = new Stripe();
+        setMemoryBudget(budget);
+    }
+
+    /**
+     * Returns the stripe in charge of <code>obj</code>.
+     */
+    protected Stripe getStripe(LRUObj obj) {
+        int h = System.identityHashCode(obj);
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length-1)];
+    }
+
+    /**
+     * Returns the number of bytes <code>obj</code> holds on to.
+     */
+    protected long sizeOf(LRUObj obj) {
+        if (!(obj instanceof TileLRUMember))
+            return DEFAULT_OBJECT_SIZE;
+        Raster ras = ((TileLRUMember)obj).hRaster;
+        if (ras == null)
+            return DEFAULT_OBJECT_SIZE;
+        DataBuffer db = ras.getDataBuffer();
+        return ((long)db.getSize() * db.getNumBanks() *
+                DataBuffer.getDataTypeSize(db.getDataType())) / 8;
+    }
+
+    /**
+     * Returns the owner <code>obj</code> is accounted to.
+     */
+    protected Object ownerOf(LRUObj obj) {
+        if (!(obj instanceof TileLRUMember))
+            return null;
+        return ((TileLRUMember)obj).getOwner();
+    }
+
+    /**
+     * Sets the memory budget of the cache.  Least recently used
+     * objects are evicted right away if the cache is over budget.
+     * @param bytes The new budget, in bytes.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 0) bytes = 0;
+        budget = bytes;
+        long share = bytes / stripes.length;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.budget = share;
+                evict(s, null);
+            }
+        }
+    }
+
+    /**
+     * Returns the memory budget of the cache, in bytes.
+     */
+    public long getMemoryBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the memory currently held by the cache, in bytes.
+     */
+    public long getMemoryUsage() {
+        long ret = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                ret += s.size;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the memory currently held by the cache on behalf of
+     * <code>owner</code>, in bytes.
+     */
+    public long getMemoryUsage(Object owner) {
+        long ret = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                long [] sz = (long [])s.owners.get(owner);
+                if (sz != null)
+                    ret += sz[0];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the number of lookups that found their object in the
+     * cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to compute their object.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of objects dropped to stay within budget.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public int getUsed() {
+        int ret = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                ret += s.used.getSize();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Sets the budget to <code>newSz</code> tiles of the default
+     * tile size.
+     */
+    public void setSize(int newSz) {
+        int ts = AbstractTiledRed.getDefaultTileSize();
+        setMemoryBudget((long)newSz * ts * ts * 4);
+    }
+
+    public void flush() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                while (s.used.getSize() > 0) {
+                    unlink(s, (SizedNode)s.used.getTail());
+                }
+            }
+        }
+    }
+
+    public void remove(LRUObj obj) {
+        Stripe s = getStripe(obj);
+        synchronized (s) {
+            LRUNode nde = obj.lruGet();
+            if (nde == null) return;
+            unlink(s, (SizedNode)nde);
+        }
+    }
+
+    public void touch(LRUObj obj) {
+        Stripe s = getStripe(obj);
+        synchronized (s) {
+            LRUNode nde = obj.lruGet();
+            if (nde == null) return;
+            s.used.touch(nde);
+        }
+    }
+
+    public void add(LRUObj obj) {
+        Stripe s = getStripe(obj);
+        synchronized (s) {
+            SizedNode nde = (SizedNode)obj.lruGet();
+            long sz = sizeOf(obj);
+            Object owner = ownerOf(obj);
+
+            if (nde != null) {
+                // already linked in, the object may have a new raster.
+                account(s, ownerOf(nde), -nde.size);
+                nde.size  = sz;
+                if (owner != ownerOf(nde))
+                    nde.owner = createOwnerReference(owner, s, nde);
+                account(s, owner, sz);
+                s.used.touch(nde);
+            } else {
+                nde = new SizedNode();
+                nde.setObj(obj);
+                nde.size  = sz;
+                nde.owner = createOwnerReference(owner, s, nde);
+                account(s, owner, sz);
+                s.used.add(nde);
+            }
+            evict(s, nde);
+        }
+    }
+
+    /**
+     * Returns a weak reference to <code>owner</code> for
+     * <code>nde</code>, or null if <code>owner</code> is null.
+     */
+    protected Reference createOwnerReference(Object owner, Stripe s,
+                                             SizedNode nde) {
+        if (owner == null)
+            return null;
+        return new OwnerReference(owner, s, nde);
+    }
+
+    /**
+     * Returns the owner <code>nde</code> is accounted to, or null if
+     * it has none or it has been garbage collected.
+     */
+    protected static Object ownerOf(SizedNode nde) {
+        return (nde.owner == null) ? null : nde.owner.get();
+    }
+
+    /**
+     * Drops least recently used nodes from <code>s</code> until it is
+     * within its budget.  Must be called with the lock of
+     * <code>s</code> held.
+     * @param keep A node that must stay in the cache, may be null.
+     */
+    protected void evict(Stripe s, SizedNode keep) {
+        while (s.size > s.budget && s.used.getSize() > 0) {
+            SizedNode nde = (SizedNode)s.used.getTail();
+            if (nde == keep) {
+                if (s.used.getSize() == 1) return;
+                s.used.touch(nde);
+                continue;
+            }
+            unlink(s, nde);
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes <code>nde</code> from <code>s</code>.  Must be called
+     * with the lock of <code>s</code> held.
+     */
+    protected void unlink(Stripe s, SizedNode nde) {
+        s.used.remove(nde);
+        account(s, ownerOf(nde), -nde.size);
+        nde.owner = null;
+        nde.setObj(null);
+    }
+
+    /**
+     * Adds <code>delta</code> bytes to the usage of <code>s</code>
+     * and <code>owner</code>.  Must be called with the lock of
+     * <code>s</code> held.
+     */
+    protected void account(Stripe s, Object owner, long delta) {
+        s.size += delta;
+        if (owner == null) return;
+
+        long [] sz = (long [])s.owners.get(owner);
+        if (sz == null) {
+            sz = new long[1];
+            s.owners.put(owner, sz);
+        }
+        sz[0] += delta;
+        if (sz[0] <= 0)
+            s.owners.remove(owner);
+    }
+
+    protected void print() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                System.out.println("In Use: " + s.used.getSize() +
+                                   " Bytes: " + s.size +
+                                   " Budget: " + s.budget);
+            }
+        }
+    }
+}
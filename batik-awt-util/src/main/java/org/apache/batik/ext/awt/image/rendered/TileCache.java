@@ -21,14 +21,61 @@ package org.apache.batik.ext.awt.image.rendered;
 import java.awt.image.RenderedImage;
 
 /**
+ * The global cache of computed tiles.  The cache is bounded by a
+ * memory budget in bytes and is split into independently locked
+ * stripes so rendering threads don't contend on a single lock.
  *
  * @version $Id$
  */
 public class TileCache {
-        private static LRUCache cache = new LRUCache(50);
+        private static StripedLRUCache cache = new StripedLRUCache(0);
+        static {
+                // Same budget as the old 50 tile LRU cache.
+                cache.setSize(50);
+        }
 
+        /**
+         * Sets the budget of the cache to <code>sz</code> tiles of the
+         * default tile size.
+         */
         public static void setSize(int sz) { cache.setSize(sz); }
 
+        /**
+         * Sets the memory budget of the cache, in bytes.
+         */
+        public static void setMemoryBudget(long bytes) {
+                cache.setMemoryBudget(bytes);
+        }
+
+        public static long getMemoryBudget() {
+                return cache.getMemoryBudget();
+        }
+
+        /**
+         * Returns the memory currently held by the cache, in bytes.
+         */
+        public static long getMemoryUsage() {
+                return cache.getMemoryUsage();
+        }
+
+        /**
+         * Returns the memory held by the cache for the tiles of
+         * <code>owner</code>, usually a <code>CachableRed</code>.
+         */
+        public static long getMemoryUsage(Object owner) {
+                return cache.getMemoryUsage(owner);
+        }
+
+        public static long getHitCount() { return cache.getHitCount(); }
+
+        public static long getMissCount() { return cache.getMissCount(); }
+
+        public static long getEvictionCount() {
+                return cache.getEvictionCount();
+        }
+
+        public static void resetStatistics() { cache.resetStatistics(); }
+
         public static TileStore getTileGrid(int minTileX, int minTileY,
                                        int xSz, int ySz, TileGenerator src) {
                 return new TileGrid(minTileX, minTileY, xSz, ySz, src, cache);
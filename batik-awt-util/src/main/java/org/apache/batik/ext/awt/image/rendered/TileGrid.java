@@ -75,12 +75,12 @@ public class TileGrid implements TileStore {
         if (row != null) {
             item = row[x];
             if (item == null) {
-                item = new TileLRUMember();
+                item = createMember();
                 row[x] = item;
             }
         } else {
             row = new TileLRUMember[xSz];
-            item = new TileLRUMember();
+            item = createMember();
             row[x] = item;
             rasters[y] = row;
         }
@@ -130,20 +130,23 @@ public class TileGrid implements TileStore {
             if (item != null)
                 ras = item.retrieveRaster();
             else {
-                item = new TileLRUMember();
+                item = createMember();
                 row[x] = item;
             }
         } else {
             row = new TileLRUMember[xSz];
             rasters[y] = row;
-            item = new TileLRUMember();
+            item = createMember();
             row[x] = item;
         }
 
-        if (ras == null) {
+        if (ras != null) {
+            cache.recordHit();
+        } else {
             if (DEBUG) System.out.println("Generating: ("+(x+minTileX)+", "+
                                           (y+minTileY) + ")");
             if (COUNT) synchronized (TileGrid.class) { misses++; }
+            cache.recordMiss();
             ras = source.genTile(x+minTileX, y+minTileY);
 
             // In all likelyhood the contents of this tile is junk!
@@ -161,6 +164,12 @@ public class TileGrid implements TileStore {
         return ras;
     }
 
+    private TileLRUMember createMember() {
+        TileLRUMember item = new TileLRUMember();
+        item.setOwner(source);
+        return item;
+    }
+
     static int requests;
     static int misses;
 }
@@ -21,6 +21,7 @@ package org.apache.batik.ext.awt.image.rendered;
 import  java.awt.image.Raster;
 import  java.lang.ref.Reference;
 import  java.lang.ref.SoftReference;
+import  java.lang.ref.WeakReference;
 
 /**
  * This is a useful class that wraps a Raster for patricipation in
@@ -37,6 +38,7 @@ public class TileLRUMember implements LRUCache.LRUObj {
         protected LRUCache.LRUNode myNode  = null;
         protected Reference        wRaster = null;
         protected Raster           hRaster = null;
+        protected Reference        owner   = null;
 
         public TileLRUMember() { }
 
@@ -44,6 +46,25 @@ public class TileLRUMember implements LRUCache.LRUObj {
             setRaster(ras);
         }
 
+        /**
+         * Returns the object the memory of this tile is accounted to,
+         * usually the tile's generator, or null if it has been garbage
+         * collected.
+         */
+        public Object getOwner() {
+            if (owner == null) return null;
+            return owner.get();
+        }
+
+        /**
+         * Sets the owner of this tile.  It is only weakly referenced, so
+         * that the cached tiles don't keep their generators alive.
+         */
+        public void setOwner(Object owner) {
+            if (owner == null) this.owner = null;
+            else               this.owner = new WeakReference(owner);
+        }
+
         public void setRaster(Raster ras) {
             hRaster = ras;
             wRaster = new SoftReference(ras);
@@ -21,7 +21,8 @@ package org.apache.batik.ext.awt.image.rendered;
 import java.awt.Point;
 import java.awt.image.Raster;
 import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.batik.util.CleanerThread;
 import org.apache.batik.util.HaltingThread;
@@ -34,7 +35,7 @@ public class TileMap implements TileStore {
     private static final boolean DEBUG = false;
     private static final boolean COUNT = false;
 
-    private HashMap rasters=new HashMap();
+    private Map rasters=new ConcurrentHashMap();
 
     static class TileMapLRUMember extends TileLRUMember {
         public Point   pt;
@@ -54,6 +55,7 @@ public class TileMap implements TileStore {
             super(ras);
             this.parent = new SoftReference(parent);
             this.pt     = pt;
+            setOwner(parent.source);
         }
 
         public void setRaster(Raster ras) {
@@ -125,10 +127,13 @@ public class TileMap implements TileStore {
             ras = item.retrieveRaster();
         }
 
-        if (ras == null) {
+        if (ras != null) {
+            cache.recordHit();
+        } else {
             if (DEBUG) System.out.println("Generating: ("+(x)+", "+
                                           (y) + ")");
             if (COUNT) synchronized (TileMap.class) { misses++; }
+            cache.recordMiss();
             ras = source.genTile(x, y);
 
             // In all likelyhood the contents of this tile is junk!
@@ -29,6 +29,9 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This class creates a RenderedImage in conformance to the one
  * defined for the feTurbulence filter of the SVG specification.  What
@@ -210,8 +213,37 @@ public final class TurbulencePatternRed extends AbstractRed {
     private static final int BSize = 0x100;
     private static final int BM = 0xff;
     private static final double PerlinN = 0x1000;
-    private final int[] latticeSelector = new int[BSize + 1];
-    private final double[] gradient = new double[(BSize+1)*8];
+    private int[] latticeSelector;
+    private double[] gradient;
+
+    /**
+     * The lattice tables for one seed.  They are never modified once
+     * computed, so all the instances using the same seed share them.
+     */
+    static final class Lattice {
+        final int[] latticeSelector = new int[BSize + 1];
+        final double[] gradient = new double[(BSize+1)*8];
+    }
+
+    /**
+     * The maximum number of lattices kept in {@link #lattices}.
+     */
+    static final int MAX_LATTICES = 16;
+
+    /**
+     * The recently used lattices, by seed.
+     */
+    static final Map lattices = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_LATTICES;
+            }
+        };
+
+    /**
+     * The parameters that determine the generated pixels, used as
+     * part of the keys of the {@link TurbulenceTileCache}.
+     */
+    private double[] cacheParams;
 
     public double getBaseFrequencyX(){
         return baseFrequencyX;
@@ -256,7 +288,30 @@ public final class TurbulencePatternRed extends AbstractRed {
         return result;
     }
 
+    /**
+     * Sets up the lattice tables for <code>seed</code>, reusing those
+     * of a previous instance if possible.
+     */
     private void initLattice(int seed) {
+        Integer key = setupSeed(seed);
+        Lattice l;
+        synchronized (lattices) {
+            l = (Lattice)lattices.get(key);
+        }
+        if (l == null) {
+            l = createLattice(key);
+            synchronized (lattices) {
+                lattices.put(key, l);
+            }
+        }
+        latticeSelector = l.latticeSelector;
+        gradient        = l.gradient;
+    }
+
+    private Lattice createLattice(int seed) {
+        Lattice l = new Lattice();
+        final int[] latticeSelector = l.latticeSelector;
+        final double[] gradient     = l.gradient;
         double u, v, s;
         int i, j, k, s1, s2;
         seed = setupSeed(seed);
@@ -294,6 +349,7 @@ public final class TurbulencePatternRed extends AbstractRed {
         latticeSelector[BSize] = latticeSelector[0];
         for (j=0; j<8; j++)
             gradient[(BSize*8)+j] = gradient[j];
+        return l;
     }
 
 
@@ -1039,7 +1095,11 @@ public final class TurbulencePatternRed extends AbstractRed {
     }
 
     /**
-     * Generates a Perlin noise pattern into dest Raster.
+     * Generates a Perlin noise pattern into dest Raster.  Large
+     * rasters are split into bands of rows that are generated on the
+     * executor set on {@link ParallelBands}, if any.  If a
+     * {@link TurbulenceTileCache} is set, the rows are looked up in it
+     * first.
      * @param dest Raster to fill with the pattern.
      */
     public WritableRaster copyData(WritableRaster dest) {
@@ -1051,58 +1111,104 @@ public final class TurbulencePatternRed extends AbstractRed {
                 ("Cannot generate a noise pattern into a null raster");
 
 
-        int w = dest.getWidth();
-        int h = dest.getHeight();
+        final int w = dest.getWidth();
+        final int h = dest.getHeight();
 
         // Access the integer buffer for the destination Raster
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
         SinglePixelPackedSampleModel sppsm;
-        int minX = dest.getMinX();
-        int minY = dest.getMinY();
+        final int minX = dest.getMinX();
+        final int minY = dest.getMinY();
         sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        int dstOff = dstDB.getOffset() +
+        final int dstOff = dstDB.getOffset() +
             sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
                             minY - dest.getSampleModelTranslateY());
 
         final int[] destPixels = dstDB.getBankData()[0];
-        int dstAdjust = sppsm.getScanlineStride() - w;
+        final int scanStride = sppsm.getScanlineStride();
+
+        TurbulenceTileCache cache = TurbulenceTileCache.getSharedCache();
+        TurbulenceTileCache.Key key = null;
+        if (cache != null) {
+            key = new TurbulenceTileCache.Key
+                (cacheParams, new Rectangle(minX, minY, w, h));
+            int[] pixels = cache.get(key);
+            if (pixels != null) {
+                for (int i=0; i<h; i++)
+                    System.arraycopy(pixels, i*w, destPixels,
+                                     dstOff + i*scanStride, w);
+                return dest;
+            }
+        }
+
+        // The cost of a pixel grows with the number of octaves.
+        int cost = w*h*Math.max(numOctaves, 1);
+        ParallelBands.run
+            (0, h, cost, new ParallelBands.Band() {
+                    public void run(int lo, int hi) {
+                        fillRows(destPixels, dstOff, scanStride,
+                                 minX, minY, w, lo, hi);
+                    }
+                });
+
+        if (cache != null) {
+            int[] pixels = new int[w*h];
+            for (int i=0; i<h; i++)
+                System.arraycopy(destPixels, dstOff + i*scanStride,
+                                 pixels, i*w, w);
+            cache.put(key, pixels);
+        }
 
-        // Generate pixel pattern now
-        int i, end, dp=dstOff;
+        return dest;
+    }
+
+    /**
+     * Generates rows <code>y0</code> to <code>y1</code> of the noise
+     * pattern of a raster.  The user space point of the start of
+     * each row is computed from scratch, so the result does not
+     * depend on how the raster is split into bands.
+     * @param destPixels the pixels of the raster
+     * @param dstOff the offset of the raster's first pixel
+     * @param scanStride the scanline stride of the raster
+     * @param minX the x coordinate of the raster
+     * @param minY the y coordinate of the raster
+     * @param w the width of the raster
+     */
+    private void fillRows(int[] destPixels, int dstOff, int scanStride,
+                          int minX, int minY, int w, int y0, int y1) {
         final int[] rgb = new int[4];
         final double[] fSum = {0, 0, 0, 0};
         final double[] noise = {0, 0, 0, 0};
 
-        final double tx0, tx1, ty0, ty1;
+        final double tx0, tx1;
         tx0 = tx[0];
         tx1 = tx[1];
-        // Update for y step, (note we substract all the stuff we
-        // added while going across the scan line).
-        ty0 = ty[0]-(w*tx0);
-        ty1 = ty[1]-(w*tx1);
-
-        double[] p = {minX, minY};
-        txf.transform(p, 0, p, 0, 1);
-        double point_0 = p[0];
-        double point_1 = p[1];
-
-        if(isFractalNoise){
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++) {
+
+        final StitchInfo si =
+            (stitchInfo == null) ? null : new StitchInfo();
+        final boolean four = (channels.length == 4);
+
+        double[] p = new double[2];
+        for (int i=y0; i<y1; i++) {
+            p[0] = minX;
+            p[1] = minY + i;
+            txf.transform(p, 0, p, 0, 1);
+            double point_0 = p[0];
+            double point_1 = p[1];
+
+            int dp  = dstOff + i*scanStride;
+            int end = dp + w;
+            if(isFractalNoise){
+                if(si == null){
+                    if (four) {
+                        for(; dp<end; dp++) {
                             destPixels[dp] = turbulenceFractal_4
                                 (point_0, point_1, fSum);
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
+                    } else {
+                        for(; dp<end; dp++){
                             turbulenceFractal(rgb, point_0, point_1, fSum, noise);
 
                             // Write RGB value.
@@ -1113,16 +1219,10 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
                     }
                 }
-            }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
+                else{
+                    for(; dp<end; dp++){
                         si.assign(this.stitchInfo);
                         turbulenceFractalStitch(rgb, point_0, point_1,
                                                 fSum, noise, si);
@@ -1135,30 +1235,20 @@ public final class TurbulencePatternRed extends AbstractRed {
                         point_0 += tx0;
                         point_1 += tx1;
                     }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
                 }
             }
-        }
-        else{ // Loop for turbulence noise
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
+            else{ // Loop for turbulence noise
+                if(si == null){
+                    if (four) {
+                        for(; dp<end; dp++){
                             destPixels[dp] = turbulence_4
                                 (point_0, point_1, fSum);
 
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
+                    } else {
+                        for(; dp<end; dp++){
                             turbulence(rgb, point_0, point_1, fSum, noise);
 
                             // Write RGB value.
@@ -1169,16 +1259,10 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
                     }
                 }
-            }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
+                else{
+                    for(; dp<end; dp++){
                         si.assign(this.stitchInfo);
                         turbulenceStitch(rgb, point_0, point_1,
                                          fSum, noise, si);
@@ -1191,14 +1275,9 @@ public final class TurbulencePatternRed extends AbstractRed {
                         point_0 += tx0;
                         point_1 += tx1;
                     }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
                 }
             }
         }
-
-        return dest;
     }
 
     /**
@@ -1328,6 +1407,18 @@ public final class TurbulencePatternRed extends AbstractRed {
 
         initLattice(seed);
 
+        cacheParams = new double[] {
+            this.baseFrequencyX, this.baseFrequencyY, this.numOctaves,
+            this.seed, isFractalNoise ? 1 : 0, channels.length,
+            this.txf.getScaleX(), this.txf.getShearY(),
+            this.txf.getShearX(), this.txf.getScaleY(),
+            this.txf.getTranslateX(), this.txf.getTranslateY(),
+            (stitchInfo == null) ? -1 : stitchInfo.width,
+            (stitchInfo == null) ? -1 : stitchInfo.height,
+            (stitchInfo == null) ? -1 : stitchInfo.wrapX,
+            (stitchInfo == null) ? -1 : stitchInfo.wrapY
+        };
+
         ColorModel cm;
         if (alpha)
             cm = new DirectColorModel
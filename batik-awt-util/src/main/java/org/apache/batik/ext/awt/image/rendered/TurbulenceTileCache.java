@@ -0,0 +1,240 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the pixels generated by {@link TurbulencePatternRed},
+ * shared by all its instances.  Documents that use the same
+ * feTurbulence parameters at the same scale generate the same noise,
+ * so it only has to be computed once.
+ *
+ * <p>The pixels are keyed by the parameters of the noise, the
+ * transform from device to user space and the device space rectangle
+ * they cover.  The budget is expressed in bytes of pixels; the least
+ * recently used rectangles are dropped first.
+ *
+ * @version $Id$
+ */
+public class TurbulenceTileCache {
+
+    /**
+     * The default budget, in bytes.
+     */
+    public static final long DEFAULT_BUDGET = 16L * 1024 * 1024;
+
+    /**
+     * The cache used by the turbulence patterns.
+     */
+    protected static TurbulenceTileCache sharedCache;
+
+    /**
+     * Sets the cache used by the turbulence patterns.  None is used
+     * by default.
+     */
+    public static synchronized void setSharedCache(TurbulenceTileCache cache) {
+        sharedCache = cache;
+    }
+
+    /**
+     * Returns the cache used by the turbulence patterns, or null.
+     */
+    public static synchronized TurbulenceTileCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * The key of a rectangle of noise.
+     */
+    public static final class Key {
+        final double[] params;
+        final Rectangle rect;
+        final int hash;
+
+        /**
+         * @param params the parameters that determine the noise.
+         * @param rect the device space rectangle.
+         */
+        public Key(double[] params, Rectangle rect) {
+            this.params = params;
+            this.rect   = rect;
+            this.hash   = Arrays.hashCode(params) * 31 + rect.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return ((hash == k.hash) &&
+                    rect.equals(k.rect) &&
+                    Arrays.equals(params, k.params));
+        }
+    }
+
+    /**
+     * The pixels, in least recently used order.
+     */
+    protected LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    protected long budget;
+    protected long size;
+
+    protected final AtomicLong hits      = new AtomicLong();
+    protected final AtomicLong misses    = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with the default budget.
+     */
+    public TurbulenceTileCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * Creates a new cache.
+     * @param budget the budget, in bytes.
+     */
+    public TurbulenceTileCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the pixels stored under <code>key</code>, one int per
+     * pixel, row after row, or null.  The returned array must not be
+     * modified.
+     */
+    public int[] get(Key key) {
+        int[] ret;
+        synchronized (entries) {
+            ret = (int[])entries.get(key);
+        }
+        if (ret == null) misses.incrementAndGet();
+        else             hits.incrementAndGet();
+        return ret;
+    }
+
+    /**
+     * Stores the pixels of <code>key</code>.  The array must not be
+     * modified afterwards.
+     */
+    public void put(Key key, int[] pixels) {
+        long sz = 4L * pixels.length;
+        synchronized (entries) {
+            if (sz > budget)
+                return;
+            int[] old = (int[])entries.put(key, pixels);
+            if (old != null)
+                size -= 4L * old.length;
+            size += sz;
+            evict();
+        }
+    }
+
+    /**
+     * Drops the least recently used pixels until the cache is within
+     * its budget.  Must be called with the lock of
+     * <code>entries</code> held.
+     */
+    protected void evict() {
+        Iterator i = entries.values().iterator();
+        while (size > budget && i.hasNext()) {
+            int[] pixels = (int[])i.next();
+            i.remove();
+            size -= 4L * pixels.length;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all the pixels from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Sets the budget of the cache, in bytes.
+     */
+    public void setBudget(long budget) {
+        synchronized (entries) {
+            this.budget = budget;
+            evict();
+        }
+    }
+
+    /**
+     * Returns the budget of the cache, in bytes.
+     */
+    public long getBudget() {
+        synchronized (entries) {
+            return budget;
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by the cache.
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their pixels.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to generate the pixels.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of rectangles dropped to stay within budget.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+}
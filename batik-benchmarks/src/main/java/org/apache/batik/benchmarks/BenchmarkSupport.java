@@ -0,0 +1,231 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.svg.SVGDocument;
+
+/**
+ * Helpers shared by the benchmarks to load their inputs.
+ *
+ * <p>An input is either the name of a file in the Batik
+ * <code>samples</code> directory, or <code>synthetic:E:R</code> for a
+ * generated document with <code>E</code> styled shapes and an
+ * embedded stylesheet of <code>R</code> class rules.  The samples
+ * directory is looked up from the <code>batik.samples.dir</code>
+ * system property, then from the working directory and its parent.
+ *
+ * @version $Id$
+ */
+public final class BenchmarkSupport {
+
+    /**
+     * The system property giving the location of the samples.
+     */
+    public static final String SAMPLES_DIR_PROPERTY = "batik.samples.dir";
+
+    /**
+     * The prefix of generated inputs.
+     */
+    public static final String SYNTHETIC_PREFIX = "synthetic:";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Returns the directory holding the Batik samples.
+     */
+    public static File getSamplesDir() throws IOException {
+        String dir = System.getProperty(SAMPLES_DIR_PROPERTY);
+        if (dir != null) {
+            return new File(dir);
+        }
+        File cwd = new File(System.getProperty("user.dir"));
+        File f = new File(cwd, "samples");
+        if (f.isDirectory()) {
+            return f;
+        }
+        f = new File(cwd.getParentFile(), "samples");
+        if (f.isDirectory()) {
+            return f;
+        }
+        throw new IOException("Cannot find the samples directory, set "
+                              + SAMPLES_DIR_PROPERTY);
+    }
+
+    /**
+     * Returns the URI documents loaded from <code>input</code> should
+     * use as their base.
+     */
+    public static String getURI(String input) throws IOException {
+        if (input.startsWith(SYNTHETIC_PREFIX)) {
+            return new File(getSamplesDir(), "synthetic.svg").toURI()
+                .toString();
+        }
+        return new File(getSamplesDir(), input).toURI().toString();
+    }
+
+    /**
+     * Returns the bytes of <code>input</code>.
+     */
+    public static byte[] load(String input) throws IOException {
+        if (input.startsWith(SYNTHETIC_PREFIX)) {
+            String[] p = input.substring(SYNTHETIC_PREFIX.length())
+                .split(":");
+            int elements = Integer.parseInt(p[0]);
+            int rules = p.length > 1 ? Integer.parseInt(p[1]) : 0;
+            return createSyntheticDocument(elements, rules)
+                .getBytes("UTF-8");
+        }
+        InputStream in = new FileInputStream(new File(getSamplesDir(),
+                                                      input));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Generates a document with <code>elements</code> shapes spread
+     * over a 1000x1000 canvas, each using one of <code>rules</code>
+     * class selectors of an embedded stylesheet.
+     */
+    public static String createSyntheticDocument(int elements, int rules) {
+        Random r = new Random(42);
+        StringBuffer sb = new StringBuffer(elements * 96 + rules * 64);
+        sb.append("<svg xmlns='http://www.w3.org/2000/svg'"
+                  + " width='1000' height='1000'>\n");
+        if (rules > 0) {
+            sb.append("<style type='text/css'><![CDATA[\n");
+            for (int i = 0; i < rules; i++) {
+                sb.append(".c").append(i).append(" { fill: rgb(")
+                    .append(r.nextInt(256)).append(',')
+                    .append(r.nextInt(256)).append(',')
+                    .append(r.nextInt(256)).append("); stroke-width: ")
+                    .append(1 + r.nextInt(3)).append(" }\n");
+            }
+            sb.append("]]></style>\n");
+        }
+        for (int i = 0; i < elements; i++) {
+            int x = r.nextInt(980);
+            int y = r.nextInt(980);
+            if ((i & 1) == 0) {
+                sb.append("<rect x='").append(x).append("' y='").append(y)
+                    .append("' width='").append(1 + r.nextInt(20))
+                    .append("' height='").append(1 + r.nextInt(20));
+            } else {
+                sb.append("<path d='M").append(x).append(',').append(y)
+                    .append(" l").append(r.nextInt(20)).append(",")
+                    .append(r.nextInt(20)).append(" q5,-10 ")
+                    .append(r.nextInt(20)).append(",0 z");
+            }
+            sb.append("' stroke='black'");
+            if (rules > 0) {
+                sb.append(" class='c").append(r.nextInt(rules)).append('\'');
+            } else {
+                sb.append(" fill='blue'");
+            }
+            sb.append("/>\n");
+        }
+        sb.append("</svg>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Parses <code>content</code> into a new SVG document.
+     */
+    public static SVGDocument parse(String uri, byte[] content)
+        throws IOException {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createSVGDocument(uri, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Builds the GVT tree of <code>doc</code>.
+     */
+    public static GraphicsNode build(SVGDocument doc) {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        return new GVTBuilder().build(ctx, doc);
+    }
+
+    /**
+     * Creates a premultiplied ARGB image filled with random
+     * antialiased circles, used as filter input.
+     */
+    public static BufferedImage createTestImage(int width, int height) {
+        BufferedImage img = new BufferedImage
+            (width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                           RenderingHints.VALUE_ANTIALIAS_ON);
+        Random r = new Random(42);
+        int n = (width * height) / 4000;
+        for (int i = 0; i < n; i++) {
+            g.setColor(new Color(r.nextInt(256), r.nextInt(256),
+                                 r.nextInt(256), 64 + r.nextInt(192)));
+            double d = 4 + r.nextInt(40);
+            g.fill(new Ellipse2D.Double(r.nextInt(width), r.nextInt(height),
+                                        d, d));
+        }
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * An output stream that only counts what is written to it.
+     */
+    public static class CountingOutputStream extends OutputStream {
+        public long count;
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
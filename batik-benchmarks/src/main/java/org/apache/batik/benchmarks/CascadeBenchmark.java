@@ -0,0 +1,125 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.css.engine.CSSEngine;
+import org.apache.batik.css.engine.CSSStylableElement;
+import org.apache.batik.css.engine.value.Value;
+import org.apache.batik.dom.AbstractStylableDocument;
+import org.apache.batik.dom.ExtensibleDOMImplementation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.svg.SVGDocument;
+
+/**
+ * Measures the CSS cascade: a new engine is attached to an already
+ * parsed document, and the computed value of every property of
+ * every element is requested.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CascadeBenchmark {
+
+    @Param({"mapWaadt.svg", "synthetic:2000:200"})
+    public String input;
+
+    protected SVGDocument document;
+    protected BridgeContext context;
+    protected List elements;
+    protected CSSEngine engine;
+
+    @Setup
+    public void setup() throws Exception {
+        document = BenchmarkSupport.parse(BenchmarkSupport.getURI(input),
+                                          BenchmarkSupport.load(input));
+        // Building the tree once binds the document to the context,
+        // which the engine queries for font sizes and viewports.
+        context = new BridgeContext(new UserAgentAdapter());
+        new GVTBuilder().build(context, document);
+        elements = new ArrayList();
+        collect(document.getDocumentElement());
+    }
+
+    protected void collect(Node n) {
+        if (n instanceof CSSStylableElement) {
+            elements.add(n);
+        }
+        for (Node c = n.getFirstChild(); c != null; c = c.getNextSibling()) {
+            if (c instanceof Element) {
+                collect(c);
+            }
+        }
+    }
+
+    /**
+     * Attaches a fresh engine to the document, so no computed style
+     * nor parsed stylesheet survives from the previous invocation.
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+        AbstractStylableDocument doc = (AbstractStylableDocument)document;
+        ExtensibleDOMImplementation impl =
+            (ExtensibleDOMImplementation)doc.getImplementation();
+        engine = impl.createCSSEngine(doc, context);
+        doc.setCSSEngine(engine);
+        for (int i = 0; i < elements.size(); i++) {
+            ((CSSStylableElement)elements.get(i))
+                .setComputedStyleMap(null, null);
+        }
+    }
+
+    @Benchmark
+    public int cascade() {
+        int ret = 0;
+        int props = engine.getNumberOfProperties();
+        for (int i = 0; i < elements.size(); i++) {
+            CSSStylableElement elt = (CSSStylableElement)elements.get(i);
+            for (int p = 0; p < props; p++) {
+                Value v = engine.getComputedStyle(elt, null, p);
+                ret += v.getCssValueType();
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.benchmarks;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.ext.awt.image.rendered.BumpMap;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.DiffuseLightingRed;
+import org.apache.batik.ext.awt.image.rendered.GaussianBlurRed8Bit;
+import org.apache.batik.ext.awt.image.rendered.MorphologyOp;
+import org.apache.batik.ext.awt.image.rendered.TurbulencePatternRed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the raster filters behind the most expensive SVG filter
+ * primitives.  Each invocation creates new filter instances so that
+ * nothing is served from the tile cache.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FilterBenchmark {
+
+    @Param({"512"})
+    public int size;
+
+    @Param({"2", "8"})
+    public int radius;
+
+    protected BufferedImage image;
+    protected Rectangle bounds;
+
+    @Setup
+    public void setup() {
+        image = BenchmarkSupport.createTestImage(size, size);
+        bounds = new Rectangle(0, 0, size, size);
+    }
+
+    protected static Raster copy(CachableRed r, Rectangle bounds) {
+        WritableRaster wr = r.getColorModel().createCompatibleWritableRaster
+            (bounds.width, bounds.height);
+        wr = wr.createWritableTranslatedChild(bounds.x, bounds.y);
+        r.copyData(wr);
+        return wr;
+    }
+
+    @Benchmark
+    public Raster gaussianBlur() {
+        CachableRed src = new BufferedImageCachableRed(image);
+        return copy(new GaussianBlurRed8Bit(src, radius, null), bounds);
+    }
+
+    @Benchmark
+    public BufferedImage morphology() {
+        return new MorphologyOp(radius, radius, true).filter(image, null);
+    }
+
+    @Benchmark
+    public Raster turbulence() {
+        double freq = 0.05 / radius;
+        TurbulencePatternRed r = new TurbulencePatternRed
+            (freq, freq, radius, 0, false, null, new AffineTransform(),
+             bounds, ColorSpace.getInstance(ColorSpace.CS_sRGB), true);
+        return copy(r, bounds);
+    }
+
+    @Benchmark
+    public Raster diffuseLighting() {
+        BumpMap map = new BumpMap(image, radius, 1, 1);
+        DiffuseLightingRed r = new DiffuseLightingRed
+            (1, new DistantLight(45, 45, Color.white), map, bounds,
+             1, 1, false);
+        return copy(r, bounds);
+    }
+}
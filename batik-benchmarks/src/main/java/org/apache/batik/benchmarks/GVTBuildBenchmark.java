@@ -0,0 +1,75 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.gvt.GraphicsNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.svg.SVGDocument;
+
+/**
+ * Measures the construction of the GVT tree of a document.  Building
+ * the tree decorates the DOM, so each invocation gets a freshly
+ * parsed document.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GVTBuildBenchmark {
+
+    @Param({"batikLogo.svg", "mapWaadt.svg", "synthetic:2000:200"})
+    public String input;
+
+    protected String uri;
+    protected byte[] content;
+    protected SVGDocument document;
+
+    @Setup
+    public void setup() throws Exception {
+        uri = BenchmarkSupport.getURI(input);
+        content = BenchmarkSupport.load(input);
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() throws Exception {
+        document = BenchmarkSupport.parse(uri, content);
+    }
+
+    @Benchmark
+    public GraphicsNode build() {
+        return BenchmarkSupport.build(document);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.benchmarks;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.renderer.StaticRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rasterization of a GVT tree with a new
+ * {@link StaticRenderer}, at the document's natural size scaled by
+ * <code>scale</code>.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderBenchmark {
+
+    @Param({"batikLogo.svg", "mapWaadt.svg", "synthetic:2000:0"})
+    public String input;
+
+    @Param({"1"})
+    public double scale;
+
+    protected GraphicsNode root;
+    protected int width;
+    protected int height;
+
+    @Setup
+    public void setup() throws Exception {
+        root = BenchmarkSupport.build
+            (BenchmarkSupport.parse(BenchmarkSupport.getURI(input),
+                                    BenchmarkSupport.load(input)));
+        Rectangle2D b = root.getBounds();
+        width  = (int)Math.ceil(b.getMaxX() * scale);
+        height = (int)Math.ceil(b.getMaxY() * scale);
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        StaticRenderer r = new StaticRenderer();
+        r.setTree(root);
+        r.setTransform(AffineTransform.getScaleInstance(scale, scale));
+        r.updateOffScreen(width, height);
+        r.repaint(new Rectangle(0, 0, width, height));
+        BufferedImage ret = r.getOffScreen();
+        r.dispose();
+        return ret;
+    }
+}
@@ -153,19 +153,23 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
 
         familyName = familyName.toLowerCase();
 
-        // first see if this font family has already been resolved
-        GVTFontFamily resolvedFF =
-                (GVTFontFamily)resolvedFontFamilies.get(familyName);
-
-        if (resolvedFF == null) { // hasn't been resolved yet
-            // try to find a matching family name in the list of
-            // available fonts
-            String awtFamilyName = (String)fonts.get(familyName);
-            if (awtFamilyName != null) {
-                resolvedFF = new AWTFontFamily(awtFamilyName);
+        GVTFontFamily resolvedFF;
+        // The resolved families are shared by all the documents, which
+        // may be converted on several threads.
+        synchronized (resolvedFontFamilies) {
+            // first see if this font family has already been resolved
+            resolvedFF = (GVTFontFamily)resolvedFontFamilies.get(familyName);
+
+            if (resolvedFF == null) { // hasn't been resolved yet
+                // try to find a matching family name in the list of
+                // available fonts
+                String awtFamilyName = (String)fonts.get(familyName);
+                if (awtFamilyName != null) {
+                    resolvedFF = new AWTFontFamily(awtFamilyName);
+                }
+
+                resolvedFontFamilies.put(familyName, resolvedFF);
             }
-
-            resolvedFontFamilies.put(familyName, resolvedFF);
         }
 
         //  if (resolvedFF != null) {
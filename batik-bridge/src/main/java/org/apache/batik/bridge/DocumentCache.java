@@ -0,0 +1,483 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.batik.dom.svg.SVGDocumentFactory;
+import org.apache.batik.dom.util.DocumentDescriptor;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * A cache of parsed documents that can be shared by several
+ * {@link DocumentLoader}s, and so by several bridge contexts, possibly
+ * running on different threads.
+ *
+ * <p>The cache keeps a private copy of each document and hands out
+ * deep clones of it, since a document gets bound to the bridge context
+ * that uses it.  When several threads ask for a document that is not
+ * in the cache yet, only one of them parses it and the others wait
+ * for the result.
+ *
+ * <p>The cache holds on to its documents until they have to make room
+ * for others, least recently used first, or until they expire.  The
+ * budget is expressed in estimated bytes, see {@link #estimateSize}.
+ * A document larger than the whole budget is not kept at all.  A
+ * document read from a file is parsed again when the modification
+ * time or the length of the file changes; documents at other URIs are
+ * only parsed again when they expire.
+ *
+ * <p>All the loaders sharing a cache should use the same parser
+ * settings, as the URI is the only key.
+ *
+ * @version $Id$
+ */
+public class DocumentCache {
+
+    /**
+     * The default budget, in estimated bytes.
+     */
+    public static final long DEFAULT_BUDGET = 32L * 1024 * 1024;
+
+    /**
+     * The estimated size of a node, not counting its text.
+     */
+    protected static final int NODE_SIZE = 64;
+
+    /**
+     * The cache used by the loaders that are not given one.
+     */
+    protected static DocumentCache sharedCache;
+
+    /**
+     * Sets the cache used by the document loaders that are not given
+     * one explicitly.  None is used by default.
+     */
+    public static synchronized void setSharedCache(DocumentCache cache) {
+        sharedCache = cache;
+    }
+
+    /**
+     * Returns the cache used by the document loaders that are not
+     * given one explicitly, or null.
+     */
+    public static synchronized DocumentCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * The entries, in least recently used order.
+     */
+    protected LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    protected long budget;
+    protected long timeToLive;
+    protected long size;
+
+    protected final AtomicLong hits      = new AtomicLong();
+    protected final AtomicLong misses    = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with the default budget, whose documents
+     * never expire.
+     */
+    public DocumentCache() {
+        this(DEFAULT_BUDGET, 0);
+    }
+
+    /**
+     * Creates a new cache.
+     * @param budget the budget, in estimated bytes.
+     * @param timeToLive the time, in milliseconds, after which a
+     *        document is parsed again.  Zero means never.
+     */
+    public DocumentCache(long budget, long timeToLive) {
+        this.budget     = budget;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns a copy of the document at <code>uri</code>, parsing it
+     * with <code>factory</code> if it is not in the cache.
+     * @param uri the uri of the document, without fragment
+     * @param factory the factory used to parse the document
+     * @param desc if not null, receives the location of the elements
+     *        of the returned copy
+     * @exception IOException if an I/O error occured while loading
+     * the document
+     */
+    public Document getDocument(String uri,
+                                final SVGDocumentFactory factory,
+                                DocumentDescriptor desc)
+        throws IOException {
+        final String u = uri;
+        Entry entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = (Entry)entries.get(uri);
+            if (entry != null && (entry.isExpired() || entry.isStale())) {
+                remove(entry);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(uri, new FutureTask(new Callable() {
+                        public Object call() throws Exception {
+                            return load(u, factory);
+                        }
+                    }));
+                entries.put(uri, entry);
+                owner = true;
+            }
+        }
+        if (owner) {
+            misses.incrementAndGet();
+            entry.task.run();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        Entry loaded;
+        try {
+            loaded = (Entry)entry.task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ie.getMessage());
+        } catch (ExecutionException ee) {
+            synchronized (entries) {
+                if (entries.get(uri) == entry)
+                    remove(entry);
+            }
+            Throwable t = ee.getCause();
+            if (t instanceof IOException)      throw (IOException)t;
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error)            throw (Error)t;
+            IOException ioe = new IOException(t.getMessage());
+            ioe.initCause(t);
+            throw ioe;
+        }
+
+        if (owner) {
+            synchronized (entries) {
+                if (entries.get(uri) == entry) {
+                    entry.document = loaded.document;
+                    entry.desc     = loaded.desc;
+                    entry.size     = loaded.size;
+                    entry.file     = loaded.file;
+                    entry.modified = loaded.modified;
+                    entry.length   = loaded.length;
+                    size += entry.size;
+                    evict();
+                }
+            }
+        }
+        return copy(loaded, desc);
+    }
+
+    /**
+     * Parses the document at <code>uri</code>.
+     */
+    protected Entry load(String uri, SVGDocumentFactory factory)
+        throws IOException {
+        Entry e = new Entry(uri, null);
+        e.file = getFile(uri);
+        if (e.file != null) {
+            // Taken before parsing, so that a change made meanwhile is
+            // seen on the next request.
+            e.modified = e.file.lastModified();
+            e.length   = e.file.length();
+        }
+        // A factory only remembers the descriptor of the last document
+        // it created.
+        synchronized (factory) {
+            e.document = factory.createSVGDocument(uri);
+            e.desc = factory.getDocumentDescriptor();
+        }
+        e.size = estimateSize(e.document);
+        return e;
+    }
+
+    /**
+     * Returns the file <code>uri</code> designates, or null if it is
+     * not a file URI.
+     */
+    protected static File getFile(String uri) {
+        try {
+            URL u = new URL(uri);
+            if (!"file".equals(u.getProtocol()))
+                return null;
+            return new File(u.toURI());
+        } catch (MalformedURLException ex) {
+        } catch (URISyntaxException ex) {
+        } catch (IllegalArgumentException ex) {
+            // Not a hierarchical file URI.
+        }
+        return null;
+    }
+
+    /**
+     * Returns a deep clone of the document of <code>e</code>, and
+     * records the location of its elements in <code>desc</code>.
+     */
+    protected Document copy(Entry e, DocumentDescriptor desc) {
+        // Nothing modifies the original, but lazily built DOM state
+        // is not safe to compute from several threads.
+        synchronized (e.document) {
+            Document ret = (Document)e.document.cloneNode(true);
+            if (desc != null && e.desc != null)
+                copyLocations(e.document, ret, e.desc, desc);
+            return ret;
+        }
+    }
+
+    /**
+     * Copies the element locations of <code>src</code> to the matching
+     * elements of its clone <code>dst</code>.
+     */
+    protected void copyLocations(Node src, Node dst,
+                                 DocumentDescriptor srcDesc,
+                                 DocumentDescriptor dstDesc) {
+        Node s = src.getFirstChild();
+        Node d = dst.getFirstChild();
+        while (s != null && d != null) {
+            if (s.getNodeType() == Node.ELEMENT_NODE) {
+                Element se = (Element)s;
+                dstDesc.setLocation((Element)d,
+                                    srcDesc.getLocationLine(se),
+                                    srcDesc.getLocationColumn(se));
+                copyLocations(s, d, srcDesc, dstDesc);
+            }
+            s = s.getNextSibling();
+            d = d.getNextSibling();
+        }
+    }
+
+    /**
+     * Returns the estimated number of bytes the DOM tree rooted at
+     * <code>n</code> takes: {@link #NODE_SIZE} bytes per node and
+     * attribute, plus two bytes per character of text.
+     */
+    protected long estimateSize(Node n) {
+        long ret = NODE_SIZE;
+        String v = n.getNodeValue();
+        if (v != null)
+            ret += 2L * v.length();
+        NamedNodeMap attrs = n.getAttributes();
+        if (attrs != null) {
+            for (int i = attrs.getLength() - 1; i >= 0; i--) {
+                Attr a = (Attr)attrs.item(i);
+                ret += NODE_SIZE + 2L * a.getValue().length();
+            }
+        }
+        for (Node c = n.getFirstChild(); c != null; c = c.getNextSibling())
+            ret += estimateSize(c);
+        return ret;
+    }
+
+    /**
+     * Drops the least recently used or expired documents until the
+     * cache is within its budget.  Must be called with the lock of
+     * <code>entries</code> held.
+     */
+    protected void evict() {
+        Iterator i = entries.values().iterator();
+        while (i.hasNext()) {
+            Entry e = (Entry)i.next();
+            if (e.document == null)
+                continue; // still loading
+            if (size <= budget && !e.isExpired())
+                continue;
+            i.remove();
+            size -= e.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes <code>e</code>.  Must be called with the lock of
+     * <code>entries</code> held.
+     */
+    protected void remove(Entry e) {
+        entries.remove(e.uri);
+        size -= e.size;
+    }
+
+    /**
+     * Removes the document at <code>uri</code> from the cache.
+     */
+    public void remove(String uri) {
+        synchronized (entries) {
+            Entry e = (Entry)entries.get(uri);
+            if (e != null)
+                remove(e);
+        }
+    }
+
+    /**
+     * Removes all the documents from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Sets the budget of the cache, in estimated bytes.
+     */
+    public void setBudget(long budget) {
+        synchronized (entries) {
+            this.budget = budget;
+            evict();
+        }
+    }
+
+    /**
+     * Returns the budget of the cache, in estimated bytes.
+     */
+    public long getBudget() {
+        synchronized (entries) {
+            return budget;
+        }
+    }
+
+    /**
+     * Sets the time, in milliseconds, after which a document is parsed
+     * again.  Zero means never.
+     */
+    public void setTimeToLive(long ms) {
+        synchronized (entries) {
+            timeToLive = ms;
+        }
+    }
+
+    /**
+     * Returns the time, in milliseconds, after which a document is
+     * parsed again.
+     */
+    public long getTimeToLive() {
+        synchronized (entries) {
+            return timeToLive;
+        }
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the cache.
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns the number of documents in the cache.
+     */
+    public int getDocumentCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests served from the cache, including
+     * those that waited for another thread to parse the document.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that had to parse the document.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of documents dropped to stay within budget or
+     * because they had expired.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * A document of the cache.
+     */
+    protected class Entry {
+        String uri;
+        FutureTask task;
+        Document document;
+        DocumentDescriptor desc;
+        long size;
+        long loaded = System.currentTimeMillis();
+        File file;
+        long modified;
+        long length;
+
+        Entry(String uri, FutureTask task) {
+            this.uri  = uri;
+            this.task = task;
+        }
+
+        boolean isExpired() {
+            return (timeToLive > 0 && document != null &&
+                    System.currentTimeMillis() - loaded > timeToLive);
+        }
+
+        /**
+         * Returns true if the document was read from a file that has
+         * changed since.
+         */
+        boolean isStale() {
+            return (file != null && document != null &&
+                    (file.lastModified() != modified ||
+                     file.length() != length));
+        }
+    }
+}
@@ -20,7 +20,11 @@ package org.apache.batik.bridge;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
 import org.apache.batik.dom.svg.SVGDocumentFactory;
@@ -54,6 +58,17 @@ public class DocumentLoader {
      */
     protected HashMap cacheMap = new HashMap();
 
+    /**
+     * The loads in progress, indexed by URI.  Guarded by
+     * <code>cacheMap</code>.
+     */
+    protected HashMap loadingMap = new HashMap();
+
+    /**
+     * The cache shared with other loaders, or null.
+     */
+    protected DocumentCache documentCache;
+
     /**
      * The user agent.
      */
@@ -65,16 +80,36 @@ public class DocumentLoader {
     protected DocumentLoader() { }
 
     /**
-     * Constructs a new <code>DocumentLoader</code> with the specified XML parser.
+     * Constructs a new <code>DocumentLoader</code> with the specified XML
+     * parser.  The loader uses the shared document cache, if any.
      * @param userAgent the user agent to use
+     * @see DocumentCache#setSharedCache(DocumentCache)
      */
     public DocumentLoader(UserAgent userAgent) {
+        this(userAgent, DocumentCache.getSharedCache());
+    }
+
+    /**
+     * Constructs a new <code>DocumentLoader</code> with the specified XML
+     * parser.
+     * @param userAgent the user agent to use
+     * @param cache the cache shared with other loaders, may be null
+     */
+    public DocumentLoader(UserAgent userAgent, DocumentCache cache) {
         this.userAgent = userAgent;
+        this.documentCache = cache;
         documentFactory = new SAXSVGDocumentFactory
             (userAgent.getXMLParserClassName(), true);
         documentFactory.setValidating(userAgent.isXMLParserValidating());
     }
 
+    /**
+     * Returns the cache this loader shares with other loaders, or null.
+     */
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
     public Document checkCache(String uri) {
         int n = uri.lastIndexOf('/');
         if (n == -1) 
@@ -103,15 +138,76 @@ public class DocumentLoader {
         if (ret != null)
             return ret;
 
-        SVGDocument document = documentFactory.createSVGDocument(uri);
+        // Only one thread loads a given document, the others wait for
+        // it to be done.
+        final String u = uri;
+        FutureTask task;
+        boolean owner = false;
+        synchronized (cacheMap) {
+            DocumentState state = (DocumentState)cacheMap.get(uri);
+            if (state != null) {
+                ret = state.getDocument();
+                if (ret != null)
+                    return ret;
+            }
+            task = (FutureTask)loadingMap.get(uri);
+            if (task == null) {
+                task = new FutureTask(new Callable() {
+                        public Object call() throws Exception {
+                            return createDocument(u);
+                        }
+                    });
+                loadingMap.put(uri, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (cacheMap) {
+                    loadingMap.remove(uri);
+                }
+            }
+        }
 
-        DocumentDescriptor desc = documentFactory.getDocumentDescriptor();
+        try {
+            return (Document)task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ie.getMessage());
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof IOException)      throw (IOException)t;
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error)            throw (Error)t;
+            IOException ioe = new IOException(t.getMessage());
+            ioe.initCause(t);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Loads the document at <code>uri</code>, from the shared cache if
+     * there is one, and adds it to the cache of this loader.
+     */
+    protected Document createDocument(String uri) throws IOException {
+        Document document;
+        DocumentDescriptor desc;
+        if (documentCache != null) {
+            desc = new DocumentDescriptor();
+            document = documentCache.getDocument(uri, documentFactory, desc);
+        } else {
+            synchronized (documentFactory) {
+                document = documentFactory.createSVGDocument(uri);
+                desc = documentFactory.getDocumentDescriptor();
+            }
+        }
         DocumentState state = new DocumentState(uri, document, desc);
         synchronized (cacheMap) {
             cacheMap.put(uri, state);
         }
-
-        return state.getDocument();
+        return document;
     }
 
     /**
@@ -126,9 +222,12 @@ public class DocumentLoader {
         if (ret != null)
             return ret;
 
-        SVGDocument document = documentFactory.createSVGDocument(uri, is);
-
-        DocumentDescriptor desc = documentFactory.getDocumentDescriptor();
+        SVGDocument document;
+        DocumentDescriptor desc;
+        synchronized (documentFactory) {
+            document = documentFactory.createSVGDocument(uri, is);
+            desc = documentFactory.getDocumentDescriptor();
+        }
         DocumentState state = new DocumentState(uri, document, desc);
         synchronized (cacheMap) {
             cacheMap.put(uri, state);
@@ -193,7 +292,8 @@ public class DocumentLoader {
 
         public void cleared() {
             synchronized (cacheMap) {
-                cacheMap.remove(uri);
+                if (cacheMap.get(uri) == this)
+                    cacheMap.remove(uri);
             }
         }
 
@@ -22,6 +22,8 @@ import org.apache.batik.gvt.CompositeGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.gvt.RootGraphicsNode;
 import org.apache.batik.util.HaltingThread;
+import org.apache.batik.util.Instrument;
+import org.apache.batik.util.Instrumentation;
 import org.apache.batik.util.SVGConstants;
 
 import org.w3c.dom.Document;
@@ -60,6 +62,9 @@ public class GVTBuilder implements SVGConstants {
         // build the GVT tree
         DocumentBridge dBridge = ctx.getDocumentBridge();
         RootGraphicsNode rootNode = null;
+        Instrument inst = Instrumentation.getInstrument();
+        Object token = (inst == null)
+            ? null : inst.enter(Instrument.BUILD, "document");
         try {
             // create the root node
             rootNode = dBridge.createGraphicsNode(ctx, document);
@@ -89,6 +94,8 @@ public class GVTBuilder implements SVGConstants {
             ex.setGraphicsNode(rootNode);
             //ex.printStackTrace();
             throw ex; // re-throw the udpated exception
+        } finally {
+            if (inst != null) inst.exit(token);
         }
 
         // For cursor handling
@@ -208,6 +215,9 @@ public class GVTBuilder implements SVGConstants {
             return;
         }
         GraphicsNodeBridge gnBridge = (GraphicsNodeBridge)bridge;
+        Instrument inst = Instrumentation.getInstrument();
+        Object token = (inst == null)
+            ? null : inst.enter(Instrument.BUILD, e.getLocalName());
         try {
             // create the associated graphics node
             GraphicsNode gn = gnBridge.createGraphicsNode(ctx, e);
@@ -237,6 +247,8 @@ public class GVTBuilder implements SVGConstants {
             }
             //ex.printStackTrace();
             throw ex;
+        } finally {
+            if (inst != null) inst.exit(token);
         }
     }
 
@@ -32,8 +32,11 @@ import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.FilterChainRable;
 import org.apache.batik.ext.awt.image.renderable.FilterChainRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.InstrumentedRable;
 import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
 import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.Instrument;
+import org.apache.batik.util.Instrumentation;
 import org.apache.batik.util.ParsedURL;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -243,9 +246,15 @@ public class SVGFilterElementBridge extends AnimatableGenericSVGBridge
                                                           filterNodeMap);
             if (filterNode == null) {
                 return null; // disable the filter if a primitive is null
-            } else {
-                in = filterNode;
             }
+            Instrument inst = Instrumentation.getInstrument();
+            if (inst != null) {
+                // Only measures the primitive when used as the input
+                // of the next one, not when referenced by its result.
+                filterNode = new InstrumentedRable
+                    (filterNode, inst, Instrument.FILTER, e.getLocalName());
+            }
+            in = filterNode;
         }
         return in;
     }
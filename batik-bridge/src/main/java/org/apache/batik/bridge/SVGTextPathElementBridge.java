@@ -20,7 +20,6 @@ package org.apache.batik.bridge;
 
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.GeneralPath;
 
 import org.apache.batik.dom.util.XLinkSupport;
 import org.apache.batik.gvt.text.TextPath;
@@ -111,7 +110,7 @@ public class SVGTextPathElementBridge extends AnimatableGenericSVGBridge
         }
 
         // create the TextPath object that we are going to return
-        TextPath textPath = new TextPath(new GeneralPath(pathShape));
+        TextPath textPath = new TextPath(pathShape);
 
         // set the start offset if specified
         s = textPathElement.getAttributeNS(null, SVG_START_OFFSET_ATTRIBUTE);
@@ -385,10 +385,13 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
 
     /**
      * Paints this node without applying Filter, Mask, Composite, and clip.
+     * The text runs read their attributes through the node's character
+     * iterator, so the node is painted by one thread at a time when the
+     * canvas is rendered in tiles.
      *
      * @param g2d the Graphics2D to use
      */
-    public void primitivePaint(Graphics2D g2d) {
+    public synchronized void primitivePaint(Graphics2D g2d) {
         //
         // DO NOT REMOVE: THE FOLLOWING IS A WORK AROUND
         // A BUG IN THE JDK 1.2 RENDERING PIPELINE WHEN
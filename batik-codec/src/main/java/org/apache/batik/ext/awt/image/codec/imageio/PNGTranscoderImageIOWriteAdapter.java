@@ -54,9 +54,13 @@ public class PNGTranscoderImageIOWriteAdapter implements
         int n = -1;
         if (hints.containsKey(PNGTranscoder.KEY_INDEXED)) {
             n= (Integer) hints.get(PNGTranscoder.KEY_INDEXED);
+            int quality = IndexImage.QUALITY_FAST;
+            if (hints.containsKey(PNGTranscoder.KEY_INDEXED_QUALITY))
+                quality = (Integer) hints.get
+                    (PNGTranscoder.KEY_INDEXED_QUALITY);
             if (n==1||n==2||n==4||n==8) 
                 //PNGEncodeParam.Palette can handle these numbers only.
-                img = IndexImage.getIndexedImage(img, 1<<n);
+                img = IndexImage.getIndexedImage(img, 1<<n, quality);
         }
 
         ImageWriter writer = ImageWriterRegistry.getInstance()
@@ -28,6 +28,7 @@ import java.awt.image.SampleModel;
 import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 
 /**
  * An instance of <code>ImageEncodeParam</code> for encoding images in
@@ -587,6 +588,105 @@ public abstract class PNGEncodeParam implements ImageEncodeParam {
         return useInterlacing;
     }
 
+    private int compressionLevel = Deflater.BEST_COMPRESSION;
+
+    /**
+     * Sets the compression level of the image data, from 0 (no
+     * compression) to 9 (best compression), or -1 for the default
+     * level of the deflater.  The default is 9.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException(PropertyUtil.getString("PNGEncodeParam19"));
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Returns the compression level of the image data.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+
+    /**
+     * Sets the strategy of the deflater compressing the image data,
+     * one of <code>Deflater.DEFAULT_STRATEGY</code>,
+     * <code>Deflater.FILTERED</code> or
+     * <code>Deflater.HUFFMAN_ONLY</code>.  The default is
+     * <code>Deflater.DEFAULT_STRATEGY</code>.
+     */
+    public void setCompressionStrategy(int compressionStrategy) {
+        if (compressionStrategy != Deflater.DEFAULT_STRATEGY &&
+            compressionStrategy != Deflater.FILTERED &&
+            compressionStrategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException(PropertyUtil.getString("PNGEncodeParam20"));
+        }
+        this.compressionStrategy = compressionStrategy;
+    }
+
+    /**
+     * Returns the strategy of the deflater compressing the image data.
+     */
+    public int getCompressionStrategy() {
+        return compressionStrategy;
+    }
+
+    private int compressionThreads = 1;
+
+    /**
+     * Sets the number of threads compressing the image data.  With
+     * more than one thread, the data is cut in blocks of
+     * <code>getCompressionBlockSize()</code> bytes that are deflated
+     * in parallel, each one using the end of the previous one as
+     * dictionary.  This makes the output slightly larger.  The blocks
+     * are deflated on a pool shared by all the encoders, with one
+     * thread per available processor, and no more than this number of
+     * blocks of an image are deflated at once.  Zero means one thread
+     * per available processor.  The default is 1.
+     *
+     * <p> Parallel compression needs Java 7 or later, the data is
+     * compressed by a single thread on older platforms.
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 0) {
+            throw new IllegalArgumentException(PropertyUtil.getString("PNGEncodeParam21"));
+        }
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Returns the number of threads compressing the image data, zero
+     * meaning one per available processor.
+     */
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    private int compressionBlockSize = 128*1024;
+
+    /**
+     * Sets the size of the blocks of image data compressed in parallel.
+     * It must be at least 32768 bytes, the size of the deflate window.
+     * The default is 131072 bytes.
+     */
+    public void setCompressionBlockSize(int compressionBlockSize) {
+        if (compressionBlockSize < 32768) {
+            throw new IllegalArgumentException(PropertyUtil.getString("PNGEncodeParam22"));
+        }
+        this.compressionBlockSize = compressionBlockSize;
+    }
+
+    /**
+     * Returns the size of the blocks of image data compressed in
+     * parallel.
+     */
+    public int getCompressionBlockSize() {
+        return compressionBlockSize;
+    }
+
     // bKGD chunk - delegate to subclasses
 
     // In JAI 1.0, 'backgroundSet' was private.  The JDK 1.2 compiler
@@ -1334,8 +1434,8 @@ public abstract class PNGEncodeParam implements ImageEncodeParam {
      *
      * <p> The default implementation of the method performs a trial
      * encoding with each of the filter types, and computes the sum of
-     * absolute values of the differences between the raw bytes of the
-     * current row and the predicted values.  The index of the filter
+     * absolute values of the filtered bytes, taken as signed values, as
+     * recommended by the PNG specification.  The index of the filter
      * producing the smallest result is returned.
      *
      * <p> As an example, to perform only 'sub' filtering, this method
@@ -1382,6 +1482,7 @@ public abstract class PNGEncodeParam implements ImageEncodeParam {
         int [] badness = {0, 0, 0, 0, 0};
         int curr, left, up, upleft, diff;
         int pa, pb, pc;
+        byte b;
         for (int i = bytesPerPixel; i < bytesPerRow + bytesPerPixel; i++) {
             curr   = currRow[i] & 0xff;
             left   = currRow[i - bytesPerPixel] & 0xff;
@@ -1389,22 +1490,23 @@ public abstract class PNGEncodeParam implements ImageEncodeParam {
             upleft = prevRow[i - bytesPerPixel] & 0xff;
 
             // no filter
-            badness[0] += curr;
+            b = currRow[i];
+            badness[0] += (b>=0)?b:-b;
 
             // sub filter
             diff = curr - left;
-            scratchRows[1][i]  = (byte)diff;
-            badness    [1]    +=   (diff>0)?diff:-diff;
+            scratchRows[1][i]  = b = (byte)diff;
+            badness    [1]    +=   (b>=0)?b:-b;
 
             // up filter
             diff = curr - up;
-            scratchRows[2][i]  = (byte)diff;
-            badness    [2]    +=   (diff>=0)?diff:-diff;
+            scratchRows[2][i]  = b = (byte)diff;
+            badness    [2]    +=   (b>=0)?b:-b;
 
             // average filter
             diff = curr - ((left+up)>>1);
-            scratchRows[3][i]  = (byte)diff;
-            badness    [3]    +=   (diff>=0)?diff:-diff;
+            scratchRows[3][i]  = b = (byte)diff;
+            badness    [3]    +=   (b>=0)?b:-b;
 
             // paeth filter
 
@@ -1481,8 +1583,8 @@ public abstract class PNGEncodeParam implements ImageEncodeParam {
                   diff = curr-up;
               }
             }
-            scratchRows[4][i]  = (byte)diff;
-            badness    [4]    +=   (diff>=0)?diff:-diff;
+            scratchRows[4][i]  = b = (byte)diff;
+            badness    [4]    +=   (b>=0)?b:-b;
         }
         int filterType = 0;
         int minBadness = badness[0];
@@ -31,46 +31,26 @@ import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.LinkedList;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
-class CRC {
-
-    private static int[] crcTable = new int[256];
-
-    static {
-        // Initialize CRC table
-        for (int n = 0; n < 256; n++) {
-            int c = n;
-            for (int k = 0; k < 8; k++) {
-                if ((c & 1) == 1) {
-                    c = 0xedb88320 ^ (c >>> 1);
-                } else {
-                    c >>>= 1;
-                }
-
-                crcTable[n] = c;
-            }
-        }
-    }
-
-    public static int updateCRC(int crc, byte[] data, int off, int len) {
-        int c = crc;
-
-        for (int n = 0; n < len; n++) {
-             c = crcTable[(c ^ data[off + n]) & 0xff] ^ (c >>> 8);
-        }
-
-        return c;
-    }
-}
-
-
 class ChunkStream extends OutputStream implements DataOutput {
 
     private String type;
@@ -157,10 +137,10 @@ class ChunkStream extends OutputStream implements DataOutput {
         output.write(typeSignature);
         output.write(data, 0, len);
 
-        int crc = 0xffffffff;
-        crc = CRC.updateCRC(crc, typeSignature, 0, 4);
-        crc = CRC.updateCRC(crc, data, 0, len);
-        output.writeInt(crc ^ 0xffffffff);
+        CRC32 crc = new CRC32();
+        crc.update(typeSignature, 0, 4);
+        crc.update(data, 0, len);
+        output.writeInt((int)crc.getValue());
     }
 
     /**
@@ -191,6 +171,7 @@ class IDATOutputStream extends FilterOutputStream {
     private int bytesWritten = 0;
     private int segmentLength;
     byte[] buffer;
+    private CRC32 crc = new CRC32();
 
     public IDATOutputStream(OutputStream output,
                             int segmentLength) {
@@ -220,12 +201,12 @@ class IDATOutputStream extends FilterOutputStream {
         // Data
         out.write(buffer, 0, bytesWritten);
 
-        int crc = 0xffffffff;
-        crc = CRC.updateCRC(crc, typeSignature, 0, 4);
-        crc = CRC.updateCRC(crc, buffer, 0, bytesWritten);
+        crc.reset();
+        crc.update(typeSignature, 0, 4);
+        crc.update(buffer, 0, bytesWritten);
 
         // CRC
-        writeInt(crc ^ 0xffffffff);
+        writeInt((int)crc.getValue());
 
         // Reset buffer
         bytesWritten = 0;
@@ -257,6 +238,218 @@ class IDATOutputStream extends FilterOutputStream {
     }
 }
 
+/**
+ * A zlib stream whose data is cut in blocks deflated in parallel, each
+ * one primed with the last 32K of the previous one, and ended by a
+ * sync flush so that they can be concatenated.
+ */
+class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+    /**
+     * The size of the deflate window.
+     */
+    static final int DICTIONARY_SIZE = 32768;
+
+    private static final boolean SYNC_FLUSH_SUPPORTED;
+
+    static {
+        boolean supported;
+        try {
+            // Deflater.SYNC_FLUSH only exists since Java 7.
+            Deflater.class.getMethod("deflate", new Class[] {
+                byte[].class, int.class, int.class, int.class });
+            supported = true;
+        } catch (NoSuchMethodException e) {
+            supported = false;
+        }
+        SYNC_FLUSH_SUPPORTED = supported;
+    }
+
+    /**
+     * Returns true if the platform can deflate blocks in parallel.
+     */
+    static boolean isSupported() {
+        return SYNC_FLUSH_SUPPORTED;
+    }
+
+    private final int level;
+    private final int strategy;
+    private final ExecutorService executor;
+    private final int maxPending;
+
+    private final Adler32 adler = new Adler32();
+    private final LinkedList pending = new LinkedList();
+
+    private byte[] block;
+    private int count;
+    private byte[] dictionary;
+    private boolean finished;
+
+    ParallelDeflaterOutputStream(OutputStream out,
+                                 int level, int strategy,
+                                 int blockSize,
+                                 ExecutorService executor,
+                                 int maxPending) throws IOException {
+        super(out);
+        this.level = level;
+        this.strategy = strategy;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.block = new byte[blockSize];
+
+        // zlib header: deflate with a 32K window, and the level hint.
+        int flevel;
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            flevel = 2;
+        } else if (level < 2) {
+            flevel = 0;
+        } else if (level < 6) {
+            flevel = 1;
+        } else if (level == 6) {
+            flevel = 2;
+        } else {
+            flevel = 3;
+        }
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        out.write(cmf);
+        out.write(flg);
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        adler.update(b, off, len);
+        while (len > 0) {
+            int n = Math.min(block.length - count, len);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Hands the current block to the executor, and writes the blocks
+     * already deflated while too many are pending.
+     */
+    private void submit(final boolean last) throws IOException {
+        final byte[] data = block;
+        final int len = count;
+        final byte[] dict = dictionary;
+
+        pending.add(executor.submit(new Callable() {
+                public Object call() {
+                    return deflate(data, len, dict, last);
+                }
+            }));
+
+        if (!last) {
+            // The blocks are at least as large as the window.
+            dictionary = new byte[DICTIONARY_SIZE];
+            System.arraycopy(data, len - DICTIONARY_SIZE,
+                             dictionary, 0, DICTIONARY_SIZE);
+            block = new byte[data.length];
+            count = 0;
+        }
+
+        while (pending.size() > maxPending) {
+            writePending();
+        }
+    }
+
+    private byte[] deflate(byte[] data, int len, byte[] dict,
+                           boolean last) {
+        Deflater def = new Deflater(level, true);
+        try {
+            def.setStrategy(strategy);
+            if (dict != null) {
+                def.setDictionary(dict);
+            }
+            def.setInput(data, 0, len);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(len/2);
+            byte[] buf = new byte[8192];
+            if (last) {
+                def.finish();
+                while (!def.finished()) {
+                    int n = def.deflate(buf);
+                    bos.write(buf, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    bos.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return bos.toByteArray();
+        } finally {
+            def.end();
+        }
+    }
+
+    private void writePending() throws IOException {
+        Future f = (Future)pending.removeFirst();
+        byte[] data;
+        try {
+            data = (byte[])f.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error)            throw (Error)t;
+            IOException ioe = new IOException(t.getMessage());
+            ioe.initCause(t);
+            throw ioe;
+        }
+        out.write(data);
+    }
+
+    /**
+     * Deflates the remaining data and writes the zlib trailer, without
+     * closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writePending();
+            }
+        } finally {
+            cancel();
+        }
+        int a = (int)adler.getValue();
+        out.write(a >>> 24);
+        out.write((a >> 16) & 0xff);
+        out.write((a >> 8) & 0xff);
+        out.write(a & 0xff);
+    }
+
+    /**
+     * Cancels the blocks that have not been written yet.
+     */
+    void cancel() {
+        while (!pending.isEmpty()) {
+            ((Future)pending.removeFirst()).cancel(true);
+        }
+    }
+
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
+
 /**
  * An ImageEncoder for the PNG file format.
  *
@@ -300,6 +493,12 @@ public class PNGImageEncoder extends ImageEncoderImpl {
 
     private DataOutputStream dataOutput;
 
+    /**
+     * The shared pool the image data is deflated on, created when first
+     * needed.
+     */
+    private static ExecutorService deflaters;
+
     public PNGImageEncoder(OutputStream output,
                            PNGEncodeParam param) {
         super(output, param);
@@ -337,14 +536,66 @@ public class PNGImageEncoder extends ImageEncoderImpl {
         return (val > maxValue) ? maxValue : val;
     }
 
-    private void encodePass(OutputStream os, Raster ras,
+    /**
+     * The number of rows fetched at once from a non interlaced image.
+     */
+    private static final int STRIP_HEIGHT = 64;
+
+    /**
+     * The rows of the image being encoded.
+     */
+    private Raster strip = null;
+
+    /**
+     * Returns a raster holding <code>row</code> of the image.  Non
+     * interlaced images are fetched a strip of rows at a time, so the
+     * whole image never needs to be in memory at once.
+     */
+    private Raster getRows(int row) {
+        if ((strip != null) &&
+            (row >= strip.getMinY()) &&
+            (row <  strip.getMinY() + strip.getHeight())) {
+            return strip;
+        }
+
+        // It might seem that you could just call image.getData() but
+        // 'BufferedImage.subImage' doesn't appear to set the Width
+        // and height properly of the Child Raster, so the Raster
+        // you get back here appears larger than it should.
+        // This solves that problem by bounding the raster to the
+        // image's bounds...
+        int y = image.getMinY();
+        int h = image.getHeight();
+        if (!interlace) {
+            h = Math.min(STRIP_HEIGHT, y + h - row);
+            y = row;
+        }
+        Raster ras = image.getData(new Rectangle(image.getMinX(), y,
+                                                 image.getWidth(), h));
+
+        if (skipAlpha) {
+            int numBands = ras.getNumBands() - 1;
+            int[] bandList = new int[numBands];
+            for (int i = 0; i < numBands; i++) {
+                bandList[i] = i;
+            }
+            ras = ras.createChild(ras.getMinX(), ras.getMinY(),
+                                  ras.getWidth(), ras.getHeight(),
+                                  ras.getMinX(), ras.getMinY(),
+                                  bandList);
+        }
+        strip = ras;
+        return ras;
+    }
+
+    private void encodePass(OutputStream os,
                             int xOffset,     int yOffset,
                             int xSkip,       int ySkip)
         throws IOException {
-        int minX   = ras.getMinX();
-        int minY   = ras.getMinY();
-        int width  = ras.getWidth();
-        int height = ras.getHeight();
+        int minX   = image.getMinX();
+        int minY   = image.getMinY();
+        int width  = image.getWidth();
+        int height = image.getHeight();
 
         xOffset *= numBands;
         xSkip   *= numBands;
@@ -374,7 +625,7 @@ public class PNGImageEncoder extends ImageEncoderImpl {
         int maxValue = (1 << bitDepth) - 1;
 
         for (int row = minY + yOffset; row < minY + height; row += ySkip) {
-            ras.getPixels(minX, row, width, 1, samples);
+            getRows(row).getPixels(minX, row, width, 1, samples);
 
             if (compressGray) {
                 int shift = 8 - bitDepth;
@@ -447,66 +698,86 @@ public class PNGImageEncoder extends ImageEncoderImpl {
 
     private void writeIDAT() throws IOException {
         IDATOutputStream ios = new IDATOutputStream(dataOutput, 8192);
-        DeflaterOutputStream dos =
-            new DeflaterOutputStream(ios, new Deflater(9));
 
-        // Future work - don't convert entire image to a Raster It
-        // might seem that you could just call image.getData() but
-        // 'BufferedImage.subImage' doesn't appear to set the Width
-        // and height properly of the Child Raster, so the Raster
-        // you get back here appears larger than it should.
-        // This solves that problem by bounding the raster to the
-        // image's bounds...
-        Raster ras = image.getData(new Rectangle(image.getMinX(),
-                                                 image.getMinY(),
-                                                 image.getWidth(),
-                                                 image.getHeight()));
-        // System.out.println("Image: [" +
-        //                    image.getMinY()  + ", " +
-        //                    image.getMinX()  + ", " +
-        //                    image.getWidth()  + ", " +
-        //                    image.getHeight() + "]");
-        // System.out.println("Ras: [" +
-        //                    ras.getMinX()  + ", " +
-        //                    ras.getMinY()  + ", " +
-        //                    ras.getWidth()  + ", " +
-        //                    ras.getHeight() + "]");
+        int level     = param.getCompressionLevel();
+        int strategy  = param.getCompressionStrategy();
+        int blockSize = param.getCompressionBlockSize();
+        int threads   = param.getCompressionThreads();
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        long rawSize = (long)height*(width*bpp + 1);
+
+        OutputStream os;
+        Deflater deflater = null;
+        ParallelDeflaterOutputStream pos = null;
+        if ((threads > 1) && (rawSize > blockSize) &&
+            ParallelDeflaterOutputStream.isSupported()) {
+            // No more than 'threads' blocks of this image are deflated
+            // at once.
+            os = pos = new ParallelDeflaterOutputStream
+                (ios, level, strategy, blockSize, getDeflaters(), threads);
+        } else {
+            deflater = new Deflater(level);
+            deflater.setStrategy(strategy);
+            os = new DeflaterOutputStream(ios, deflater, 8192);
+        }
 
-        if (skipAlpha) {
-            int numBands = ras.getNumBands() - 1;
-            int[] bandList = new int[numBands];
-            for (int i = 0; i < numBands; i++) {
-                bandList[i] = i;
+        try {
+            if (interlace) {
+                // Interlacing pass 1
+                encodePass(os, 0, 0, 8, 8);
+                // Interlacing pass 2
+                encodePass(os, 4, 0, 8, 8);
+                // Interlacing pass 3
+                encodePass(os, 0, 4, 4, 8);
+                // Interlacing pass 4
+                encodePass(os, 2, 0, 4, 4);
+                // Interlacing pass 5
+                encodePass(os, 0, 2, 2, 4);
+                // Interlacing pass 6
+                encodePass(os, 1, 0, 2, 2);
+                // Interlacing pass 7
+                encodePass(os, 0, 1, 1, 2);
+            } else {
+                encodePass(os, 0, 0, 1, 1);
             }
-            ras = ras.createChild(0, 0,
-                                  ras.getWidth(), ras.getHeight(),
-                                  0, 0,
-                                  bandList);
-        }
 
-        if (interlace) {
-            // Interlacing pass 1
-            encodePass(dos, ras, 0, 0, 8, 8);
-            // Interlacing pass 2
-            encodePass(dos, ras, 4, 0, 8, 8);
-            // Interlacing pass 3
-            encodePass(dos, ras, 0, 4, 4, 8);
-            // Interlacing pass 4
-            encodePass(dos, ras, 2, 0, 4, 4);
-            // Interlacing pass 5
-            encodePass(dos, ras, 0, 2, 2, 4);
-            // Interlacing pass 6
-            encodePass(dos, ras, 1, 0, 2, 2);
-            // Interlacing pass 7
-            encodePass(dos, ras, 0, 1, 1, 2);
-        } else {
-            encodePass(dos, ras, 0, 0, 1, 1);
+            // Flushes the remaining data as IDAT chunks.
+            os.close();
+        } finally {
+            strip = null;
+            if (deflater != null) {
+                deflater.end();
+            }
+            if (pos != null) {
+                pos.cancel();
+            }
         }
+    }
 
-        dos.finish();
-        dos.close();
-        ios.flush();
-        ios.close();
+    /**
+     * Returns the pool the image data is deflated on, which has a
+     * thread per processor.  Its threads are daemons, and end when
+     * they have been idle for a minute.
+     */
+    static synchronized ExecutorService getDeflaters() {
+        if (deflaters == null) {
+            int n = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+                                       new LinkedBlockingQueue(),
+                                       new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "PNG deflater");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            pool.allowCoreThreadTimeOut(true);
+            deflaters = pool;
+        }
+        return deflaters;
     }
 
     private void writeIEND() throws IOException {
@@ -50,9 +50,13 @@ public class PNGTranscoderInternalCodecWriteAdapter implements
         int n=-1;
         if (hints.containsKey(PNGTranscoder.KEY_INDEXED)) {
             n= (Integer) hints.get(PNGTranscoder.KEY_INDEXED);
+            int quality = IndexImage.QUALITY_FAST;
+            if (hints.containsKey(PNGTranscoder.KEY_INDEXED_QUALITY))
+                quality = (Integer) hints.get
+                    (PNGTranscoder.KEY_INDEXED_QUALITY);
             if (n==1||n==2||n==4||n==8)
                 //PNGEncodeParam.Palette can handle these numbers only.
-                img = IndexImage.getIndexedImage(img,1<<n);
+                img = IndexImage.getIndexedImage(img, 1<<n, quality);
         }
 
         PNGEncodeParam params = PNGEncodeParam.getDefaultEncodeParam(img);
@@ -83,6 +87,15 @@ public class PNGTranscoderInternalCodecWriteAdapter implements
         int numPix      = (int)((1000/PixSzMM)+0.5);
         params.setPhysicalDimension(numPix, numPix, 1); // 1 means 'pix/meter'
 
+        if (hints.containsKey(PNGTranscoder.KEY_COMPRESSION_LEVEL)) {
+            params.setCompressionLevel
+                ((Integer) hints.get(PNGTranscoder.KEY_COMPRESSION_LEVEL));
+        }
+        if (hints.containsKey(PNGTranscoder.KEY_COMPRESSION_THREADS)) {
+            params.setCompressionThreads
+                ((Integer) hints.get(PNGTranscoder.KEY_COMPRESSION_THREADS));
+        }
+
         try {
             OutputStream ostream = output.getOutputStream();
             PNGImageEncoder pngEncoder = new PNGImageEncoder(ostream, params);
@@ -0,0 +1,44 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+/**
+ * An interface for the attribute maps that can give the names and the
+ * values of their attributes without creating the attribute nodes.
+ * The attributes are in the order of the map's <code>item</code> method.
+ *
+ * @version $Id$
+ */
+public interface AttributeValueList {
+
+    /**
+     * Returns the number of attributes.
+     */
+    int getLength();
+
+    /**
+     * Returns the qualified name of the attribute at the given index.
+     */
+    String getName(int index);
+
+    /**
+     * Returns the value of the attribute at the given index.
+     */
+    String getValue(int index);
+}
@@ -22,13 +22,19 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.batik.css.engine.sac.CSSClassCondition;
 import org.apache.batik.css.engine.sac.CSSConditionFactory;
+import org.apache.batik.css.engine.sac.CSSIdCondition;
 import org.apache.batik.css.engine.sac.CSSSelectorFactory;
+import org.apache.batik.css.engine.sac.ExtendedCondition;
 import org.apache.batik.css.engine.sac.ExtendedSelector;
 import org.apache.batik.css.engine.value.ComputedValue;
 import org.apache.batik.css.engine.value.InheritValue;
@@ -37,14 +43,23 @@ import org.apache.batik.css.engine.value.Value;
 import org.apache.batik.css.engine.value.ValueManager;
 import org.apache.batik.css.parser.ExtendedParser;
 import org.apache.batik.util.CSSConstants;
+import org.apache.batik.util.Instrument;
+import org.apache.batik.util.Instrumentation;
 import org.apache.batik.util.ParsedURL;
 
+import org.w3c.css.sac.AttributeCondition;
 import org.w3c.css.sac.CSSException;
+import org.w3c.css.sac.CombinatorCondition;
+import org.w3c.css.sac.Condition;
+import org.w3c.css.sac.ConditionalSelector;
 import org.w3c.css.sac.DocumentHandler;
 import org.w3c.css.sac.InputSource;
 import org.w3c.css.sac.LexicalUnit;
+import org.w3c.css.sac.DescendantSelector;
 import org.w3c.css.sac.SACMediaList;
+import org.w3c.css.sac.Selector;
 import org.w3c.css.sac.SelectorList;
+import org.w3c.css.sac.SiblingSelector;
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -198,6 +213,16 @@ public abstract class CSSEngine {
      */
     protected StyleSheet userStyleSheet;
 
+    /**
+     * The signature of the style-sheets parsed by this engine.
+     */
+    protected String styleSheetSignature;
+
+    /**
+     * The number of style-sheets that could not be loaded.
+     */
+    protected int styleSheetErrors;
+
     /**
      * The media to use to cascade properties.
      */
@@ -333,6 +358,35 @@ public abstract class CSSEngine {
      */
     protected Set selectorAttributes;
 
+    /**
+     * Maps the attributes found in stylesheets selectors to the
+     * SELECTOR_ATTR_* flags telling which elements they are tested on.
+     */
+    protected Map selectorAttributeFlags;
+
+    /**
+     * Maps the attributes tested by class and id selectors to a map
+     * from the tested values to their SELECTOR_ATTR_* flags.
+     */
+    protected Map selectorValueFlags;
+
+    /**
+     * The attribute is tested on the element a selector matches.
+     */
+    protected static final int SELECTOR_ATTR_SELF = 1;
+
+    /**
+     * The attribute is tested on an ancestor of the element a selector
+     * matches.
+     */
+    protected static final int SELECTOR_ATTR_DESCENDANTS = 2;
+
+    /**
+     * The attribute is tested on a preceding sibling of the element a
+     * selector matches.
+     */
+    protected static final int SELECTOR_ATTR_SIBLINGS = 4;
+
     /**
      * Used to fire a change event for all the properties.
      */
@@ -712,21 +766,45 @@ public abstract class CSSEngine {
      */
     public StyleMap getCascadedStyleMap(CSSStylableElement elt,
                                         String pseudo) {
+        Instrument inst = Instrumentation.getInstrument();
+        if (inst == null) {
+            return computeCascadedStyleMap(elt, pseudo);
+        }
+        Object token = inst.enter(Instrument.CASCADE, elt.getLocalName());
+        try {
+            return computeCascadedStyleMap(elt, pseudo);
+        } finally {
+            inst.exit(token);
+        }
+    }
+
+    /**
+     * Computes the cascaded style of the given element/pseudo-element.
+     * @param elt The stylable element.
+     * @param pseudo Optional pseudo-element string (null if none).
+     */
+    protected StyleMap computeCascadedStyleMap(CSSStylableElement elt,
+                                               String pseudo) {
         int props = getNumberOfProperties();
         final StyleMap result = new StyleMap(props);
 
+        StyleSheetIndex.ElementKeys keys =
+            new StyleSheetIndex.ElementKeys(elt);
+
         // Apply the user-agent style-sheet to the result.
         if (userAgentStyleSheet != null) {
-            ArrayList rules = new ArrayList();
-            addMatchingRules(rules, userAgentStyleSheet, elt, pseudo);
-            addRules(elt, pseudo, result, rules, StyleMap.USER_AGENT_ORIGIN);
+            ArrayList matches = new ArrayList();
+            userAgentStyleSheet.getIndex().addMatchingRules
+                (this, elt, keys, pseudo, matches);
+            addMatches(result, matches, StyleMap.USER_AGENT_ORIGIN);
         }
 
         // Apply the user properties style-sheet to the result.
         if (userStyleSheet != null) {
-            ArrayList rules = new ArrayList();
-            addMatchingRules(rules, userStyleSheet, elt, pseudo);
-            addRules(elt, pseudo, result, rules, StyleMap.USER_ORIGIN);
+            ArrayList matches = new ArrayList();
+            userStyleSheet.getIndex().addMatchingRules
+                (this, elt, keys, pseudo, matches);
+            addMatches(result, matches, StyleMap.USER_ORIGIN);
         }
 
         element = elt;
@@ -755,14 +833,24 @@ public abstract class CSSEngine {
                     };
 
                 NamedNodeMap attrs = elt.getAttributes();
+                // Avoids creating the attribute nodes when the map
+                // can give the values directly.
+                AttributeValueList avl = (attrs instanceof AttributeValueList)
+                    ? (AttributeValueList)attrs
+                    : null;
                 int len = attrs.getLength();
                 for (int i = 0; i < len; i++) {
-                    Node attr = attrs.item(i);
-                    String an = attr.getNodeName();
+                    Node attr = (avl == null) ? attrs.item(i) : null;
+                    String an = (attr == null)
+                        ? avl.getName(i)
+                        : attr.getNodeName();
                     if (nonCSSPresentationalHints.contains(an)) {
+                        String av = (attr == null)
+                            ? avl.getValue(i)
+                            : attr.getNodeValue();
                         try {
                             LexicalUnit lu;
-                            lu = parser.parsePropertyValue(attr.getNodeValue());
+                            lu = parser.parsePropertyValue(av);
                             ph.property(an, lu, false);
                         } catch (Exception e) {
                             String m = e.getMessage();
@@ -771,7 +859,7 @@ public abstract class CSSEngine {
                                         documentURI.toString());
                             String s = Messages.formatMessage
                                 ("property.syntax.error.at",
-                                 new Object[] { u, an, attr.getNodeValue(), m});
+                                 new Object[] { u, an, av, m});
                             DOMException de = new DOMException(DOMException.SYNTAX_ERR, s);
                             if (userAgent == null) throw de;
                             userAgent.displayError(de);
@@ -785,7 +873,7 @@ public abstract class CSSEngine {
             List snodes = eng.getStyleSheetNodes();
             int slen = snodes.size();
             if (slen > 0) {
-                ArrayList rules = new ArrayList();
+                ArrayList matches = new ArrayList();
                 for (Object snode : snodes) {
                     CSSStyleSheetNode ssn = (CSSStyleSheetNode) snode;
                     StyleSheet ss = ssn.getCSSStyleSheet();
@@ -794,10 +882,11 @@ public abstract class CSSEngine {
                                     ss.getTitle() == null ||
                                     ss.getTitle().equals(alternateStyleSheet)) &&
                             mediaMatch(ss.getMedia())) {
-                        addMatchingRules(rules, ss, elt, pseudo);
+                        ss.getIndex().addMatchingRules
+                            (this, elt, keys, pseudo, matches);
                     }
                 }
-                addRules(elt, pseudo, result, rules, StyleMap.AUTHOR_ORIGIN);
+                addMatches(result, matches, StyleMap.AUTHOR_ORIGIN);
             }
 
             // Apply the inline style to the result.
@@ -914,6 +1003,8 @@ public abstract class CSSEngine {
         if (styleSheetNodes == null) {
             styleSheetNodes = new ArrayList();
             selectorAttributes = new HashSet();
+            selectorAttributeFlags = new HashMap();
+            selectorValueFlags = new HashMap();
             // Find all the style-sheets in the document.
             findStyleSheetNodes(document);
             int len = styleSheetNodes.size();
@@ -956,8 +1047,8 @@ public abstract class CSSEngine {
                 SelectorList sl = style.getSelectorList();
                 int slen = sl.getLength();
                 for (int j = 0; j < slen; j++) {
-                    ExtendedSelector s = (ExtendedSelector)sl.item(j);
-                    s.fillAttributeSet(attrs);
+                    findSelectorAttributes(attrs, sl.item(j),
+                                           SELECTOR_ATTR_SELF);
                 }
                 break;
 
@@ -972,6 +1063,178 @@ public abstract class CSSEngine {
         }
     }
 
+    /**
+     * Finds the attributes tested by the given selector, and records in
+     * <code>selectorAttributeFlags</code> on which elements they are
+     * tested relatively to the element the selector matches.
+     * @param flags The SELECTOR_ATTR_* flags of the attributes of
+     *              <code>s</code> itself.
+     */
+    protected void findSelectorAttributes(Set attrs, Selector s, int flags) {
+        if (s instanceof DescendantSelector) {
+            // Descendant and child selectors.
+            DescendantSelector ds = (DescendantSelector)s;
+            findSelectorAttributes(attrs, ds.getSimpleSelector(), flags);
+            findSelectorAttributes(attrs, ds.getAncestorSelector(),
+                                   flags | SELECTOR_ATTR_DESCENDANTS);
+        } else if (s instanceof SiblingSelector) {
+            SiblingSelector ss = (SiblingSelector)s;
+            findSelectorAttributes(attrs, ss.getSiblingSelector(), flags);
+            findSelectorAttributes(attrs, ss.getSelector(),
+                                   flags | SELECTOR_ATTR_SIBLINGS);
+        } else if (s instanceof ConditionalSelector) {
+            ConditionalSelector cs = (ConditionalSelector)s;
+            findSelectorAttributes(attrs, cs.getSimpleSelector(), flags);
+            findConditionAttributes(attrs, cs.getCondition(), flags);
+        } else {
+            Set names = new HashSet();
+            ((ExtendedSelector)s).fillAttributeSet(names);
+            addSelectorAttributes(attrs, names, flags);
+        }
+    }
+
+    /**
+     * Finds the attributes tested by the given condition.  The values
+     * tested by class and id conditions are recorded separately, so
+     * that changing an element's class only invalidates what the
+     * added or removed classes can match.
+     */
+    protected void findConditionAttributes(Set attrs, Condition c,
+                                           int flags) {
+        if (c instanceof CombinatorCondition) {
+            CombinatorCondition cc = (CombinatorCondition)c;
+            findConditionAttributes(attrs, cc.getFirstCondition(), flags);
+            findConditionAttributes(attrs, cc.getSecondCondition(), flags);
+        } else if ((c instanceof CSSClassCondition) ||
+                   (c instanceof CSSIdCondition)) {
+            AttributeCondition ac = (AttributeCondition)c;
+            String name = ac.getLocalName();
+            attrs.add(name);
+            if (selectorValueFlags == null) {
+                return;
+            }
+            Map values = (Map)selectorValueFlags.get(name);
+            if (values == null) {
+                values = new HashMap();
+                selectorValueFlags.put(name, values);
+            }
+            Integer f = (Integer)values.get(ac.getValue());
+            int nf = (f == null) ? flags : (flags | f.intValue());
+            values.put(ac.getValue(), Integer.valueOf(nf));
+        } else {
+            Set names = new HashSet();
+            ((ExtendedCondition)c).fillAttributeSet(names);
+            addSelectorAttributes(attrs, names, flags);
+        }
+    }
+
+    /**
+     * Adds <code>names</code> to the selector attributes, with the
+     * given SELECTOR_ATTR_* flags.
+     */
+    private void addSelectorAttributes(Set attrs, Set names, int flags) {
+        attrs.addAll(names);
+        if (selectorAttributeFlags == null) {
+            return;
+        }
+        for (Object name : names) {
+            int nf = flags;
+            Integer f = (Integer)selectorAttributeFlags.get(name);
+            if (f != null) {
+                nf |= f.intValue();
+            }
+            selectorAttributeFlags.put(name, Integer.valueOf(nf));
+        }
+    }
+
+    /**
+     * Returns the SELECTOR_ATTR_* flags of the given attribute, whatever
+     * its value, 0 if no selector tests it.
+     */
+    protected int getSelectorAttributeFlags(String name) {
+        return getSelectorAttributeFlags(name, null, null);
+    }
+
+    /**
+     * Returns the SELECTOR_ATTR_* flags of the given attribute for a
+     * change of its value, 0 if no selector can match differently.
+     * @param prevValue The previous value, null to consider all values.
+     * @param newValue The new value, null to consider all values.
+     */
+    protected int getSelectorAttributeFlags(String name,
+                                            String prevValue,
+                                            String newValue) {
+        if (selectorAttributes == null || !selectorAttributes.contains(name)) {
+            return 0;
+        }
+        if (selectorAttributeFlags == null || selectorValueFlags == null) {
+            return SELECTOR_ATTR_SELF | SELECTOR_ATTR_DESCENDANTS |
+                SELECTOR_ATTR_SIBLINGS;
+        }
+        int flags = 0;
+        Integer f = (Integer)selectorAttributeFlags.get(name);
+        if (f != null) {
+            flags = f.intValue();
+        }
+        Map values = (Map)selectorValueFlags.get(name);
+        if (values == null) {
+            return flags;
+        }
+        if (prevValue == null || newValue == null) {
+            for (Object v : values.values()) {
+                flags |= ((Integer)v).intValue();
+            }
+            return flags;
+        }
+        // Only the values added or removed can match differently.
+        Set prev = splitTokens(prevValue);
+        Set next = splitTokens(newValue);
+        for (Object t : prev) {
+            if (!next.contains(t)) {
+                f = (Integer)values.get(t);
+                if (f != null) flags |= f.intValue();
+            }
+        }
+        for (Object t : next) {
+            if (!prev.contains(t)) {
+                f = (Integer)values.get(t);
+                if (f != null) flags |= f.intValue();
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Splits an attribute value on space characters, the way class
+     * conditions do.
+     */
+    private static Set splitTokens(String value) {
+        Set ret = new HashSet();
+        int len = value.length();
+        int start = -1;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || Character.isSpaceChar(value.charAt(i))) {
+                if (start != -1) {
+                    ret.add(value.substring(start, i));
+                    start = -1;
+                }
+            } else if (start == -1) {
+                start = i;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Tells whether selectors test the given attribute on the ancestors
+     * of the elements they match, so that the descendants of an element
+     * must be matched again when the attribute changes on it.
+     */
+    protected boolean isDeepSelectorAttribute(String name) {
+        return (getSelectorAttributeFlags(name) &
+                SELECTOR_ATTR_DESCENDANTS) != 0;
+    }
+
     /**
      * Interface for people interesting in having 'primary' properties
      * set.  Shorthand properties will be expanded "automatically".
@@ -1168,6 +1431,7 @@ public abstract class CSSEngine {
         } catch (SecurityException e) {
             throw e;
         } catch (Exception e) {
+            styleSheetErrors++;
             String m = e.getMessage();
             if (m == null) m = e.getClass().getName();
             String s = Messages.formatMessage
@@ -1230,12 +1494,131 @@ public abstract class CSSEngine {
     }
 
     /**
-     * Parses and fills the given style-sheet.
+     * Parses and fills the given style-sheet, or fills it with the
+     * rules of an identical style-sheet from the shared
+     * {@link StyleSheetCache}.
      * @param ss The stylesheet to fill.
      * @param uri The base URI.
      */
     protected void parseStyleSheet(StyleSheet ss, InputSource is, ParsedURL uri)
         throws IOException {
+        Instrument inst = Instrumentation.getInstrument();
+        Object token = (inst == null)
+            ? null : inst.enter(Instrument.PARSE, "stylesheet");
+        try {
+            parseStyleSheetCached(ss, is, uri);
+        } finally {
+            if (inst != null) inst.exit(token);
+        }
+    }
+
+    /**
+     * Fills the given style-sheet from the shared
+     * {@link StyleSheetCache}, parsing it if needed.
+     * @param ss The stylesheet to fill.
+     * @param uri The base URI.
+     */
+    protected void parseStyleSheetCached(StyleSheet ss, InputSource is,
+                                         ParsedURL uri)
+        throws IOException {
+        StyleSheetCache cache = StyleSheetCache.getSharedCache();
+        Object content = null;
+        if (cache != null) {
+            content = StyleSheetCache.readContent(is);
+        }
+        if (content == null) {
+            parseStyleSheetContent(ss, is, uri);
+            return;
+        }
+
+        String key = StyleSheetCache.createKey
+            (getStyleSheetSignature(), uri, ss.getMedia(),
+             is.getEncoding(), content);
+        StyleSheet cached = cache.get(key, fontFaces);
+        if (cached != null) {
+            copyRules(cached, ss);
+            return;
+        }
+
+        cached = new StyleSheet();
+        int errors = styleSheetErrors;
+        int faces = fontFaces.size();
+        boolean complete = false;
+        try {
+            parseStyleSheetContent
+                (cached, StyleSheetCache.createInputSource(content, is), uri);
+            // The rules of a style-sheet with imports depend on the
+            // imported sources, which are not part of the key.
+            complete = (errors == styleSheetErrors) && !hasImports(cached);
+        } finally {
+            copyRules(cached, ss);
+            if (complete) {
+                // The @font-face rules are added to the engine as they
+                // are parsed, not to the style-sheet.
+                List faceRules = new ArrayList
+                    (fontFaces.subList(faces, fontFaces.size()));
+                cache.put(key, cached, faceRules,
+                          StyleSheetCache.sizeOf(content));
+            }
+        }
+    }
+
+    /**
+     * Returns a string that identifies how this engine parses
+     * style-sheets: two engines with the same signature turn the same
+     * source into the same rules.
+     */
+    protected String getStyleSheetSignature() {
+        if (styleSheetSignature == null) {
+            StringBuffer sb = new StringBuffer(getClass().getName());
+            sb.append(' ').append(parser.getClass().getName());
+            sb.append(' ').append(classNamespaceURI);
+            sb.append(' ').append(classLocalName);
+            for (ValueManager vm : valueManagers) {
+                sb.append(' ').append(vm.getClass().getName());
+                sb.append(':').append(vm.getPropertyName());
+            }
+            for (ShorthandManager sm : shorthandManagers) {
+                sb.append(' ').append(sm.getClass().getName());
+                sb.append(':').append(sm.getPropertyName());
+            }
+            styleSheetSignature = sb.toString();
+        }
+        return styleSheetSignature;
+    }
+
+    /**
+     * Whether the given style-sheet starts with <code>@import</code>
+     * rules.
+     */
+    protected boolean hasImports(StyleSheet ss) {
+        return (ss.getSize() > 0) &&
+            (ss.getRule(0).getType() == ImportRule.TYPE);
+    }
+
+    /**
+     * Appends the rules of a cached style-sheet to another one.
+     */
+    protected void copyRules(StyleSheet from, StyleSheet to) {
+        boolean empty = to.getSize() == 0;
+        int len = from.getSize();
+        for (int i = 0; i < len; i++) {
+            to.append(from.getRule(i));
+        }
+        if (empty && len > 0) {
+            // The rules are the same, so is the index.
+            to.index = from.getIndex();
+        }
+    }
+
+    /**
+     * Parses and fills the given style-sheet.
+     * @param ss The stylesheet to fill.
+     * @param uri The base URI.
+     */
+    protected void parseStyleSheetContent(StyleSheet ss, InputSource is,
+                                          ParsedURL uri)
+        throws IOException {
         parser.setSelectorFactory(CSSSelectorFactory.INSTANCE);
         parser.setConditionFactory(cssConditionFactory);
         try {
@@ -1341,8 +1724,39 @@ public abstract class CSSEngine {
                             ArrayList rules,
                             short origin) {
         sortRules(rules, elt, pseudo);
-        int rlen = rules.size();
+        putRules(sm, rules, origin);
+    }
+
+    /**
+     * Sorts the given {@link StyleSheetIndex.Match}es by specificity
+     * and adds their rules to a stylemap.
+     */
+    protected void addMatches(StyleMap sm, ArrayList matches, short origin) {
+        // Collections.sort is stable, so rules of equal specificity
+        // stay in style sheet order.
+        Collections.sort(matches, MATCH_COMPARATOR);
+        int len = matches.size();
+        for (int i = 0; i < len; i++) {
+            matches.set(i, ((StyleSheetIndex.Match)matches.get(i)).rule);
+        }
+        putRules(sm, matches, origin);
+    }
+
+    /**
+     * Orders {@link StyleSheetIndex.Match}es by specificity.
+     */
+    protected static final Comparator MATCH_COMPARATOR = new Comparator() {
+            public int compare(Object o1, Object o2) {
+                int s1 = ((StyleSheetIndex.Match)o1).specificity;
+                int s2 = ((StyleSheetIndex.Match)o2).specificity;
+                return (s1 < s2) ? -1 : ((s1 == s2) ? 0 : 1);
+            }
+        };
 
+    /**
+     * Adds the rules contained in the given sorted list to a stylemap.
+     */
+    protected void putRules(StyleMap sm, List rules, short origin) {
         if (origin == StyleMap.AUTHOR_ORIGIN) {
             for (Object rule : rules) {
                 StyleRule sr = (StyleRule) rule;
@@ -1846,6 +2260,9 @@ public abstract class CSSEngine {
         for (int i = getNumberOfProperties() - 1; i >= 0; --i) {
             updated[i] = false;
         }
+        // The descendants only need to be matched again if selectors
+        // test the style attribute on their ancestors.
+        boolean deep = isDeepSelectorAttribute(styleLocalName);
 
         switch (attrChange) {
         case MutationEvent.ADDITION:            // intentional fall-through
@@ -1895,7 +2312,7 @@ public abstract class CSSEngine {
             }
 
             if (removed) {
-                invalidateProperties(elt, null, updated, true);
+                invalidateProperties(elt, null, updated, true, deep);
             } else {
                 int count = 0;
                 // Invalidate the relative values
@@ -1930,7 +2347,7 @@ public abstract class CSSEngine {
                             props[count++] = i;
                         }
                     }
-                    invalidateProperties(elt, props, null, true);
+                    invalidateProperties(elt, props, null, true, deep);
                 }
             }
             break;
@@ -1962,6 +2379,25 @@ public abstract class CSSEngine {
                                         int [] properties,
                                         boolean [] updated,
                                         boolean recascade) {
+        invalidateProperties(node, properties, updated, recascade, recascade);
+    }
+
+    /**
+     * Invalidates the properties of the given node.
+     * @param properties The properties known to have changed.
+     * @param updated The properties known to have changed, may be null.
+     * @param recascade Whether the stylesheets must be applied again
+     *        to the node to find the other properties that changed.
+     *        Otherwise <code>properties</code> are the inherited
+     *        properties that changed on the parent.
+     * @param recascadeChildren Whether the stylesheets must also be
+     *        applied again to the descendants of the node.
+     */
+    protected void invalidateProperties(Node node,
+                                        int [] properties,
+                                        boolean [] updated,
+                                        boolean recascade,
+                                        boolean recascadeChildren) {
 
         if (!(node instanceof CSSStylableElement))
             return;  // Not Stylable sub tree
@@ -1982,10 +2418,16 @@ public abstract class CSSEngine {
         }
         int count =0;
         if (!recascade) {
-            for (boolean diff : diffs) {
-                if (diff) {
-                    count++;
+            for (int i=0; i<diffs.length; i++) {
+                if (!diffs[i]) continue;
+                if (style.isComputed(i) && !style.isNullCascaded(i) &&
+                    !style.isParentRelative(i)) {
+                    // Our own value does not depend on the parent's.
+                    diffs[i] = false;
+                    continue;
                 }
+                clearComputedValue(style, i);
+                count++;
             }
         } else {
             StyleMap newStyle = getCascadedStyleMap(elt, null);
@@ -2028,7 +2470,7 @@ public abstract class CSSEngine {
                     props[count++] = i;
             }
         }
-        propagateChanges(elt, props, recascade);
+        propagateChanges(elt, props, recascadeChildren);
     }
 
     /**
@@ -2119,6 +2561,11 @@ public abstract class CSSEngine {
             }
         }
 
+        if (inherited == null && !recascade) {
+            // Nothing can change in the subtree.
+            return;
+        }
+
         for (Node n = getCSSFirstChild(node);
              n != null;
              n = getCSSNextSibling(n)) {
@@ -2229,7 +2676,8 @@ public abstract class CSSEngine {
         case MutationEvent.REMOVAL:
             {
                 int [] invalid = { idx };
-                invalidateProperties(elt, invalid, null, true);
+                invalidateProperties(elt, invalid, null, true,
+                                     isDeepSelectorAttribute(property));
                 return;
             }
         }
@@ -2267,7 +2715,8 @@ public abstract class CSSEngine {
             }
         }
 
-        invalidateProperties(elt, props, null, true);
+        invalidateProperties(elt, props, null, true,
+                             isDeepSelectorAttribute(property));
     }
 
     /**
@@ -2336,15 +2785,21 @@ public abstract class CSSEngine {
             }
         }
 
-        if (selectorAttributes != null &&
-            selectorAttributes.contains(name)) {
-            // An attribute has been modified, invalidate all the
-            // properties to correctly match attribute selectors.
-            invalidateProperties(elt, null, null, true);
-            for (Node n = getCSSNextSibling(elt);
-                 n != null;
-                 n = getCSSNextSibling(n)) {
-                invalidateProperties(n, null, null, true);
+        int flags = getSelectorAttributeFlags(name, prevValue, newValue);
+        if (flags != 0) {
+            // An attribute has been modified, invalidate the properties
+            // of the elements whose matching rules may have changed:
+            // the element itself, its descendants only when the
+            // attribute is tested on ancestors, and its following
+            // siblings only when it is tested on preceding siblings.
+            boolean deep = (flags & SELECTOR_ATTR_DESCENDANTS) != 0;
+            invalidateProperties(elt, null, null, true, deep);
+            if ((flags & SELECTOR_ATTR_SIBLINGS) != 0) {
+                for (Node n = getCSSNextSibling(elt);
+                     n != null;
+                     n = getCSSNextSibling(n)) {
+                    invalidateProperties(n, null, null, true, deep);
+                }
             }
         }
     }
@@ -2501,7 +2956,7 @@ public abstract class CSSEngine {
             for (int i = 0; i < ds; i++) {
                 updated[declaration.getIndex(i)] = true;
             }
-            invalidateProperties(elt, null, updated, true);
+            invalidateProperties(elt, null, updated, true, false);
         }
 
         /**
@@ -2522,7 +2977,7 @@ public abstract class CSSEngine {
                             && style.getOrigin(idx) == StyleMap.OVERRIDE_ORIGIN
                             /* && style.isComputed(idx) */) {
                         invalidateProperties
-                            (elt, new int[] { idx }, null, true);
+                            (elt, new int[] { idx }, null, true, false);
                     }
                     break;
                 }
@@ -2541,7 +2996,8 @@ public abstract class CSSEngine {
             declaration = p.getStyleDeclaration();
             setMainProperties(elt, this, name, val, important);
             declaration = null;
-            invalidateProperties(elt, null, mainPropertiesChanged, true);
+            invalidateProperties(elt, null, mainPropertiesChanged, true,
+                                 false);
         }
 
         // MainPropertyReceiver //////////////////////////////////////////////
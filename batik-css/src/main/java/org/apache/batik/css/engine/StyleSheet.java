@@ -58,6 +58,11 @@ public class StyleSheet {
      */
     protected String title;
 
+    /**
+     * The index of the rules, built on demand.
+     */
+    protected volatile StyleSheetIndex index;
+
     /**
      * Sets the media to use to compute the styles.
      */
@@ -134,6 +139,7 @@ public class StyleSheet {
     public void clear() {
         size = 0;
         rules = new Rule[10];
+        invalidateIndex();
     }
 
     /**
@@ -146,6 +152,34 @@ public class StyleSheet {
             rules = t;
         }
         rules[size++] = r;
+        invalidateIndex();
+    }
+
+    /**
+     * Returns the index of the rules of this style-sheet, including
+     * the rules of its media and import rules.
+     */
+    public StyleSheetIndex getIndex() {
+        StyleSheetIndex ret = index;
+        if (ret == null) {
+            synchronized (this) {
+                ret = index;
+                if (ret == null) {
+                    ret = new StyleSheetIndex(this);
+                    index = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drops the index of this style-sheet and of its ancestors.
+     */
+    protected void invalidateIndex() {
+        for (StyleSheet ss = this; ss != null; ss = ss.parent) {
+            ss.index = null;
+        }
     }
 
     /**
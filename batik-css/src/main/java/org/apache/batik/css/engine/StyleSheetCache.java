@@ -0,0 +1,389 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.batik.util.CSSConstants;
+import org.apache.batik.util.ParsedURL;
+import org.w3c.css.sac.InputSource;
+import org.w3c.css.sac.SACMediaList;
+
+/**
+ * A cache of parsed style-sheets, shared by all the CSS engines of
+ * the JVM.
+ *
+ * <p>A style-sheet is identified by the digest of its source, of its
+ * base URI, of its media and of the configuration of the engine that
+ * parsed it (see {@link CSSEngine#getStyleSheetSignature()}), so a
+ * style-sheet is only reused when parsing it again would give the same
+ * rules.  Style-sheets with <code>@import</code> rules are not cached,
+ * as their rules also depend on the sources of the imported
+ * style-sheets; these are cached on their own.
+ *
+ * <p>The cached style-sheets are never modified once they are in the
+ * cache: the engines get new style-sheets that share their rules.
+ * The <code>@font-face</code> rules, which the engines keep apart from
+ * the style-sheets, are cached along with them.
+ * The budget is expressed in bytes of source.
+ *
+ * @version $Id$
+ */
+public class StyleSheetCache {
+
+    /**
+     * The default budget, in bytes of source.
+     */
+    public static final long DEFAULT_BUDGET = 4L * 1024 * 1024;
+
+    /**
+     * The cache used by the CSS engines, null by default.
+     */
+    protected static StyleSheetCache sharedCache;
+
+    /**
+     * Sets the cache used by the CSS engines.  Null disables the
+     * caching of style-sheets.
+     */
+    public static synchronized void setSharedCache(StyleSheetCache cache) {
+        sharedCache = cache;
+    }
+
+    /**
+     * Returns the cache used by the CSS engines, or null.
+     */
+    public static synchronized StyleSheetCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * A cached style-sheet.
+     */
+    protected static class Entry {
+        StyleSheet styleSheet;
+        List fontFaces;
+        long size;
+    }
+
+    /**
+     * The entries, in least recently used order.
+     */
+    protected LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    protected long budget;
+    protected long size;
+
+    protected final AtomicLong hits      = new AtomicLong();
+    protected final AtomicLong misses    = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with the default budget.
+     */
+    public StyleSheetCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget The budget, in bytes of source.
+     */
+    public StyleSheetCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the style-sheet cached under <code>key</code>, or null.
+     * The returned style-sheet must not be modified.
+     */
+    public StyleSheet get(String key) {
+        return get(key, null);
+    }
+
+    /**
+     * Returns the style-sheet cached under <code>key</code>, or null.
+     * The returned style-sheet must not be modified.
+     * @param fontFaces The list the <code>@font-face</code> rules of
+     *        the style-sheet are appended to, if it is found, or null.
+     */
+    public StyleSheet get(String key, List fontFaces) {
+        Entry e;
+        synchronized (this) {
+            e = (Entry)entries.get(key);
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (fontFaces != null) {
+            fontFaces.addAll(e.fontFaces);
+        }
+        return e.styleSheet;
+    }
+
+    /**
+     * Caches a style-sheet.  The style-sheet must not be modified
+     * afterwards.
+     * @param key The key, see {@link #createKey}.
+     * @param ss The style-sheet.
+     * @param sz The size of its source, in bytes.
+     */
+    public void put(String key, StyleSheet ss, long sz) {
+        put(key, ss, Collections.EMPTY_LIST, sz);
+    }
+
+    /**
+     * Caches a style-sheet and its <code>@font-face</code> rules.
+     * Neither must be modified afterwards.
+     * @param key The key, see {@link #createKey}.
+     * @param ss The style-sheet.
+     * @param fontFaces The <code>FontFaceRule</code>s of the style-sheet.
+     * @param sz The size of its source, in bytes.
+     */
+    public synchronized void put(String key, StyleSheet ss, List fontFaces,
+                                 long sz) {
+        if (sz > budget) {
+            return;
+        }
+        Entry e = new Entry();
+        e.styleSheet = ss;
+        e.fontFaces = fontFaces;
+        e.size = sz;
+        Entry old = (Entry)entries.put(key, e);
+        if (old != null) {
+            size -= old.size;
+        }
+        size += sz;
+        evict();
+    }
+
+    /**
+     * Drops least recently used entries until the cache is within its
+     * budget.  Must be called with the lock held.
+     */
+    protected void evict() {
+        Iterator it = entries.values().iterator();
+        while (size > budget && it.hasNext()) {
+            Entry e = (Entry)it.next();
+            it.remove();
+            size -= e.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all the style-sheets from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Sets the budget of the cache, in bytes of source.
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     * Returns the budget of the cache, in bytes of source.
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the size of the source of the cached style-sheets.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of cached style-sheets.
+     */
+    public synchronized int getStyleSheetCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups that found their style-sheet.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of style-sheets dropped to stay within budget.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Reads the whole source of a style-sheet.
+     * @return A String if the input source has a character stream, a
+     *         byte array otherwise, or null if the input source is
+     *         empty.
+     */
+    public static Object readContent(InputSource is) throws IOException {
+        Reader r = is.getCharacterStream();
+        if (r != null) {
+            StringBuffer sb = new StringBuffer();
+            char[] buf = new char[4096];
+            int n;
+            while ((n = r.read(buf)) != -1) {
+                sb.append(buf, 0, n);
+            }
+            return sb.toString();
+        }
+        InputStream in = is.getByteStream();
+        if (in == null) {
+            String uri = is.getURI();
+            if (uri == null) {
+                return null;
+            }
+            in = new ParsedURL(uri).openStreamRaw(CSSConstants.CSS_MIME_TYPE);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            if (is.getByteStream() == null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Returns an input source reading the given content, as returned
+     * by {@link #readContent}, in place of <code>is</code>.
+     */
+    public static InputSource createInputSource(Object content,
+                                                InputSource is) {
+        InputSource ret = new InputSource();
+        ret.setURI(is.getURI());
+        ret.setEncoding(is.getEncoding());
+        ret.setMedia(is.getMedia());
+        ret.setTitle(is.getTitle());
+        if (content instanceof String) {
+            ret.setCharacterStream(new StringReader((String)content));
+        } else {
+            ret.setByteStream(new ByteArrayInputStream((byte[])content));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the size of the given content, in bytes.
+     */
+    public static long sizeOf(Object content) {
+        if (content instanceof String) {
+            return 2L * ((String)content).length();
+        }
+        return ((byte[])content).length;
+    }
+
+    /**
+     * Creates the key of a style-sheet.
+     * @param signature The signature of the engine parsing it.
+     * @param uri The base URI of the style-sheet.
+     * @param media The media of the style-sheet, or null.
+     * @param encoding The encoding of the content, if it is a byte array.
+     * @param content The content, as returned by {@link #readContent}.
+     */
+    public static String createKey(String signature, ParsedURL uri,
+                                   SACMediaList media, String encoding,
+                                   Object content) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        update(md, signature);
+        update(md, String.valueOf(uri));
+        if (media != null) {
+            for (int i = 0; i < media.getLength(); i++) {
+                update(md, media.item(i));
+            }
+        }
+        md.update((byte)0);
+        if (content instanceof String) {
+            md.update((byte)'c');
+            update(md, (String)content);
+        } else {
+            md.update((byte)'b');
+            update(md, String.valueOf(encoding));
+            md.update((byte[])content);
+        }
+        byte[] d = md.digest();
+        StringBuffer sb = new StringBuffer(d.length * 2);
+        for (int i = 0; i < d.length; i++) {
+            sb.append(Character.forDigit((d[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(d[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest md, String s) {
+        try {
+            md.update(s.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        md.update((byte)0);
+    }
+}
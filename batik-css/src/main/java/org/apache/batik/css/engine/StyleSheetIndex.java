@@ -0,0 +1,397 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.css.engine.sac.AbstractDescendantSelector;
+import org.apache.batik.css.engine.sac.AbstractSiblingSelector;
+import org.apache.batik.css.engine.sac.CSSAndCondition;
+import org.apache.batik.css.engine.sac.CSSClassCondition;
+import org.apache.batik.css.engine.sac.CSSConditionalSelector;
+import org.apache.batik.css.engine.sac.CSSElementSelector;
+import org.apache.batik.css.engine.sac.CSSIdCondition;
+import org.apache.batik.css.engine.sac.ExtendedSelector;
+import org.w3c.css.sac.Condition;
+import org.w3c.css.sac.Selector;
+import org.w3c.css.sac.SelectorList;
+import org.w3c.dom.Element;
+
+/**
+ * An index of the selectors of a style sheet, used to find the rules
+ * that may match an element without trying all of them.
+ *
+ * <p>Each selector is filed under the most selective part of its
+ * subject, the simple selector on its right: its id if it has one,
+ * otherwise one of its classes, otherwise its element name.  The
+ * other selectors go in the universal bucket.  An element is then
+ * only matched against the selectors filed under its id, its classes,
+ * its name, and the universal ones.
+ *
+ * @version $Id$
+ */
+public class StyleSheetIndex {
+
+    /**
+     * A selector of a style rule.
+     */
+    protected static class Entry {
+
+        /**
+         * The rule.
+         */
+        StyleRule rule;
+
+        /**
+         * The selector.
+         */
+        ExtendedSelector selector;
+
+        /**
+         * The specificity of the selector.
+         */
+        int specificity;
+
+        /**
+         * The position of the selector in the style sheet.
+         */
+        int order;
+
+        /**
+         * The media rules enclosing the rule, outermost first, or null.
+         */
+        MediaRule[] media;
+    }
+
+    /**
+     * A rule matching an element.
+     */
+    public static class Match {
+
+        /**
+         * The rule.
+         */
+        public StyleRule rule;
+
+        /**
+         * The highest specificity of the selectors of the rule that
+         * match the element.
+         */
+        public int specificity;
+
+        public Match(StyleRule rule, int specificity) {
+            this.rule = rule;
+            this.specificity = specificity;
+        }
+    }
+
+    /**
+     * The keys of an element in the index, computed once per element.
+     */
+    public static class ElementKeys {
+
+        String id;
+        String name;
+        String[] classes;
+
+        public ElementKeys(Element elt) {
+            if (elt.getPrefix() == null) name = elt.getNodeName();
+            else                         name = elt.getLocalName();
+            if (elt instanceof CSSStylableElement) {
+                CSSStylableElement cse = (CSSStylableElement)elt;
+                id = cse.getXMLId();
+                classes = splitClasses(cse.getCSSClass());
+            }
+        }
+    }
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private static final String[] NO_CLASSES = new String[0];
+
+    protected Map ids = new HashMap();
+    protected Map classes = new HashMap();
+    protected Map names = new HashMap();
+    protected Entry[] universal;
+
+    /**
+     * Creates the index of the given style sheet.
+     */
+    public StyleSheetIndex(StyleSheet ss) {
+        List all = new ArrayList();
+        addEntries(all, ss, null);
+        List univ = new ArrayList();
+        for (Object anAll : all) {
+            Entry e = (Entry)anAll;
+            file(e, univ);
+        }
+        universal = toArray(univ);
+        toArrays(ids);
+        toArrays(classes);
+        toArrays(names);
+    }
+
+    /**
+     * Adds the selectors of the given style sheet, in order.
+     */
+    private void addEntries(List entries, StyleSheet ss, MediaRule[] media) {
+        int len = ss.getSize();
+        for (int i = 0; i < len; i++) {
+            Rule r = ss.getRule(i);
+            switch (r.getType()) {
+            case StyleRule.TYPE:
+                StyleRule sr = (StyleRule)r;
+                SelectorList sl = sr.getSelectorList();
+                int slen = sl.getLength();
+                for (int j = 0; j < slen; j++) {
+                    Entry e = new Entry();
+                    e.rule = sr;
+                    e.selector = (ExtendedSelector)sl.item(j);
+                    e.specificity = e.selector.getSpecificity();
+                    e.order = entries.size();
+                    e.media = media;
+                    entries.add(e);
+                }
+                break;
+
+            case MediaRule.TYPE:
+            case ImportRule.TYPE:
+                MediaRule mr = (MediaRule)r;
+                MediaRule[] m;
+                if (media == null) {
+                    m = new MediaRule[] { mr };
+                } else {
+                    m = new MediaRule[media.length + 1];
+                    System.arraycopy(media, 0, m, 0, media.length);
+                    m[media.length] = mr;
+                }
+                addEntries(entries, mr, m);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Files the given entry in its bucket.
+     */
+    private void file(Entry e, List univ) {
+        Selector subject = e.selector;
+        if (subject instanceof AbstractDescendantSelector) {
+            subject = ((AbstractDescendantSelector)subject).getSimpleSelector();
+        } else if (subject instanceof AbstractSiblingSelector) {
+            subject = ((AbstractSiblingSelector)subject).getSiblingSelector();
+        }
+
+        String name = null;
+        if (subject instanceof CSSConditionalSelector) {
+            CSSConditionalSelector cs = (CSSConditionalSelector)subject;
+            Condition c = cs.getCondition();
+            String id = findId(c);
+            if (id != null) {
+                add(ids, id, e);
+                return;
+            }
+            String cl = findClass(c);
+            if (cl != null) {
+                add(classes, cl, e);
+                return;
+            }
+            subject = cs.getSimpleSelector();
+        }
+        if (subject instanceof CSSElementSelector) {
+            name = ((CSSElementSelector)subject).getLocalName();
+        }
+        if (name != null) {
+            add(names, name, e);
+        } else {
+            univ.add(e);
+        }
+    }
+
+    /**
+     * Returns the id a condition requires, if any.
+     */
+    private static String findId(Condition c) {
+        if (c instanceof CSSIdCondition) {
+            return ((CSSIdCondition)c).getValue();
+        }
+        if (c instanceof CSSAndCondition) {
+            CSSAndCondition ac = (CSSAndCondition)c;
+            String ret = findId(ac.getFirstCondition());
+            return (ret != null) ? ret : findId(ac.getSecondCondition());
+        }
+        return null;
+    }
+
+    /**
+     * Returns one of the classes a condition requires, if any.
+     */
+    private static String findClass(Condition c) {
+        if (c instanceof CSSClassCondition) {
+            String v = ((CSSClassCondition)c).getValue();
+            // A class with spaces can't be matched against a single
+            // class of the element.
+            for (int i = 0; i < v.length(); i++) {
+                if (Character.isSpaceChar(v.charAt(i)))
+                    return null;
+            }
+            return (v.length() == 0) ? null : v;
+        }
+        if (c instanceof CSSAndCondition) {
+            CSSAndCondition ac = (CSSAndCondition)c;
+            String ret = findClass(ac.getFirstCondition());
+            return (ret != null) ? ret : findClass(ac.getSecondCondition());
+        }
+        return null;
+    }
+
+    private static void add(Map m, String key, Entry e) {
+        List l = (List)m.get(key);
+        if (l == null) {
+            l = new ArrayList(2);
+            m.put(key, l);
+        }
+        l.add(e);
+    }
+
+    private static Entry[] toArray(List l) {
+        return (Entry[])l.toArray(new Entry[l.size()]);
+    }
+
+    private static void toArrays(Map m) {
+        for (Object o : m.entrySet()) {
+            Map.Entry me = (Map.Entry)o;
+            me.setValue(toArray((List)me.getValue()));
+        }
+    }
+
+    /**
+     * Splits a class attribute the way {@link CSSClassCondition} reads
+     * it.
+     */
+    static String[] splitClasses(String s) {
+        int len = s.length();
+        if (len == 0) {
+            return NO_CLASSES;
+        }
+        List ret = null;
+        String first = null;
+        int i = 0;
+        while (i < len) {
+            while (i < len && Character.isSpaceChar(s.charAt(i))) i++;
+            int start = i;
+            while (i < len && !Character.isSpaceChar(s.charAt(i))) i++;
+            if (i > start) {
+                String c = s.substring(start, i);
+                if (first == null) {
+                    first = c;
+                } else if (!c.equals(first)) {
+                    if (ret == null) {
+                        ret = new ArrayList(4);
+                        ret.add(first);
+                    }
+                    if (!ret.contains(c)) {
+                        ret.add(c);
+                    }
+                }
+            }
+        }
+        if (ret != null) {
+            return (String[])ret.toArray(new String[ret.size()]);
+        }
+        return (first == null) ? NO_CLASSES : new String[] { first };
+    }
+
+    private Entry[] get(Map m, String key) {
+        if (key == null) return EMPTY;
+        Entry[] ret = (Entry[])m.get(key);
+        return (ret == null) ? EMPTY : ret;
+    }
+
+    /**
+     * Adds to <code>matches</code> the rules of the style sheet that
+     * match the given element, in style sheet order, each one once.
+     * @param eng The engine, used to match the media rules.
+     * @param elt The element.
+     * @param keys The keys of <code>elt</code>.
+     * @param pseudo The pseudo element, or null.
+     * @param matches The list of {@link Match}es to append to.
+     */
+    public void addMatchingRules(CSSEngine eng, Element elt,
+                                 ElementKeys keys, String pseudo,
+                                 List matches) {
+        String[] cls = (keys.classes == null) ? NO_CLASSES : keys.classes;
+        Entry[][] lists = new Entry[cls.length + 3][];
+        lists[0] = universal;
+        lists[1] = get(names, keys.name);
+        lists[2] = get(ids, keys.id);
+        for (int i = 0; i < cls.length; i++) {
+            lists[i + 3] = get(classes, cls[i]);
+        }
+
+        // Merge the candidate lists in style sheet order.
+        int[] pos = new int[lists.length];
+        Match last = null;
+        for (;;) {
+            int best = -1;
+            int bestOrder = Integer.MAX_VALUE;
+            for (int i = 0; i < lists.length; i++) {
+                if (pos[i] < lists[i].length) {
+                    int o = lists[i][pos[i]].order;
+                    if (o < bestOrder) {
+                        bestOrder = o;
+                        best = i;
+                    }
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+            Entry e = lists[best][pos[best]++];
+
+            if (last != null && last.rule == e.rule) {
+                // Another selector of a rule that already matched.
+                if (e.specificity > last.specificity &&
+                    e.selector.match(elt, pseudo)) {
+                    last.specificity = e.specificity;
+                }
+                continue;
+            }
+            if (e.media != null && !mediaMatch(eng, e.media)) {
+                continue;
+            }
+            if (e.selector.match(elt, pseudo)) {
+                last = new Match(e.rule, e.specificity);
+                matches.add(last);
+            }
+        }
+    }
+
+    private static boolean mediaMatch(CSSEngine eng, MediaRule[] media) {
+        for (MediaRule m : media) {
+            if (!eng.mediaMatch(m.getMediaList())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -166,6 +166,12 @@ public abstract class AbstractDocument
      */
     protected boolean strictErrorChecking = true;
 
+    /**
+     * Whether the elements of this document keep their attributes
+     * without creating the attribute nodes.
+     */
+    protected boolean compactAttributes;
+
     /**
      * The DOMConfiguration object for this document.
      */
@@ -258,6 +264,25 @@ public abstract class AbstractDocument
         eventsEnabled = b;
     }
 
+    /**
+     * Tests whether the elements of this document keep their attributes
+     * in a compact form.
+     * @see AbstractElement.CompactNamedNodeMap
+     */
+    public boolean getCompactAttributes() {
+        return compactAttributes;
+    }
+
+    /**
+     * Sets whether the elements of this document keep their attributes
+     * in a compact form, where the attribute nodes are only created when
+     * they are requested.  This saves a lot of memory on large documents.
+     * The elements that already have attributes keep their current form.
+     */
+    public void setCompactAttributes(boolean b) {
+        compactAttributes = b;
+    }
+
     /**
      * <b>DOM</b>: Implements {@link org.w3c.dom.Node#getNodeName()}.
      * @return "#document".
@@ -820,6 +845,7 @@ public abstract class AbstractDocument
         ad.xmlStandalone = xmlStandalone;
         ad.documentURI = documentURI;
         ad.strictErrorChecking = strictErrorChecking;
+        ad.compactAttributes = compactAttributes;
         // XXX clone DocumentConfiguration?
         return n;
     }
@@ -20,12 +20,14 @@ package org.apache.batik.dom;
 
 import java.io.Serializable;
 
+import org.apache.batik.css.engine.AttributeValueList;
 import org.apache.batik.dom.events.DOMMutationEvent;
 import org.apache.batik.dom.util.DOMUtilities;
 import org.apache.batik.util.XMLConstants;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.apache.batik.w3c.dom.ElementTraversal;
 import org.w3c.dom.NamedNodeMap;
@@ -113,6 +115,9 @@ public abstract class AbstractElement
      * <b>DOM</b>: Implements {@link org.w3c.dom.Element#hasAttribute(String)}.
      */
     public boolean hasAttribute( String name ) {
+        if ( attributes instanceof CompactNamedNodeMap ) {
+            return ( (CompactNamedNodeMap)attributes ).indexOf( null, name ) != -1;
+        }
         return attributes != null && attributes.getNamedItem( name ) != null;
     }
 
@@ -123,6 +128,11 @@ public abstract class AbstractElement
         if ( attributes == null ) {
           return "";
         }
+        if ( attributes instanceof CompactNamedNodeMap ) {
+            CompactNamedNodeMap map = (CompactNamedNodeMap)attributes;
+            int i = map.indexOf( null, name );
+            return ( i == -1 ) ? "" : map.getValue( i );
+        }
         Attr attr = (Attr)attributes.getNamedItem( name );
         return ( attr == null ) ? "" : attr.getValue();
     }
@@ -135,6 +145,11 @@ public abstract class AbstractElement
         if (attributes == null) {
             attributes = createAttributes();
         }
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).put(null, name, value,
+                                                  false, true);
+            return;
+        }
         Attr attr = getAttributeNode(name);
         if (attr == null) {
             attr = getOwnerDocument().createAttribute(name);
@@ -206,7 +221,9 @@ public abstract class AbstractElement
      */
     public void normalize() {
         super.normalize();
-        if (attributes != null) {
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).normalizeNodes();
+        } else if (attributes != null) {
             NamedNodeMap map = getAttributes();
             for (int i = map.getLength() - 1; i >= 0; i--) {
                 map.item(i).normalize();
@@ -222,6 +239,10 @@ public abstract class AbstractElement
         if ( namespaceURI != null && namespaceURI.length() == 0 ) {
             namespaceURI = null;
         }
+        if ( attributes instanceof CompactNamedNodeMap ) {
+            return ( (CompactNamedNodeMap)attributes ).
+                indexOf( namespaceURI, localName ) != -1;
+        }
         return attributes != null &&
                 attributes.getNamedItemNS( namespaceURI, localName ) != null;
     }
@@ -231,14 +252,29 @@ public abstract class AbstractElement
      * org.w3c.dom.Element#getAttributeNS(String,String)}.
      */
     public String getAttributeNS( String namespaceURI, String localName ) {
+        String v = getAttributeValueNS( namespaceURI, localName );
+        return ( v == null ) ? "" : v;
+    }
+
+    /**
+     * Returns the value of the given attribute, or null if the element
+     * has no such attribute.  Unlike {@link #getAttributeNodeNS}, this
+     * does not create the node of an attribute kept in a compact form.
+     */
+    public String getAttributeValueNS( String namespaceURI, String localName ) {
         if ( attributes == null ) {
-            return "";
+            return null;
         }
         if ( namespaceURI != null && namespaceURI.length() == 0 ) {
             namespaceURI = null;
         }
+        if ( attributes instanceof CompactNamedNodeMap ) {
+            CompactNamedNodeMap map = (CompactNamedNodeMap)attributes;
+            int i = map.indexOf( namespaceURI, localName );
+            return ( i == -1 ) ? null : map.getValue( i );
+        }
         Attr attr = (Attr)attributes.getNamedItemNS( namespaceURI, localName );
-        return ( attr == null ) ? "" : attr.getValue();
+        return ( attr == null ) ? null : attr.getValue();
     }
 
     /**
@@ -255,6 +291,11 @@ public abstract class AbstractElement
         if (namespaceURI != null && namespaceURI.length() == 0) {
             namespaceURI = null;
         }
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).put(namespaceURI, qualifiedName,
+                                                  value, true, true);
+            return;
+        }
         Attr attr = getAttributeNodeNS(namespaceURI, qualifiedName);
         if (attr == null) {
             attr = getOwnerDocument().createAttributeNS(namespaceURI,
@@ -494,6 +535,9 @@ public abstract class AbstractElement
      * Creates the attribute list.
      */
     protected NamedNodeMap createAttributes() {
+        if (ownerDocument != null && ownerDocument.getCompactAttributes()) {
+            return new CompactNamedNodeMap();
+        }
         return new NamedNodeHashMap();
     }
 
@@ -505,7 +549,9 @@ public abstract class AbstractElement
     protected Node export(Node n, AbstractDocument d) {
         super.export(n, d);
         AbstractElement ae = (AbstractElement)n;
-        if (attributes != null) {
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).copyInto(ae, true);
+        } else if (attributes != null) {
             NamedNodeMap map = attributes;
             for (int i = map.getLength() - 1; i >= 0; i--) {
                 AbstractAttr aa = (AbstractAttr)map.item(i);
@@ -530,7 +576,9 @@ public abstract class AbstractElement
     protected Node deepExport(Node n, AbstractDocument d) {
         super.deepExport(n, d);
         AbstractElement ae = (AbstractElement)n;
-        if (attributes != null) {
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).copyInto(ae, true);
+        } else if (attributes != null) {
             NamedNodeMap map = attributes;
             for (int i = map.getLength() - 1; i >= 0; i--) {
                 AbstractAttr aa = (AbstractAttr)map.item(i);
@@ -554,7 +602,9 @@ public abstract class AbstractElement
     protected Node copyInto(Node n) {
         super.copyInto(n);
         AbstractElement ae = (AbstractElement)n;
-        if (attributes != null) {
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).copyInto(ae, false);
+        } else if (attributes != null) {
             NamedNodeMap map = attributes;
             for (int i = map.getLength() - 1; i >= 0; i--) {
                 AbstractAttr aa = (AbstractAttr)map.item(i).cloneNode(true);
@@ -575,7 +625,9 @@ public abstract class AbstractElement
     protected Node deepCopyInto(Node n) {
         super.deepCopyInto(n);
         AbstractElement ae = (AbstractElement)n;
-        if (attributes != null) {
+        if (attributes instanceof CompactNamedNodeMap) {
+            ((CompactNamedNodeMap)attributes).copyInto(ae, false);
+        } else if (attributes != null) {
             NamedNodeMap map = attributes;
             for (int i = map.getLength() - 1; i >= 0; i--) {
                 AbstractAttr aa = (AbstractAttr)map.item(i).cloneNode(true);
@@ -1104,6 +1156,563 @@ public abstract class AbstractElement
         }
     }
 
+    /**
+     * A {@link org.w3c.dom.NamedNodeMap} that keeps the namespace URI, the
+     * qualified name and the value of each attribute in a single array,
+     * and only creates the {@link Attr} nodes when they are requested.
+     * Once created, the node of an attribute holds its value.  This takes
+     * much less memory than a {@link NamedNodeHashMap}, and the few
+     * attributes of an element are found quickly by a linear search.
+     *
+     * <br>This Map is not Thread-safe, concurrent updates or reading while updating may give
+     * unexpected results.
+     */
+    public class CompactNamedNodeMap
+        implements NamedNodeMap, AttributeValueList, Serializable {
+
+        /**
+         * The number of array slots of an attribute: its namespace URI,
+         * its qualified name, and its value or its node.
+         */
+        protected static final int SLOTS = 3;
+
+        /**
+         * The initial number of attributes.
+         */
+        protected static final int INITIAL_CAPACITY = 4;
+
+        /**
+         * The flag of the attributes that have their default value.
+         */
+        protected static final byte UNSPECIFIED = 1;
+
+        /**
+         * The flag of the attributes created by the DOM Level 1 methods.
+         */
+        protected static final byte LEVEL_1 = 2;
+
+        /**
+         * The attribute slots.
+         */
+        protected Object[] entries;
+
+        /**
+         * The flags of the attributes, or null if none was set.  When not
+         * null, it has one element per attribute slot.
+         */
+        protected byte[] flags;
+
+        /**
+         * The number of attributes.
+         */
+        protected int count;
+
+        /**
+         * Creates a new CompactNamedNodeMap object.
+         */
+        public CompactNamedNodeMap() {
+            entries = new Object[INITIAL_CAPACITY * SLOTS];
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link org.w3c.dom.NamedNodeMap#getNamedItem(String)}.
+         */
+        public Node getNamedItem( String name ) {
+            if ( name == null ) {
+                return null;
+            }
+            int i = indexOf( null, name, 0 );
+            return ( i == -1 ) ? null : item( i );
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link org.w3c.dom.NamedNodeMap#setNamedItem(Node)}.
+         */
+        public Node setNamedItem( Node arg ) throws DOMException {
+            if ( arg == null ) {
+                return null;
+            }
+            checkNode( arg );
+
+            return setNamedItem( null, arg.getNodeName(), arg );
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link org.w3c.dom.NamedNodeMap#removeNamedItem(String)}.
+         */
+        public Node removeNamedItem( String name ) throws DOMException {
+            return removeNamedItemNS( null, name );
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link org.w3c.dom.NamedNodeMap#item(int)}.
+         * The node of the attribute is created if needed.
+         */
+        public Node item( int index ) {
+            if ( index < 0 || index >= count ) {
+                return null;
+            }
+            int j = index * SLOTS + 2;
+            Object v = entries[ j ];
+            if ( v instanceof Attr ) {
+                return (Attr)v;
+            }
+            AbstractAttr a = createNode( index );
+            a.setOwnerElement( AbstractElement.this );
+            entries[ j ] = a;
+            return a;
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link org.w3c.dom.NamedNodeMap#getLength()}.
+         */
+        public int getLength() {
+            return count;
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link
+         * org.w3c.dom.NamedNodeMap#getNamedItemNS(String,String)}.
+         */
+        public Node getNamedItemNS( String namespaceURI, String localName ) {
+            if ( namespaceURI != null && namespaceURI.length() == 0 ) {
+                namespaceURI = null;
+            }
+            int i = indexOf( namespaceURI, localName );
+            return ( i == -1 ) ? null : item( i );
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link org.w3c.dom.NamedNodeMap#setNamedItemNS(Node)}.
+         */
+        public Node setNamedItemNS( Node arg ) throws DOMException {
+            if ( arg == null ) {
+                return null;
+            }
+            String nsURI = arg.getNamespaceURI();
+            return setNamedItem( nsURI,
+                    ( nsURI == null )
+                            ? arg.getNodeName()
+                            : arg.getLocalName(), arg );
+        }
+
+        /**
+         * <b>DOM</b>: Implements {@link org.w3c.dom.NamedNodeMap#removeNamedItemNS(String,String)}.
+         */
+        public Node removeNamedItemNS( String namespaceURI, String localName )
+                throws DOMException {
+            checkReadonly();
+            if ( localName == null ) {
+                throw createDOMException( DOMException.NOT_FOUND_ERR,
+                        "attribute.missing",
+                        new Object[]{""} );
+            }
+            if ( namespaceURI != null && namespaceURI.length() == 0 ) {
+                namespaceURI = null;
+            }
+            int i = indexOf( namespaceURI, localName );
+            if ( i == -1 ) {
+                throw createDOMException( DOMException.NOT_FOUND_ERR,
+                        "attribute.missing",
+                        new Object[]{localName} );
+            }
+            AbstractAttr n = remove( i );
+            n.setOwnerElement( null );
+            removed( namespaceURI, localName, n );
+            return n;
+        }
+
+        /**
+         * Adds a node to the map.
+         */
+        public Node setNamedItem( String ns, String name, Node arg )
+                throws DOMException {
+
+            if ( ns != null && ns.length() == 0 ) {
+                ns = null;
+            }
+            AbstractAttr a = (AbstractAttr)arg;
+            a.setOwnerElement( AbstractElement.this );
+            AbstractAttr result = null;
+            int i = indexOf( ns, name );
+            if ( i == -1 ) {
+                insert( a.getNamespaceURI(), a.getNodeName(), a, (byte)0 );
+            } else {
+                result = (AbstractAttr)item( i );
+                int j = i * SLOTS;
+                entries[ j ]     = a.getNamespaceURI();
+                entries[ j + 1 ] = a.getNodeName();
+                entries[ j + 2 ] = a;
+                setFlags( i, (byte)0 );
+            }
+
+            if ( result != null ) {
+                result.setOwnerElement( null );
+                fireDOMAttrModifiedEvent( name,
+                        result,
+                        result.getNodeValue(),
+                        "",
+                        MutationEvent.REMOVAL );
+            }
+            fireDOMAttrModifiedEvent( name,
+                    a,
+                    "",
+                    a.getNodeValue(),
+                    MutationEvent.ADDITION );
+            return result;
+        }
+
+        /**
+         * Returns the qualified name of the attribute at the given index.
+         */
+        public String getName( int index ) {
+            return (String)entries[ index * SLOTS + 1 ];
+        }
+
+        /**
+         * Returns the namespace URI of the attribute at the given index.
+         */
+        public String getNamespaceURI( int index ) {
+            return (String)entries[ index * SLOTS ];
+        }
+
+        /**
+         * Returns the value of the attribute at the given index.
+         */
+        public String getValue( int index ) {
+            Object v = entries[ index * SLOTS + 2 ];
+            return ( v instanceof Attr ) ? ( (Attr)v ).getValue() : (String)v;
+        }
+
+        /**
+         * Returns the index of the attribute with the given namespace URI
+         * and local name, or with the given name if the namespace URI is
+         * null.
+         *
+         * @return the index or -1.
+         */
+        public int indexOf( String ns, String name ) {
+            if ( name == null ) {
+                return -1;
+            }
+            return indexOf( ns, name, 0 );
+        }
+
+        /**
+         * Returns the index of an attribute.  When the namespace URI is
+         * not null, the local names are compared with the part of
+         * <code>name</code> that starts at <code>off</code>.
+         *
+         * @return the index or -1.
+         */
+        protected int indexOf( String ns, String name, int off ) {
+            int len = name.length() - off;
+            for ( int i = 0, j = 0; i < count; i++, j += SLOTS ) {
+                String n = (String)entries[ j + 1 ];
+                if ( ns == null ) {
+                    if ( entries[ j ] == null &&
+                            ( n == name || n.equals( name ) ) ) {
+                        return i;
+                    }
+                } else if ( ns.equals( entries[ j ] ) ) {
+                    int d = n.length() - len;
+                    if ( d >= 0 && n.regionMatches( d, name, off, len ) &&
+                            ( d == 0 || n.charAt( d - 1 ) == ':' ) ) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Sets the value of an attribute, and adds the attribute if it is
+         * not in the map.  The node of the attribute is not created when
+         * the mutation events are disabled.
+         *
+         * @param ns The namespace URI, or null.
+         * @param qname The qualified name.
+         * @param value The new value.
+         * @param nsAware Whether an attribute that is added is a namespace
+         *        aware attribute, as created by createAttributeNS.
+         * @param specified Whether the new value is specified, or is a
+         *        default value.
+         */
+        public void put( String ns, String qname, String value,
+                         boolean nsAware, boolean specified )
+                throws DOMException {
+            checkReadonly();
+            if ( value == null ) {
+                value = "";
+            }
+            int i = ( ns == null )
+                ? indexOf( null, qname, 0 )
+                : indexOf( ns, qname, qname.indexOf( ':' ) + 1 );
+            if ( i == -1 ) {
+                byte f = 0;
+                if ( !nsAware ) {
+                    f |= LEVEL_1;
+                }
+                if ( !specified ) {
+                    f |= UNSPECIFIED;
+                }
+                add( ns, qname, value, f );
+                return;
+            }
+
+            int j = i * SLOTS;
+            if ( ns != null && !qname.equals( entries[ j + 1 ] ) ) {
+                // The attribute takes the prefix of the new name.
+                AbstractAttr a = (AbstractAttr)item( i );
+                int c = qname.indexOf( ':' );
+                a.setPrefix( ( c == -1 ) ? null : qname.substring( 0, c ) );
+                entries[ j + 1 ] = a.getNodeName();
+            }
+            Object v = entries[ j + 2 ];
+            if ( v instanceof AbstractAttr ) {
+                AbstractAttr a = (AbstractAttr)v;
+                a.setValue( value );
+                if ( !specified ) {
+                    a.setSpecified( false );
+                }
+                return;
+            }
+            byte f = getFlags( i );
+            setFlags( i, (byte)( specified
+                                 ? f & ~UNSPECIFIED
+                                 : f | UNSPECIFIED ) );
+            entries[ j + 2 ] = value;
+            fireDOMAttrModifiedEvent( (String)entries[ j + 1 ],
+                    eventNode( i ),
+                    (String)v,
+                    value,
+                    MutationEvent.MODIFICATION );
+        }
+
+        /**
+         * Copies the attributes of this map to the given element.
+         * @param ae The element.
+         * @param export Whether only the specified attributes must be
+         *        copied.
+         */
+        public void copyInto( AbstractElement ae, boolean export ) {
+            for ( int i = 0; i < count; i++ ) {
+                int j = i * SLOTS;
+                String ns = (String)entries[ j ];
+                String qname;
+                String value;
+                boolean nsAware;
+                boolean specified;
+                Object v = entries[ j + 2 ];
+                if ( v instanceof AbstractAttr ) {
+                    AbstractAttr a = (AbstractAttr)v;
+                    qname = a.getNodeName();
+                    value = a.getNodeValue();
+                    nsAware = a instanceof AbstractAttrNS;
+                    specified = a.getSpecified();
+                } else {
+                    byte f = getFlags( i );
+                    qname = (String)entries[ j + 1 ];
+                    value = (String)v;
+                    nsAware = ( f & LEVEL_1 ) == 0;
+                    specified = ( f & UNSPECIFIED ) == 0;
+                }
+                if ( export && !specified ) {
+                    continue;
+                }
+
+                if ( ae.attributes == null ) {
+                    ae.attributes = ae.createAttributes();
+                }
+                if ( ae.attributes instanceof CompactNamedNodeMap ) {
+                    ( (CompactNamedNodeMap)ae.attributes ).
+                        put( ns, qname, value, nsAware, specified );
+                } else {
+                    Document d = ae.getOwnerDocument();
+                    AbstractAttr a = (AbstractAttr)( nsAware
+                            ? d.createAttributeNS( ns, qname )
+                            : d.createAttribute( qname ) );
+                    a.setNodeValue( value );
+                    a.setSpecified( specified );
+                    ae.attributes.setNamedItemNS( a );
+                }
+            }
+        }
+
+        /**
+         * Normalizes the nodes of the attributes that have one.
+         */
+        public void normalizeNodes() {
+            for ( int i = 0, j = 2; i < count; i++, j += SLOTS ) {
+                if ( entries[ j ] instanceof Node ) {
+                    ( (Node)entries[ j ] ).normalize();
+                }
+            }
+        }
+
+        /**
+         * Called when an attribute has been removed from the map.
+         * Fires the mutation event.
+         */
+        protected void removed( String ns, String name, AbstractAttr n ) {
+            fireDOMAttrModifiedEvent( n.getNodeName(), n, n.getNodeValue(), "",
+                    MutationEvent.REMOVAL );
+        }
+
+        /**
+         * Adds an attribute, which must not be in the map.
+         */
+        protected void add( String ns, String qname, String value, byte f ) {
+            // Creating the node checks the name.
+            AbstractAttr a = newNode( ns, qname, value, f );
+            boolean keep = getCurrentDocument().getEventsEnabled();
+            if ( keep ) {
+                a.setOwnerElement( AbstractElement.this );
+            }
+            String nsURI = a.getNamespaceURI();
+            insert( nsURI, a.getNodeName(), keep ? (Object)a : value, f );
+            fireDOMAttrModifiedEvent( ( nsURI == null )
+                                      ? a.getNodeName()
+                                      : a.getLocalName(),
+                    a, "", value, MutationEvent.ADDITION );
+        }
+
+        /**
+         * Appends an attribute to the arrays.
+         */
+        protected void insert( String ns, String qname, Object v, byte f ) {
+            int j = count * SLOTS;
+            if ( j == entries.length ) {
+                int n = count + ( count >> 1 ) + 1;
+                Object[] t = new Object[ n * SLOTS ];
+                System.arraycopy( entries, 0, t, 0, j );
+                entries = t;
+                if ( flags != null ) {
+                    byte[] b = new byte[ n ];
+                    System.arraycopy( flags, 0, b, 0, count );
+                    flags = b;
+                }
+            }
+            entries[ j ]     = ns;
+            entries[ j + 1 ] = qname;
+            entries[ j + 2 ] = v;
+            setFlags( count++, f );
+        }
+
+        /**
+         * Removes the attribute at the given index.
+         * @return the node of the attribute, created if needed.
+         */
+        protected AbstractAttr remove( int i ) {
+            int j = i * SLOTS;
+            Object v = entries[ j + 2 ];
+            AbstractAttr result = ( v instanceof AbstractAttr )
+                ? (AbstractAttr)v
+                : createNode( i );
+            int n = count - i - 1;
+            System.arraycopy( entries, j + SLOTS, entries, j, n * SLOTS );
+            if ( flags != null ) {
+                System.arraycopy( flags, i + 1, flags, i, n );
+                flags[ count - 1 ] = 0;
+            }
+            count--;
+            j = count * SLOTS;
+            entries[ j ]     = null;
+            entries[ j + 1 ] = null;
+            entries[ j + 2 ] = null;
+            return result;
+        }
+
+        /**
+         * Returns the node passed to the mutation event of the attribute
+         * at the given index.  The node is kept only when the events are
+         * dispatched, otherwise it is only given to the attribute hooks.
+         */
+        protected Attr eventNode( int i ) {
+            if ( getCurrentDocument().getEventsEnabled() ) {
+                return (Attr)item( i );
+            }
+            return createNode( i );
+        }
+
+        /**
+         * Creates a node for the attribute at the given index, which has
+         * no node.
+         */
+        protected AbstractAttr createNode( int i ) {
+            int j = i * SLOTS;
+            return newNode( (String)entries[ j ], (String)entries[ j + 1 ],
+                            (String)entries[ j + 2 ], getFlags( i ) );
+        }
+
+        /**
+         * Creates a new attribute node.
+         */
+        protected AbstractAttr newNode( String ns, String qname,
+                                        String value, byte f ) {
+            Document d = getOwnerDocument();
+            AbstractAttr a = (AbstractAttr)( ( ( f & LEVEL_1 ) != 0 )
+                    ? d.createAttribute( qname )
+                    : d.createAttributeNS( ns, qname ) );
+            a.setNodeValue( value );
+            if ( ( f & UNSPECIFIED ) != 0 ) {
+                a.setSpecified( false );
+            }
+            return a;
+        }
+
+        /**
+         * Returns the flags of the attribute at the given index.
+         */
+        protected byte getFlags( int i ) {
+            return ( flags == null ) ? 0 : flags[ i ];
+        }
+
+        /**
+         * Sets the flags of the attribute at the given index.
+         */
+        protected void setFlags( int i, byte f ) {
+            if ( flags == null ) {
+                if ( f == 0 ) {
+                    return;
+                }
+                flags = new byte[ entries.length / SLOTS ];
+            }
+            flags[ i ] = f;
+        }
+
+        /**
+         * Checks that the map can be modified.
+         */
+        protected void checkReadonly() {
+            if ( isReadonly() ) {
+                throw createDOMException
+                        ( DOMException.NO_MODIFICATION_ALLOWED_ERR,
+                                "readonly.node.map",
+                                new Object[]{} );
+            }
+        }
+
+        /**
+         * Checks the validity of a node to add.
+         */
+        protected void checkNode( Node arg ) {
+            checkReadonly();
+            if ( getOwnerDocument() != arg.getOwnerDocument() ) {
+                throw createDOMException( DOMException.WRONG_DOCUMENT_ERR,
+                        "node.from.wrong.document",
+                        new Object[]{(int) arg.getNodeType(),
+                                arg.getNodeName()} );
+            }
+            if ( arg.getNodeType() == ATTRIBUTE_NODE &&
+                    ( (Attr)arg ).getOwnerElement() != null ) {
+                throw createDOMException( DOMException.WRONG_DOCUMENT_ERR,
+                        "inuse.attribute",
+                        new Object[]{arg.getNodeName()} );
+            }
+        }
+    }
+
     /**
      * Inner class to hold type information about this element.
      */
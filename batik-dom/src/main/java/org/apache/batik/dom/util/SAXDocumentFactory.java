@@ -48,7 +48,10 @@ import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import org.apache.batik.dom.AbstractDocument;
 import org.apache.batik.util.HaltingThread;
+import org.apache.batik.util.Instrument;
+import org.apache.batik.util.Instrumentation;
 import org.apache.batik.util.XMLConstants;
 
 /**
@@ -140,6 +143,12 @@ public class SAXDocumentFactory
      */
     protected boolean isValidating;
 
+    /**
+     * Whether the elements of the created documents keep their attributes
+     * in a compact form.
+     */
+    protected boolean compactAttributes;
+
     /**
      * Whether the document just parsed was standalone.
      */
@@ -419,6 +428,9 @@ public class SAXDocumentFactory
      */
     protected Document createDocument(InputSource is)
         throws IOException {
+        Instrument inst = Instrumentation.getInstrument();
+        Object token = (inst == null)
+            ? null : inst.enter(Instrument.PARSE, "document");
         try {
             if (parserClassName != null) {
                 parser = XMLReaderFactory.createXMLReader(parserClassName);
@@ -457,6 +469,8 @@ public class SAXDocumentFactory
                 throw (InterruptedIOException)ex;
             }
             throw new SAXIOException(e);
+        } finally {
+            if (inst != null) inst.exit(token);
         }
 
         currentNode  = null;
@@ -504,6 +518,25 @@ public class SAXDocumentFactory
         return isValidating;
     }
 
+    /**
+     * Sets whether the elements of the created documents keep their
+     * attributes in a compact form, where the attribute nodes are only
+     * created when they are requested.  This has no effect when the DOM
+     * implementation does not create {@link AbstractDocument}s.
+     * @see AbstractDocument#setCompactAttributes(boolean)
+     */
+    public void setCompactAttributes(boolean b) {
+        compactAttributes = b;
+    }
+
+    /**
+     * Returns whether the elements of the created documents keep their
+     * attributes in a compact form.
+     */
+    public boolean isCompactAttributes() {
+        return compactAttributes;
+    }
+
     /**
      * Sets a custom error handler.
      */
@@ -639,6 +672,9 @@ public class SAXDocumentFactory
         if (currentNode == null) {
             implementation = getDOMImplementation(version);
             document = implementation.createDocument(nsURI, rawName, doctype);
+            if (compactAttributes && document instanceof AbstractDocument) {
+                ((AbstractDocument)document).setCompactAttributes(true);
+            }
             Iterator i = preInfo.iterator();
             currentNode = e = document.getDocumentElement();
             while (i.hasNext()) {
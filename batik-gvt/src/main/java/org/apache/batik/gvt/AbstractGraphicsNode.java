@@ -43,6 +43,8 @@ import org.apache.batik.gvt.filter.GraphicsNodeRable;
 import org.apache.batik.gvt.filter.GraphicsNodeRable8Bit;
 import org.apache.batik.gvt.filter.Mask;
 import org.apache.batik.util.HaltingThread;
+import org.apache.batik.util.Instrument;
+import org.apache.batik.util.Instrumentation;
 
 /**
  * A partial implementation of the <code>GraphicsNode</code> interface.
@@ -135,7 +137,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
     /**
      * Internal Cache: node bounds
      */
-    private Rectangle2D bounds;
+    private volatile Rectangle2D bounds;
 
 
     protected GraphicsNodeChangeEvent changeStartedEvent   = null;
@@ -178,6 +180,9 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      */
     public void setPointerEventType(int pointerEventType) {
         this.pointerEventType = pointerEventType;
+        // The sensitive bounds of the parent depend on ours.
+        if (parent != null)
+            parent.invalidateChildGeometry(this);
     }
 
     /**
@@ -201,7 +206,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             inverseTransform = transform;
         }
         if (parent != null)
-            parent.invalidateGeometryCache();
+            parent.invalidateChildGeometry(this);
         fireGraphicsNodeChangeCompleted();
     }
 
@@ -493,65 +498,76 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
 
         // Only paint if needed.
         if (paintNeeded){
-            boolean antialiasedClip = false;
-            if ((clip != null) && clip.getUseAntialiasedClip()) {
-                antialiasedClip = isAntialiasedClip(g2d.getTransform(),
-                                                    g2d.getRenderingHints(),
-                                                    clip.getClipPath());
+            Instrument inst = Instrumentation.getInstrument();
+            Object token = null;
+            if (inst != null) {
+                String cn = getClass().getName();
+                token = inst.enter(Instrument.PAINT,
+                                   cn.substring(cn.lastIndexOf('.') + 1));
             }
+            try {
+                boolean antialiasedClip = false;
+                if ((clip != null) && clip.getUseAntialiasedClip()) {
+                    antialiasedClip = isAntialiasedClip(g2d.getTransform(),
+                                                        g2d.getRenderingHints(),
+                                                        clip.getClipPath());
+                }
 
-            boolean useOffscreen = isOffscreenBufferNeeded();
+                boolean useOffscreen = isOffscreenBufferNeeded();
 
-            useOffscreen |= antialiasedClip;
+                useOffscreen |= antialiasedClip;
 
-            if (!useOffscreen) {
-                // Render on this canvas.
-                primitivePaint(g2d);
-            } else {
-                Filter filteredImage = null;
+                if (!useOffscreen) {
+                    // Render on this canvas.
+                    primitivePaint(g2d);
+                } else {
+                    Filter filteredImage = null;
 
-                if(filter == null){
-                    filteredImage = getGraphicsNodeRable(true);
-                }
-                else {
-                    // traceFilter(filter, "=====>> ");
-                    filteredImage = filter;
-                }
+                    if(filter == null){
+                        filteredImage = getGraphicsNodeRable(true);
+                    }
+                    else {
+                        // traceFilter(filter, "=====>> ");
+                        filteredImage = filter;
+                    }
 
-                if (mask != null) {
-                    if (mask.getSource() != filteredImage){
-                        mask.setSource(filteredImage);
+                    if (mask != null) {
+                        if (mask.getSource() != filteredImage){
+                            mask.setSource(filteredImage);
+                        }
+                        filteredImage = mask;
                     }
-                    filteredImage = mask;
-                }
 
-                if (clip != null && antialiasedClip) {
-                    if (clip.getSource() != filteredImage){
-                        clip.setSource(filteredImage);
+                    if (clip != null && antialiasedClip) {
+                        if (clip.getSource() != filteredImage){
+                            clip.setSource(filteredImage);
+                        }
+                        filteredImage = clip;
                     }
-                    filteredImage = clip;
-                }
 
-                baseG2d = g2d;
-                // Only muck with the clip on a 'child'
-                // graphics 2D otherwise when we restore the
-                // clip it might 'wander' by a pixel.
-                g2d = (Graphics2D)g2d.create();
+                    baseG2d = g2d;
+                    // Only muck with the clip on a 'child'
+                    // graphics 2D otherwise when we restore the
+                    // clip it might 'wander' by a pixel.
+                    g2d = (Graphics2D)g2d.create();
 
-                if(antialiasedClip){
-                    // Remove hard edged clip
-                    g2d.setClip(null);
-                }
+                    if(antialiasedClip){
+                        // Remove hard edged clip
+                        g2d.setClip(null);
+                    }
 
-                Rectangle2D filterBounds = filteredImage.getBounds2D();
-                g2d.clip(filterBounds);
+                    Rectangle2D filterBounds = filteredImage.getBounds2D();
+                    g2d.clip(filterBounds);
 
-                org.apache.batik.ext.awt.image.GraphicsUtil.drawImage
-                    (g2d, filteredImage);
+                    org.apache.batik.ext.awt.image.GraphicsUtil.drawImage
+                        (g2d, filteredImage);
 
-                g2d.dispose();
-                g2d = baseG2d;
-                baseG2d = null;// Don't leave null we need g2d restored...
+                    g2d.dispose();
+                    g2d = baseG2d;
+                    baseG2d = null;// Don't leave null we need g2d restored...
+                }
+            } finally {
+                if (inst != null) inst.exit(token);
             }
         }
 
@@ -748,7 +764,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         //if (bounds == null) return;
 
         if (parent != null) {
-            parent.invalidateGeometryCache();
+            parent.invalidateChildGeometry(this);
         }
         bounds = null;
     }
@@ -759,32 +775,35 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      */
     public Rectangle2D getBounds(){
         // Get the primitive bounds
-        // Rectangle2D bounds = null;
-        if (bounds == null) {
+        // The bounds are only published once complete, as other
+        // threads may paint this node concurrently.
+        Rectangle2D b = bounds;
+        if (b == null) {
             // The painted region, before cliping, masking and compositing is
             // either the area painted by the primitive paint or the area
             // painted by the filter.
             if(filter == null){
-                bounds = getPrimitiveBounds();
+                b = getPrimitiveBounds();
             } else {
-                bounds = filter.getBounds2D();
+                b = filter.getBounds2D();
             }
             // Factor in the clipping area, if any
-            if(bounds != null){
+            if(b != null){
                 if (clip != null) {
                     Rectangle2D clipR = clip.getClipPath().getBounds2D();
-                    if (clipR.intersects(bounds))
-                        Rectangle2D.intersect(bounds, clipR, bounds);
+                    if (clipR.intersects(b))
+                        Rectangle2D.intersect(b, clipR, b);
                 }
                 // Factor in the mask, if any
                 if (mask != null) {
                     Rectangle2D maskR = mask.getBounds2D();
-                    if (maskR.intersects(bounds))
-                        Rectangle2D.intersect(bounds, maskR, bounds);
+                    if (maskR.intersects(b))
+                        Rectangle2D.intersect(b, maskR, b);
                 }
             }
 
-            bounds = normalizeRectangle(bounds);
+            b = normalizeRectangle(b);
+            bounds = b;
 
             // Check If we should halt early.
             if (HaltingThread.hasBeenHalted()) {
@@ -794,7 +813,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             }
         }
 
-        return bounds;
+        return b;
     }
 
     /**
@@ -25,11 +25,15 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.apache.batik.util.HaltingThread;
@@ -90,6 +94,44 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
      */
     private Shape outline;
 
+    /**
+     * Internal Cache: spatial index over the children, see
+     * {@link #setIndexThreshold}.
+     */
+    private volatile ChildIndex childIndex;
+
+    /**
+     * The default number of children from which a spatial index is used.
+     */
+    public static final int DEFAULT_INDEX_THRESHOLD = 256;
+
+    /**
+     * The number of children from which a spatial index is used.
+     */
+    private static volatile int indexThreshold = DEFAULT_INDEX_THRESHOLD;
+
+    /**
+     * Sets the number of children from which a composite graphics node
+     * keeps a spatial index over its children.  The index is used to
+     * find the children under a point in {@link #nodeHitAt} and
+     * {@link #contains(Point2D)}, and the children intersecting the
+     * clip in {@link #primitivePaint}.
+     *
+     * @param n the minimum number of children, zero or less disables
+     *          the index
+     */
+    public static void setIndexThreshold(int n) {
+        indexThreshold = n;
+    }
+
+    /**
+     * Returns the number of children from which a composite graphics node
+     * keeps a spatial index over its children.
+     */
+    public static int getIndexThreshold() {
+        return indexThreshold;
+    }
+
     /**
      * Constructs a new empty <code>CompositeGraphicsNode</code>.
      */
@@ -153,6 +195,33 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
         // Thread.currentThread() is potentially expensive, so reuse my instance in hasBeenHalted()
         Thread currentThread = Thread.currentThread();
 
+        // Only paint the children that may intersect the clip.
+        int [] candidates = null;
+        Shape clip = g2d.getClip();
+        if (clip != null) {
+            ChildIndex ci = getChildIndex();
+            if (ci != null)
+                candidates = ci.query(clip.getBounds2D());
+        }
+        if (candidates != null) {
+            GraphicsNode [] nodes = children;
+            for (int j=0; j < candidates.length; ++j) {
+                if (HaltingThread.hasBeenHalted( currentThread ))
+                    return;
+
+                int i = candidates[j];
+                if (i >= count) {
+                    break;
+                }
+                GraphicsNode node = nodes[i];
+                if (node == null) {
+                    continue;
+                }
+                node.paint(g2d);
+            }
+            return;
+        }
+
         // Paint children
         for (int i=0; i < count; ++i) {
             if (HaltingThread.hasBeenHalted( currentThread ))
@@ -189,13 +258,54 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
         outline = null;
     }
 
+    /**
+     * Invalidates the cached geometric bounds after the bounds of one
+     * of the children changed.
+     *
+     * @param child the child whose bounds changed
+     */
+    protected void invalidateChildGeometry(GraphicsNode child) {
+        ChildIndex ci = childIndex;
+        if (ci != null) {
+            ci.invalidate(child);
+        }
+        invalidateGeometryCache();
+    }
+
+    /**
+     * Returns the spatial index over the children, building it if
+     * needed, or null if this node has too few children to use one.
+     */
+    private ChildIndex getChildIndex() {
+        int n = count;
+        int threshold = indexThreshold;
+        if (threshold <= 0 || n < threshold) {
+            childIndex = null;
+            return null;
+        }
+        ChildIndex ci = childIndex;
+        if (ci != null && !ci.isStale(modCount, n)) {
+            return ci;
+        }
+        int mc = modCount;
+        ci = ChildIndex.build(children, n, mc);
+        if (ci == null || mc != modCount) {
+            // Halted or modified meanwhile, try again next time.
+            childIndex = null;
+            return null;
+        }
+        childIndex = ci;
+        return ci;
+    }
+
     /**
      * Returns the bounds of the area covered by this node's primitive paint.
      */
     public Rectangle2D getPrimitiveBounds() {
-        if (primitiveBounds != null) {
-            if (primitiveBounds == NULL_RECT) return null;
-            return primitiveBounds;
+        Rectangle2D pb = primitiveBounds;
+        if (pb != null) {
+            if (pb == NULL_RECT) return null;
+            return pb;
         }
 
         // Thread.currentThread() is potentially expensive, so reuse my instance in hasBeenHalted()
@@ -218,18 +328,12 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
             return null;
         }
 
-        primitiveBounds = bounds;
-
+        // The bounds are only published once complete, as other
+        // threads may paint this node concurrently.
         while (i < count) {
             Rectangle2D ctb = children[i++].getTransformedBounds(IDENTITY);
             if (ctb != null) {
-                if (primitiveBounds == null) {
-                    // another thread has set the primitive bounds to null,
-                    // need to recall this function
-                    return null;
-                } else {
-                    primitiveBounds.add(ctb);
-                }
+                bounds.add(ctb);
             }
 
             if (((i & 0x0F) == 0) && HaltingThread.hasBeenHalted( currentThread ))
@@ -241,8 +345,10 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
             // The Thread has been halted.
             // Invalidate any cached values and proceed.
             invalidateGeometryCache();
+            return bounds;
         }
-        return primitiveBounds;
+        primitiveBounds = bounds;
+        return bounds;
     }
 
     /**
@@ -318,29 +424,25 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
      * example.
      */
     public Rectangle2D getGeometryBounds() {
-        if (geometryBounds == null) {
+        Rectangle2D bounds = geometryBounds;
+        if (bounds == null) {
             // System.err.println("geometryBounds are null");
             int i=0;
-            while(geometryBounds == null && i < count){
-                geometryBounds =
+            while(bounds == null && i < count){
+                bounds =
                 children[i++].getTransformedGeometryBounds (IDENTITY);
             }
 
             while (i<count) {
                 Rectangle2D cgb = children[i++].getTransformedGeometryBounds(IDENTITY);
                 if (cgb != null) {
-                    if (geometryBounds == null) {
-                        // another thread has set the geometry bounds to null,
-                        // need to recall this function
-                        return getGeometryBounds();
-                    } else {
-                        geometryBounds.add(cgb);
-                    }
+                    bounds.add(cgb);
                 }
             }
+            geometryBounds = bounds;
         }
 
-        return geometryBounds;
+        return bounds;
     }
 
     /**
@@ -388,29 +490,26 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
      * of clipping, masking or filtering.
      */
     public Rectangle2D getSensitiveBounds() {
-        if (sensitiveBounds != null)
-            return sensitiveBounds;
+        Rectangle2D bounds = sensitiveBounds;
+        if (bounds != null)
+            return bounds;
 
         // System.out.println("sensitiveBoundsBounds are null");
         int i=0;
-        while(sensitiveBounds == null && i < count){
-            sensitiveBounds =
+        while(bounds == null && i < count){
+            bounds =
                 children[i++].getTransformedSensitiveBounds(IDENTITY);
         }
 
         while (i<count) {
             Rectangle2D cgb = children[i++].getTransformedSensitiveBounds(IDENTITY);
             if (cgb != null) {
-                if (sensitiveBounds == null)
-                    // another thread has set the geometry bounds to null,
-                    // need to recall this function
-                    return getSensitiveBounds();
-
-                sensitiveBounds.add(cgb);
+                bounds.add(cgb);
             }
         }
 
-        return sensitiveBounds;
+        sensitiveBounds = bounds;
+        return bounds;
     }
 
     /**
@@ -460,6 +559,31 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
     public boolean contains(Point2D p) {
         Rectangle2D bounds = getSensitiveBounds();
         if (count > 0 && bounds != null && bounds.contains(p)) {
+            ChildIndex ci = getChildIndex();
+            if (ci != null) {
+                int [] candidates = ci.query(p.getX(), p.getY());
+                GraphicsNode [] nodes = children;
+                Point2D pt = null;
+                Point2D cp = null; // Propagated to children
+                for (int j=0; j < candidates.length; ++j) {
+                    int i = candidates[j];
+                    if (i >= count) {
+                        break;
+                    }
+                    AffineTransform t = nodes[i].getInverseTransform();
+                    if(t != null){
+                        pt = t.transform(p, pt);
+                        cp = pt;
+                    } else {
+                        cp = p;
+                    }
+                    if (nodes[i].contains(cp)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
             Point2D pt = null;
             Point2D cp = null; // Propagated to children
             for (int i=0; i < count; ++i) {
@@ -489,6 +613,32 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
     public GraphicsNode nodeHitAt(Point2D p) {
         Rectangle2D bounds = getSensitiveBounds();
         if (count > 0 && bounds != null && bounds.contains(p)) {
+            ChildIndex ci = getChildIndex();
+            if (ci != null) {
+                int [] candidates = ci.query(p.getX(), p.getY());
+                GraphicsNode [] nodes = children;
+                Point2D pt = null;
+                Point2D cp = null; // Propagated to children
+                for (int j=candidates.length-1; j >= 0; --j) {
+                    int i = candidates[j];
+                    if (i >= count) {
+                        continue;
+                    }
+                    AffineTransform t = nodes[i].getInverseTransform();
+                    if(t != null){
+                        pt = t.transform(p, pt);
+                        cp = pt;
+                    } else {
+                        cp = p;
+                    }
+                    GraphicsNode node = nodes[i].nodeHitAt(cp);
+                    if (node != null) {
+                        return node;
+                    }
+                }
+                return null;
+            }
+
             // Go backward because the children are in rendering order
             Point2D pt = null;
             Point2D cp = null; // Propagated to children
@@ -655,6 +805,7 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
         // Replace the node to the children list
         GraphicsNode oldNode = children[index];
         children[index] = node;
+        childIndex = null;
         // Set the parents of the graphics nodes
         ((AbstractGraphicsNode) node).setParent(this);
         ((AbstractGraphicsNode) oldNode).setParent(null);
@@ -694,8 +845,15 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
             node.getParent().getChildren().remove(node);
         }
         // Add the graphics node to the children list
+        ChildIndex ci = childIndex;
+        if (ci != null && ci.isStale(modCount, count)) {
+            ci = null;
+        }
         ensureCapacity(count + 1);  // Increments modCount!!
         children[count++] = node;
+        if (ci != null) {
+            ci.append(node, modCount);
+        }
         // Set the parent of the graphics node
         ((AbstractGraphicsNode) node).setParent(this);
         // Set the root of the graphics node
@@ -1115,4 +1273,357 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
             }
         }
     }
+
+    /**
+     * A hierarchy of uniform grids over the bounds of the children, in
+     * the user space of the composite.  Each cell lists, in rendering
+     * order, the children whose bounds overlap it.  A child is put in
+     * the finest grid where it overlaps at most <code>MAX_CELLS</code>
+     * cells; each grid has cells eight times as large as the previous
+     * one, up to a single cell.  Children without bounds, that were
+     * appended or whose bounds changed since the grids were built are
+     * kept in a list that every query goes through.  The index is
+     * rebuilt once that list grows too long.
+     */
+    private static final class ChildIndex {
+
+        /**
+         * The maximum number of cells a child is listed in.
+         */
+        static final int MAX_CELLS = 16;
+
+        /**
+         * The maximum number of cells of the finest grid.
+         */
+        static final int MAX_GRID = 1 << 20;
+
+        /**
+         * The ratio between the cell sizes of two successive grids.
+         */
+        static final int LEVEL_RATIO = 8;
+
+        /**
+         * One grid of the hierarchy.
+         */
+        static final class Grid {
+            int gw, gh;
+            double cw, ch;
+            int [] cellStart;
+            int [] cellNodes;
+        }
+
+        int modCount;
+        int size;
+        double x0, y0, x1, y1;
+        Grid [] grids;
+        boolean [] loose;
+        int [] looseNodes = new int[16];
+        int numLoose;
+        int builtLoose;
+        Map positions;
+
+        /**
+         * Builds the index of the first <code>n</code> children.
+         * Returns null if the current thread has been halted.
+         */
+        static ChildIndex build(GraphicsNode [] children, int n,
+                                int modCount) {
+            Thread currentThread = Thread.currentThread();
+            Rectangle2D [] bounds = new Rectangle2D[n];
+            double x0 = Double.POSITIVE_INFINITY;
+            double y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY;
+            double y1 = Double.NEGATIVE_INFINITY;
+            for (int i=0; i < n; ++i) {
+                if (((i & 0x0F) == 0) &&
+                    HaltingThread.hasBeenHalted( currentThread ))
+                    return null;
+                Rectangle2D r = getIndexBounds(children[i]);
+                bounds[i] = r;
+                if (r == null) continue;
+                x0 = Math.min(x0, r.getMinX());
+                y0 = Math.min(y0, r.getMinY());
+                x1 = Math.max(x1, r.getMaxX());
+                y1 = Math.max(y1, r.getMaxY());
+            }
+            if (HaltingThread.hasBeenHalted( currentThread ))
+                return null;
+
+            ChildIndex ci = new ChildIndex();
+            ci.modCount = modCount;
+            ci.size = n;
+            ci.loose = new boolean[n];
+            ci.positions = new IdentityHashMap(n);
+            for (int i=0; i < n; ++i) {
+                ci.positions.put(children[i], Integer.valueOf(i));
+            }
+
+            if (!(x1 >= x0) || !(y1 >= y0)) {
+                // No child has bounds.
+                ci.grids = new Grid[0];
+                for (int i=0; i < n; ++i)
+                    ci.makeLoose(i);
+                ci.builtLoose = ci.numLoose;
+                return ci;
+            }
+            ci.x0 = x0;  ci.y0 = y0;
+            ci.x1 = x1;  ci.y1 = y1;
+
+            double w = x1 - x0;
+            double h = y1 - y0;
+            if (w <= 0) w = (h > 0) ? h : 1;
+            if (h <= 0) h = w;
+            int cells = Math.max(1, Math.min(n / 2, MAX_GRID));
+            int gw = (int)Math.ceil(Math.sqrt(cells * w / h));
+            gw = Math.max(1, Math.min(gw, cells));
+            int gh = Math.max(1, cells / gw);
+            double cw = w / gw;
+            double ch = h / gh;
+            List levels = new ArrayList();
+            while (true) {
+                Grid g = new Grid();
+                g.gw = gw;  g.gh = gh;
+                g.cw = cw;  g.ch = ch;
+                g.cellStart = new int[gw * gh + 1];
+                levels.add(g);
+                if (gw == 1 && gh == 1) break;
+                gw = (gw + LEVEL_RATIO - 1) / LEVEL_RATIO;
+                gh = (gh + LEVEL_RATIO - 1) / LEVEL_RATIO;
+                cw *= LEVEL_RATIO;
+                ch *= LEVEL_RATIO;
+            }
+            Grid [] grids = new Grid[levels.size()];
+            levels.toArray(grids);
+            ci.grids = grids;
+
+            // First choose the grid of each child and count the
+            // entries of each cell, then fill them in rendering order.
+            byte [] level = new byte[n];
+            for (int i=0; i < n; ++i) {
+                Rectangle2D r = bounds[i];
+                if (r == null) {
+                    ci.makeLoose(i);
+                    continue;
+                }
+                for (int l=0; l < grids.length; ++l) {
+                    Grid g = grids[l];
+                    int cx0 = ci.cellX(g, r.getMinX());
+                    int cx1 = ci.cellX(g, r.getMaxX());
+                    int cy0 = ci.cellY(g, r.getMinY());
+                    int cy1 = ci.cellY(g, r.getMaxY());
+                    if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > MAX_CELLS &&
+                        l < grids.length - 1)
+                        continue;
+                    level[i] = (byte)l;
+                    for (int cy=cy0; cy <= cy1; ++cy)
+                        for (int cx=cx0; cx <= cx1; ++cx)
+                            g.cellStart[cy * g.gw + cx + 1]++;
+                    break;
+                }
+            }
+            int [][] next = new int[grids.length][];
+            for (int l=0; l < grids.length; ++l) {
+                Grid g = grids[l];
+                int nc = g.gw * g.gh;
+                for (int c=0; c < nc; ++c)
+                    g.cellStart[c + 1] += g.cellStart[c];
+                g.cellNodes = new int[g.cellStart[nc]];
+                next[l] = new int[nc];
+                System.arraycopy(g.cellStart, 0, next[l], 0, nc);
+            }
+            for (int i=0; i < n; ++i) {
+                if (ci.loose[i]) continue;
+                Rectangle2D r = bounds[i];
+                Grid g = grids[level[i]];
+                int [] nxt = next[level[i]];
+                int cx0 = ci.cellX(g, r.getMinX());
+                int cx1 = ci.cellX(g, r.getMaxX());
+                int cy0 = ci.cellY(g, r.getMinY());
+                int cy1 = ci.cellY(g, r.getMaxY());
+                for (int cy=cy0; cy <= cy1; ++cy)
+                    for (int cx=cx0; cx <= cx1; ++cx)
+                        g.cellNodes[nxt[cy * g.gw + cx]++] = i;
+            }
+            ci.builtLoose = ci.numLoose;
+            return ci;
+        }
+
+        /**
+         * Returns the bounds under which <code>node</code> is indexed:
+         * the union of its painted and sensitive bounds in the parent's
+         * user space.
+         */
+        static Rectangle2D getIndexBounds(GraphicsNode node) {
+            Rectangle2D b  = node.getTransformedBounds(IDENTITY);
+            Rectangle2D sb = node.getTransformedSensitiveBounds(IDENTITY);
+            if (b == null) return sb;
+            if (sb == null) return b;
+            return b.createUnion(sb);
+        }
+
+        int cellX(Grid g, double x) {
+            int c = (int)((x - x0) / g.cw);
+            return (c < 0) ? 0 : ((c >= g.gw) ? g.gw - 1 : c);
+        }
+
+        int cellY(Grid g, double y) {
+            int c = (int)((y - y0) / g.ch);
+            return (c < 0) ? 0 : ((c >= g.gh) ? g.gh - 1 : c);
+        }
+
+        /**
+         * Moves the child at position <code>i</code> out of the grids.
+         */
+        void makeLoose(int i) {
+            if (loose[i]) return;
+            loose[i] = true;
+            if (numLoose == looseNodes.length) {
+                int [] t = new int[numLoose * 2];
+                System.arraycopy(looseNodes, 0, t, 0, numLoose);
+                looseNodes = t;
+            }
+            looseNodes[numLoose++] = i;
+        }
+
+        /**
+         * Returns true if the index no longer matches the children
+         * or should be rebuilt.
+         */
+        synchronized boolean isStale(int modCount, int n) {
+            return (this.modCount != modCount) || (size != n) ||
+                (numLoose - builtLoose > 64 + size / 8);
+        }
+
+        /**
+         * Records that the bounds of <code>child</code> changed.
+         */
+        synchronized void invalidate(GraphicsNode child) {
+            Integer i = (Integer)positions.get(child);
+            if (i != null)
+                makeLoose(i.intValue());
+        }
+
+        /**
+         * Records that <code>node</code> was added after the last
+         * child.
+         */
+        synchronized void append(GraphicsNode node, int modCount) {
+            int i = size++;
+            if (i == loose.length) {
+                boolean [] t = new boolean[i + i / 2 + 16];
+                System.arraycopy(loose, 0, t, 0, i);
+                loose = t;
+            }
+            positions.put(node, Integer.valueOf(i));
+            makeLoose(i);
+            this.modCount = modCount;
+        }
+
+        /**
+         * Returns, in rendering order, the positions of the children
+         * that may contain the point (x, y).
+         */
+        synchronized int [] query(double x, double y) {
+            boolean inside = (x >= x0 && x <= x1 && y >= y0 && y <= y1);
+            int len = numLoose;
+            int sources = (numLoose > 0) ? 1 : 0;
+            int [] cell = new int[grids.length];
+            if (inside) {
+                for (int l=0; l < grids.length; ++l) {
+                    Grid g = grids[l];
+                    int c = cellY(g, y) * g.gw + cellX(g, x);
+                    cell[l] = c;
+                    int cl = g.cellStart[c + 1] - g.cellStart[c];
+                    if (cl > 0) sources++;
+                    len += cl;
+                }
+            }
+            int [] ret = new int[len];
+            System.arraycopy(looseNodes, 0, ret, 0, numLoose);
+            int k = numLoose;
+            if (inside) {
+                for (int l=0; l < grids.length; ++l) {
+                    Grid g = grids[l];
+                    int e = g.cellStart[cell[l] + 1];
+                    for (int j=g.cellStart[cell[l]]; j < e; ++j) {
+                        int i = g.cellNodes[j];
+                        if (!loose[i])
+                            ret[k++] = i;
+                    }
+                }
+            }
+            // Each cell is in rendering order, and a child is listed
+            // at most once.
+            if (sources > 1)
+                Arrays.sort(ret, 0, k);
+            return trim(ret, k);
+        }
+
+        /**
+         * Returns, in rendering order, the positions of the children
+         * that may intersect <code>r</code>, or null if most of them
+         * may.
+         */
+        synchronized int [] query(Rectangle2D r) {
+            int k = numLoose;
+            if (grids.length == 0 ||
+                r.getMaxX() < x0 || r.getMinX() > x1 ||
+                r.getMaxY() < y0 || r.getMinY() > y1) {
+                int [] ret = new int[k];
+                System.arraycopy(looseNodes, 0, ret, 0, k);
+                return ret;
+            }
+
+            Grid g0 = grids[0];
+            long span = (long)(cellX(g0, r.getMaxX()) - cellX(g0, r.getMinX()) + 1)
+                * (cellY(g0, r.getMaxY()) - cellY(g0, r.getMinY()) + 1);
+            if (2 * span > (long)g0.gw * g0.gh)
+                return null;
+
+            int len = k;
+            for (int l=0; l < grids.length; ++l) {
+                Grid g = grids[l];
+                int cx0 = cellX(g, r.getMinX());
+                int cx1 = cellX(g, r.getMaxX());
+                int cy0 = cellY(g, r.getMinY());
+                int cy1 = cellY(g, r.getMaxY());
+                for (int cy=cy0; cy <= cy1; ++cy)
+                    len += g.cellStart[cy * g.gw + cx1 + 1]
+                        - g.cellStart[cy * g.gw + cx0];
+            }
+            int [] ret = new int[len];
+            System.arraycopy(looseNodes, 0, ret, 0, k);
+            for (int l=0; l < grids.length; ++l) {
+                Grid g = grids[l];
+                int cx0 = cellX(g, r.getMinX());
+                int cx1 = cellX(g, r.getMaxX());
+                int cy0 = cellY(g, r.getMinY());
+                int cy1 = cellY(g, r.getMaxY());
+                for (int cy=cy0; cy <= cy1; ++cy) {
+                    // The cells of a row are contiguous.
+                    int e = g.cellStart[cy * g.gw + cx1 + 1];
+                    for (int j=g.cellStart[cy * g.gw + cx0]; j < e; ++j) {
+                        int i = g.cellNodes[j];
+                        if (!loose[i])
+                            ret[k++] = i;
+                    }
+                }
+            }
+            Arrays.sort(ret, 0, k);
+            // Children spanning several cells show up more than once.
+            int m = 0;
+            for (int j=0; j < k; ++j) {
+                if (m == 0 || ret[m - 1] != ret[j])
+                    ret[m++] = ret[j];
+            }
+            return trim(ret, m);
+        }
+
+        static int [] trim(int [] a, int len) {
+            if (len == a.length) return a;
+            int [] ret = new int[len];
+            System.arraycopy(a, 0, ret, 0, len);
+            return ret;
+        }
+    }
 }
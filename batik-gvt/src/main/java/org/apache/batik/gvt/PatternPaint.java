@@ -72,6 +72,12 @@ public class PatternPaint implements Paint {
 
     private PatternPaintContext lastContext;
 
+    /**
+     * The thread that created <code>lastContext</code>.  A context keeps
+     * a scratch raster, so it is only reused by the same thread.
+     */
+    private Thread lastContextThread;
+
     /**
      * Constructs a new <code>PatternPaint</code>.
      *
@@ -151,44 +157,56 @@ public class PatternPaint implements Paint {
     /**
      * Creates and returns a context used to generate the pattern.
      */
-    public PaintContext createContext(ColorModel      cm,
-                                      Rectangle       deviceBounds,
-                                      Rectangle2D     userBounds,
-                                      AffineTransform xform,
-                                      RenderingHints  hints) {
+    public synchronized PaintContext createContext
+        (ColorModel      cm,
+         Rectangle       deviceBounds,
+         Rectangle2D     userBounds,
+         AffineTransform xform,
+         RenderingHints  hints) {
         // Concatenate the patternTransform to xform
         if (patternTransform != null) {
             xform = new AffineTransform(xform);
             xform.concatenate(patternTransform);
         }
 
+        // The context is always built at the sub-pixel part of the
+        // translation and shifted by whole pixels, so the pixels do not
+        // depend on which area of the canvas created it.
+        double[] p = new double[6];
+        xform.getMatrix(p);
+        int xShift = (int)Math.floor(p[4]+0.5);
+        int yShift = (int)Math.floor(p[5]+0.5);
+        p[4] -= xShift;
+        p[5] -= yShift;
+
+        PatternPaintContext ctx = null;
         if ((lastContext!= null) &&
+            (lastContextThread == Thread.currentThread()) &&
             lastContext.getColorModel().equals(cm)) {
 
-            double[] p = new double[6];
             double[] q = new double[6];
-            xform.getMatrix(p);
             lastContext.getUsr2Dev().getMatrix(q);
             if ((p[0] == q[0]) && (p[1] == q[1]) &&
-                (p[2] == q[2]) && (p[3] == q[3])) {
-                if ((p[4] == q[4]) && (p[5] == q[5]))
-                    return lastContext;
-                else
-                    return new PatternPaintContextWrapper
-                        (lastContext,
-                         (int)(q[4]-p[4]+0.5),
-                         (int)(q[5]-p[5]+0.5));
-            }
+                (p[2] == q[2]) && (p[3] == q[3]) &&
+                (p[4] == q[4]) && (p[5] == q[5]))
+                ctx = lastContext;
         }
-        // System.out.println("CreateContext Called: " + this);
-        // System.out.println("CM : " + cm);
-        // System.out.println("xForm : " + xform);
-
-        lastContext = new PatternPaintContext(cm, xform,
-                                       hints, tile,
-                                       patternRegion,
-                                       overflow);
-        return lastContext;
+        if (ctx == null) {
+            // System.out.println("CreateContext Called: " + this);
+            // System.out.println("CM : " + cm);
+            // System.out.println("xForm : " + xform);
+
+            ctx = new PatternPaintContext(cm, new AffineTransform(p),
+                                          hints, tile,
+                                          patternRegion,
+                                          overflow);
+            lastContext       = ctx;
+            lastContextThread = Thread.currentThread();
+        }
+
+        if ((xShift == 0) && (yShift == 0))
+            return ctx;
+        return new PatternPaintContextWrapper(ctx, -xShift, -yShift);
     }
 
     /**
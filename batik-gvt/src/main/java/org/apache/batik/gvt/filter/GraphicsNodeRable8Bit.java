@@ -20,6 +20,7 @@ package org.apache.batik.gvt.filter;
 
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
@@ -27,6 +28,7 @@ import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderContext;
 import java.util.Map;
 
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.SVGComposite;
 import org.apache.batik.ext.awt.image.renderable.AbstractRable;
@@ -52,6 +54,7 @@ public class GraphicsNodeRable8Bit
     private AffineTransform cachedUsr2dev  = null;
     private CachableRed     cachedRed      = null;
     private Rectangle2D     cachedBounds = null;
+    private boolean         cachedTiled  = false;
     /**
      * Should GraphicsNodeRable call primitivePaint or Paint.
      */
@@ -240,7 +243,8 @@ public class GraphicsNodeRable8Bit
      * @param renderContext the RenderContext to use to produce the rendering.
      * @return a RenderedImage containing the rendered data.
      */
-    public RenderedImage createRendering(RenderContext renderContext){
+    public synchronized RenderedImage createRendering
+        (RenderContext renderContext) {
         // Get user space to device space transform
         AffineTransform usr2dev = renderContext.getTransform();
 
@@ -260,8 +264,14 @@ public class GraphicsNodeRable8Bit
 
         Rectangle2D bounds2D = getBounds2D();
 
+        // A tiled rendering is not painted like an untiled one.
+        RenderingHints hints = renderContext.getRenderingHints();
+        boolean tiled = (hints != null) && Boolean.TRUE.equals
+            (hints.get(RenderingHintsKeyExt.KEY_TILED_RENDERING));
+
         if ((cachedBounds != null)                            &&
             (cachedGn2dev != null)                            &&
+            (cachedTiled == tiled)                            &&
             (cachedBounds.equals(bounds2D))                   &&
             (gn2dev.getScaleX()  == cachedGn2dev.getScaleX()) &&
             (gn2dev.getScaleY()  == cachedGn2dev.getScaleY()) &&
@@ -303,9 +313,9 @@ public class GraphicsNodeRable8Bit
             cachedUsr2dev = (AffineTransform)usr2dev.clone();
             cachedGn2dev  = gn2dev;
             cachedBounds  = bounds2D;
+            cachedTiled   = tiled;
             cachedRed =  new GraphicsNodeRed8Bit
-                (node, usr2dev, usePrimitivePaint, 
-                 renderContext.getRenderingHints());
+                (node, usr2dev, usePrimitivePaint, hints);
             return cachedRed;
         }
 
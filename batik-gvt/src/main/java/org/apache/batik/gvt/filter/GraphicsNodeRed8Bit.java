@@ -29,6 +29,7 @@ import java.awt.image.ColorModel;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.rendered.AbstractRed;
 import org.apache.batik.ext.awt.image.rendered.AbstractTiledRed;
@@ -64,7 +65,10 @@ public class GraphicsNodeRed8Bit extends AbstractRed {
 
         this.node              = node;
         this.node2dev          = node2dev;
-        this.hints             = hints;
+        // Tiles may be generated on several threads, each of which
+        // adds these hints to its Graphics2D: keep a copy of our own.
+        this.hints             = new RenderingHints(null);
+        if (hints != null) this.hints.add(hints);
         this.usePrimitivePaint = usePrimitivePaint;
 
         // Calculate my bounds by applying the affine transform to
@@ -132,6 +136,14 @@ public class GraphicsNodeRed8Bit extends AbstractRed {
         g.setComposite(AlphaComposite.SrcOver);
         g.translate(-wr.getMinX(), -wr.getMinY());
 
+        // When the tiles are parts of a larger rendering, the clips of
+        // the nodes are intersected with our bounds rather than with
+        // the tile, as they are when the whole rendering is painted at
+        // once.  The image still keeps the painting inside the tile.
+        if (Boolean.TRUE.equals
+            (hints.get(RenderingHintsKeyExt.KEY_TILED_RENDERING)))
+            g.setClip(getBounds());
+
         // Set transform
         g.transform(node2dev);
 
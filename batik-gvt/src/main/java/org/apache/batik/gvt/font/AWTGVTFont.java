@@ -293,8 +293,10 @@ public class AWTGVTFont implements GVTFont {
                                                      int glyphIndex,
                                                      Point2D glyphPos) {
 
-        AWTGlyphGeometryCache glyphCache =
-            (AWTGlyphGeometryCache)fontCache.get(font.awtFont);
+        AWTGlyphGeometryCache glyphCache;
+        synchronized (fontCache) {
+            glyphCache = (AWTGlyphGeometryCache)fontCache.get(font.awtFont);
+        }
 
         AWTGlyphGeometryCache.Value v = glyphCache.get(c);
         if (v == null) {
@@ -320,17 +322,23 @@ public class AWTGVTFont implements GVTFont {
     static Map fontCache = new HashMap(11);
 
     static void initializeFontCache(Font awtFont) {
-        if (!fontCache.containsKey(awtFont)) {
-            fontCache.put(awtFont, new AWTGlyphGeometryCache());
+        synchronized (fontCache) {
+            if (!fontCache.containsKey(awtFont)) {
+                fontCache.put(awtFont, new AWTGlyphGeometryCache());
+            }
         }
     }
 
     static void putAWTGVTFont(AWTGVTFont font) {
-        fontCache.put(font.awtFont, font);
+        synchronized (fontCache) {
+            fontCache.put(font.awtFont, font);
+        }
     }
 
     static AWTGVTFont getAWTGVTFont(Font awtFont) {
-        return (AWTGVTFont)fontCache.get(awtFont);
+        synchronized (fontCache) {
+            return (AWTGVTFont)fontCache.get(awtFont);
+        }
     }
 
 }
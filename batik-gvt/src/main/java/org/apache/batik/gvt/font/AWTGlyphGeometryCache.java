@@ -71,7 +71,7 @@ public class AWTGlyphGeometryCache {
     /**
      * Returns the size of this table.
      */
-    public int size() {
+    public synchronized int size() {
         return count;
     }
 
@@ -79,7 +79,7 @@ public class AWTGlyphGeometryCache {
      * Gets the value of a variable
      * @return the value or null
      */
-    public Value get(char c) {
+    public synchronized Value get(char c) {
         int hash  = hashCode(c) & 0x7FFFFFFF;
         int index = hash % table.length;
 
@@ -95,7 +95,7 @@ public class AWTGlyphGeometryCache {
      * Sets a new value for the given variable
      * @return the old value or null
      */
-    public Value put(char c, Value value) {
+    public synchronized Value put(char c, Value value) {
         removeClearedEntries();
 
         int hash  = hashCode(c) & 0x7FFFFFFF;
@@ -138,7 +138,7 @@ public class AWTGlyphGeometryCache {
     /**
      * Clears the table.
      */
-    public void clear() {
+    public synchronized void clear() {
         table = new Entry[INITIAL_CAPACITY];
         count = 0;
         referenceQueue = new ReferenceQueue();
@@ -27,7 +27,13 @@ import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.batik.ext.awt.geom.RectListManager;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
@@ -184,6 +190,7 @@ public class DynamicRenderer extends StaticRenderer {
         }
 
         // Ensure only one thread works on baseRaster at a time...
+        boolean complete = true;
         synchronized (syncRaster) {
             // System.out.println("Dynamic:");
             if (repaintAll) {
@@ -233,29 +240,37 @@ public class DynamicRenderer extends StaticRenderer {
                     }
                 }
 
-                Color fillColor   = new Color( 255, 0, 0, 50 );
-                Color borderColor = new Color(   0, 0, 0, 50 );
-
-                for (Object aDevRLM : devRLM) {
-                    Rectangle r = (Rectangle) aDevRLM;
-                    if (!dr.intersects(r)) continue;
-                    r = dr.intersection(r);
-
-                    // System.err.println("Render: " + r);
-                    WritableRaster dst = copyRaster.createWritableChild
-                            (r.x, r.y, r.width, r.height, r.x, r.y, null);
-                    cr.copyData(dst);
-                    if (g2d != null) {
-                        g2d.setPaint(fillColor);
-                        g2d.fill(r);
-                        g2d.setPaint(borderColor);
-                        g2d.draw(r);
+                ExecutorService executor = tileExecutor;
+                if ((executor != null) && (g2d == null)) {
+                    // The tree can't change during the repaint, so
+                    // the damaged areas are rendered concurrently.
+                    complete = repaintByTiles(cr, copyRaster, devRLM,
+                                              executor);
+                } else {
+                    Color fillColor   = new Color( 255, 0, 0, 50 );
+                    Color borderColor = new Color(   0, 0, 0, 50 );
+
+                    for (Object aDevRLM : devRLM) {
+                        Rectangle r = (Rectangle) aDevRLM;
+                        if (!dr.intersects(r)) continue;
+                        r = dr.intersection(r);
+
+                        // System.err.println("Render: " + r);
+                        WritableRaster dst = copyRaster.createWritableChild
+                                (r.x, r.y, r.width, r.height, r.x, r.y, null);
+                        cr.copyData(dst);
+                        if (g2d != null) {
+                            g2d.setPaint(fillColor);
+                            g2d.fill(r);
+                            g2d.setPaint(borderColor);
+                            g2d.draw(r);
+                        }
                     }
                 }
             }
         }
 
-        if (HaltingThread.hasBeenHalted()) {
+        if (!complete || HaltingThread.hasBeenHalted()) {
             return;
         }
 
@@ -275,4 +290,80 @@ public class DynamicRenderer extends StaticRenderer {
 
         damagedAreas = devRLM;
     }
+
+    /**
+     * Repaints the areas of <code>devRLM</code> by splitting them along
+     * the tile grid of <code>cr</code> and rendering the pieces on
+     * <code>executor</code>.  Pieces of different areas that overlap
+     * within a tile are merged, so no two pieces write the same pixels.
+     * @return true if every piece was painted, false if the painting
+     *         was cancelled because this thread was halted or
+     *         interrupted.
+     */
+    protected boolean repaintByTiles(CachableRed cr, WritableRaster wr,
+                                     RectListManager devRLM,
+                                     ExecutorService executor) {
+        Rectangle dr = wr.getBounds();
+        int tw  = cr.getSampleModel().getWidth();
+        int th  = cr.getSampleModel().getHeight();
+        int tgx = cr.getTileGridXOffset();
+        int tgy = cr.getTileGridYOffset();
+
+        Map tiles = new LinkedHashMap();
+        for (Object aDevRLM : devRLM) {
+            Rectangle r = (Rectangle) aDevRLM;
+            if (!dr.intersects(r)) continue;
+            r = dr.intersection(r);
+
+            int tx0 = (int)Math.floor((r.x - tgx) / (double)tw);
+            int ty0 = (int)Math.floor((r.y - tgy) / (double)th);
+            int tx1 = (int)Math.floor((r.x + r.width  - 1 - tgx) / (double)tw);
+            int ty1 = (int)Math.floor((r.y + r.height - 1 - tgy) / (double)th);
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    Rectangle tr = new Rectangle
+                        (tgx + tx*tw, tgy + ty*th, tw, th).intersection(r);
+                    if (tr.isEmpty()) continue;
+                    Point key = new Point(tx, ty);
+                    List pieces = (List)tiles.get(key);
+                    if (pieces == null) {
+                        pieces = new ArrayList();
+                        tiles.put(key, pieces);
+                    }
+                    addPiece(pieces, tr);
+                }
+            }
+        }
+
+        List rects = new ArrayList();
+        for (Object pieces : tiles.values()) {
+            rects.addAll((List)pieces);
+        }
+        if (rects.size() == 1) {
+            Rectangle r = (Rectangle)rects.get(0);
+            cr.copyData(wr.createWritableChild
+                        (r.x, r.y, r.width, r.height, r.x, r.y, null));
+        } else if (!rects.isEmpty()) {
+            return copyDataConcurrently(cr, wr, rects, executor);
+        }
+        return true;
+    }
+
+    /**
+     * Adds <code>r</code> to the pieces of one tile, merging it with
+     * the pieces it overlaps.
+     */
+    private static void addPiece(List pieces, Rectangle r) {
+        Iterator i = pieces.iterator();
+        while (i.hasNext()) {
+            Rectangle p = (Rectangle)i.next();
+            if (p.intersects(r)) {
+                i.remove();
+                r = r.union(p);
+                // The union may now overlap pieces already checked.
+                i = pieces.iterator();
+            }
+        }
+        pieces.add(r);
+    }
 }
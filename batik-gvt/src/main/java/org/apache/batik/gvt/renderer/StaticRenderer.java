@@ -33,8 +33,19 @@ import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.awt.image.renderable.RenderContext;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Collection;
-
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
 import org.apache.batik.ext.awt.geom.RectListManager;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.PadMode;
@@ -83,6 +94,12 @@ public class StaticRenderer implements ImageRenderer {
     protected int offScreenWidth;
     protected int offScreenHeight;
 
+    /**
+     * Executor used to compute the tiles of the offscreen concurrently.
+     * When null the whole area is rendered on the calling thread.
+     */
+    protected ExecutorService tileExecutor;
+
     /**
      * Passed to the GVT tree to describe the rendering environment
      */
@@ -254,6 +271,58 @@ public class StaticRenderer implements ImageRenderer {
     }
 
 
+    /**
+     * The number of milliseconds between two checks of whether the
+     * rendering thread was halted while it waits for the tiles.
+     */
+    protected static final long HALT_POLL_INTERVAL = 20;
+
+    /**
+     * Creates an executor suitable for {@link #setTileExecutor}, whose
+     * threads are daemon {@link HaltingThread}s, so that halting the
+     * rendering thread also stops the tiles being painted.
+     *
+     * @param threads the number of threads.
+     */
+    public static ExecutorService createTileExecutor(int threads) {
+        return Executors.newFixedThreadPool
+            (threads, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new HaltingThread(r, "Batik tile renderer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Sets the executor used to render the tiles of the offscreen
+     * buffer concurrently.  The GVT tree is shared by all the tiles, so
+     * it must not be modified while a repaint is in progress.  The
+     * caller remains responsible for shutting the executor down.
+     * Halting the rendering thread only interrupts the tiles in
+     * progress if the executor threads are {@link HaltingThread}s, as
+     * those of {@link #createTileExecutor} are.
+     *
+     * @param executor the executor to use, or null to render on the
+     *        calling thread.
+     */
+    public void setTileExecutor(ExecutorService executor) {
+        if ((executor == null) != (tileExecutor == null)) {
+            // The rendering depends on whether it is tiled.
+            rootCR = null;
+        }
+        this.tileExecutor = executor;
+    }
+
+    /**
+     * Returns the executor used to render tiles concurrently, or null
+     * if rendering happens on the calling thread.
+     */
+    public ExecutorService getTileExecutor() {
+        return tileExecutor;
+    }
+
     /**
      * Update the size of the image to be returned by getOffScreen.
      * Note that this change will not be reflected by calls to
@@ -389,11 +458,16 @@ public class StaticRenderer implements ImageRenderer {
             cr = new PadRed(cr, dstR, PadMode.ZERO_PAD, null);
 
         // Ensure only one thread works on baseRaster at a time...
+        boolean complete = true;
         synchronized (syncRaster) {
-            cr.copyData(copyRaster);
+            if (tileExecutor == null) {
+                cr.copyData(copyRaster);
+            } else {
+                complete = copyDataByTiles(cr, copyRaster, tileExecutor);
+            }
         }
 
-        if (!HaltingThread.hasBeenHalted()) {
+        if (complete && !HaltingThread.hasBeenHalted()) {
             // Swap the buffers if the rendering completed cleanly.
             BufferedImage tmpBI = workingOffScreen;
 
@@ -409,6 +483,164 @@ public class StaticRenderer implements ImageRenderer {
         }
     }
 
+    /**
+     * Fills <code>wr</code> from <code>cr</code> one tile at a time,
+     * computing the tiles on <code>executor</code>.  Every tile is
+     * written into its own child of <code>wr</code> and is painted
+     * with the same device origin whatever the number of threads, so
+     * the result does not depend on how many threads the executor
+     * uses.
+     * @return true if every tile was painted.
+     */
+    protected boolean copyDataByTiles(CachableRed cr,
+                                   WritableRaster wr,
+                                   ExecutorService executor) {
+        Rectangle wrR = wr.getBounds();
+        int tw  = cr.getSampleModel().getWidth();
+        int th  = cr.getSampleModel().getHeight();
+        int tgx = cr.getTileGridXOffset();
+        int tgy = cr.getTileGridYOffset();
+
+        // First tile boundary at or before the raster's origin.
+        int x0 = tgx + (int)Math.floor((wrR.x - tgx) / (double)tw) * tw;
+        int y0 = tgy + (int)Math.floor((wrR.y - tgy) / (double)th) * th;
+
+        List tiles = new ArrayList();
+        for (int y = y0; y < wrR.y + wrR.height; y += th) {
+            for (int x = x0; x < wrR.x + wrR.width; x += tw) {
+                Rectangle tr = new Rectangle(x, y, tw, th);
+                tr = tr.intersection(wrR);
+                if (tr.isEmpty()) continue;
+                tiles.add(tr);
+            }
+        }
+        return copyDataConcurrently(cr, wr, tiles, executor);
+    }
+
+    /**
+     * Fills the areas <code>rects</code> of <code>wr</code> from
+     * <code>cr</code>, computing each area on <code>executor</code>.
+     * The areas must not overlap, as they are written concurrently.
+     * If the calling thread is halted or interrupted while it waits, the
+     * areas still in progress are cancelled and their threads halted.
+     * @return true if every area was painted, false if the painting
+     *         was cancelled, in which case <code>wr</code> is only
+     *         partially filled.
+     */
+    protected boolean copyDataConcurrently(CachableRed cr,
+                                           WritableRaster wr,
+                                           List rects,
+                                           ExecutorService executor) {
+        List tasks = new ArrayList();
+        List futures = new ArrayList();
+        boolean complete = false;
+        try {
+            for (Object rect : rects) {
+                Rectangle tr = (Rectangle)rect;
+                TileTask task = new TileTask
+                    (cr, wr.createWritableChild
+                     (tr.x, tr.y, tr.width, tr.height, tr.x, tr.y, null));
+                tasks.add(task);
+                futures.add(executor.submit(task));
+            }
+            for (Object f : futures) {
+                for (;;) {
+                    if (HaltingThread.hasBeenHalted()) {
+                        return false;
+                    }
+                    try {
+                        ((Future)f).get(HALT_POLL_INTERVAL,
+                                        TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException te) {
+                        // Check for a halt again.
+                    }
+                }
+            }
+            complete = !HaltingThread.hasBeenHalted();
+            return complete;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error)            throw (Error)t;
+            throw new RuntimeException(t);
+        } finally {
+            if (!complete) {
+                // Don't leave tiles running after we return.
+                for (Object f : futures) {
+                    ((Future)f).cancel(true);
+                }
+                for (Object task : tasks) {
+                    ((TileTask)task).halt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints one area of a rendering on a thread of the tile executor.
+     */
+    protected static class TileTask implements Callable {
+
+        /**
+         * The rendering to copy from.
+         */
+        protected CachableRed cr;
+
+        /**
+         * The area of the raster to fill.
+         */
+        protected WritableRaster dst;
+
+        /**
+         * The thread painting the area, or null when it is not running.
+         */
+        protected Thread runner;
+
+        /**
+         * Creates a task that fills <code>dst</code> from <code>cr</code>.
+         */
+        public TileTask(CachableRed cr, WritableRaster dst) {
+            this.cr  = cr;
+            this.dst = dst;
+        }
+
+        public Object call() {
+            start();
+            try {
+                cr.copyData(dst);
+            } finally {
+                end();
+            }
+            return null;
+        }
+
+        /**
+         * Halts the thread painting the area, if any.
+         */
+        public synchronized void halt() {
+            HaltingThread.haltThread(runner);
+        }
+
+        protected synchronized void start() {
+            runner = Thread.currentThread();
+            if (runner instanceof HaltingThread) {
+                // A previous task may have been halted on this thread.
+                ((HaltingThread)runner).clearHalted();
+            }
+        }
+
+        protected synchronized void end() {
+            if (runner instanceof HaltingThread) {
+                ((HaltingThread)runner).clearHalted();
+            }
+            runner = null;
+        }
+    }
+
     /**
      * Flush any cached image data.
      */
@@ -474,7 +706,13 @@ public class StaticRenderer implements ImageRenderer {
                                    at.getShearX(), at.getScaleY(),
                                    0, 0);
 
-        RenderContext rc = new RenderContext(rcAT, null, renderingHints);
+        RenderingHints rh = renderingHints;
+        if (tileExecutor != null) {
+            rh = new RenderingHints(null);
+            rh.add(renderingHints);
+            rh.put(RenderingHintsKeyExt.KEY_TILED_RENDERING, Boolean.TRUE);
+        }
+        RenderContext rc = new RenderContext(rcAT, null, rh);
 
         RenderedImage ri = rootFilter.createRendering(rc);
         if (ri == null)
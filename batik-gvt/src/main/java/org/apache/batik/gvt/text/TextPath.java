@@ -18,6 +18,7 @@
  */
 package org.apache.batik.gvt.text;
 
+import java.awt.Shape;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 
@@ -40,6 +41,15 @@ public class TextPath {
      * @param path The general path along which text is to be laid.
      */
     public TextPath(GeneralPath path) {
+        this((Shape) path);
+    }
+
+    /**
+     * Constructs a TextPath based on the specified shape.
+     *
+     * @param path The shape along which text is to be laid.
+     */
+    public TextPath(Shape path) {
         pathLength = new PathLength(path);
         startOffset = 0;
     }
@@ -32,7 +32,7 @@ import org.apache.batik.ext.awt.geom.ExtendedGeneralPath;
  * @author <a href="mailto:stephane@hillion.org">Stephane Hillion</a>
  * @version $Id$
  */
-public class AWTPathProducer implements PathHandler, ShapeProducer {
+public class AWTPathProducer implements PathSizeHandler, ShapeProducer {
 
     /**
      * The temporary value of extendedGeneralPath.
@@ -116,6 +116,17 @@ public class AWTPathProducer implements PathHandler, ShapeProducer {
         path = new ExtendedGeneralPath(windingRule);
     }
 
+    /**
+     * Implements {@link PathSizeHandler#pathSize(int,int)}.
+     */
+    public void pathSize(int numSegments, int numValues)
+        throws ParseException {
+        if (path.getCurrentPoint() == null) {
+            path = new ExtendedGeneralPath(windingRule, numSegments,
+                                           numValues);
+        }
+    }
+
     /**
      * Implements {@link PathHandler#endPath()}.
      */
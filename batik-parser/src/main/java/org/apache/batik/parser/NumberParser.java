@@ -208,6 +208,210 @@ public abstract class NumberParser extends AbstractParser {
         return buildFloat(mant, exp);
     }
 
+    /**
+     * The characters parsed by {@link #parseBufferFloat()}.
+     */
+    protected char[] buffer;
+
+    /**
+     * The position of the next character in <code>buffer</code>.
+     */
+    protected int bufferPosition;
+
+    /**
+     * The end of the characters to parse in <code>buffer</code>.
+     */
+    protected int bufferEnd;
+
+    /**
+     * Whether {@link #parseBufferFloat()} found a malformed number.
+     */
+    protected boolean bufferError;
+
+    /**
+     * Reads the next character of <code>buffer</code> into
+     * <code>current</code>.
+     */
+    protected final int readBuffer() {
+        return current = (bufferPosition < bufferEnd)
+            ? buffer[bufferPosition++]
+            : -1;
+    }
+
+    /**
+     * Parses a float from <code>buffer</code>, the same way {@link
+     * #parseFloat()} does from the reader.  Instead of reporting
+     * errors, it sets <code>bufferError</code> and returns 0.
+     */
+    protected float parseBufferFloat() {
+        int     mant     = 0;
+        int     mantDig  = 0;
+        boolean mantPos  = true;
+        boolean mantRead = false;
+
+        int     exp      = 0;
+        int     expDig   = 0;
+        int     expAdj   = 0;
+        boolean expPos   = true;
+
+        switch (current) {
+        case '-':
+            mantPos = false;
+            // fallthrough
+        case '+':
+            readBuffer();
+        }
+
+        m1: switch (current) {
+        default:
+            bufferError = true;
+            return 0.0f;
+
+        case '.':
+            break;
+
+        case '0':
+            mantRead = true;
+            l: for (;;) {
+                switch (readBuffer()) {
+                case '1': case '2': case '3': case '4':
+                case '5': case '6': case '7': case '8': case '9':
+                    break l;
+                case '.': case 'e': case 'E':
+                    break m1;
+                default:
+                    return 0.0f;
+                case '0':
+                }
+            }
+
+        case '1': case '2': case '3': case '4':
+        case '5': case '6': case '7': case '8': case '9':
+            mantRead = true;
+            l: for (;;) {
+                if (mantDig < 9) {
+                    mantDig++;
+                    mant = mant * 10 + (current - '0');
+                } else {
+                    expAdj++;
+                }
+                switch (readBuffer()) {
+                default:
+                    break l;
+                case '0': case '1': case '2': case '3': case '4':
+                case '5': case '6': case '7': case '8': case '9':
+                }
+            }
+        }
+
+        if (current == '.') {
+            m2: switch (readBuffer()) {
+            default:
+            case 'e': case 'E':
+                if (!mantRead) {
+                    bufferError = true;
+                    return 0.0f;
+                }
+                break;
+
+            case '0':
+                if (mantDig == 0) {
+                    l: for (;;) {
+                        readBuffer();
+                        expAdj--;
+                        switch (current) {
+                        case '1': case '2': case '3': case '4':
+                        case '5': case '6': case '7': case '8': case '9':
+                            break l;
+                        default:
+                            if (!mantRead) {
+                                return 0.0f;
+                            }
+                            break m2;
+                        case '0':
+                        }
+                    }
+                }
+            case '1': case '2': case '3': case '4':
+            case '5': case '6': case '7': case '8': case '9':
+                l: for (;;) {
+                    if (mantDig < 9) {
+                        mantDig++;
+                        mant = mant * 10 + (current - '0');
+                        expAdj--;
+                    }
+                    switch (readBuffer()) {
+                    default:
+                        break l;
+                    case '0': case '1': case '2': case '3': case '4':
+                    case '5': case '6': case '7': case '8': case '9':
+                    }
+                }
+            }
+        }
+
+        switch (current) {
+        case 'e': case 'E':
+            switch (readBuffer()) {
+            default:
+                bufferError = true;
+                return 0f;
+            case '-':
+                expPos = false;
+            case '+':
+                switch (readBuffer()) {
+                default:
+                    bufferError = true;
+                    return 0f;
+                case '0': case '1': case '2': case '3': case '4':
+                case '5': case '6': case '7': case '8': case '9':
+                }
+            case '0': case '1': case '2': case '3': case '4':
+            case '5': case '6': case '7': case '8': case '9':
+            }
+
+            en: switch (current) {
+            case '0':
+                l: for (;;) {
+                    switch (readBuffer()) {
+                    case '1': case '2': case '3': case '4':
+                    case '5': case '6': case '7': case '8': case '9':
+                        break l;
+                    default:
+                        break en;
+                    case '0':
+                    }
+                }
+
+            case '1': case '2': case '3': case '4':
+            case '5': case '6': case '7': case '8': case '9':
+                l: for (;;) {
+                    if (expDig < 3) {
+                        expDig++;
+                        exp = exp * 10 + (current - '0');
+                    }
+                    switch (readBuffer()) {
+                    default:
+                        break l;
+                    case '0': case '1': case '2': case '3': case '4':
+                    case '5': case '6': case '7': case '8': case '9':
+                    }
+                }
+            }
+        default:
+        }
+
+        if (!expPos) {
+            exp = -exp;
+        }
+        exp += expAdj;
+        if (!mantPos) {
+            mant = -mant;
+        }
+
+        return buildFloat(mant, exp);
+    }
+
     /**
      * Computes a float from mantissa and exponent.
      */
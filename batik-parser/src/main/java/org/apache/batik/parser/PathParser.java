@@ -63,6 +63,30 @@ public class PathParser extends NumberParser {
         return pathHandler;
     }
 
+    /**
+     * Parses the given string.  Well-formed paths are parsed directly
+     * from the characters of the string, the others are parsed by the
+     * reader based parser, which reports the errors.
+     */
+    public void parse(String s) throws ParseException {
+        char[] buf = s.toCharArray();
+        if (!parseBuffer(buf, 0, buf.length)) {
+            super.parse(s);
+        }
+    }
+
+    /**
+     * Parses the given characters.
+     * @param buf The characters to parse.
+     * @param off The index of the first character to parse.
+     * @param len The number of characters to parse.
+     */
+    public void parse(char[] buf, int off, int len) throws ParseException {
+        if (!parseBuffer(buf, off, len)) {
+            super.parse(new String(buf, off, len));
+        }
+    }
+
     protected void doParse() throws ParseException, IOException {
         pathHandler.startPath();
 
@@ -730,4 +754,332 @@ public class PathParser extends NumberParser {
         }
         return true;  // had comma
     }
+
+    // Character array parsing //////////////////////////////////////////
+
+    /**
+     * The commands of the path parsed from a character array, one per
+     * segment.
+     */
+    protected byte[] commands = new byte[16];
+
+    /**
+     * The number of commands.
+     */
+    protected int numCommands;
+
+    /**
+     * The arguments of the commands, the arc flags being stored as 0
+     * or 1.
+     */
+    protected float[] arguments = new float[32];
+
+    /**
+     * The number of arguments.
+     */
+    protected int numArguments;
+
+    /**
+     * The number of values needed to store the path in absolute form.
+     */
+    protected int numValues;
+
+    /**
+     * Parses the given characters and reports them to the path handler.
+     * Nothing is reported if the path is malformed.
+     * @return false if the path is malformed.
+     */
+    protected boolean parseBuffer(char[] buf, int off, int len)
+        throws ParseException {
+        buffer = buf;
+        bufferPosition = off;
+        bufferEnd = off + len;
+        bufferError = false;
+        numCommands = 0;
+        numArguments = 0;
+        numValues = 0;
+        try {
+            if (!scanPath()) {
+                return false;
+            }
+        } finally {
+            buffer = null;
+        }
+        reportCommands();
+        return true;
+    }
+
+    /**
+     * Scans the whole path into <code>commands</code> and
+     * <code>arguments</code>.
+     * @return false if the path is malformed.
+     */
+    protected boolean scanPath() {
+        readBuffer();
+        for (;;) {
+            switch (current) {
+            case 0xD:
+            case 0xA:
+            case 0x20:
+            case 0x9:
+                readBuffer();
+                break;
+            case 'z':
+            case 'Z':
+                addCommand(current);
+                readBuffer();
+                break;
+            case 'm': case 'M': case 'l': case 'L':
+            case 'h': case 'H': case 'v': case 'V':
+            case 'c': case 'C': case 'q': case 'Q':
+            case 's': case 'S': case 't': case 'T':
+            case 'a': case 'A':
+                if (!scanCommand(current)) {
+                    return false;
+                }
+                break;
+            case -1:
+                return true;
+            default:
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Scans a command and its implicit repetitions.
+     * @return false if the command is malformed.
+     */
+    protected boolean scanCommand(int cmd) {
+        int nargs = getArgumentCount(cmd);
+        boolean arc = (cmd == 'a') || (cmd == 'A');
+        int repeat = cmd;
+        if (cmd == 'm') {
+            repeat = 'l';
+        } else if (cmd == 'M') {
+            repeat = 'L';
+        }
+
+        readBuffer();
+        skipBufferSpaces(false);
+        boolean expectNumber = true;
+        for (;;) {
+            switch (current) {
+            default:
+                return !expectNumber;
+            case '+': case '-': case '.':
+            case '0': case '1': case '2': case '3': case '4':
+            case '5': case '6': case '7': case '8': case '9':
+                break;
+            }
+
+            addCommand(cmd);
+            if (numArguments + nargs > arguments.length) {
+                float[] t = new float[Math.max(arguments.length * 2,
+                                               numArguments + nargs)];
+                System.arraycopy(arguments, 0, t, 0, numArguments);
+                arguments = t;
+            }
+            for (int i = 0; i < nargs; i++) {
+                if (i > 0) {
+                    skipBufferSpaces(true);
+                }
+                if (arc && (i == 3 || i == 4)) {
+                    switch (current) {
+                    default:  return false;
+                    case '0': arguments[numArguments++] = 0; break;
+                    case '1': arguments[numArguments++] = 1; break;
+                    }
+                    readBuffer();
+                } else {
+                    arguments[numArguments++] = parseBufferFloat();
+                    if (bufferError) {
+                        return false;
+                    }
+                }
+            }
+            expectNumber = skipBufferSpaces(true);
+            cmd = repeat;
+        }
+    }
+
+    /**
+     * Skips the whitespaces in <code>buffer</code> and, if
+     * <code>comma</code> is true, an optional comma.
+     * @return true if a comma was skipped.
+     */
+    protected boolean skipBufferSpaces(boolean comma) {
+        boolean ret = false;
+        for (;;) {
+            switch (current) {
+            default:
+                return ret;
+            case ',':
+                if (!comma || ret) {
+                    return ret;
+                }
+                ret = true;
+                break;
+            case 0x20: case 0x9: case 0xD: case 0xA:
+            }
+            readBuffer();
+        }
+    }
+
+    /**
+     * Adds a command to <code>commands</code>.
+     */
+    protected void addCommand(int cmd) {
+        if (numCommands == commands.length) {
+            byte[] t = new byte[commands.length * 2];
+            System.arraycopy(commands, 0, t, 0, numCommands);
+            commands = t;
+        }
+        commands[numCommands++] = (byte)cmd;
+        switch (cmd) {
+        case 'z': case 'Z':
+            break;
+        case 'c': case 'C': case 's': case 'S':
+            numValues += 6;
+            break;
+        case 'q': case 'Q': case 't': case 'T':
+            numValues += 4;
+            break;
+        case 'a': case 'A':
+            numValues += 7;
+            break;
+        default:
+            numValues += 2;
+        }
+    }
+
+    /**
+     * Returns the number of arguments of the given command.
+     */
+    protected static int getArgumentCount(int cmd) {
+        switch (cmd) {
+        case 'h': case 'H': case 'v': case 'V':
+            return 1;
+        case 'c': case 'C':
+            return 6;
+        case 'q': case 'Q': case 's': case 'S':
+            return 4;
+        case 'a': case 'A':
+            return 7;
+        case 'z': case 'Z':
+            return 0;
+        default:
+            return 2;
+        }
+    }
+
+    /**
+     * Reports the scanned commands to the path handler.  As when
+     * parsing from a reader, an exception thrown by the handler is
+     * reported to the error handler and the rest of the sub-path is
+     * skipped.
+     */
+    protected void reportCommands() throws ParseException {
+        pathHandler.startPath();
+        if (pathHandler instanceof PathSizeHandler) {
+            ((PathSizeHandler)pathHandler).pathSize(numCommands, numValues);
+        }
+
+        byte[] cmds = commands;
+        float[] a = arguments;
+        int j = 0;
+        boolean skip = false;
+        for (int i = 0; i < numCommands; i++) {
+            int cmd = cmds[i];
+            int n = j;
+            j += getArgumentCount(cmd);
+            if (skip) {
+                // Implicit movetos have been recorded as linetos, so
+                // a moveto always starts a new sub-path.
+                if (cmd != 'm' && cmd != 'M') {
+                    continue;
+                }
+                skip = false;
+            }
+            try {
+                switch (cmd) {
+                case 'z': case 'Z':
+                    pathHandler.closePath();
+                    break;
+                case 'm':
+                    pathHandler.movetoRel(a[n], a[n + 1]);
+                    break;
+                case 'M':
+                    pathHandler.movetoAbs(a[n], a[n + 1]);
+                    break;
+                case 'l':
+                    pathHandler.linetoRel(a[n], a[n + 1]);
+                    break;
+                case 'L':
+                    pathHandler.linetoAbs(a[n], a[n + 1]);
+                    break;
+                case 'h':
+                    pathHandler.linetoHorizontalRel(a[n]);
+                    break;
+                case 'H':
+                    pathHandler.linetoHorizontalAbs(a[n]);
+                    break;
+                case 'v':
+                    pathHandler.linetoVerticalRel(a[n]);
+                    break;
+                case 'V':
+                    pathHandler.linetoVerticalAbs(a[n]);
+                    break;
+                case 'c':
+                    pathHandler.curvetoCubicRel(a[n], a[n + 1],
+                                                a[n + 2], a[n + 3],
+                                                a[n + 4], a[n + 5]);
+                    break;
+                case 'C':
+                    pathHandler.curvetoCubicAbs(a[n], a[n + 1],
+                                                a[n + 2], a[n + 3],
+                                                a[n + 4], a[n + 5]);
+                    break;
+                case 'q':
+                    pathHandler.curvetoQuadraticRel(a[n], a[n + 1],
+                                                    a[n + 2], a[n + 3]);
+                    break;
+                case 'Q':
+                    pathHandler.curvetoQuadraticAbs(a[n], a[n + 1],
+                                                    a[n + 2], a[n + 3]);
+                    break;
+                case 's':
+                    pathHandler.curvetoCubicSmoothRel(a[n], a[n + 1],
+                                                      a[n + 2], a[n + 3]);
+                    break;
+                case 'S':
+                    pathHandler.curvetoCubicSmoothAbs(a[n], a[n + 1],
+                                                      a[n + 2], a[n + 3]);
+                    break;
+                case 't':
+                    pathHandler.curvetoQuadraticSmoothRel(a[n], a[n + 1]);
+                    break;
+                case 'T':
+                    pathHandler.curvetoQuadraticSmoothAbs(a[n], a[n + 1]);
+                    break;
+                case 'a':
+                    pathHandler.arcRel(a[n], a[n + 1], a[n + 2],
+                                       a[n + 3] != 0, a[n + 4] != 0,
+                                       a[n + 5], a[n + 6]);
+                    break;
+                case 'A':
+                    pathHandler.arcAbs(a[n], a[n + 1], a[n + 2],
+                                       a[n + 3] != 0, a[n + 4] != 0,
+                                       a[n + 5], a[n + 6]);
+                    break;
+                }
+            } catch (ParseException e) {
+                errorHandler.error(e);
+                skip = true;
+            }
+        }
+        current = -1;
+
+        pathHandler.endPath();
+    }
 }
@@ -0,0 +1,41 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.parser;
+
+/**
+ * This interface can be implemented by a path handler that wants to
+ * know the size of the path before its segments are reported, to
+ * allocate its storage at once.
+ *
+ * @version $Id$
+ */
+public interface PathSizeHandler extends PathHandler {
+
+    /**
+     * Invoked after {@link #startPath()}, when the size of the path is
+     * known before its segments are reported.  This is only a hint:
+     * the parser may not call it, and the handler must still accept
+     * more segments than announced.
+     * @param numSegments the number of segments of the path.
+     * @param numValues the number of absolute coordinates and arc
+     *        parameters needed to store the path.
+     * @exception ParseException if an error occured while processing the path
+     */
+    void pathSize(int numSegments, int numValues) throws ParseException;
+}
@@ -19,6 +19,7 @@
 package org.apache.batik.dom.svg;
 
 import org.apache.batik.parser.PathHandler;
+import org.apache.batik.parser.PathSizeHandler;
 
 import org.w3c.dom.svg.SVGPathSeg;
 import org.w3c.dom.svg.SVGPathSegArcAbs;
@@ -57,6 +58,34 @@ public abstract class SVGAnimatedPathDataSupport {
     public static void handlePathSegList(SVGPathSegList p, PathHandler h) {
         int n = p.getNumberOfItems();
         h.startPath();
+        if (h instanceof PathSizeHandler) {
+            int numValues = 0;
+            for (int i = 0; i < n; i++) {
+                switch (p.getItem(i).getPathSegType()) {
+                    case SVGPathSeg.PATHSEG_CLOSEPATH:
+                        break;
+                    case SVGPathSeg.PATHSEG_CURVETO_CUBIC_ABS:
+                    case SVGPathSeg.PATHSEG_CURVETO_CUBIC_REL:
+                    case SVGPathSeg.PATHSEG_CURVETO_CUBIC_SMOOTH_ABS:
+                    case SVGPathSeg.PATHSEG_CURVETO_CUBIC_SMOOTH_REL:
+                        numValues += 6;
+                        break;
+                    case SVGPathSeg.PATHSEG_CURVETO_QUADRATIC_ABS:
+                    case SVGPathSeg.PATHSEG_CURVETO_QUADRATIC_REL:
+                    case SVGPathSeg.PATHSEG_CURVETO_QUADRATIC_SMOOTH_ABS:
+                    case SVGPathSeg.PATHSEG_CURVETO_QUADRATIC_SMOOTH_REL:
+                        numValues += 4;
+                        break;
+                    case SVGPathSeg.PATHSEG_ARC_ABS:
+                    case SVGPathSeg.PATHSEG_ARC_REL:
+                        numValues += 7;
+                        break;
+                    default:
+                        numValues += 2;
+                }
+            }
+            ((PathSizeHandler) h).pathSize(n, numValues);
+        }
         for (int i = 0; i < n; i++) {
             SVGPathSeg seg = p.getItem(i);
             switch (seg.getPathSegType()) {
@@ -19,7 +19,6 @@
 package org.apache.batik.svggen;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -51,7 +50,7 @@ public abstract class AbstractSVGConverter implements SVGConverter, ErrorConstan
      * Set of definitions to interpret the values of the attributes
      * generated by this converter since its creation
      */
-    protected List defSet = new LinkedList();
+    protected List defSet;
 
     /**
      * @param generatorContext can be used by the SVGConverter extensions
@@ -62,6 +61,7 @@ public abstract class AbstractSVGConverter implements SVGConverter, ErrorConstan
             throw new SVGGraphics2DRuntimeException(ERR_CONTEXT_NULL);
 
         this.generatorContext = generatorContext;
+        this.defSet = generatorContext.createDefinitionSet();
     }
 
     /**
@@ -18,12 +18,19 @@
  */
 package org.apache.batik.svggen;
 
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.batik.ext.awt.g2d.GraphicContext;
 import org.apache.batik.ext.awt.g2d.TransformStackElement;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 
 /**
  * This class is used by the Graphics2D SVG Generator to manage
@@ -82,6 +89,41 @@ public class DOMGroupManager implements SVGSyntax, ErrorConstants {
      */
     protected Element currentGroup;
 
+    /**
+     * The last shape element added by <code>addShape</code>, which the
+     * next shape may be merged into, the path data of the shapes it
+     * holds and their bounds.
+     */
+    protected Element mergeElement;
+    protected StringBuffer mergeData;
+    protected Rectangle2D mergeBounds;
+
+    /**
+     * The maximum length of the path data of merged shapes.  The data
+     * is copied for every shape merged, so longer runs start a new
+     * element.
+     */
+    static final int MAX_MERGED_DATA = 4096;
+
+    /**
+     * The attributes that describe the geometry of the shape elements,
+     * and are not compared when merging shapes.
+     */
+    static final Set geometryAttributes = new HashSet();
+
+    static {
+        String[] names = {
+            SVG_X_ATTRIBUTE, SVG_Y_ATTRIBUTE, SVG_WIDTH_ATTRIBUTE,
+            SVG_HEIGHT_ATTRIBUTE, SVG_RX_ATTRIBUTE, SVG_RY_ATTRIBUTE,
+            SVG_CX_ATTRIBUTE, SVG_CY_ATTRIBUTE, SVG_R_ATTRIBUTE,
+            SVG_X1_ATTRIBUTE, SVG_Y1_ATTRIBUTE, SVG_X2_ATTRIBUTE,
+            SVG_Y2_ATTRIBUTE, SVG_POINTS_ATTRIBUTE, SVG_D_ATTRIBUTE
+        };
+        for (String name : names) {
+            geometryAttributes.add(name);
+        }
+    }
+
     /**
      * Constructor
      * @param gc graphic context whose state will be reflected in the
@@ -113,6 +155,7 @@ public class DOMGroupManager implements SVGSyntax, ErrorConstants {
         // Create new initial current group node
         currentGroup = domTreeManager.getDOMFactory().
             createElementNS(SVG_NAMESPACE_URI, SVG_G_TAG);
+        mergeElement = null;
     }
 
     /**
@@ -213,6 +256,268 @@ public class DOMGroupManager implements SVGSyntax, ErrorConstants {
         }
     }
 
+    /**
+     * Adds the element representing a shape to the current group, as
+     * <code>addElement</code> does.  When path coalescing is on, the
+     * shape is merged into the previous shape's element instead, if it
+     * is the last one of the current group, it has the same style, and
+     * drawing the two shapes as a single path renders the same: filled
+     * shapes must not overlap, and strokes must be opaque and not
+     * dashed.  Only the antialiasing where the shapes touch may differ.
+     * Shapes painted with a gradient or a pattern are not merged, and
+     * neither are the shapes for which merging would make the output
+     * longer.  See <code>getMergeData</code> for the elements that can
+     * be merged.
+     * @param shape the shape <code>element</code> represents
+     * @param element child Element to add to the group
+     * @param method <code>DRAW</code> or <code>FILL</code>
+     * @see SVGGeneratorContext#setPathCoalescingOn
+     */
+    public void addShape(Shape shape, Element element, short method) {
+        SVGGeneratorContext generatorContext =
+            domTreeManager.getGeneratorContext();
+        if (!generatorContext.isPathCoalescingOn()) {
+            addElement(element, method);
+            return;
+        }
+
+        Element previous = mergeElement;
+        addElement(element, method);
+
+        String data = getMergeData(shape, element);
+        if (data == null) {
+            mergeElement = null;
+            return;
+        }
+        String separator =
+            generatorContext.isCompactPathDataOn() ? "" : SPACE;
+        Rectangle2D bounds = shape.getBounds2D();
+        if (previous == null
+            || element.getPreviousSibling() != previous
+            || mergeData.length() + data.length() > MAX_MERGED_DATA
+            || !canMerge(previous, element, method, bounds)
+            || (getMergedLength(previous, mergeData.length() +
+                                separator.length() + data.length()) >
+                getLength(previous) + getLength(element))) {
+            mergeElement = element;
+            mergeData = new StringBuffer(data);
+            mergeBounds = bounds;
+            return;
+        }
+
+        Element path = previous;
+        if (!SVG_PATH_TAG.equals(previous.getTagName())) {
+            path = domTreeManager.getDOMFactory().
+                createElementNS(SVG_NAMESPACE_URI, SVG_PATH_TAG);
+            NamedNodeMap attrs = previous.getAttributes();
+            for (int i = 0; i < attrs.getLength(); i++) {
+                Attr a = (Attr)attrs.item(i);
+                if (!geometryAttributes.contains(a.getName())) {
+                    path.setAttributeNS(a.getNamespaceURI(), a.getName(),
+                                        a.getValue());
+                }
+            }
+            currentGroup.replaceChild(path, previous);
+        }
+        currentGroup.removeChild(element);
+        mergeData.append(separator);
+        mergeData.append(data);
+        path.setAttributeNS(null, SVG_D_ATTRIBUTE, mergeData.toString());
+        mergeElement = path;
+        mergeBounds.add(bounds);
+    }
+
+    /**
+     * Returns the path data of <code>element</code>, built from its own
+     * attributes so that merging it does not change its geometry, or
+     * null if it can't be merged.  Only <code>path</code>,
+     * <code>polygon</code>, <code>polyline</code> and
+     * <code>rect</code> elements without rounded corners are merged,
+     * and only when they describe <code>shape</code> exactly: the
+     * converters write other elements, or approximate the shape, for
+     * degenerate shapes, ellipses and arcs.  Shapes with an empty
+     * width or height are never merged.
+     */
+    protected String getMergeData(Shape shape, Element element) {
+        Rectangle2D bounds = shape.getBounds2D();
+        if (!(bounds.getWidth() > 0) || !(bounds.getHeight() > 0))
+            return null;
+
+        String tag = element.getTagName();
+        if (SVG_PATH_TAG.equals(tag)) {
+            String d = element.getAttributeNS(null, SVG_D_ATTRIBUTE);
+            SVGGeneratorContext generatorContext =
+                domTreeManager.getGeneratorContext();
+            if (!d.equals(SVGPath.toSVGPathData(shape, generatorContext)))
+                return null;
+            return d;
+        }
+        if (SVG_POLYGON_TAG.equals(tag) || SVG_POLYLINE_TAG.equals(tag)) {
+            boolean closed = SVG_POLYGON_TAG.equals(tag);
+            if (!isPolyline(shape, closed))
+                return null;
+            String points = element.getAttributeNS(null, SVG_POINTS_ATTRIBUTE);
+            return PATH_MOVE + points.trim() + (closed ? PATH_CLOSE : "");
+        }
+        if (SVG_RECT_TAG.equals(tag)) {
+            if (!(shape instanceof Rectangle2D) ||
+                element.hasAttributeNS(null, SVG_RX_ATTRIBUTE) ||
+                element.hasAttributeNS(null, SVG_RY_ATTRIBUTE))
+                return null;
+            String x = element.getAttributeNS(null, SVG_X_ATTRIBUTE);
+            String y = element.getAttributeNS(null, SVG_Y_ATTRIBUTE);
+            String w = element.getAttributeNS(null, SVG_WIDTH_ATTRIBUTE);
+            String h = element.getAttributeNS(null, SVG_HEIGHT_ATTRIBUTE);
+            // The width or height may have been rounded to zero.
+            if (!(Float.parseFloat(w) > 0) || !(Float.parseFloat(h) > 0))
+                return null;
+            // The relative form keeps the emitted values as they are.
+            return PATH_MOVE + x + SPACE + y + 'h' + w + 'v' + h +
+                "h-" + w + 'z';
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if <code>shape</code> is a single subpath made of
+     * straight lines, closed or not as requested.
+     */
+    static boolean isPolyline(Shape shape, boolean closed) {
+        PathIterator pi = shape.getPathIterator(null);
+        double[] seg = new double[6];
+        if (pi.isDone() || pi.currentSegment(seg) != PathIterator.SEG_MOVETO)
+            return false;
+        pi.next();
+        while (!pi.isDone()) {
+            switch (pi.currentSegment(seg)) {
+            case PathIterator.SEG_LINETO:
+                break;
+            case PathIterator.SEG_CLOSE:
+                pi.next();
+                return closed && pi.isDone();
+            default:
+                return false;
+            }
+            pi.next();
+        }
+        return !closed;
+    }
+
+    /**
+     * Returns the length of <code>element</code> once written, leaving
+     * out white space and the escaping of the attribute values.
+     */
+    static int getLength(Element element) {
+        return element.getTagName().length() + 3 +
+            getAttributesLength(element, true) +
+            getAttributesLength(element, false);
+    }
+
+    /**
+     * Returns the length of the path that replaces <code>element</code>
+     * when a shape is merged into it, as <code>getLength</code> does.
+     * @param dataLength the length of the merged path data
+     */
+    static int getMergedLength(Element element, int dataLength) {
+        return SVG_PATH_TAG.length() + 3 +
+            getAttributesLength(element, false) +
+            SVG_D_ATTRIBUTE.length() + dataLength + 4;
+    }
+
+    /**
+     * Returns the length of the geometry attributes of an element, or
+     * of its other attributes, once written as <code> name="value"</code>.
+     */
+    static int getAttributesLength(Element element, boolean geometry) {
+        NamedNodeMap attrs = element.getAttributes();
+        int n = 0;
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr)attrs.item(i);
+            if (geometryAttributes.contains(a.getName()) == geometry) {
+                n += a.getName().length() + a.getValue().length() + 4;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns true if the shape of <code>element</code>, which has been
+     * added after <code>previous</code>, can be merged into it.
+     */
+    protected boolean canMerge(Element previous, Element element,
+                               short method, Rectangle2D bounds) {
+        // Other style handlers may not set the style as attributes.
+        if (!(domTreeManager.getStyleHandler() instanceof DefaultStyleHandler))
+            return false;
+
+        // The elements must only differ by their geometry.
+        NamedNodeMap attrs = element.getAttributes();
+        int n = 0;
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr)attrs.item(i);
+            if (geometryAttributes.contains(a.getName()))
+                continue;
+            Attr p = previous.getAttributeNode(a.getName());
+            if (p == null || !a.getValue().equals(p.getValue()))
+                return false;
+            n++;
+        }
+        attrs = previous.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr)attrs.item(i);
+            if (!geometryAttributes.contains(a.getName()))
+                n--;
+        }
+        if (n != 0)
+            return false;
+
+        if (element.hasAttributeNS(null, SVG_FILTER_ATTRIBUTE) ||
+            element.hasAttributeNS(null, SVG_MASK_ATTRIBUTE))
+            return false;
+
+        if ((method & FILL) != 0) {
+            // Overlapping areas would only be painted once.
+            if (mergeBounds.intersects(bounds) ||
+                getStyle(element, SVG_FILL_ATTRIBUTE).startsWith("url("))
+                return false;
+        }
+        if ((method & DRAW) != 0) {
+            // Overlapping strokes would only be painted once, and the
+            // dashes would continue from one shape to the next.
+            String dashArray =
+                getStyle(element, SVG_STROKE_DASHARRAY_ATTRIBUTE);
+            if (!isOpaque(element.getAttributeNS(null, SVG_OPACITY_ATTRIBUTE)) ||
+                !isOpaque(getStyle(element, SVG_STROKE_OPACITY_ATTRIBUTE)) ||
+                (dashArray.length() > 0 && !SVG_NONE_VALUE.equals(dashArray)) ||
+                getStyle(element, SVG_STROKE_ATTRIBUTE).startsWith("url("))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if an opacity value, which may be empty, is 1.
+     */
+    static boolean isOpaque(String opacity) {
+        return opacity.length() == 0 || Float.parseFloat(opacity) == 1;
+    }
+
+    /**
+     * Returns the value of a style property of an element of the
+     * current group, as set on the element, on the group or on the
+     * root element.
+     */
+    protected String getStyle(Element element, String name) {
+        String value = element.getAttributeNS(null, name);
+        if (value.length() == 0) {
+            value = currentGroup.getAttributeNS(null, name);
+        }
+        if (value.length() == 0) {
+            value = (String)domTreeManager.defaultGC.getGroupContext().get(name);
+        }
+        return value == null ? "" : value;
+    }
+
     /**
      * Analyses the Map to define how many attributes constitute
      * overrides. Only differences in the group context are considered
@@ -18,6 +18,9 @@
  */
 package org.apache.batik.svggen;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +31,7 @@ import org.apache.batik.ext.awt.g2d.GraphicContext;
 import org.w3c.dom.Comment;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
@@ -56,6 +60,11 @@ import org.w3c.dom.NodeList;
  *        +-- ...
  *        +-- [g]    Group n
  *
+ * When streaming, started with <code>startStream</code>, the groups are
+ * written out and removed from the top level group as soon as they are
+ * complete, that is when another group is appended.  The definitions
+ * created for them are written in a defs node just before them, once.
+ *
  * @author <a href="mailto:cjolif">Christophe Jolif</a>
  * @author <a href="mailto:vincent.hardy@eng.sun.com">Vincent Hardy</a>
  * @version $Id$
@@ -115,6 +124,31 @@ public class DOMTreeManager implements SVGSyntax, ErrorConstants {
      */
     protected List otherDefs;
 
+    /**
+     * The svg root element being streamed, or null if not streaming.
+     */
+    protected Element streamRoot;
+
+    /**
+     * The writer the groups are streamed to.
+     */
+    protected XmlWriter.IndentWriter streamWriter;
+
+    /**
+     * Whether the streamed output uses CSS style properties.
+     */
+    protected boolean streamUseCss;
+
+    /**
+     * Whether the characters of the streamed output are escaped.
+     */
+    protected boolean streamEscaped;
+
+    /**
+     * The fonts to write at the end of the stream.
+     */
+    protected List streamFonts;
+
     /**
      * Constructor
      * @param gc default graphic context state
@@ -183,6 +217,175 @@ public class DOMTreeManager implements SVGSyntax, ErrorConstants {
                     gm.recycleCurrentGroup();
             }
         }
+
+        if (streamRoot != null) {
+            // No group manager adds to the groups before this one
+            // anymore.
+            try {
+                streamGroups(false);
+            } catch (SVGGraphics2DIOException e) {
+                generatorContext.errorHandler.
+                    handleError(new SVGGraphics2DRuntimeException(e));
+            }
+        }
+    }
+
+    /**
+     * Starts writing the content of this manager to <code>writer</code>
+     * as it is created, instead of keeping it in the topLevelGroup.
+     * The document header and the start tags of <code>svgElement</code>
+     * and of the topLevelGroup are written immediately.
+     *
+     * @param svgElement the svg root element, or null to create one.
+     * @param writer the writer to stream the content to
+     * @param useCss whether the output should use CSS style properties
+     *        as opposed to plain attributes.
+     * @param escaped whether the characters should be escaped
+     * @see #endStream
+     */
+    public void startStream(Element svgElement, Writer writer,
+                            boolean useCss, boolean escaped)
+        throws SVGGraphics2DIOException {
+        Element svg = svgElement;
+
+        if (svg == null) {
+            svg = generatorContext.domFactory.
+                createElementNS(SVG_NAMESPACE_URI, SVG_SVG_TAG);
+        }
+
+        // Whether a composite needs access to the background is only
+        // known once everything is drawn, so it is always enabled.
+        svg.setAttributeNS
+            (null, SVG_ENABLE_BACKGROUND_ATTRIBUTE, SVG_NEW_VALUE);
+
+        if (generatorContext.generatorComment != null) {
+            Comment generatorComment = generatorContext.domFactory.
+                createComment(generatorContext.generatorComment);
+            svg.appendChild(generatorComment);
+        }
+
+        applyDefaultRenderingStyle(svg);
+
+        svg.appendChild(getGenericDefinitions());
+        svg.appendChild(topLevelGroup);
+
+        if (useCss)
+            SVGCSSStyler.style(svg);
+
+        streamRoot = svg;
+        streamWriter = new XmlWriter.IndentWriter(writer);
+        streamUseCss = useCss;
+        streamEscaped = escaped;
+        streamFonts = new LinkedList();
+
+        // From now on, the converters also add the definitions they
+        // create to newDefinitions, so that streamGroups only has to
+        // look at those.  The definitions created so far are new too.
+        List defSet = new LinkedList(gcConverter.getDefinitionSet());
+        defSet.addAll(filterConverter.getDefinitionSet());
+        generatorContext.newDefinitions = defSet;
+        try {
+            XmlWriter.writeDocumentHeader(streamWriter);
+            XmlWriter.writeStartTag(svg, streamWriter, escaped);
+            for (Node n = svg.getFirstChild(); n != topLevelGroup;
+                 n = n.getNextSibling()) {
+                XmlWriter.writeXml(n, streamWriter, escaped);
+            }
+            XmlWriter.writeStartTag(topLevelGroup, streamWriter, escaped);
+        } catch (IOException io) {
+            throw new SVGGraphics2DIOException(io);
+        }
+    }
+
+    /**
+     * Writes what remains of the content of this manager and the end
+     * tags opened by <code>startStream</code>, then stops streaming.
+     * The writer is flushed but not closed.
+     */
+    public void endStream() throws SVGGraphics2DIOException {
+        if (streamRoot == null)
+            return;
+
+        try {
+            boolean lastChildWritten = streamGroups(true);
+            XmlWriter.writeEndTag(topLevelGroup, streamWriter,
+                                  lastChildWritten);
+            XmlWriter.writeEndTag(streamRoot, streamWriter, true);
+            streamWriter.write(XmlWriter.EOL);
+            streamWriter.flush();
+        } catch (IOException io) {
+            throw new SVGGraphics2DIOException(io);
+        } finally {
+            streamRoot.removeChild(topLevelGroup);
+            streamRoot = null;
+            streamWriter = null;
+            streamFonts = null;
+            generatorContext.newDefinitions = null;
+            recycleTopLevelGroup(false);
+        }
+    }
+
+    /**
+     * Writes the children of the topLevelGroup, preceded by the
+     * definitions not written yet, and removes them from the tree.
+     *
+     * @param all whether to write all the children, or all but the
+     *        last one, which may still be added to.
+     * @return true if a child was written
+     */
+    protected boolean streamGroups(boolean all)
+        throws SVGGraphics2DIOException {
+        completeImages();
+        List defSet = generatorContext.newDefinitions;
+        generatorContext.newDefinitions = new LinkedList();
+        if (otherDefs != null){
+            defSet.addAll(otherDefs);
+            otherDefs = null;
+        }
+
+        // Fonts get new glyphs as text is drawn, so they are written
+        // last.
+        Iterator i = defSet.iterator();
+        while (i.hasNext()) {
+            Element def = (Element) i.next();
+            if (SVG_FONT_TAG.equals(def.getTagName())) {
+                streamFonts.add(def);
+                i.remove();
+            }
+        }
+        if (all) {
+            defSet.addAll(streamFonts);
+            streamFonts.clear();
+        }
+
+        Element defElement = null;
+        for (Object aDefSet : defSet) {
+            if (defElement == null) {
+                defElement =
+                    generatorContext.domFactory.
+                    createElementNS(SVG_NAMESPACE_URI, SVG_DEFS_TAG);
+                defElement.
+                    setAttributeNS(null, SVG_ID_ATTRIBUTE,
+                                   generatorContext.idGenerator.
+                                   generateID(ID_PREFIX_DEFS));
+            }
+            defElement.appendChild((Element) aDefSet);
+        }
+        if (defElement != null)
+            topLevelGroup.insertBefore(defElement,
+                                       topLevelGroup.getFirstChild());
+
+        Node last = all ? null : topLevelGroup.getLastChild();
+        boolean written = false;
+        Node child;
+        while ((child = topLevelGroup.getFirstChild()) != last) {
+            if (streamUseCss)
+                SVGCSSStyler.style(child);
+            XmlWriter.writeXml(child, streamWriter, streamEscaped);
+            topLevelGroup.removeChild(child);
+            written = true;
+        }
+        return written;
     }
 
     /**
@@ -328,6 +531,7 @@ public class DOMTreeManager implements SVGSyntax, ErrorConstants {
         // The definition set contains all the definitions minus
         // any definition that has been placed in the generic definition set
         //
+        completeImages();
         List defSet = gcConverter.getDefinitionSet();
         defSet.removeAll(genericDefSet);
         defSet.addAll(filterConverter.getDefinitionSet());
@@ -343,6 +547,25 @@ public class DOMTreeManager implements SVGSyntax, ErrorConstants {
         return defSet;
     }
 
+    /**
+     * Waits for the images that the image handler is still encoding,
+     * so that the definitions and files referring to them are complete.
+     */
+    protected void completeImages() {
+        if (generatorContext.genericImageHandler instanceof CachedImageHandler) {
+            try {
+                ((CachedImageHandler) generatorContext.genericImageHandler).
+                    getImageCacher().completeImages();
+            } catch (SVGGraphics2DIOException e) {
+                try {
+                    generatorContext.errorHandler.handleError(e);
+                } catch (SVGGraphics2DIOException io) {
+                    throw new SVGGraphics2DRuntimeException(io);
+                }
+            }
+        }
+    }
+
     /**
      * Lets custom implementations for various extensions add
      * elements to the &lt;defs&gt; sections.
@@ -25,7 +25,6 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderableImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
@@ -60,6 +59,11 @@ public abstract class DefaultCachedImageHandler
 
     protected ImageCacher imageCacher;
 
+    /**
+     * Whether images may be encoded on worker threads.
+     */
+    protected boolean parallelEncoding = false;
+
     /**
      * The image cache can be used by subclasses for efficient image storage
      */
@@ -84,6 +88,24 @@ public abstract class DefaultCachedImageHandler
         }
     }
 
+    /**
+     * Returns <code>true</code> if images may be encoded on worker
+     * threads while drawing continues.
+     */
+    public boolean isParallelEncodingOn() {
+        return parallelEncoding;
+    }
+
+    /**
+     * Sets if images may be encoded on worker threads while drawing
+     * continues.  <code>encodeImage</code> must then support being
+     * called concurrently, which subclasses overriding it may not do,
+     * so the default value is <code>false</code>.
+     */
+    public void setParallelEncodingOn(boolean parallelEncoding) {
+        this.parallelEncoding = parallelEncoding;
+    }
+
     /**
      * This <code>GenericImageHandler</code> implementation does not
      * need to interact with the DOMTreeManager.
@@ -393,32 +415,22 @@ public abstract class DefaultCachedImageHandler
         handleHREF((RenderedImage)buf, imageElement, generatorContext);
     }
 
+    /**
+     * Sets the xlink:href attribute of <code>imageElement</code> to
+     * the reference the image cacher gives for <code>buf</code>.  The
+     * image is only encoded if the cacher has not seen the same pixels
+     * before.
+     */
     protected void cacheBufferedImage(Element imageElement,
                                       BufferedImage buf,
                                       SVGGeneratorContext generatorContext)
         throws SVGGraphics2DIOException {
 
-        ByteArrayOutputStream os;
-
         if (generatorContext == null)
             throw new SVGGraphics2DRuntimeException(ERR_CONTEXT_NULL);
 
-        try {
-            os = new ByteArrayOutputStream();
-            // encode the image in memory
-            encodeImage(buf, os);
-            os.flush();
-            os.close();
-        } catch (IOException e) {
-            // should not happen since we do in-memory processing
-            throw new SVGGraphics2DIOException(ERR_UNEXPECTED, e);
-        }
-
         // ask the cacher for a reference
-        String ref = imageCacher.lookup(os,
-                                                  buf.getWidth(),
-                                                  buf.getHeight(),
-                                                  generatorContext);
+        String ref = imageCacher.lookup(buf, this, generatorContext);
 
         // set the URL
         imageElement.setAttributeNS(XLINK_NAMESPACE_URI,
@@ -18,17 +18,31 @@
  */
 package org.apache.batik.svggen;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Adler32;
 import java.util.zip.Checksum;
 
@@ -39,21 +53,63 @@ import org.w3c.dom.Element;
 /**
  * This class implements caching functionality for raster images.
  *
+ * <p>Images are identified by a digest of their pixels, so that an image
+ * drawn again is not encoded again.  New images are encoded on worker
+ * threads while drawing continues, and <code>completeImages</code> waits
+ * for them before the definitions that refer to them are used.
+ *
  * @author <a href="mailto:paul_evenblij@compuware.com">Paul Evenblij</a>
  * @version $Id$
  */
 public abstract class ImageCacher implements SVGSyntax, ErrorConstants {
 
+    /**
+     * The maximum number of pixel digests kept.  An image whose digest
+     * was dropped is encoded again if it is drawn again.
+     */
+    static final int MAX_DIGESTS = 4096;
+
+    /**
+     * The shared pool the images are encoded on, created when first
+     * needed.
+     */
+    private static ExecutorService encoders;
+
     DOMTreeManager  domTreeManager = null;
     Map             imageCache;
     Checksum        checkSum;
 
+    /**
+     * The URIs of the images looked up by <code>lookup(BufferedImage,
+     * ...)</code>, keyed by the digest of their pixels, least recently
+     * used first.
+     */
+    Map             digestCache;
+
+    /**
+     * The images being encoded, in the order they were looked up.
+     */
+    LinkedList      pendingImages = new LinkedList();
+
     /**
      * Creates an ImageCacher.
      */
     public ImageCacher() {
         imageCache = new HashMap();
         checkSum = new Adler32();
+        digestCache = createDigestCache();
+    }
+
+    /**
+     * Creates the map of the digests, which drops the least recently
+     * used entries beyond <code>MAX_DIGESTS</code>.
+     */
+    static Map createDigestCache() {
+        return new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_DIGESTS;
+            }
+        };
     }
 
     /**
@@ -136,6 +192,246 @@ public abstract class ImageCacher implements SVGSyntax, ErrorConstants {
         return href;
     }
 
+    /**
+     * Checks if an image with the same pixels is already in the
+     * cache, and adds it if not.  A new image is encoded by
+     * <code>handler</code>, on a worker thread if the handler allows
+     * it, and <code>completeImages</code> must be called before the
+     * returned URI is used outside of the SVG tree.
+     *
+     * @param image             the image, which may be changed by the
+     *                          caller once this method returns
+     * @param handler           the handler that encodes the image
+     * @param ctx               the SVGGeneratorContext
+     *
+     * @return a URI for the image
+     * @throws SVGGraphics2DIOException if an error occurs during image file i/o
+     */
+    String lookup(BufferedImage image,
+                  DefaultCachedImageHandler handler,
+                  SVGGeneratorContext ctx)
+                      throws SVGGraphics2DIOException {
+        // Report the errors of the images already encoded, and let
+        // them go.
+        completeImages(false);
+
+        Object key = getDigest(image);
+        String href = (String) digestCache.get(key);
+        if (href != null) {
+            return href;
+        }
+
+        // A worker encodes a copy, so that the caller may reuse the
+        // image.
+        boolean parallel = handler.isParallelEncodingOn();
+        BufferedImage copy = image;
+        if (parallel) {
+            copy = new BufferedImage(image.getColorModel(),
+                                     image.copyData(null),
+                                     image.isAlphaPremultiplied(),
+                                     null);
+        }
+        PendingImage pending = createPendingImage(copy, handler,
+                                                  image.getWidth(),
+                                                  image.getHeight(),
+                                                  ctx);
+        pending.task = new FutureTask(pending);
+        pendingImages.add(pending);
+        if (parallel) {
+            getEncoders().execute(pending.task);
+        } else {
+            pending.task.run();
+        }
+
+        digestCache.put(key, pending.href);
+        return pending.href;
+    }
+
+    /**
+     * Waits for the images being encoded, and completes the elements
+     * or the files that refer to them.
+     *
+     * @throws SVGGraphics2DIOException if an image could not be encoded
+     *         or stored
+     */
+    public void completeImages() throws SVGGraphics2DIOException {
+        completeImages(true);
+    }
+
+    /**
+     * Completes the images encoded so far, in order.
+     * @param wait whether to wait for all the images, or to stop at
+     *        the first one not encoded yet.
+     */
+    void completeImages(boolean wait) throws SVGGraphics2DIOException {
+        while (!pendingImages.isEmpty()) {
+            PendingImage pending = (PendingImage) pendingImages.getFirst();
+            if (!wait && !pending.task.isDone()) {
+                return;
+            }
+            pendingImages.removeFirst();
+            Object result;
+            try {
+                result = pending.task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pendingImages.addFirst(pending);
+                throw new SVGGraphics2DIOException(ERR_UNEXPECTED);
+            } catch (ExecutionException e) {
+                Throwable t = e.getCause();
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                }
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                throw pending.getException((IOException) t);
+            }
+            pending.complete(result);
+        }
+    }
+
+    /**
+     * Returns the pool the images are encoded on, which has a thread
+     * per processor and a bounded queue.  When the queue is full, the
+     * image is encoded by the thread that looked it up.
+     */
+    static synchronized ExecutorService getEncoders() {
+        if (encoders == null) {
+            int n = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+                                       new ArrayBlockingQueue(2 * n),
+                                       new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ImageCacher encoder");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            encoders = pool;
+        }
+        return encoders;
+    }
+
+    /**
+     * Returns a key identifying the pixels of an image: a SHA-256
+     * digest of its size and pixel data.
+     */
+    static Object getDigest(BufferedImage image) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform implements SHA-256.
+            throw new SVGGraphics2DRuntimeException(ERR_UNEXPECTED);
+        }
+        Raster raster = image.getRaster();
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(8, w * 4 *
+                                                      raster.getNumDataElements()));
+        buf.putInt(w).putInt(h);
+        md.update(buf.array(), 0, 8);
+
+        Object row = null;
+        for (int y = 0; y < h; y++) {
+            row = raster.getDataElements(raster.getMinX(), raster.getMinY() + y,
+                                         w, 1, row);
+            buf.clear();
+            if (row instanceof int[]) {
+                buf.asIntBuffer().put((int[]) row);
+                md.update(buf.array(), 0, ((int[]) row).length * 4);
+            } else if (row instanceof short[]) {
+                buf.asShortBuffer().put((short[]) row);
+                md.update(buf.array(), 0, ((short[]) row).length * 2);
+            } else if (row instanceof byte[]) {
+                md.update((byte[]) row);
+            } else {
+                // Unusual transfer type: use the RGB values.
+                int[] rgb = image.getRGB(0, y, w, 1, null, 0, w);
+                buf.asIntBuffer().put(rgb);
+                md.update(buf.array(), 0, w * 4);
+            }
+        }
+        return ByteBuffer.wrap(md.digest());
+    }
+
+    /**
+     * Creates the entry of an image to encode, and reserves the URI
+     * that will refer to it.
+     *
+     * @param image    the image to encode, which is not used elsewhere
+     * @param handler  the handler that encodes the image
+     * @param width    image width
+     * @param height   image height
+     * @param ctx      the SVGGeneratorContext
+     */
+    abstract PendingImage createPendingImage(BufferedImage image,
+                                             DefaultCachedImageHandler handler,
+                                             int width, int height,
+                                             SVGGeneratorContext ctx)
+                                                 throws SVGGraphics2DIOException;
+
+    /**
+     * An image being encoded.  <code>call</code> runs on a worker
+     * thread, and <code>complete</code> is given its result on the
+     * thread that draws.
+     */
+    abstract static class PendingImage implements Callable {
+
+        /** The image to encode, until it is encoded */
+        BufferedImage image;
+
+        /** The handler that encodes the image */
+        DefaultCachedImageHandler handler;
+
+        /** A uri identifying the image */
+        String href;
+
+        /** The task encoding the image */
+        FutureTask task;
+
+        PendingImage(BufferedImage image,
+                     DefaultCachedImageHandler handler,
+                     String href) {
+            this.image   = image;
+            this.handler = handler;
+            this.href    = href;
+        }
+
+        public Object call() throws IOException {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try {
+                handler.encodeImage(image, os);
+                os.close();
+            } finally {
+                image = null;
+            }
+            return encoded(os);
+        }
+
+        /**
+         * Processes the encoded image on the worker thread.
+         * @return the result given to <code>complete</code>
+         */
+        abstract Object encoded(ByteArrayOutputStream os) throws IOException;
+
+        /**
+         * Completes the entry with the result of <code>encoded</code>.
+         */
+        abstract void complete(Object result);
+
+        /**
+         * Returns the exception reported when the image could not be
+         * encoded or stored.
+         */
+        SVGGraphics2DIOException getException(IOException e) {
+            return new SVGGraphics2DIOException(ERR_UNEXPECTED, e);
+        }
+    }
+
     /**
      * Returns an object which can be cached.
      * Implementation must determine which information
@@ -223,11 +519,45 @@ public abstract class ImageCacher implements SVGSyntax, ErrorConstants {
             // A new DOMTreeManager implies a new cache, because we cache
             // images in the SVG tree itself
             if(this.domTreeManager != domTreeManager) {
+                if (this.domTreeManager != null) {
+                    try {
+                        completeImages();
+                    } catch (SVGGraphics2DIOException e) {
+                        throw new SVGGraphics2DRuntimeException(e);
+                    }
+                }
                 this.domTreeManager = domTreeManager;
                 this.imageCache     = new HashMap();
+                this.digestCache    = createDigestCache();
             }
         }
 
+        PendingImage createPendingImage(BufferedImage image,
+                                        DefaultCachedImageHandler handler,
+                                        int width, int height,
+                                        SVGGeneratorContext ctx) {
+
+            // Get a new unique id
+            String id = ctx.idGenerator.generateID(ID_PREFIX_IMAGE);
+
+            // Add the image element to the <defs> section; its data is
+            // set once the image is encoded.
+            final Element imageElement =
+                addToTree(id, null, width, height, ctx);
+
+            return new PendingImage(image, handler, SIGN_POUND + id) {
+                Object encoded(ByteArrayOutputStream os) {
+                    return DATA_PROTOCOL_PNG_PREFIX + os.toString();
+                }
+
+                void complete(Object result) {
+                    imageElement.setAttributeNS
+                        (DefaultImageHandler.XLINK_NAMESPACE_URI,
+                         XLINK_HREF_QNAME, (String) result);
+                }
+            };
+        }
+
         Object getCacheableData(ByteArrayOutputStream os) {
             // In order to have only one instance of the image data
             // in memory, we cache the entire xlink:href attribute value,
@@ -256,10 +586,10 @@ public abstract class ImageCacher implements SVGSyntax, ErrorConstants {
         /**
          *  Adds a new image element to the defs section for cached images.
          */
-        private void addToTree(String id,
-                               String href,
-                               int width, int height,
-                               SVGGeneratorContext ctx) {
+        private Element addToTree(String id,
+                                  String href,
+                                  int width, int height,
+                                  SVGGeneratorContext ctx) {
 
             Document domFactory = domTreeManager.getDOMFactory();
             // Element imageDefs = getImageDefs(domFactory, ctx);
@@ -273,11 +603,14 @@ public abstract class ImageCacher implements SVGSyntax, ErrorConstants {
                                               Integer.toString(width));
             imageElement.setAttributeNS(null, SVG_HEIGHT_ATTRIBUTE,
                                               Integer.toString(height));
-            imageElement.setAttributeNS(DefaultImageHandler.XLINK_NAMESPACE_URI,
-                                              XLINK_HREF_QNAME,
-                                              href);
+            if (href != null) {
+                imageElement.setAttributeNS(DefaultImageHandler.XLINK_NAMESPACE_URI,
+                                                  XLINK_HREF_QNAME,
+                                                  href);
+            }
             // imageDefs.appendChild(imageElement);
             domTreeManager.addOtherDef(imageElement);
+            return imageElement;
         }
 
 
@@ -324,6 +657,42 @@ public abstract class ImageCacher implements SVGSyntax, ErrorConstants {
             return os;
         }
 
+        PendingImage createPendingImage(BufferedImage image,
+                                        DefaultCachedImageHandler handler,
+                                        int width, int height,
+                                        SVGGeneratorContext ctx) {
+            // Reserve a file name in the image directory; the file is
+            // written once the image is encoded.
+            File file = null;
+            while (file == null) {
+                String fileId = ctx.idGenerator.generateID(prefix);
+                file = new File(imageDir, fileId + suffix);
+                if (file.exists())
+                    file = null;
+            }
+            final File imageFile = file;
+
+            return new PendingImage(image, handler, imageFile.getName()) {
+                Object encoded(ByteArrayOutputStream os) throws IOException {
+                    OutputStream outputStream = new FileOutputStream(imageFile);
+                    try {
+                        os.writeTo(outputStream);
+                    } finally {
+                        outputStream.close();
+                    }
+                    return null;
+                }
+
+                void complete(Object result) {
+                }
+
+                SVGGraphics2DIOException getException(IOException e) {
+                    return new SVGGraphics2DIOException
+                        (ERR_WRITE + imageFile.getName(), e);
+                }
+            };
+        }
+
         boolean imagesMatch(Object o1, Object o2)
                 throws SVGGraphics2DIOException {
             boolean match = false;
@@ -29,6 +29,8 @@ import java.awt.Stroke;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 
 import org.w3c.dom.Document;
@@ -100,11 +102,29 @@ public class SVGGeneratorContext implements ErrorConstants {
      */
     boolean svgFont = false;
 
+    /**
+     * Do we write path data with relative and shorthand commands?
+     */
+    boolean compactPathData = false;
+
+    /**
+     * Do we merge consecutive shapes drawn with the same style?
+     */
+    boolean pathCoalescing = false;
+
     /**
      * GraphicContextDefaults
      */
     GraphicContextDefaults gcDefaults;
 
+    /**
+     * The list the converters also add their new definitions to, or
+     * null.  Set by the <code>DOMTreeManager</code> while it streams
+     * its content, so that it only looks at the definitions created
+     * since it last wrote some.
+     */
+    List newDefinitions;
+
     /**
      * Number of decimal places to use in output values.
      * 3 decimal places are used by default.
@@ -395,6 +415,56 @@ public class SVGGeneratorContext implements ErrorConstants {
         this.svgFont = svgFont;
     }
 
+    /**
+     * Returns <code>true</code> if path data is written with relative
+     * and shorthand commands.
+     */
+    public final boolean isCompactPathDataOn() {
+        return compactPathData;
+    }
+
+    /**
+     * Sets if path data should be written with relative and shorthand
+     * commands, whichever is shorter, and without the separators that
+     * are not needed. Default value is <code>false</code>.
+     */
+    public final void setCompactPathDataOn(boolean compactPathData) {
+        this.compactPathData = compactPathData;
+    }
+
+    /**
+     * Returns <code>true</code> if consecutive shapes drawn with the
+     * same style are merged into a single path.
+     */
+    public final boolean isPathCoalescingOn() {
+        return pathCoalescing;
+    }
+
+    /**
+     * Sets if consecutive shapes drawn or filled with the same style
+     * should be merged into a single path element, where that does not
+     * change the rendering. Default value is <code>false</code>.
+     * @see DOMGroupManager#addShape
+     */
+    public final void setPathCoalescingOn(boolean pathCoalescing) {
+        this.pathCoalescing = pathCoalescing;
+    }
+
+    /**
+     * Returns a list for a converter to keep its definitions in.  The
+     * definitions added to it are also added to the list of new
+     * definitions of this context, if there is one.
+     */
+    List createDefinitionSet() {
+        return new LinkedList() {
+                public boolean add(Object def) {
+                    if (newDefinitions != null)
+                        newDefinitions.add(def);
+                    return super.add(def);
+                }
+            };
+    }
+
     /**
      * Returns the current precision used by this context
      */
@@ -424,15 +494,74 @@ public class SVGGeneratorContext implements ErrorConstants {
      * decimal places controlled by the precision attribute.
      */
     public final String doubleString(double value) {
+        StringBuffer buf = new StringBuffer(16);
+        appendDouble(buf, value);
+        return buf.toString();
+    }
+
+    /**
+     * Appends the input double value to <code>buf</code>, with a number
+     * of decimal places controlled by the precision attribute, as
+     * <code>doubleString</code> does but without creating a string.
+     */
+    public final void appendDouble(StringBuffer buf, double value) {
         double absvalue = Math.abs(value);
         // above 10e7 we do not output decimals as anyway
         // in scientific notation they were not available
-        if (absvalue >= 10e7 || (int)value == value) {
-            return Integer.toString((int)value);
+        if (absvalue >= 10e7 || (long)value == value) {
+            buf.append((long)value);
+            return;
         }
-        // under 10e-3 we have to put decimals
-        else {
-            return decimalFormat.format(value);
+
+        long scale = POW10[precision];
+        if (absvalue * scale >= 1e15) {
+            // Too many digits to be exact in a double.
+            synchronized (decimalFormat) {
+                buf.append(decimalFormat.format(value));
+            }
+            return;
+        }
+
+        long scaled = Math.round(absvalue * scale);
+        if (scaled == 0) {
+            buf.append('0');
+            return;
+        }
+        if (value < 0) {
+            buf.append('-');
+        }
+        buf.append(scaled / scale);
+        appendFraction(buf, scaled % scale, precision);
+    }
+
+    /**
+     * Appends the decimal point and the <code>digits</code> decimal
+     * places of <code>fraction</code>, without the trailing zeros.
+     * Nothing is appended if <code>fraction</code> is 0.
+     */
+    static void appendFraction(StringBuffer buf, long fraction, int digits) {
+        if (fraction == 0) {
+            return;
+        }
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        buf.append('.');
+        for (int i = digits - 1; i >= 0; i--) {
+            buf.append((char)('0' + (fraction / POW10[i]) % 10));
+        }
+    }
+
+    /**
+     * Powers of ten, up to the maximum precision.
+     */
+    static final long[] POW10 = new long[13];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
         }
     }
 
@@ -510,6 +510,70 @@ public class SVGGraphics2D extends AbstractGraphics2D
         }
     }
 
+    /**
+     * Starts writing the SVG content to <code>writer</code> as it is
+     * drawn, so that it does not have to be kept in memory: a group is
+     * written as soon as the graphic context changes enough for the next
+     * element to need a new group, along with the definitions it uses.
+     * <code>endStream</code> must be called once the drawing is done.
+     * The methods that give access to the content, such as
+     * <code>getRoot</code>, should not be used while streaming, and
+     * only one graphics sharing a <code>SVGGeneratorContext</code> can
+     * stream at a time.
+     *
+     * @param writer used to write out the SVG content
+     * @param useCss defines whether the output SVG should use CSS
+     * style properties as opposed to plain attributes.
+     * @param escaped defines if the characters will be escaped
+     */
+    public void startStream(Writer writer, boolean useCss, boolean escaped)
+        throws SVGGraphics2DIOException {
+        Element svgRoot = getDOMFactory().
+            createElementNS(SVG_NAMESPACE_URI, SVG_SVG_TAG);
+        if (svgCanvasSize != null){
+            svgRoot.setAttributeNS(null, SVG_WIDTH_ATTRIBUTE,  String.valueOf( svgCanvasSize.width ) );
+            svgRoot.setAttributeNS(null, SVG_HEIGHT_ATTRIBUTE, String.valueOf( svgCanvasSize.height) );
+        }
+
+        //
+        // Enforce that the default and xlink namespace
+        // declarations appear on the root element
+        //
+        svgRoot.setAttributeNS(XMLNS_NAMESPACE_URI,
+                               XMLNS_PREFIX,
+                               SVG_NAMESPACE_URI);
+
+        svgRoot.setAttributeNS(XMLNS_NAMESPACE_URI,
+                               XMLNS_PREFIX + ":" + XLINK_PREFIX,
+                               XLINK_NAMESPACE_URI);
+
+        try {
+            domTreeManager.startStream(svgRoot, writer, useCss, escaped);
+        } catch (SVGGraphics2DIOException e) {
+            generatorCtx.errorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * @param writer used to write out the SVG content
+     * @see #startStream(Writer, boolean, boolean)
+     */
+    public void startStream(Writer writer) throws SVGGraphics2DIOException {
+        startStream(writer, false, false);
+    }
+
+    /**
+     * Writes the remaining SVG content and ends the document started by
+     * <code>startStream</code>.  The writer is flushed but not closed.
+     */
+    public void endStream() throws SVGGraphics2DIOException {
+        try {
+            domTreeManager.endStream();
+        } catch (SVGGraphics2DIOException e) {
+            generatorCtx.errorHandler.handleError(e);
+        }
+    }
+
     /**
      * Invoking this method will return a set of definition element that
      * contain all the definitions referenced by the attributes generated by
@@ -814,7 +878,7 @@ public class SVGGraphics2D extends AbstractGraphics2D
         if (stroke instanceof BasicStroke) {
             Element svgShape = shapeConverter.toSVG(s);
             if (svgShape != null) {
-                domGroupManager.addElement(svgShape, DOMGroupManager.DRAW);
+                domGroupManager.addShape(s, svgShape, DOMGroupManager.DRAW);
             }
         } else {
             Shape strokedShape = stroke.createStrokedShape(s);
@@ -1379,7 +1443,7 @@ public class SVGGraphics2D extends AbstractGraphics2D
     public void fill(Shape s) {
         Element svgShape = shapeConverter.toSVG(s);
         if (svgShape != null) {
-            domGroupManager.addElement(svgShape, DOMGroupManager.FILL);
+            domGroupManager.addShape(s, svgShape, DOMGroupManager.FILL);
         }
     }
 
@@ -57,15 +57,23 @@ public class SVGLinearGradient extends AbstractSVGConverter {
     }
 
     /**
+     * Converts a GradientPaint.  Gradients that have the same points,
+     * colors and cyclic flag share one linearGradient definition, even
+     * when they are different GradientPaint objects: drawing code often
+     * creates a new paint for each shape, and each used to add its own
+     * identical definition.
+     *
      * @param gradient the GradientPaint to be converted
      * @return a description of the SVG paint and opacity corresponding
      *         to the gradient Paint. The definiton of the
      *         linearGradient is put in the linearGradientDefsMap
      */
     public SVGPaintDescriptor toSVG(GradientPaint gradient) {
-        // Reuse definition if gradient has already been converted
+        // Reuse definition if an equal gradient has already been
+        // converted. GradientPaint does not implement equals.
+        String gradientKey = gradientKey(gradient);
         SVGPaintDescriptor gradientDesc =
-            (SVGPaintDescriptor)descMap.get(gradient);
+            (SVGPaintDescriptor)descMap.get(gradientKey);
 
         Document domFactory = generatorContext.domFactory;
 
@@ -154,10 +162,26 @@ public class SVGLinearGradient extends AbstractSVGConverter {
             //
             // Update maps so that gradient can be reused if needed
             //
-            descMap.put(gradient, gradientDesc);
+            descMap.put(gradientKey, gradientDesc);
             defSet.add(gradientDef);
         }
 
         return gradientDesc;
     }
+
+    /**
+     * Returns a key that is equal for gradients that convert to the
+     * same linearGradient.
+     */
+    private static String gradientKey(GradientPaint gradient) {
+        Point2D p1 = gradient.getPoint1();
+        Point2D p2 = gradient.getPoint2();
+        StringBuffer key = new StringBuffer();
+        key.append(p1.getX()).append(' ').append(p1.getY()).append(' ');
+        key.append(p2.getX()).append(' ').append(p2.getY()).append(' ');
+        key.append(gradient.getColor1().getRGB()).append(' ');
+        key.append(gradient.getColor2().getRGB()).append(' ');
+        key.append(gradient.isCyclic());
+        return key.toString();
+    }
 }
@@ -84,6 +84,14 @@ public class SVGPath extends SVGGraphicObjectConverter {
      */
      public static String toSVGPathData(Shape path, SVGGeneratorContext gc) {
         StringBuffer d = new StringBuffer( 40 );
+        if (gc.isCompactPathDataOn()) {
+            CompactPathData cpd = new CompactPathData(d, gc.getPrecision());
+            if (cpd.write(path.getPathIterator(null))) {
+                return d.toString();
+            }
+            // Some coordinates are too large, use absolute values.
+            d.setLength(0);
+        }
         PathIterator pi = path.getPathIterator(null);
         float[] seg = new float[6];
         int segType = 0;
@@ -137,9 +145,259 @@ public class SVGPath extends SVGGraphicObjectConverter {
      * Appends a coordinate to the path data
      */
     private static void appendPoint(StringBuffer d, float x, float y, SVGGeneratorContext gc) {
-        d.append(gc.doubleString(x));
+        gc.appendDouble(d, x);
         d.append(SPACE);
-        d.append(gc.doubleString(y));
+        gc.appendDouble(d, y);
         d.append(SPACE);
     }
+
+    /**
+     * Writes path data with relative or absolute commands, whichever is
+     * shorter, and with the shorthand commands where possible.  The
+     * coordinates are rounded to the precision before the relative
+     * ones are computed, so that rounding errors do not accumulate.
+     */
+    static class CompactPathData {
+        /**
+         * Coordinates are rounded to multiples of 1/scale, and handled
+         * as longs.  Larger coordinates are not supported.
+         */
+        static final double MAX_SCALED = 1e17;
+
+        final StringBuffer d;
+        final int precision;
+        final long scale;
+
+        /**
+         * The last command written, or 0.
+         */
+        char command;
+
+        /**
+         * The current point, and the start of the current subpath.
+         */
+        long x, y, startX, startY;
+
+        /**
+         * The last control point of the last curve, if any, which the
+         * shorthand commands reflect.
+         */
+        long ctrlX, ctrlY;
+        char lastCurve;
+
+        /**
+         * The absolute and relative arguments of the command to write.
+         */
+        final long[] abs = new long[6];
+        final long[] rel = new long[6];
+
+        CompactPathData(StringBuffer d, int precision) {
+            this.d = d;
+            this.precision = precision;
+            this.scale = SVGGeneratorContext.POW10[precision];
+        }
+
+        /**
+         * Writes the path data of the segments of <code>pi</code>.
+         * @return false if a coordinate is too large.
+         */
+        boolean write(PathIterator pi) {
+            float[] seg = new float[6];
+            while (!pi.isDone()) {
+                int segType = pi.currentSegment(seg);
+                int n;
+                switch(segType) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:
+                    n = 2;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    n = 4;
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    n = 6;
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    n = 0;
+                    break;
+                default:
+                    throw new RuntimeException("invalid segmentType:" + segType );
+                }
+                for (int i = 0; i < n; i++) {
+                    double v = seg[i] * (double)scale;
+                    if (!(Math.abs(v) < MAX_SCALED)) {
+                        return false;
+                    }
+                    abs[i] = Math.round(v);
+                    rel[i] = abs[i] - ((i & 1) == 0 ? x : y);
+                }
+
+                switch(segType) {
+                case PathIterator.SEG_MOVETO:
+                    write('M', 0, 2);
+                    startX = abs[0];
+                    startY = abs[1];
+                    lastCurve = 0;
+                    break;
+                case PathIterator.SEG_LINETO:
+                    if (rel[1] == 0) {
+                        write('H', 0, 1);
+                    } else if (rel[0] == 0) {
+                        write('V', 1, 1);
+                    } else {
+                        write('L', 0, 2);
+                    }
+                    lastCurve = 0;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    if (isReflection('Q')) {
+                        write('T', 2, 2);
+                    } else {
+                        write('Q', 0, 4);
+                    }
+                    setControlPoint('Q');
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    if (isReflection('C')) {
+                        write('S', 2, 4);
+                    } else {
+                        write('C', 0, 6);
+                    }
+                    setControlPoint('C');
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    d.append('z');
+                    command = 'z';
+                    lastCurve = 0;
+                    x = startX;
+                    y = startY;
+                    break;
+                }
+                if (n > 0) {
+                    x = abs[n - 2];
+                    y = abs[n - 1];
+                }
+                pi.next();
+            }
+            return true;
+        }
+
+        /**
+         * Whether the first control point of the curve being written is
+         * the one a shorthand command would use.
+         */
+        boolean isReflection(char curve) {
+            long rx = x;
+            long ry = y;
+            if (lastCurve == curve) {
+                rx = 2 * x - ctrlX;
+                ry = 2 * y - ctrlY;
+            }
+            return abs[0] == rx && abs[1] == ry;
+        }
+
+        /**
+         * Records the last control point of the curve being written.
+         */
+        void setControlPoint(char curve) {
+            int n = curve == 'Q' ? 0 : 2;
+            ctrlX = abs[n];
+            ctrlY = abs[n + 1];
+            lastCurve = curve;
+        }
+
+        /**
+         * Writes the absolute command <code>cmd</code> or its relative
+         * version, with <code>n</code> arguments from <code>off</code>.
+         */
+        void write(char cmd, int off, int n) {
+            char relCmd = Character.toLowerCase(cmd);
+            // The data starts with an absolute moveto, so that it does not
+            // depend on what precedes it.
+            if (command != 0
+                && length(relCmd, rel, off, n) < length(cmd, abs, off, n)) {
+                write(relCmd, rel, off, n);
+            } else {
+                write(cmd, abs, off, n);
+            }
+        }
+
+        /**
+         * Whether the command letter must be written.  It is not when
+         * it repeats the last command, except for moveto which would
+         * then be a lineto.
+         */
+        boolean needsLetter(char cmd) {
+            return cmd != command || cmd == 'M' || cmd == 'm';
+        }
+
+        int length(char cmd, long[] args, int off, int n) {
+            boolean letter = needsLetter(cmd);
+            int len = letter ? 1 : 0;
+            for (int i = off; i < off + n; i++) {
+                if (args[i] >= 0 && (i > off || !letter)) {
+                    len++; // separator
+                }
+                len += numberLength(args[i]);
+            }
+            return len;
+        }
+
+        void write(char cmd, long[] args, int off, int n) {
+            boolean letter = needsLetter(cmd);
+            if (letter) {
+                d.append(cmd);
+            }
+            for (int i = off; i < off + n; i++) {
+                if (args[i] >= 0 && (i > off || !letter)) {
+                    d.append(' ');
+                }
+                appendNumber(args[i]);
+            }
+            command = cmd;
+        }
+
+        /**
+         * Returns the length of a coordinate as written by
+         * <code>appendNumber</code>.
+         */
+        int numberLength(long v) {
+            long a = Math.abs(v);
+            long ip = a / scale;
+            long fp = a % scale;
+            int len = v < 0 ? 1 : 0;
+            if (ip != 0 || fp == 0) {
+                do {
+                    len++;
+                    ip /= 10;
+                } while (ip != 0);
+            }
+            if (fp != 0) {
+                int digits = precision;
+                while (fp % 10 == 0) {
+                    fp /= 10;
+                    digits--;
+                }
+                len += 1 + digits;
+            }
+            return len;
+        }
+
+        /**
+         * Appends a coordinate, without the leading 0 of numbers
+         * between -1 and 1.
+         */
+        void appendNumber(long v) {
+            if (v < 0) {
+                d.append('-');
+            }
+            long a = Math.abs(v);
+            long ip = a / scale;
+            long fp = a % scale;
+            if (ip != 0 || fp == 0) {
+                d.append(ip);
+            }
+            SVGGeneratorContext.appendFraction(d, fp, precision);
+        }
+    }
 }
@@ -46,7 +46,7 @@ import org.w3c.dom.Text;
  */
 class XmlWriter implements SVGConstants {
 
-    private static String EOL;
+    static String EOL;
     private static final String TAG_END = "/>";
     private static final String TAG_START = "</";
 
@@ -418,7 +418,55 @@ class XmlWriter implements SVGConstants {
         }
     }
 
-    private static void writeDocumentHeader(IndentWriter out)
+    /**
+     * Writes the start tag of an element whose children are written
+     * afterwards, one at a time, as done when streaming.
+     */
+    static void writeStartTag(Element element, IndentWriter out,
+                              boolean escaped)
+        throws IOException {
+        out.write (TAG_START, 0, 1);    // "<"
+        out.write (element.getTagName());
+
+        NamedNodeMap attributes = element.getAttributes();
+        if (attributes != null){
+            int nAttr = attributes.getLength();
+            for(int i=0; i<nAttr; i++){
+                Attr attr = (Attr)attributes.item(i);
+                out.write(' ');
+                writeXml(attr, out, escaped);
+            }
+        }
+        out.printIndent ();
+        out.write(TAG_END, 1, 1);   // ">"
+        out.setIndentLevel(out.getIndentLevel()+2);
+    }
+
+    /**
+     * Writes the end tag of an element opened with
+     * <code>writeStartTag</code>, once all its children are written.
+     * @param lastChildWritten whether the last child written was the
+     *        last child of the element when it was written.
+     */
+    static void writeEndTag(Element element, IndentWriter out,
+                            boolean lastChildWritten)
+        throws IOException {
+        if (!lastChildWritten) {
+            // Otherwise done when writing the last child.
+            out.setIndentLevel(out.getIndentLevel()-2);
+        }
+        Node parent = element.getParentNode();
+        boolean lastElem = (parent == null || parent.getLastChild()==element);
+
+        out.write (TAG_START, 0, 2);        // "</"
+        out.write (element.getTagName());
+        if (lastElem)
+            out.setIndentLevel(out.getIndentLevel()-2);
+        out.printIndent ();
+        out.write (TAG_END, 1, 1);  // ">"
+    }
+
+    static void writeDocumentHeader(IndentWriter out)
         throws IOException {
         String  encoding = null;
 
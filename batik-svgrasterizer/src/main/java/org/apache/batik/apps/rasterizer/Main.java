@@ -21,6 +21,7 @@ package org.apache.batik.apps.rasterizer;
 import java.awt.Color;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
+import java.io.OutputStreamWriter;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.List;
@@ -32,6 +33,7 @@ import org.apache.batik.parser.ClockHandler;
 import org.apache.batik.parser.ClockParser;
 import org.apache.batik.parser.ParseException;
 import org.apache.batik.util.ApplicationSecurityEnforcer;
+import org.apache.batik.util.HistogramInstrument;
 
 /**
  * Handles command line parameters to configure the <code>SVGConverter</code>
@@ -510,6 +512,34 @@ public class Main implements SVGConverterController {
     public static String CL_OPTION_SECURITY_OFF_DESCRIPTION
         = Messages.get("Main.cl.option.security.off.description", "No description");
 
+    /**
+     * Option to specify the number of sources converted concurrently.
+     */
+    public static String CL_OPTION_THREADS
+        = Messages.get("Main.cl.option.threads", "-threads");
+
+    public static String CL_OPTION_THREADS_DESCRIPTION
+        = Messages.get("Main.cl.option.threads.description", "No description");
+
+    /**
+     * Option to specify the time allowed for the conversion of
+     * each source.
+     */
+    public static String CL_OPTION_TIMEOUT
+        = Messages.get("Main.cl.option.timeout", "-timeout");
+
+    public static String CL_OPTION_TIMEOUT_DESCRIPTION
+        = Messages.get("Main.cl.option.timeout.description", "No description");
+
+    /**
+     * Option to print where the conversion time was spent.
+     */
+    public static String CL_OPTION_REPORT
+        = Messages.get("Main.cl.option.report", "-report");
+
+    public static String CL_OPTION_REPORT_DESCRIPTION
+        = Messages.get("Main.cl.option.report.description", "No description");
+
     /**
      * Static map containing all the option handlers able to analyze the
      * various options.
@@ -829,6 +859,50 @@ public class Main implements SVGConverterController {
                               return CL_OPTION_SECURITY_OFF_DESCRIPTION;
                           }
                       });
+
+        optionMap.put(CL_OPTION_THREADS,
+                      new FloatOptionHandler(){
+                              public void handleOption(float optionValue,
+                                                       SVGConverter c){
+                                  if (optionValue < 1 ||
+                                      optionValue != (int)optionValue){
+                                      throw new IllegalArgumentException();
+                                  }
+
+                                  c.setThreads((int)optionValue);
+                              }
+
+                              public String getOptionDescription(){
+                                  return CL_OPTION_THREADS_DESCRIPTION;
+                              }
+                          });
+
+        optionMap.put(CL_OPTION_TIMEOUT,
+                      new TimeOptionHandler(){
+                              public void handleOption(float optionValue,
+                                                       SVGConverter c){
+                                  if (optionValue <= 0){
+                                      throw new IllegalArgumentException();
+                                  }
+
+                                  c.setTimeout((long)(optionValue * 1000));
+                              }
+
+                              public String getOptionDescription(){
+                                  return CL_OPTION_TIMEOUT_DESCRIPTION;
+                              }
+                          });
+
+        optionMap.put(CL_OPTION_REPORT,
+                      new NoValueOptionHandler(){
+                          public void handleOption(SVGConverter c){
+                              c.setInstrument(new HistogramInstrument(true));
+                          }
+
+                          public String getOptionDescription(){
+                              return CL_OPTION_REPORT_DESCRIPTION;
+                          }
+                      });
     }
 
     /**
@@ -935,6 +1009,10 @@ public class Main implements SVGConverterController {
 
         try {
             c.execute();
+            if (c.getInstrument() != null) {
+                c.getInstrument().printReport
+                    (new OutputStreamWriter(System.out));
+            }
         } catch(SVGConverterException e){
             error(ERROR_WHILE_CONVERTING_FILES,
                   new Object[] { e.getMessage() });
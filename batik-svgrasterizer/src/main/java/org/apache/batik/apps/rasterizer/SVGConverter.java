@@ -32,13 +32,33 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
-
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.css.engine.StyleSheetCache;
 import org.apache.batik.transcoder.Transcoder;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.image.ImageTranscoder;
 import org.apache.batik.transcoder.image.JPEGTranscoder;
 import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.batik.util.HaltingThread;
+import org.apache.batik.util.HistogramInstrument;
+import org.apache.batik.util.Instrument;
+import org.apache.batik.util.Instrumentation;
 import org.apache.batik.util.ParsedURL;
 
 /**
@@ -90,8 +110,20 @@ import org.apache.batik.util.ParsedURL;
  *     SVG documents.</li>
  * <li>pixelUnitToMillimeter: defines the size of a pixel in millimeters
  *     to use when processing the SVG documents.</li>
+ * <li>threads: the number of sources converted concurrently. Each
+ *     thread uses its own transcoder.</li>
+ * <li>queueSize: the number of sources waiting for a free thread.
+ *     Once it is reached, handing over more sources blocks until a
+ *     thread is available.</li>
+ * <li>timeout: the time after which the conversion of a source
+ *     is halted and reported to the controller as a failure.</li>
  * </ul>
  *
+ * <p>When there are several sources, the shared {@link StyleSheetCache}
+ * is turned on for the duration of <code>execute</code>, if it is not
+ * already, so that the style-sheets the sources have in common are
+ * only parsed once.</p>
+ *
  * @version $Id$
  * @author <a href="mailto:Henri.Ruini@nokia.com">Henri Ruini</a>
  * @author <a href="mailto:vhardy@apache.org">Vincent Hardy</a>
@@ -179,6 +211,13 @@ public class SVGConverter {
     public static final String ERROR_WHILE_RASTERIZING_FILE
         = "SVGConverter.error.while.rasterizing.file";
 
+    //
+    // Reported when the conversion of a source took longer
+    // than the timeout.
+    //
+    public static final String ERROR_TIMEOUT_WHILE_RASTERIZING_FILE
+        = "SVGConverter.error.timeout.while.rasterizing.file";
+
     //
     // Class variables and constants
     //
@@ -280,6 +319,18 @@ public class SVGConverter {
     /** Contents of <code>fileset</code> elements. */
     protected List files = new ArrayList();
 
+    /** Number of sources converted concurrently. */
+    protected int threads = 1;
+
+    /** Number of sources queued for the worker threads. */
+    protected int queueSize = -1;
+
+    /** Time allowed for the conversion of a source, in milliseconds. */
+    protected long timeout = 0;
+
+    /** Instrument receiving the timings of the conversions, or null. */
+    protected HistogramInstrument instrument;
+
     /**
      * Controls some aspects of the converter's operation,
      *  such as whether or not it should proceed in some
@@ -649,6 +700,84 @@ public class SVGConverter {
         return securityOff;
     }
 
+    /**
+     * Sets the number of sources converted concurrently.  With more
+     * than one thread the controller is called from several threads,
+     * one call at a time.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of sources converted concurrently.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of sources that may wait for a free thread.
+     * Once the queue is full <code>execute</code> waits for a thread
+     * to become available.  A negative value uses twice the number of
+     * threads.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Returns the number of sources that may wait for a free thread.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the time allowed for the conversion of each source, in
+     * milliseconds.  A conversion that takes longer is halted and
+     * reported to the controller with
+     * <code>ERROR_TIMEOUT_WHILE_RASTERIZING_FILE</code>, and its
+     * incomplete output file is deleted.  Zero means no limit.  With a
+     * timeout the sources are converted on worker threads, even if
+     * there is only one.
+     */
+    public void setTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the time allowed for the conversion of each source,
+     * in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the instrument that receives the timings of the conversions
+     * run by <code>execute</code>.  It is installed, see {@link
+     * Instrumentation}, for the duration of <code>execute</code>.
+     * Null, the default, leaves the installed instrument alone.
+     */
+    public void setInstrument(HistogramInstrument instrument) {
+        this.instrument = instrument;
+    }
+
+    /**
+     * Returns the instrument that receives the timings of the
+     * conversions, or null.
+     */
+    public HistogramInstrument getInstrument() {
+        return instrument;
+    }
+
     /**
      * Returns true if f is a File. <code>f</code> is found to be a file if
      * it exists and is a file. If it does not exist, it is declared
@@ -706,15 +835,261 @@ public class SVGConverter {
             return;
         }
 
-        // Convert files one by one
-        for(int i = 0 ; i < sources.size() ; i++) {
-            // Get the file from the vector.
-            SVGConverterSource currentFile
-                = (SVGConverterSource)sources.get(i);
-            File outputFile  = (File)dstFiles.get(i);
+        Instrument previous = Instrumentation.getInstrument();
+        if (instrument != null) {
+            Instrumentation.setInstrument(instrument);
+        }
+        // Share the style-sheets across the batch.
+        StyleSheetCache styleSheetCache = null;
+        if (sources.size() > 1 && StyleSheetCache.getSharedCache() == null) {
+            styleSheetCache = new StyleSheetCache();
+            StyleSheetCache.setSharedCache(styleSheetCache);
+        }
+        try {
+            // Only a worker thread can be halted when the time is up.
+            if (threads > 1 || timeout > 0) {
+                executeConcurrently(sources, dstFiles, hints);
+                return;
+            }
+
+            // Convert files one by one
+            for(int i = 0 ; i < sources.size() ; i++) {
+                // Get the file from the vector.
+                SVGConverterSource currentFile
+                    = (SVGConverterSource)sources.get(i);
+                File outputFile  = (File)dstFiles.get(i);
+
+                createOutputDir(outputFile);
+                transcode(currentFile, outputFile, transcoder);
+            }
+        } finally {
+            if (instrument != null) {
+                Instrumentation.setInstrument(previous);
+            }
+            if (styleSheetCache != null &&
+                StyleSheetCache.getSharedCache() == styleSheetCache) {
+                StyleSheetCache.setSharedCache(null);
+            }
+        }
+    }
+
+    /**
+     * Converts the sources on a pool of <code>threads</code> worker
+     * threads.  Each worker keeps its own transcoder, set up with the
+     * same hints, for all the sources it converts.  If the controller
+     * asks to stop, the sources that have not started yet are
+     * dropped and the exception is rethrown once running conversions
+     * have finished.
+     */
+    protected void executeConcurrently(List sources,
+                                       List dstFiles,
+                                       final Map hints)
+        throws SVGConverterException {
+        int qs = queueSize < 0 ? 2 * threads : queueSize;
+        // Every source is converted on a worker, so that it can be
+        // halted.  The permits bound the sources queued or running.
+        Semaphore slots = new Semaphore(threads + qs);
+        final List workers = Collections.synchronizedList(new ArrayList());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor
+            (threads, threads, 0L, TimeUnit.MILLISECONDS,
+             new LinkedBlockingQueue(),
+             new ThreadFactory() {
+                 public Thread newThread(Runnable r) {
+                     Thread t = new HaltingThread(r, "SVGConverter worker");
+                     t.setDaemon(true);
+                     workers.add(t);
+                     return t;
+                 }
+             });
+        ScheduledExecutorService watchdog = null;
+        if (timeout > 0) {
+            watchdog = Executors.newSingleThreadScheduledExecutor();
+        }
+
+        final ThreadLocal transcoders = new ThreadLocal() {
+                protected Object initialValue() {
+                    Transcoder t = destinationType.getTranscoder();
+                    t.setTranscodingHints(hints);
+                    return t;
+                }
+            };
+
+        SVGConverterController userController = controller;
+        controller = new SynchronizedController(userController);
+        List futures = new LinkedList();
+        boolean completed = false;
+        try {
+            for (int i = 0; i < sources.size() && !pool.isShutdown(); i++) {
+                SVGConverterSource currentFile
+                    = (SVGConverterSource)sources.get(i);
+                File outputFile  = (File)dstFiles.get(i);
+
+                createOutputDir(outputFile);
+                try {
+                    slots.acquire();
+                } catch (InterruptedException ie) {
+                    pool.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (pool.isShutdown()) {
+                    break;
+                }
+                futures.add(pool.submit(new Job(currentFile, outputFile,
+                                                transcoders, watchdog,
+                                                slots)));
+                checkFailures(futures, pool);
+            }
+            for (Object f : futures) {
+                waitFor((Future)f, pool);
+            }
+            completed = !pool.isShutdown();
+        } finally {
+            pool.shutdownNow();
+            if (!completed) {
+                // Stop the conversions still running.
+                synchronized (workers) {
+                    for (Object t : workers) {
+                        HaltingThread.haltThread((Thread)t);
+                    }
+                }
+            }
+            if (watchdog != null) {
+                watchdog.shutdownNow();
+            }
+            controller = userController;
+        }
+    }
+
+    /**
+     * Forgets the jobs that are done, rethrowing their failure if any.
+     */
+    private void checkFailures(List futures, ThreadPoolExecutor pool)
+        throws SVGConverterException {
+        Iterator i = futures.iterator();
+        while (i.hasNext()) {
+            Future f = (Future)i.next();
+            if (f.isDone()) {
+                i.remove();
+                waitFor(f, pool);
+            }
+        }
+    }
+
+    /**
+     * Waits for <code>f</code> to complete.  If the job asked to stop
+     * the conversion the pending jobs are cancelled and the job's
+     * exception is rethrown.
+     */
+    private void waitFor(Future f, ThreadPoolExecutor pool)
+        throws SVGConverterException {
+        try {
+            f.get();
+        } catch (InterruptedException ie) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        } catch (CancellationException ce) {
+            // Dropped after an earlier failure.
+        } catch (ExecutionException ee) {
+            pool.shutdown();
+            pool.getQueue().clear();
+            Throwable t = ee.getCause();
+            if (t instanceof SVGConverterException)
+                throw (SVGConverterException)t;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            if (t instanceof Error)
+                throw (Error)t;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * The conversion of one source on a worker thread.
+     */
+    protected class Job implements Callable {
+        protected SVGConverterSource inputFile;
+        protected File outputFile;
+        protected ThreadLocal transcoders;
+        protected ScheduledExecutorService watchdog;
+        protected Semaphore slots;
+        protected boolean finished;
+
+        public Job(SVGConverterSource inputFile, File outputFile,
+                   ThreadLocal transcoders,
+                   ScheduledExecutorService watchdog,
+                   Semaphore slots) {
+            this.inputFile   = inputFile;
+            this.outputFile  = outputFile;
+            this.transcoders = transcoders;
+            this.watchdog    = watchdog;
+            this.slots       = slots;
+        }
+
+        public Object call() throws SVGConverterException {
+            final Thread thread = Thread.currentThread();
+            ScheduledFuture timer = null;
+            if (watchdog != null) {
+                timer = watchdog.schedule(new Runnable() {
+                        public void run() {
+                            synchronized (Job.this) {
+                                if (!finished)
+                                    HaltingThread.haltThread(thread);
+                            }
+                        }
+                    }, timeout, TimeUnit.MILLISECONDS);
+            }
+            try {
+                transcode(inputFile, outputFile,
+                          (Transcoder)transcoders.get());
+            } finally {
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                synchronized (this) {
+                    finished = true;
+                }
+                // Make sure the halt doesn't leak in the next job.
+                if (thread instanceof HaltingThread) {
+                    ((HaltingThread)thread).clearHalted();
+                }
+                slots.release();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Serializes the calls to a controller made from worker threads.
+     */
+    protected static class SynchronizedController
+        implements SVGConverterController {
+        protected SVGConverterController controller;
+
+        public SynchronizedController(SVGConverterController controller) {
+            this.controller = controller;
+        }
+
+        public synchronized boolean proceedWithComputedTask
+            (Transcoder transcoder, Map hints, List sources, List dest) {
+            return controller.proceedWithComputedTask
+                (transcoder, hints, sources, dest);
+        }
 
-            createOutputDir(outputFile);
-            transcode(currentFile, outputFile, transcoder);
+        public synchronized boolean proceedWithSourceTranscoding
+            (SVGConverterSource source, File dest) {
+            return controller.proceedWithSourceTranscoding(source, dest);
+        }
+
+        public synchronized boolean proceedOnSourceTranscodingFailure
+            (SVGConverterSource source, File dest, String errorCode) {
+            return controller.proceedOnSourceTranscodingFailure
+                (source, dest, errorCode);
+        }
+
+        public synchronized void onSourceTranscodingSuccess
+            (SVGConverterSource source, File dest) {
+            controller.onSourceTranscodingSuccess(source, dest);
         }
     }
 
@@ -1002,24 +1377,50 @@ public class SVGConverter {
             transcoder.transcode(input, output);
             success = true;
         } catch(Exception te) {
-            te.printStackTrace();
+            if (!HaltingThread.hasBeenHalted()) {
+                te.printStackTrace();
+            }
             try {
                 outputStream.flush();
                 outputStream.close();
             } catch(IOException ioe) {}
+            if (HaltingThread.hasBeenHalted()) {
+                // Don't leave an incomplete image behind.
+                outputFile.delete();
+            }
 
             // Report error to the controller. If controller decides
             // to stop, throw an exception
+            String errorCode = HaltingThread.hasBeenHalted()
+                ? ERROR_TIMEOUT_WHILE_RASTERIZING_FILE
+                : ERROR_WHILE_RASTERIZING_FILE;
             boolean proceed = controller.proceedOnSourceTranscodingFailure
-                (inputFile, outputFile, ERROR_WHILE_RASTERIZING_FILE);
+                (inputFile, outputFile, errorCode);
 
             if (!proceed){
-                throw new SVGConverterException(ERROR_WHILE_RASTERIZING_FILE,
+                throw new SVGConverterException(errorCode,
                                                  new Object[] {outputFile.getName(),
                                                                te.getMessage()});
             }
         }
 
+        // A halted rendering completes normally but is incomplete.
+        if (success && HaltingThread.hasBeenHalted()) {
+            success = false;
+            try {
+                outputStream.close();
+            } catch(IOException ioe) {}
+            outputFile.delete();
+            boolean proceed = controller.proceedOnSourceTranscodingFailure
+                (inputFile, outputFile, ERROR_TIMEOUT_WHILE_RASTERIZING_FILE);
+
+            if (!proceed){
+                throw new SVGConverterException
+                    (ERROR_TIMEOUT_WHILE_RASTERIZING_FILE,
+                     new Object[] {outputFile.getName(), null});
+            }
+        }
+
         // Close streams and clean up.
         try {
             outputStream.flush();
@@ -49,6 +49,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.JComponent;
 
@@ -61,6 +62,7 @@ import org.apache.batik.gvt.event.SelectionEvent;
 import org.apache.batik.gvt.renderer.ConcreteImageRendererFactory;
 import org.apache.batik.gvt.renderer.ImageRenderer;
 import org.apache.batik.gvt.renderer.ImageRendererFactory;
+import org.apache.batik.gvt.renderer.StaticRenderer;
 import org.apache.batik.util.HaltingThread;
 import org.apache.batik.util.Platform;
 
@@ -174,6 +176,12 @@ public class JGVTComponent extends JComponent {
      */
     protected boolean doubleBufferedRendering;
 
+    /**
+     * The executor the renderer paints tiles on, null to paint on the
+     * rendering thread.
+     */
+    protected ExecutorService tileExecutor;
+
     /**
      * Whether the GVT tree should be reactive to mouse and key events.
      */
@@ -666,6 +674,29 @@ public class JGVTComponent extends JComponent {
         return doubleBufferedRendering;
     }
 
+    /**
+     * Sets the executor used to paint the tiles of the offscreen
+     * buffer, and the areas damaged by dynamic updates, concurrently.
+     * The change will be effective during the next rendering.  The
+     * caller remains responsible for shutting the executor down.
+     * Interrupting a rendering only stops the tiles in progress if the
+     * executor threads are {@link HaltingThread}s,
+     * as those of {@link StaticRenderer#createTileExecutor} are.
+     *
+     * @param executor the executor to use, or null to paint on the
+     *        rendering thread.
+     */
+    public void setTileExecutor(ExecutorService executor) {
+        tileExecutor = executor;
+    }
+
+    /**
+     * Returns the executor used to paint tiles concurrently, or null.
+     */
+    public ExecutorService getTileExecutor() {
+        return tileExecutor;
+    }
+
     /**
      * Adds a GVTTreeRendererListener to this component.
      */
@@ -717,6 +748,9 @@ public class JGVTComponent extends JComponent {
             renderer = createImageRenderer();
             renderer.setTree(gvtRoot);
         }
+        if (renderer instanceof StaticRenderer) {
+            ((StaticRenderer)renderer).setTileExecutor(tileExecutor);
+        }
 
         // Area of interest computation.
         AffineTransform inv;
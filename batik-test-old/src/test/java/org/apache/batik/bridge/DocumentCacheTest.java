@@ -0,0 +1,195 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+
+/**
+ * Checks the {@link DocumentCache}: a document requested twice is
+ * parsed once, documents are evicted to stay within the byte budget,
+ * and a document whose file has changed is parsed again.
+ *
+ * @version $Id$
+ */
+public class DocumentCacheTest extends AbstractTest {
+
+    /**
+     * A document is not the expected one.
+     */
+    public static final String ERROR_WRONG_DOCUMENT
+        = "DocumentCacheTest.error.wrong.document";
+
+    /**
+     * The cache counters are not the expected ones.
+     */
+    public static final String ERROR_WRONG_COUNTS
+        = "DocumentCacheTest.error.wrong.counts";
+
+    protected SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory
+        (XMLResourceDescriptor.getXMLParserClassName());
+
+    public TestReport runImpl() throws Exception {
+        File a = File.createTempFile("DocumentCacheTest", ".svg");
+        File b = File.createTempFile("DocumentCacheTest", ".svg");
+        try {
+            write(a, "a", 1);
+            write(b, "b", 1);
+            String ua = a.toURI().toString();
+            String ub = b.toURI().toString();
+
+            // A hit returns a copy of the cached document.
+            DocumentCache cache = new DocumentCache();
+            Document d1 = cache.getDocument(ua, factory, null);
+            Document d2 = cache.getDocument(ua, factory, null);
+            TestReport r = checkDocument("hit", d2, "a");
+            if (r != null) return r;
+            if (d1 == d2) {
+                return report(ERROR_WRONG_DOCUMENT, "hit", "same instance");
+            }
+            r = checkCounts("hit", cache, 1, 1, 0, 1);
+            if (r != null) return r;
+
+            // With room for one document only, loading another one
+            // evicts the first.
+            long size = cache.getSize();
+            cache = new DocumentCache(size + size / 2, 0);
+            cache.getDocument(ua, factory, null);
+            cache.getDocument(ub, factory, null);
+            r = checkCounts("eviction", cache, 0, 2, 1, 1);
+            if (r != null) return r;
+            r = checkDocument("eviction", cache.getDocument(ub, factory, null),
+                              "b");
+            if (r != null) return r;
+            r = checkDocument("eviction", cache.getDocument(ua, factory, null),
+                              "a");
+            if (r != null) return r;
+            r = checkCounts("eviction", cache, 1, 3, 2, 1);
+            if (r != null) return r;
+
+            // A document larger than the budget is not kept.
+            cache.setBudget(size - 1);
+            r = checkCounts("budget", cache, 1, 3, 3, 0);
+            if (r != null) return r;
+
+            // A changed file is parsed again.
+            cache = new DocumentCache();
+            cache.getDocument(ua, factory, null);
+            long modified = a.lastModified();
+            write(a, "c", 2);
+            a.setLastModified(modified + 2000);
+            r = checkDocument("change", cache.getDocument(ua, factory, null),
+                              "c");
+            if (r != null) return r;
+            r = checkCounts("change", cache, 0, 2, 1, 1);
+            if (r != null) return r;
+            r = checkDocument("change", cache.getDocument(ua, factory, null),
+                              "c");
+            if (r != null) return r;
+            r = checkCounts("change", cache, 1, 2, 1, 1);
+            if (r != null) return r;
+        } finally {
+            a.delete();
+            b.delete();
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Writes a document whose root element has the given id and the
+     * given number of children.
+     */
+    protected void write(File f, String id, int children) throws Exception {
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        try {
+            w.write("<svg xmlns='http://www.w3.org/2000/svg' id='" + id +
+                    "' width='10' height='10'>");
+            for (int i = 0; i < children; i++) {
+                w.write("<rect width='5' height='5'/>");
+            }
+            w.write("</svg>");
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Checks the id of the root element of a document.
+     */
+    protected TestReport checkDocument(String step, Document d, String id) {
+        String actual = d.getDocumentElement().getAttribute("id");
+        if (id.equals(actual)) {
+            return null;
+        }
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_DOCUMENT);
+        report.addDescriptionEntry("step", step);
+        report.addDescriptionEntry("expected", id);
+        report.addDescriptionEntry("actual", actual);
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Checks the counters and the number of documents of a cache.
+     */
+    protected TestReport checkCounts(String step, DocumentCache cache,
+                                     long hits, long misses,
+                                     long evictions, int count) {
+        if (cache.getHitCount() == hits && cache.getMissCount() == misses &&
+            cache.getEvictionCount() == evictions &&
+            cache.getDocumentCount() == count) {
+            return null;
+        }
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_COUNTS);
+        report.addDescriptionEntry("step", step);
+        report.addDescriptionEntry
+            ("expected", "hits " + hits + ", misses " + misses +
+             ", evictions " + evictions + ", documents " + count);
+        report.addDescriptionEntry
+            ("actual", "hits " + cache.getHitCount() +
+             ", misses " + cache.getMissCount() +
+             ", evictions " + cache.getEvictionCount() +
+             ", documents " + cache.getDocumentCount());
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Returns a failed report.
+     */
+    protected TestReport report(String code, String key, String value) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(key, value);
+        report.setPassed(false);
+        return report;
+    }
+}
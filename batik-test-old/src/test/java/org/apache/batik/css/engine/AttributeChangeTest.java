@@ -0,0 +1,220 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.anim.dom.SVGOMDocument;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.css.engine.value.Value;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that the styles are updated after a dynamic change of an
+ * attribute tested by a selector.  Depending on the selector, the
+ * attribute is tested on the element itself, on an ancestor of the
+ * styled element or on a preceding sibling of it, and the engine only
+ * restyles the elements that can be affected.
+ *
+ * <p>Each test changes one attribute of the test document, then checks
+ * the computed fill of every rect, and that the elements which can't
+ * be affected were not restyled.  The attribute is then restored and
+ * the fills checked again.
+ *
+ * @version $Id$
+ */
+public class AttributeChangeTest extends AbstractTest {
+
+    /**
+     * A computed fill is not the expected one.
+     */
+    public static final String ERROR_WRONG_FILL
+        = "AttributeChangeTest.error.wrong.fill";
+
+    /**
+     * An element that the change can't affect was restyled.
+     */
+    public static final String ERROR_UNEXPECTED_UPDATE
+        = "AttributeChangeTest.error.unexpected.update";
+
+    /**
+     * The test document.  The rects are black unless a rule matches.
+     */
+    public static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>\n" +
+        "  <style type='text/css'>\n" +
+        "    rect[foo] { fill: lime }\n" +
+        "    .s + rect { fill: red }\n" +
+        "    g[title=d] rect { fill: blue }\n" +
+        "    g.i { fill: yellow }\n" +
+        "  </style>\n" +
+        "  <rect id='r1' width='1' height='1'/>\n" +
+        "  <rect id='r2' width='1' height='1'/>\n" +
+        "  <rect id='r3' width='1' height='1'/>\n" +
+        "  <g id='g1'>\n" +
+        "    <rect id='r4' width='1' height='1'/>\n" +
+        "    <g><rect id='r5' width='1' height='1'/></g>\n" +
+        "  </g>\n" +
+        "  <g id='g2'>\n" +
+        "    <rect id='r6' width='1' height='1'/>\n" +
+        "    <rect id='r7' width='1' height='1' style='fill: gray'/>\n" +
+        "  </g>\n" +
+        "</svg>\n";
+
+    /**
+     * The ids of the rects of the test document.
+     */
+    protected static final String[] RECTS = {
+        "r1", "r2", "r3", "r4", "r5", "r6", "r7"
+    };
+
+    protected String elementId;
+    protected String attribute;
+    protected String value;
+    protected String expected;
+    protected String unchanged;
+
+    /**
+     * @param elementId The id of the element to change.
+     * @param attribute The attribute to set.
+     * @param value Its new value.
+     * @param expected The fills of the rects after the change, as
+     *        space separated "id=color" entries.  The other rects are
+     *        black, except r7 which is always gray.
+     * @param unchanged The space separated ids of the elements that
+     *        must not be restyled.
+     */
+    public AttributeChangeTest(String elementId, String attribute,
+                               String value, String expected,
+                               String unchanged) {
+        this.elementId = elementId;
+        this.attribute = attribute;
+        this.value     = value;
+        this.expected  = expected;
+        this.unchanged = unchanged;
+    }
+
+    public TestReport runImpl() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("http://xml.apache.org/batik/test",
+                                        new StringReader(DOCUMENT));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        new GVTBuilder().build(ctx, doc);
+        try {
+            CSSEngine eng = ((SVGOMDocument)doc).getCSSEngine();
+            final Set updated = new HashSet();
+            eng.addCSSEngineListener(new CSSEngineListener() {
+                    public void propertiesChanged(CSSEngineEvent evt) {
+                        updated.add(evt.getElement().getAttributeNS
+                                    (null, "id"));
+                    }
+                });
+
+            TestReport report = checkFills(eng, doc, "");
+            if (report != null) return report;
+
+            Element e = doc.getElementById(elementId);
+            e.setAttributeNS(null, attribute, value);
+            report = checkFills(eng, doc, expected);
+            if (report != null) return report;
+
+            StringTokenizer st = new StringTokenizer(unchanged);
+            while (st.hasMoreTokens()) {
+                String id = st.nextToken();
+                if (updated.contains(id)) {
+                    DefaultTestReport r = new DefaultTestReport(this);
+                    r.setErrorCode(ERROR_UNEXPECTED_UPDATE);
+                    r.addDescriptionEntry("element", id);
+                    r.setPassed(false);
+                    return r;
+                }
+            }
+
+            e.removeAttributeNS(null, attribute);
+            report = checkFills(eng, doc, "");
+            if (report != null) return report;
+        } finally {
+            ctx.dispose();
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Checks the computed fill of every rect.
+     * @param fills The fills that are not the default ones, as space
+     *        separated "id=color" entries.
+     * @return null if all the fills are the expected ones.
+     */
+    protected TestReport checkFills(CSSEngine eng, Document doc,
+                                    String fills) {
+        for (int i = 0; i < RECTS.length; i++) {
+            String exp = "r7".equals(RECTS[i]) ? "gray" : "black";
+            StringTokenizer st = new StringTokenizer(fills);
+            while (st.hasMoreTokens()) {
+                String t = st.nextToken();
+                int eq = t.indexOf('=');
+                if (t.substring(0, eq).equals(RECTS[i])) {
+                    exp = t.substring(eq + 1);
+                }
+            }
+            CSSStylableElement elt
+                = (CSSStylableElement)doc.getElementById(RECTS[i]);
+            Value v = eng.getComputedStyle(elt, null,
+                                           SVGCSSEngine.FILL_INDEX);
+            String actual = v.getCssText();
+            if (!colorText(exp).equals(actual)) {
+                DefaultTestReport r = new DefaultTestReport(this);
+                r.setErrorCode(ERROR_WRONG_FILL);
+                r.addDescriptionEntry("element", RECTS[i]);
+                r.addDescriptionEntry("expected", colorText(exp));
+                r.addDescriptionEntry("actual", actual);
+                r.setPassed(false);
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the text of the computed value of the given color.
+     */
+    protected static String colorText(String color) {
+        if ("black".equals(color))  return "rgb(0, 0, 0)";
+        if ("gray".equals(color))   return "rgb(128, 128, 128)";
+        if ("red".equals(color))    return "rgb(255, 0, 0)";
+        if ("lime".equals(color))   return "rgb(0, 255, 0)";
+        if ("blue".equals(color))   return "rgb(0, 0, 255)";
+        if ("yellow".equals(color)) return "rgb(255, 255, 0)";
+        throw new IllegalArgumentException(color);
+    }
+}
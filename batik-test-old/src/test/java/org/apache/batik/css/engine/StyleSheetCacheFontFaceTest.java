@@ -0,0 +1,143 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.anim.dom.SVGOMDocument;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.CSSConstants;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+
+/**
+ * Checks that the <code>@font-face</code> rules of a style-sheet are
+ * kept when the style-sheet comes from the {@link StyleSheetCache}:
+ * the same document is loaded twice with the cache on, and both
+ * engines must report the font faces of the style-sheet.
+ *
+ * @version $Id$
+ */
+public class StyleSheetCacheFontFaceTest extends AbstractTest {
+
+    /**
+     * A style-sheet was not taken from the cache the second time.
+     */
+    public static final String ERROR_NOT_CACHED
+        = "StyleSheetCacheFontFaceTest.error.not.cached";
+
+    /**
+     * An engine does not report the expected font faces.
+     */
+    public static final String ERROR_WRONG_FONT_FACES
+        = "StyleSheetCacheFontFaceTest.error.wrong.font.faces";
+
+    /**
+     * The test document.
+     */
+    public static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>\n" +
+        "  <style type='text/css'>\n" +
+        "    @font-face { font-family: 'First'; src: url(first.svg#f) }\n" +
+        "    rect { fill: blue }\n" +
+        "    @font-face { font-family: 'Second'; src: url(second.svg#f) }\n" +
+        "  </style>\n" +
+        "  <rect width='10' height='10'/>\n" +
+        "</svg>\n";
+
+    /**
+     * The font families of the document, in order.
+     */
+    protected static final String[] FAMILIES = { "First", "Second" };
+
+    public TestReport runImpl() throws Exception {
+        StyleSheetCache old = StyleSheetCache.getSharedCache();
+        StyleSheetCache cache = new StyleSheetCache();
+        StyleSheetCache.setSharedCache(cache);
+        try {
+            TestReport report = checkFontFaces(0);
+            if (report != null) return report;
+            long misses = cache.getMissCount();
+            report = checkFontFaces(1);
+            if (report != null) return report;
+            if (cache.getMissCount() != misses) {
+                DefaultTestReport r = new DefaultTestReport(this);
+                r.setErrorCode(ERROR_NOT_CACHED);
+                r.addDescriptionEntry
+                    ("misses", String.valueOf(cache.getMissCount() - misses));
+                r.setPassed(false);
+                return r;
+            }
+        } finally {
+            StyleSheetCache.setSharedCache(old);
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Loads the test document and checks the font faces of its engine.
+     * @return null if they are the expected ones.
+     */
+    protected TestReport checkFontFaces(int pass) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("http://xml.apache.org/batik/test",
+                                        new StringReader(DOCUMENT));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        try {
+            new GVTBuilder().build(ctx, doc);
+            CSSEngine eng = ((SVGOMDocument)doc).getCSSEngine();
+            int idx = eng.getPropertyIndex
+                (CSSConstants.CSS_FONT_FAMILY_PROPERTY);
+            List faces = eng.getFontFaces();
+            StringBuffer actual = new StringBuffer();
+            for (int i = 0; i < faces.size(); i++) {
+                FontFaceRule r = (FontFaceRule)faces.get(i);
+                if (i > 0) actual.append(", ");
+                actual.append(r.getStyleMap().getValue(idx).item(0)
+                              .getStringValue());
+            }
+            StringBuffer expected = new StringBuffer();
+            for (int i = 0; i < FAMILIES.length; i++) {
+                if (i > 0) expected.append(", ");
+                expected.append(FAMILIES[i]);
+            }
+            if (!expected.toString().equals(actual.toString())) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_WRONG_FONT_FACES);
+                report.addDescriptionEntry("pass", String.valueOf(pass));
+                report.addDescriptionEntry("expected", expected.toString());
+                report.addDescriptionEntry("actual", actual.toString());
+                report.setPassed(false);
+                return report;
+            }
+        } finally {
+            ctx.dispose();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.dom;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.anim.dom.SVGDOMImplementation;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+import org.w3c.dom.events.MutationEvent;
+
+/**
+ * Checks the attributes of elements kept in a compact form, as created
+ * by <code>SAXDocumentFactory.setCompactAttributes</code>: reading,
+ * setting and removing attributes, the default values of removed
+ * attributes, the mutation events, the identity of the nodes returned by
+ * <code>item()</code>, and the attributes of cloned and imported
+ * elements.
+ *
+ * @version $Id$
+ */
+public class CompactAttributesTest extends AbstractTest {
+
+    /**
+     * The attributes of an element are not in a compact form.
+     */
+    public static final String ERROR_NOT_COMPACT
+        = "CompactAttributesTest.error.not.compact";
+
+    /**
+     * An attribute does not have the expected value.
+     */
+    public static final String ERROR_WRONG_VALUE
+        = "CompactAttributesTest.error.wrong.value";
+
+    /**
+     * An element does not have the expected number of attributes.
+     */
+    public static final String ERROR_WRONG_LENGTH
+        = "CompactAttributesTest.error.wrong.length";
+
+    /**
+     * Two calls return different nodes for the same attribute.
+     */
+    public static final String ERROR_DIFFERENT_NODE
+        = "CompactAttributesTest.error.different.node";
+
+    /**
+     * The wrong mutation events were fired.
+     */
+    public static final String ERROR_WRONG_EVENTS
+        = "CompactAttributesTest.error.wrong.events";
+
+    public static final String XLINK = SVGConstants.XLINK_NAMESPACE_URI;
+
+    /**
+     * The test document.
+     */
+    public static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg'\n" +
+        "     xmlns:xlink='http://www.w3.org/1999/xlink'\n" +
+        "     width='100' height='100'>\n" +
+        "  <svg id='inner' x='1' width='10' height='10'/>\n" +
+        "  <a id='link' xlink:href='#inner' class='c'/>\n" +
+        "</svg>\n";
+
+    /**
+     * The DOMAttrModified events received, as strings.
+     */
+    protected List events = new ArrayList();
+
+    protected EventListener listener = new EventListener() {
+            public void handleEvent(Event evt) {
+                MutationEvent e = (MutationEvent)evt;
+                String type;
+                switch (e.getAttrChange()) {
+                case MutationEvent.ADDITION:     type = "addition";     break;
+                case MutationEvent.REMOVAL:      type = "removal";      break;
+                default:                         type = "modification";
+                }
+                events.add(type + " " + e.getAttrName() + " "
+                           + e.getPrevValue() + " -> " + e.getNewValue());
+            }
+        };
+
+    public TestReport runImpl() throws Exception {
+        Document doc = parse();
+        Element inner = doc.getElementById("inner");
+        Element link = doc.getElementById("link");
+        ((AbstractDocument)doc).setEventsEnabled(true);
+
+        if (!(inner.getAttributes()
+              instanceof AbstractElement.CompactNamedNodeMap) ||
+            !(link.getAttributes()
+              instanceof AbstractElement.CompactNamedNodeMap)) {
+            return report(ERROR_NOT_COMPACT, "class",
+                          link.getAttributes().getClass().getName());
+        }
+
+        // getAttribute and getAttributeNS
+        TestReport r;
+        if ((r = checkValue("getAttribute(x)",
+                            inner.getAttribute("x"), "1")) != null ||
+            (r = checkValue("getAttributeNS(null, x)",
+                            inner.getAttributeNS(null, "x"), "1")) != null ||
+            (r = checkValue("getAttributeNS(\"\", x)",
+                            inner.getAttributeNS("", "x"), "1")) != null ||
+            (r = checkValue("getAttribute(y)",
+                            inner.getAttribute("y"), "")) != null ||
+            (r = checkValue("getAttributeNS(xlink, href)",
+                            link.getAttributeNS(XLINK, "href"),
+                            "#inner")) != null ||
+            (r = checkValue("getAttributeNS(null, href)",
+                            link.getAttributeNS(null, "href"), "")) != null ||
+            (r = checkValue("hasAttributeNS(xlink, href)",
+                            String.valueOf
+                            (link.hasAttributeNS(XLINK, "href")),
+                            "true")) != null) {
+            return r;
+        }
+
+        // item() returns the same node on every call, and the node
+        // returned by getAttributeNodeNS
+        NamedNodeMap map = link.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            if (map.item(i) != map.item(i) ||
+                map.item(i) != link.getAttributes().item(i)) {
+                return report(ERROR_DIFFERENT_NODE, "item",
+                              String.valueOf(i));
+            }
+        }
+        Attr href = link.getAttributeNodeNS(XLINK, "href");
+        if (href != map.getNamedItemNS(XLINK, "href")) {
+            return report(ERROR_DIFFERENT_NODE, "item", "xlink:href");
+        }
+
+        // setAttributeNS on an existing prefixed attribute changes its
+        // value and prefix, and fires a single modification event
+        Element other = (Element)inner.getParentNode()
+            .insertBefore(doc.createElementNS(SVGConstants.SVG_NAMESPACE_URI,
+                                              "a"), link);
+        other.setAttributeNS(XLINK, "xlink:href", "#inner");
+        int n = other.getAttributes().getLength();
+        ((EventTarget)other).addEventListener("DOMAttrModified", listener,
+                                              false);
+        other.setAttributeNS(XLINK, "xlink:href", "#link");
+        if ((r = checkEvents("setAttributeNS(xlink:href)",
+                             "modification xlink:href #inner -> #link")) != null ||
+            (r = checkValue("getAttributeNS(xlink, href)",
+                            other.getAttributeNS(XLINK, "href"),
+                            "#link")) != null ||
+            (r = checkLength(other, n)) != null) {
+            return r;
+        }
+        other.setAttributeNS(XLINK, "l:href", "#inner");
+        Attr a = other.getAttributeNodeNS(XLINK, "href");
+        if ((r = checkEvents("setAttributeNS(l:href)",
+                             "modification l:href #link -> #inner")) != null ||
+            (r = checkValue("getAttributeNS(xlink, href)",
+                            other.getAttributeNS(XLINK, "href"),
+                            "#inner")) != null ||
+            (r = checkValue("getAttributeNodeNS(xlink, href).getName()",
+                            a.getName(), "l:href")) != null ||
+            (r = checkLength(other, n)) != null) {
+            return r;
+        }
+        other.setAttribute("class", "d");
+        if ((r = checkEvents("setAttribute(class)",
+                             "addition class  -> d")) != null) {
+            return r;
+        }
+        other.setAttribute("class", "e");
+        if ((r = checkEvents("setAttribute(class)",
+                             "modification class d -> e")) != null) {
+            return r;
+        }
+
+        // The same on an attribute which has no node yet
+        ((EventTarget)link).addEventListener("DOMAttrModified", listener,
+                                             false);
+        link.setAttribute("class", "d");
+        if ((r = checkEvents("setAttribute(class)",
+                             "modification class c -> d")) != null ||
+            (r = checkValue("getAttribute(class)",
+                            link.getAttribute("class"), "d")) != null) {
+            return r;
+        }
+
+        // removeAttributeNS removes the attribute, or resets it to its
+        // default value
+        n = inner.getAttributes().getLength();
+        ((EventTarget)inner).addEventListener("DOMAttrModified", listener,
+                                              false);
+        inner.removeAttributeNS(null, "x");
+        if ((r = checkEvents("removeAttributeNS(null, x)",
+                             "removal x 1 -> ")) != null ||
+            (r = checkValue("hasAttributeNS(null, x)",
+                            String.valueOf(inner.hasAttributeNS(null, "x")),
+                            "false")) != null ||
+            (r = checkValue("getAttribute(x)",
+                            inner.getAttribute("x"), "")) != null ||
+            (r = checkLength(inner, n - 1)) != null) {
+            return r;
+        }
+        String par = SVGConstants.SVG_PRESERVE_ASPECT_RATIO_ATTRIBUTE;
+        String def = inner.getAttribute(par);
+        inner.setAttributeNS(null, par, "none");
+        inner.removeAttributeNS(null, par);
+        Attr p = inner.getAttributeNode(par);
+        if ((r = checkValue("default of " + par, def,
+                            "xMidYMid meet")) != null ||
+            (r = checkValue("getAttribute(" + par + ")",
+                            inner.getAttribute(par), def)) != null ||
+            (r = checkValue("getSpecified()",
+                            String.valueOf(p != null && p.getSpecified()),
+                            "false")) != null) {
+            return r;
+        }
+        events.clear();
+
+        // cloneNode and importNode copy the attributes
+        link.setAttributeNS(XLINK, "xlink:title", "t");
+        Element clone = (Element)link.cloneNode(false);
+        if ((r = checkCopy("cloneNode", link, clone, true)) != null) {
+            return r;
+        }
+        clone.setAttribute("class", "f");
+        if ((r = checkValue("getAttribute(class) after changing the clone",
+                            link.getAttribute("class"), "d")) != null) {
+            return r;
+        }
+        Document d = SVGDOMImplementation.getDOMImplementation()
+            .createDocument(SVGConstants.SVG_NAMESPACE_URI, "svg", null);
+        if ((r = checkCopy("importNode",
+                           link, (Element)d.importNode(link, false),
+                           false)) != null) {
+            return r;
+        }
+        ((AbstractDocument)d).setCompactAttributes(true);
+        Element imported = (Element)d.importNode(link, false);
+        if ((r = checkCopy("compact importNode",
+                           link, imported, false)) != null) {
+            return r;
+        }
+        if (!(imported.getAttributes()
+              instanceof AbstractElement.CompactNamedNodeMap)) {
+            return report(ERROR_NOT_COMPACT, "class",
+                          imported.getAttributes().getClass().getName());
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Parses the test document with compact attributes.
+     */
+    protected Document parse() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        f.setCompactAttributes(true);
+        return f.createDocument("http://xml.apache.org/batik/test",
+                                new StringReader(DOCUMENT));
+    }
+
+    /**
+     * Checks that the specified attributes of an element have been
+     * copied to another one.
+     * @param all Whether the copy must have the same number of
+     *        attributes.
+     */
+    protected TestReport checkCopy(String what, Element e, Element copy,
+                                   boolean all) {
+        NamedNodeMap map = e.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            Attr a = (Attr)map.item(i);
+            if (!a.getSpecified()) {
+                continue;
+            }
+            String ns = a.getNamespaceURI();
+            String ln = (ns == null) ? a.getName() : a.getLocalName();
+            TestReport r = checkValue
+                (what + ": " + a.getName(),
+                 copy.getAttributeNS(ns, ln), a.getValue());
+            if (r != null) {
+                return r;
+            }
+            Attr c = copy.getAttributeNodeNS(ns, ln);
+            if (!a.getName().equals(c.getName())) {
+                return checkValue(what + ": name of " + a.getName(),
+                                  c.getName(), a.getName());
+            }
+        }
+        return all ? checkLength(copy, map.getLength()) : null;
+    }
+
+    /**
+     * Checks the events received since the last call.
+     */
+    protected TestReport checkEvents(String what, String expected) {
+        String actual = events.toString();
+        events.clear();
+        if (actual.equals("[" + expected + "]")) {
+            return null;
+        }
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_EVENTS);
+        report.addDescriptionEntry("call", what);
+        report.addDescriptionEntry("expected", "[" + expected + "]");
+        report.addDescriptionEntry("actual", actual);
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Checks a value.
+     * @return null if it is the expected one.
+     */
+    protected TestReport checkValue(String what, String actual,
+                                    String expected) {
+        if (expected.equals(actual)) {
+            return null;
+        }
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_VALUE);
+        report.addDescriptionEntry("call", what);
+        report.addDescriptionEntry("expected", expected);
+        report.addDescriptionEntry("actual", String.valueOf(actual));
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Checks the number of attributes of an element.
+     */
+    protected TestReport checkLength(Element e, int expected) {
+        int n = e.getAttributes().getLength();
+        if (n == expected) {
+            return null;
+        }
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_LENGTH);
+        report.addDescriptionEntry("element", e.getAttribute("id"));
+        report.addDescriptionEntry("expected", String.valueOf(expected));
+        report.addDescriptionEntry("actual", String.valueOf(n));
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Returns a failed report.
+     */
+    protected TestReport report(String code, String key, String value) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(key, value);
+        report.setPassed(false);
+        return report;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the ramps shared by the contexts of
+ * {@link MultipleGradientPaintContext}: two contexts created from
+ * paints with equal parameters must use the same gradient arrays, and
+ * must paint the same pixels as a context that computed its own ramp.
+ * A paint with a different stop color must not get the same ramp.
+ *
+ * @version $Id$
+ */
+public class GradientRampCacheTest extends AbstractTest {
+
+    /**
+     * Two contexts built from equal parameters do not share a ramp.
+     */
+    public static final String ERROR_NOT_SHARED
+        = "GradientRampCacheTest.error.not.shared";
+
+    /**
+     * Two contexts built from different parameters share a ramp.
+     */
+    public static final String ERROR_WRONGLY_SHARED
+        = "GradientRampCacheTest.error.wrongly.shared";
+
+    /**
+     * A context using a shared ramp paints different pixels.
+     */
+    public static final String ERROR_DIFFERENT_PIXELS
+        = "GradientRampCacheTest.error.different.pixels";
+
+    /**
+     * The area painted by the contexts.
+     */
+    public static final Rectangle BOUNDS = new Rectangle(0, 0, 64, 48);
+
+    /**
+     * The number of paints created by {@link #createPaint}.
+     */
+    protected static final int PAINTS = 5;
+
+    public TestReport runImpl() throws Exception {
+        for (int i = 0; i < PAINTS; i++) {
+            TestReport report = checkPaint(i);
+            if (report != null) return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Checks the contexts of the given paint.
+     * @return null if the ramp is shared and the pixels are the same.
+     */
+    protected TestReport checkPaint(int n) throws Exception {
+        clearRamps();
+        MultipleGradientPaintContext first = createContext(n, false);
+        int[] firstPixels = getPixels(first);
+        MultipleGradientPaintContext second = createContext(n, false);
+        int[] secondPixels = getPixels(second);
+        MultipleGradientPaintContext other = createContext(n, true);
+        clearRamps();
+        MultipleGradientPaintContext uncached = createContext(n, false);
+        int[] uncachedPixels = getPixels(uncached);
+
+        if (!sameRamp(first, second)) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_NOT_SHARED);
+            report.addDescriptionEntry("paint", String.valueOf(n));
+            report.setPassed(false);
+            return report;
+        }
+        if (sameRamp(first, other)) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_WRONGLY_SHARED);
+            report.addDescriptionEntry("paint", String.valueOf(n));
+            report.setPassed(false);
+            return report;
+        }
+        int[][] pixels = { firstPixels, secondPixels };
+        for (int i = 0; i < pixels.length; i++) {
+            int diff = 0;
+            for (int j = 0; j < uncachedPixels.length; j++) {
+                if (pixels[i][j] != uncachedPixels[j]) diff++;
+            }
+            if (diff != 0 || !first.getColorModel().equals
+                                        (uncached.getColorModel())) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_DIFFERENT_PIXELS);
+                report.addDescriptionEntry("paint", String.valueOf(n));
+                report.addDescriptionEntry("context", String.valueOf(i));
+                report.addDescriptionEntry("pixels", String.valueOf(diff));
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Empties the ramp cache.
+     */
+    protected static void clearRamps() {
+        synchronized (MultipleGradientPaintContext.ramps) {
+            MultipleGradientPaintContext.ramps.clear();
+        }
+    }
+
+    /**
+     * Whether two contexts use the same gradient arrays.
+     */
+    protected static boolean sameRamp(MultipleGradientPaintContext a,
+                                      MultipleGradientPaintContext b) {
+        if (a.gradient != null)
+            return a.gradient == b.gradient;
+        return a.gradients == b.gradients;
+    }
+
+    /**
+     * Creates a context for a new instance of the given paint.
+     */
+    protected MultipleGradientPaintContext createContext(int n,
+                                                         boolean other) {
+        Paint p = createPaint(n, other);
+        return (MultipleGradientPaintContext)p.createContext
+            (ColorModel.getRGBdefault(), BOUNDS, BOUNDS,
+             AffineTransform.getScaleInstance(1.5, 1.25),
+             new RenderingHints(null));
+    }
+
+    /**
+     * Returns the samples painted by a context, copied out of the
+     * raster since the context reuses it.
+     */
+    protected static int[] getPixels(MultipleGradientPaintContext ctx) {
+        Raster r = ctx.getRaster(BOUNDS.x, BOUNDS.y,
+                                 BOUNDS.width, BOUNDS.height);
+        return r.getPixels(r.getMinX(), r.getMinY(),
+                           BOUNDS.width, BOUNDS.height, (int[])null);
+    }
+
+    /**
+     * Creates a new paint, with new arrays and colors each time.
+     * @param other whether to change the color of the last stop.
+     */
+    protected static Paint createPaint(int n, boolean other) {
+        Color last = other ? new Color(0, 128, 0) : new Color(0, 0, 255);
+        switch (n) {
+        case 0:
+            return new LinearGradientPaint
+                (0, 0, 40, 30,
+                 new float[] { 0, 1 },
+                 new Color[] { new Color(255, 0, 0), last });
+        case 1:
+            return new LinearGradientPaint
+                (new Point2D.Float(5, 5), new Point2D.Float(20, 10),
+                 new float[] { 0, .2f, .25f, .7f, 1 },
+                 new Color[] { new Color(255, 0, 0, 64),
+                               new Color(255, 255, 0),
+                               new Color(0, 255, 255, 200),
+                               new Color(255, 255, 255, 0), last },
+                 MultipleGradientPaint.REFLECT,
+                 MultipleGradientPaint.LINEAR_RGB);
+        case 2:
+            return new RadialGradientPaint
+                (new Point2D.Float(20, 20), 15, new Point2D.Float(25, 18),
+                 new float[] { 0, .5f, 1 },
+                 new Color[] { new Color(255, 255, 255),
+                               new Color(128, 0, 128), last },
+                 MultipleGradientPaint.REPEAT,
+                 MultipleGradientPaint.SRGB,
+                 new AffineTransform());
+        case 3:
+            return new RadialGradientPaint
+                (new Point2D.Float(30, 20), 25, new Point2D.Float(30, 20),
+                 new float[] { 0, .3f, 1 },
+                 new Color[] { new Color(0, 0, 0, 0),
+                               new Color(200, 100, 50, 150), last },
+                 MultipleGradientPaint.NO_CYCLE,
+                 MultipleGradientPaint.LINEAR_RGB,
+                 AffineTransform.getRotateInstance(.3));
+        default:
+            // An interval this small makes the context use one array
+            // per interval instead of a single lookup array.
+            return new LinearGradientPaint
+                (new Point2D.Float(0, 0), new Point2D.Float(50, 0),
+                 new float[] { 0, .0001f, .5f, 1 },
+                 new Color[] { new Color(255, 0, 0),
+                               new Color(0, 255, 0),
+                               new Color(255, 255, 0, 100), last },
+                 MultipleGradientPaint.REPEAT,
+                 MultipleGradientPaint.SRGB);
+        }
+    }
+}
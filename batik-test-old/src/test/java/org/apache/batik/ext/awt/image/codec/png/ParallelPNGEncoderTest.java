@@ -0,0 +1,150 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the PNG encoding with several compression threads: images
+ * larger than a compression block must decode to the original, and
+ * the blocks of all the images must be deflated by the threads of one
+ * shared pool.
+ *
+ * @version $Id$
+ */
+public class ParallelPNGEncoderTest extends AbstractTest {
+
+    /**
+     * Decoded image differs from encoded image.
+     */
+    public static final String ERROR_DECODED_DOES_NOT_MATCH_ENCODED
+        = "ParallelPNGEncoderTest.error.decoded.does.not.match.encoded";
+
+    /**
+     * More deflater threads than the shared pool has were started.
+     */
+    public static final String ERROR_TOO_MANY_THREADS
+        = "ParallelPNGEncoderTest.error.too.many.threads";
+
+    /**
+     * The number of images encoded.
+     */
+    public static final int IMAGES = 4;
+
+    /**
+     * The number of compression threads of each image.
+     */
+    public static final int THREADS = 4;
+
+    /**
+     * The deflater threads seen while encoding.
+     */
+    protected Set deflaters = new HashSet();
+
+    public TestReport runImpl() throws Exception {
+        for (int i = 0; i < IMAGES; i++) {
+            BufferedImage image = createImage(i);
+            PNGEncodeParam param = PNGEncodeParam.getDefaultEncodeParam(image);
+            param.setCompressionThreads(THREADS);
+            param.setCompressionBlockSize(32768);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream() {
+                    public void write(byte[] b, int off, int len) {
+                        addDeflaters();
+                        super.write(b, off, len);
+                    }
+                };
+            new PNGImageEncoder(bos, param).encode(image);
+
+            RenderedImage ri = new PNGImageDecoder
+                (new ByteArrayInputStream(bos.toByteArray()),
+                 new PNGDecodeParam()).decodeAsRenderedImage(0);
+            BufferedImage decoded = new BufferedImage
+                (ri.getWidth(), ri.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = decoded.createGraphics();
+            g.drawRenderedImage(ri, new AffineTransform());
+            g.dispose();
+            if (decoded.getWidth() != image.getWidth() ||
+                decoded.getHeight() != image.getHeight() ||
+                !PNGEncoderTest.checkIdentical(image, decoded)) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_DECODED_DOES_NOT_MATCH_ENCODED);
+                report.addDescriptionEntry("image", String.valueOf(i));
+                report.setPassed(false);
+                return report;
+            }
+        }
+
+        int n = Runtime.getRuntime().availableProcessors();
+        if (deflaters.size() > n) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_TOO_MANY_THREADS);
+            report.addDescriptionEntry("processors", String.valueOf(n));
+            report.addDescriptionEntry("threads",
+                                       String.valueOf(deflaters.size()));
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Adds the live deflater threads to <code>deflaters</code>.
+     */
+    protected void addDeflaters() {
+        Iterator it = Thread.getAllStackTraces().keySet().iterator();
+        while (it.hasNext()) {
+            Thread t = (Thread)it.next();
+            if ("PNG deflater".equals(t.getName())) {
+                deflaters.add(t);
+            }
+        }
+    }
+
+    /**
+     * Creates an image of about ten compression blocks.
+     */
+    protected BufferedImage createImage(int i) {
+        BufferedImage image = new BufferedImage(300 + i, 200,
+                                                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(255, 0, 0, 128),
+                                     300, 200, new Color(0, 0, 255, 255)));
+        g.fillRect(0, 0, 300 + i, 200);
+        g.setPaint(Color.black);
+        for (int y = 0; y < 200; y += 7) {
+            g.drawLine(0, y, 300 + i, 200 - y);
+        }
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the result of <code>MorphologyOp</code> against a brute force
+ * dilation or erosion: each sample of the result is the maximum, or
+ * minimum, of the samples of the source in the
+ * (2*radiusX+1)x(2*radiusY+1) window around it, clipped to the source.
+ *
+ * @version $Id$
+ */
+public class MorphologyOpTest extends AbstractTest {
+
+    /**
+     * A sample of the result differs from the brute force one.
+     */
+    public static final String ERROR_WRONG_SAMPLE
+        = "MorphologyOpTest.error.wrong.sample";
+
+    protected int radiusX, radiusY;
+    protected int width, height;
+    protected boolean dilate;
+
+    /**
+     * @param radiusX The radius on the x axis.
+     * @param radiusY The radius on the y axis.
+     * @param width The width of the source.
+     * @param height The height of the source.
+     * @param operator "dilate" or "erode".
+     */
+    public MorphologyOpTest(Integer radiusX, Integer radiusY,
+                            Integer width, Integer height,
+                            String operator) {
+        this.radiusX = radiusX.intValue();
+        this.radiusY = radiusY.intValue();
+        this.width   = width.intValue();
+        this.height  = height.intValue();
+        this.dilate  = "dilate".equals(operator);
+    }
+
+    public TestReport runImpl() throws Exception {
+        // The source is a child of a larger image, so that the data
+        // does not start at the beginning of the buffer.
+        BufferedImage bi = new BufferedImage(width + 5, height + 3,
+                                             BufferedImage.TYPE_INT_ARGB_PRE);
+        WritableRaster all = bi.getRaster();
+        Random rnd = new Random(width * 31 + height);
+        int[] p = new int[4];
+        for (int y = 0; y < all.getHeight(); y++) {
+            for (int x = 0; x < all.getWidth(); x++) {
+                p[3] = rnd.nextInt(256);
+                p[0] = rnd.nextInt(p[3] + 1);
+                p[1] = rnd.nextInt(p[3] + 1);
+                p[2] = rnd.nextInt(p[3] + 1);
+                all.setPixel(x, y, p);
+            }
+        }
+        Raster src = all.createChild(3, 2, width, height, 0, 0, null);
+
+        MorphologyOp op = new MorphologyOp(radiusX, radiusY, dilate);
+        WritableRaster dest = op.filter(src, null);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int b = 0; b < 4; b++) {
+                    int expected = expectedSample(src, x, y, b);
+                    int actual = dest.getSample(x, y, b);
+                    if (actual != expected) {
+                        DefaultTestReport report = new DefaultTestReport(this);
+                        report.setErrorCode(ERROR_WRONG_SAMPLE);
+                        report.addDescriptionEntry
+                            ("sample", "(" + x + ", " + y + ") band " + b);
+                        report.addDescriptionEntry
+                            ("expected", String.valueOf(expected));
+                        report.addDescriptionEntry
+                            ("actual", String.valueOf(actual));
+                        report.setPassed(false);
+                        return report;
+                    }
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns the maximum, or minimum, of band <code>b</code> of
+     * <code>src</code> in the window around (x, y).
+     */
+    protected int expectedSample(Raster src, int x, int y, int b) {
+        int x0 = Math.max(0, x - radiusX);
+        int x1 = Math.min(width - 1, x + radiusX);
+        int y0 = Math.max(0, y - radiusY);
+        int y1 = Math.min(height - 1, y + radiusY);
+        int ret = dilate ? 0 : 255;
+        for (int j = y0; j <= y1; j++) {
+            for (int i = x0; i <= x1; i++) {
+                int s = src.getSample(i, j, b);
+                ret = dilate ? Math.max(ret, s) : Math.min(ret, s);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that the spatial index of {@link CompositeGraphicsNode} does
+ * not change the results of <code>nodeHitAt</code>,
+ * <code>contains</code> and of a repaint under a clip.  Two identical
+ * trees are built and changed in the same way; one is queried with the
+ * index and the other without it, after the index is built, after the
+ * children moved, after their pointer-events changed, and after
+ * children were appended and removed.
+ *
+ * @version $Id$
+ */
+public class ChildIndexTest extends AbstractTest {
+
+    /**
+     * <code>nodeHitAt</code> returns another node with the index.
+     */
+    public static final String ERROR_DIFFERENT_HIT
+        = "ChildIndexTest.error.different.hit";
+
+    /**
+     * <code>contains</code> returns another result with the index.
+     */
+    public static final String ERROR_DIFFERENT_CONTAINS
+        = "ChildIndexTest.error.different.contains";
+
+    /**
+     * A repaint under a clip paints other pixels with the index.
+     */
+    public static final String ERROR_DIFFERENT_REPAINT
+        = "ChildIndexTest.error.different.repaint";
+
+    /**
+     * The names of the steps of the test.
+     */
+    protected static final String[] STEPS = {
+        "built", "moved", "pointer-events", "appended", "removed"
+    };
+
+    /**
+     * The number of children of the root.
+     */
+    public static final int CHILDREN = 400;
+
+    /**
+     * The size of the area covered by the children.
+     */
+    public static final int SIZE = 400;
+
+    /**
+     * The seed of the random generators, so both trees are the same.
+     */
+    public static final long SEED = 4242;
+
+    public TestReport runImpl() throws Exception {
+        int threshold = CompositeGraphicsNode.getIndexThreshold();
+        try {
+            CompositeGraphicsNode indexed = createTree();
+            CompositeGraphicsNode plain = createTree();
+            for (int step = 0; step < STEPS.length; step++) {
+                change(indexed, step);
+                change(plain, step);
+                TestReport report = compare(indexed, plain, step);
+                if (report != null) return report;
+            }
+        } finally {
+            CompositeGraphicsNode.setIndexThreshold(threshold);
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Compares the hits, the containment and the repaints of the two
+     * trees.
+     * @return null if they are the same.
+     */
+    protected TestReport compare(CompositeGraphicsNode indexed,
+                                 CompositeGraphicsNode plain,
+                                 int step) {
+        Point2D p = new Point2D.Double();
+        for (int y = -10; y < SIZE + 10; y += 3) {
+            for (int x = -10; x < SIZE + 10; x += 3) {
+                p.setLocation(x + .5, y + .5);
+                CompositeGraphicsNode.setIndexThreshold(1);
+                String expected = path(indexed.nodeHitAt(p));
+                boolean in = indexed.contains(p);
+                CompositeGraphicsNode.setIndexThreshold(0);
+                String actual = path(plain.nodeHitAt(p));
+                boolean plainIn = plain.contains(p);
+                if (!expected.equals(actual)) {
+                    DefaultTestReport report = new DefaultTestReport(this);
+                    report.setErrorCode(ERROR_DIFFERENT_HIT);
+                    report.addDescriptionEntry("step", STEPS[step]);
+                    report.addDescriptionEntry("point", x + ", " + y);
+                    report.addDescriptionEntry("with index", expected);
+                    report.addDescriptionEntry("without index", actual);
+                    report.setPassed(false);
+                    return report;
+                }
+                if (in != plainIn) {
+                    DefaultTestReport report = new DefaultTestReport(this);
+                    report.setErrorCode(ERROR_DIFFERENT_CONTAINS);
+                    report.addDescriptionEntry("step", STEPS[step]);
+                    report.addDescriptionEntry("point", x + ", " + y);
+                    report.addDescriptionEntry("with index",
+                                               String.valueOf(in));
+                    report.setPassed(false);
+                    return report;
+                }
+            }
+        }
+
+        Random r = new Random(SEED + step);
+        for (int i = 0; i < 12; i++) {
+            int w = 5 + r.nextInt(SIZE / 2);
+            int h = 5 + r.nextInt(SIZE / 2);
+            Rectangle clip = new Rectangle(r.nextInt(SIZE - w),
+                                           r.nextInt(SIZE - h), w, h);
+            CompositeGraphicsNode.setIndexThreshold(1);
+            int[] expected = repaint(indexed, clip);
+            CompositeGraphicsNode.setIndexThreshold(0);
+            int[] actual = repaint(plain, clip);
+            int diff = 0;
+            for (int j = 0; j < expected.length; j++) {
+                if (expected[j] != actual[j]) diff++;
+            }
+            if (diff != 0) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_DIFFERENT_REPAINT);
+                report.addDescriptionEntry("step", STEPS[step]);
+                report.addDescriptionEntry("clip", clip.toString());
+                report.addDescriptionEntry("pixels", String.valueOf(diff));
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Paints a tree under the given clip and returns the pixels.
+     */
+    protected static int[] repaint(GraphicsNode node, Rectangle clip) {
+        BufferedImage image = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setClip(clip);
+        node.paint(g);
+        g.dispose();
+        return image.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+
+    /**
+     * Returns the positions leading from the root to a node.
+     */
+    protected static String path(GraphicsNode node) {
+        if (node == null) return "none";
+        StringBuffer sb = new StringBuffer();
+        for (CompositeGraphicsNode p = node.getParent(); p != null;
+             node = p, p = p.getParent()) {
+            sb.insert(0, "/" + p.indexOf(node));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates the test tree: overlapping shapes, some of them rotated,
+     * some with a wide stroke that is not painted, and some groups.
+     */
+    protected static CompositeGraphicsNode createTree() {
+        Random r = new Random(SEED);
+        CompositeGraphicsNode root = new CompositeGraphicsNode();
+        for (int i = 0; i < CHILDREN; i++) {
+            if (i % 50 == 25) {
+                CompositeGraphicsNode g = new CompositeGraphicsNode();
+                for (int j = 0; j < 4; j++)
+                    g.add(createShape(r, j % 2 == 0));
+                g.setTransform(AffineTransform.getTranslateInstance
+                               (r.nextInt(SIZE / 2), r.nextInt(SIZE / 2)));
+                root.add(g);
+            } else {
+                ShapeNode s = createShape(r, i % 10 == 3);
+                if (i % 9 == 4)
+                    s.setTransform(AffineTransform.getRotateInstance
+                                   (r.nextDouble(), SIZE / 2, SIZE / 2));
+                root.add(s);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Creates a shape node with a random color, position and size.
+     * @param stroked whether to add a wide stroke with no paint, so
+     *        the node gets larger when it is sensitive to all pointer
+     *        events.
+     */
+    protected static ShapeNode createShape(Random r, boolean stroked) {
+        int w = 3 + r.nextInt(30);
+        int h = 3 + r.nextInt(30);
+        Rectangle2D.Double rect = new Rectangle2D.Double
+            (20 + r.nextInt(SIZE - 40 - w), 20 + r.nextInt(SIZE - 40 - h),
+             w, h);
+        ShapeNode s = new ShapeNode();
+        s.setShape(r.nextBoolean()
+                   ? (Shape)rect
+                   : new Ellipse2D.Double(rect.x, rect.y, w, h));
+        FillShapePainter fill = new FillShapePainter(s.getShape());
+        fill.setPaint(new Color(r.nextInt(0x1000000)));
+        if (stroked) {
+            StrokeShapePainter stroke = new StrokeShapePainter(s.getShape());
+            stroke.setStroke(new BasicStroke(24));
+            CompositeShapePainter p = new CompositeShapePainter(s.getShape());
+            p.addShapePainter(fill);
+            p.addShapePainter(stroke);
+            s.setShapePainter(p);
+        } else {
+            s.setShapePainter(fill);
+        }
+        return s;
+    }
+
+    /**
+     * Applies the changes of the given step to a tree.
+     */
+    protected static void change(CompositeGraphicsNode root, int step) {
+        Random r = new Random(SEED + 100 + step);
+        switch (step) {
+        case 1:
+            // Moves some children by changing their shape or transform.
+            for (int i = 0; i < root.size(); i += 7) {
+                GraphicsNode n = (GraphicsNode)root.get(i);
+                int dx = r.nextInt(120) - 60;
+                int dy = r.nextInt(120) - 60;
+                if (n instanceof ShapeNode && i % 2 == 0) {
+                    ShapeNode s = (ShapeNode)n;
+                    s.setShape(AffineTransform.getTranslateInstance(dx, dy)
+                               .createTransformedShape(s.getShape()));
+                } else {
+                    AffineTransform t = new AffineTransform();
+                    t.translate(dx, dy);
+                    if (n.getTransform() != null)
+                        t.concatenate(n.getTransform());
+                    n.setTransform(t);
+                }
+            }
+            break;
+        case 2:
+            // Makes the unpainted strokes sensitive, inside the groups
+            // too, and some shapes insensitive.
+            for (int i = 0; i < root.size(); i++) {
+                GraphicsNode n = (GraphicsNode)root.get(i);
+                if (n instanceof CompositeGraphicsNode) {
+                    CompositeGraphicsNode g = (CompositeGraphicsNode)n;
+                    for (int j = 0; j < g.size(); j++)
+                        ((GraphicsNode)g.get(j)).setPointerEventType
+                            (GraphicsNode.ALL);
+                } else if (i % 10 == 3) {
+                    n.setPointerEventType(GraphicsNode.ALL);
+                } else if (i % 13 == 0) {
+                    n.setPointerEventType(GraphicsNode.NONE);
+                }
+            }
+            break;
+        case 3:
+            for (int i = 0; i < 20; i++)
+                root.add(createShape(r, i % 3 == 0));
+            break;
+        case 4:
+            for (int i = 0; i < 10; i++)
+                root.remove(r.nextInt(root.size()));
+            break;
+        default:
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.parser;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that the size announced by the path parser to a
+ * {@link PathSizeHandler} is the size of the path it reports: one
+ * segment per command, and as many values as an
+ * <code>ExtendedGeneralPath</code> stores for them.
+ *
+ * @version $Id$
+ */
+public class PathSizeTest extends AbstractTest {
+
+    /**
+     * The announced size is not the size of the path.
+     */
+    public static final String ERROR_WRONG_SIZE
+        = "PathSizeTest.error.wrong.size";
+
+    protected String path;
+
+    /**
+     * @param path The path to parse.
+     */
+    public PathSizeTest(String path) {
+        this.path = path;
+    }
+
+    public TestReport runImpl() throws Exception {
+        PathParser pp = new PathParser();
+        TestHandler h = new TestHandler();
+        pp.setPathHandler(h);
+        pp.parse(path);
+
+        if (h.announcedSegments != h.segments ||
+            h.announcedValues != h.values) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_WRONG_SIZE);
+            report.addDescriptionEntry("path", path);
+            report.addDescriptionEntry
+                ("announced", h.announcedSegments + " segments, " +
+                 h.announcedValues + " values");
+            report.addDescriptionEntry
+                ("reported", h.segments + " segments, " +
+                 h.values + " values");
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Counts the reported segments and the values needed to store them.
+     */
+    class TestHandler extends DefaultPathHandler implements PathSizeHandler {
+        int announcedSegments = -1;
+        int announcedValues = -1;
+        int segments;
+        int values;
+
+        public void pathSize(int numSegments, int numValues) {
+            announcedSegments = numSegments;
+            announcedValues = numValues;
+        }
+
+        protected void add(int n) {
+            segments++;
+            values += n;
+        }
+
+        public void movetoRel(float x, float y) { add(2); }
+        public void movetoAbs(float x, float y) { add(2); }
+        public void closePath() { add(0); }
+        public void linetoRel(float x, float y) { add(2); }
+        public void linetoAbs(float x, float y) { add(2); }
+        public void linetoHorizontalRel(float x) { add(2); }
+        public void linetoHorizontalAbs(float x) { add(2); }
+        public void linetoVerticalRel(float y) { add(2); }
+        public void linetoVerticalAbs(float y) { add(2); }
+
+        public void curvetoCubicRel(float x1, float y1, float x2, float y2,
+                                    float x, float y) { add(6); }
+        public void curvetoCubicAbs(float x1, float y1, float x2, float y2,
+                                    float x, float y) { add(6); }
+        public void curvetoCubicSmoothRel(float x2, float y2,
+                                          float x, float y) { add(6); }
+        public void curvetoCubicSmoothAbs(float x2, float y2,
+                                          float x, float y) { add(6); }
+        public void curvetoQuadraticRel(float x1, float y1,
+                                        float x, float y) { add(4); }
+        public void curvetoQuadraticAbs(float x1, float y1,
+                                        float x, float y) { add(4); }
+        public void curvetoQuadraticSmoothRel(float x, float y) { add(4); }
+        public void curvetoQuadraticSmoothAbs(float x, float y) { add(4); }
+
+        public void arcRel(float rx, float ry, float xAxisRotation,
+                           boolean largeArcFlag, boolean sweepFlag,
+                           float x, float y) { add(7); }
+        public void arcAbs(float rx, float ry, float xAxisRotation,
+                           boolean largeArcFlag, boolean sweepFlag,
+                           float x, float y) { add(7); }
+    }
+}
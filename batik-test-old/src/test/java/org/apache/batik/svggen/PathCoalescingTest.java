@@ -0,0 +1,152 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.svggen;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.apache.batik.dom.GenericDOMImplementation;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+
+import org.w3c.dom.Document;
+
+/**
+ * Checks that path coalescing does not change the rendering of the
+ * generated SVG, and does not make it longer: the output of a
+ * <code>Painter</code> is generated with and without coalescing, with
+ * plain and compact path data, and the renderings compared pixel by
+ * pixel.
+ *
+ * @version $Id$
+ */
+public class PathCoalescingTest extends AbstractTest {
+
+    /**
+     * The renderings with and without coalescing differ.
+     */
+    public static final String ERROR_DIFFERENT_RENDERING
+        = "PathCoalescingTest.error.different.rendering";
+
+    /**
+     * The output with coalescing is longer than the output without.
+     */
+    public static final String ERROR_LONGER_OUTPUT
+        = "PathCoalescingTest.error.longer.output";
+
+    /**
+     * The size of the canvas, as in <code>SVGAccuracyTest</code>.
+     */
+    public static final Dimension CANVAS_SIZE = new Dimension(300, 400);
+
+    protected Painter painter;
+
+    /**
+     * @param painterClassName The name of the painter class, in the
+     *        <code>org.apache.batik.svggen</code> package.
+     */
+    public PathCoalescingTest(String painterClassName) throws Exception {
+        Class cl = Class.forName("org.apache.batik.svggen." + painterClassName);
+        painter = (Painter)cl.getDeclaredConstructor().newInstance();
+    }
+
+    public TestReport runImpl() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            boolean compact = i == 1;
+            String plain = generate(false, compact);
+            String merged = generate(true, compact);
+
+            if (merged.length() > plain.length()) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_LONGER_OUTPUT);
+                report.addDescriptionEntry("compact", String.valueOf(compact));
+                report.addDescriptionEntry("without coalescing",
+                                           String.valueOf(plain.length()));
+                report.addDescriptionEntry("with coalescing",
+                                           String.valueOf(merged.length()));
+                report.setPassed(false);
+                return report;
+            }
+
+            int[] expected = render(plain);
+            int[] actual = render(merged);
+            int n = 0;
+            for (int j = 0; j < expected.length; j++) {
+                if (expected[j] != actual[j]) n++;
+            }
+            if (n != 0) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_DIFFERENT_RENDERING);
+                report.addDescriptionEntry("compact", String.valueOf(compact));
+                report.addDescriptionEntry("pixels", String.valueOf(n));
+                report.addDescriptionEntry("without coalescing", plain);
+                report.addDescriptionEntry("with coalescing", merged);
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns the SVG generated by the painter.
+     */
+    protected String generate(boolean coalescing, boolean compact)
+        throws Exception {
+        Document doc = GenericDOMImplementation.getDOMImplementation()
+            .createDocument(SVGSyntax.SVG_NAMESPACE_URI,
+                            SVGSyntax.SVG_SVG_TAG, null);
+        SVGGeneratorContext ctx = SVGGeneratorContext.createDefault(doc);
+        ctx.setPathCoalescingOn(coalescing);
+        ctx.setCompactPathDataOn(compact);
+        SVGGraphics2D g = new SVGGraphics2D(ctx, false);
+        g.setSVGCanvasSize(CANVAS_SIZE);
+        painter.paint(g);
+        StringWriter w = new StringWriter();
+        g.stream(w, false);
+        return w.toString();
+    }
+
+    /**
+     * Renders an SVG document and returns its pixels.
+     */
+    protected int[] render(String svg) throws Exception {
+        final BufferedImage[] image = new BufferedImage[1];
+        ImageTranscoder t = new ImageTranscoder() {
+                public BufferedImage createImage(int w, int h) {
+                    return new BufferedImage(w, h,
+                                             BufferedImage.TYPE_INT_ARGB);
+                }
+                public void writeImage(BufferedImage img,
+                                       TranscoderOutput output) {
+                    image[0] = img;
+                }
+            };
+        t.transcode(new TranscoderInput(new StringReader(svg)), null);
+        int w = image[0].getWidth();
+        int h = image[0].getHeight();
+        return image[0].getRGB(0, 0, w, h, null, 0, w);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.StringReader;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+
+/**
+ * Checks the {@link GVTTreeCache}: a static document rendered through
+ * the cache at two sizes must look the same as when rendered without
+ * it, the trees of dynamic documents and of documents that depend on
+ * the viewport size must not be cached, and the bridge context of a
+ * tree dropped from the cache must only be disposed once no
+ * transcoder renders the tree any more.
+ *
+ * @version $Id$
+ */
+public class GVTTreeCacheTest extends AbstractTest {
+
+    /**
+     * The cached and uncached renderings differ.
+     */
+    public static final String ERROR_DIFFERENT_RENDERING
+        = "GVTTreeCacheTest.error.different.rendering";
+
+    /**
+     * The cache was not used as expected.
+     */
+    public static final String ERROR_WRONG_CACHE_USE
+        = "GVTTreeCacheTest.error.wrong.cache.use";
+
+    /**
+     * A bridge context was disposed too early or not at all.
+     */
+    public static final String ERROR_WRONG_DISPOSAL
+        = "GVTTreeCacheTest.error.wrong.disposal";
+
+    /**
+     * A document whose size depends on the viewport size.
+     */
+    public static final String VIEWPORT_DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100%' height='100%'>\n" +
+        "  <rect width='50%' height='50%' fill='blue'/>\n" +
+        "</svg>\n";
+
+    /**
+     * The image widths the static document is rendered at.
+     */
+    protected static final float[] WIDTHS = { 200, 317 };
+
+    /**
+     * The static document to render.
+     */
+    protected String file;
+
+    /**
+     * @param file The static document to render.
+     */
+    public GVTTreeCacheTest(String file) {
+        this.file = file;
+    }
+
+    public TestReport runImpl() throws Exception {
+        String uri = new File(file).getAbsoluteFile().toURI().toString();
+
+        // A static document: the first rendering builds the tree, the
+        // others use it.
+        GVTTreeCache cache = new GVTTreeCache();
+        for (int i = 0; i < WIDTHS.length * 2; i++) {
+            Float w = new Float(WIDTHS[i % WIDTHS.length]);
+            BufferedImage expected = render(new TranscoderInput(uri), w,
+                                            null, false);
+            BufferedImage actual = render(new TranscoderInput(uri), w,
+                                          cache, false);
+            TestReport r = compare(expected, actual, w);
+            if (r != null) return r;
+        }
+        TestReport r = checkCache("static document", cache, 1, 1,
+                                  WIDTHS.length * 2 - 1);
+        if (r != null) return r;
+
+        // A dynamic document is not cached, nor even looked up.
+        cache = new GVTTreeCache();
+        for (int i = 0; i < 2; i++) {
+            render(new TranscoderInput(uri), null, cache, true);
+        }
+        r = checkCache("dynamic document", cache, 0, 0, 0);
+        if (r != null) return r;
+
+        // A document that depends on the viewport size is looked up,
+        // but not cached.
+        cache = new GVTTreeCache();
+        for (int i = 0; i < WIDTHS.length; i++) {
+            Float w = new Float(WIDTHS[i]);
+            render(new TranscoderInput(new StringReader(VIEWPORT_DOCUMENT)),
+                   w, cache, false);
+        }
+        r = checkCache("viewport dependent document", cache, 0,
+                       WIDTHS.length, 0);
+        if (r != null) return r;
+
+        r = checkDisposal();
+        if (r != null) return r;
+
+        return reportSuccess();
+    }
+
+    /**
+     * Checks that the bridge context of a tree dropped from the cache
+     * is disposed when the last transcoder rendering it releases it.
+     * @return null if it is.
+     */
+    protected TestReport checkDisposal() {
+        GVTTreeCache cache = new GVTTreeCache(1);
+        TestBridgeContext first = new TestBridgeContext();
+        TestBridgeContext second = new TestBridgeContext();
+        cache.put("first", new GVTTreeCache.Entry(null, first, null));
+        GVTTreeCache.Entry a = cache.get("first");
+        GVTTreeCache.Entry b = cache.get("first");
+        cache.put("second", new GVTTreeCache.Entry(null, second, null));
+        if (cache.get("first") != null) {
+            return report(ERROR_WRONG_CACHE_USE, "first entry", "not dropped");
+        }
+        String step = null;
+        if (first.disposed != 0) {
+            step = "dropped while in use";
+        } else {
+            cache.release(a);
+            if (first.disposed != 0) {
+                step = "released by one of two users";
+            } else {
+                cache.release(b);
+                if (first.disposed != 1) {
+                    step = "released by its last user";
+                } else {
+                    cache.clear();
+                    if (second.disposed != 1) {
+                        step = "cache cleared";
+                    }
+                }
+            }
+        }
+        if (step != null) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_WRONG_DISPOSAL);
+            report.addDescriptionEntry("step", step);
+            report.addDescriptionEntry
+                ("disposals", first.disposed + ", " + second.disposed);
+            report.setPassed(false);
+            return report;
+        }
+        return null;
+    }
+
+    /**
+     * Checks the size and counters of a cache.
+     */
+    protected TestReport checkCache(String what, GVTTreeCache cache,
+                                    int size, long misses, long hits) {
+        if (cache.size() == size && cache.getMissCount() == misses &&
+            cache.getHitCount() == hits) {
+            return null;
+        }
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_WRONG_CACHE_USE);
+        report.addDescriptionEntry("document", what);
+        report.addDescriptionEntry("expected",
+                                   "size " + size + ", misses " + misses +
+                                   ", hits " + hits);
+        report.addDescriptionEntry("actual",
+                                   "size " + cache.size() +
+                                   ", misses " + cache.getMissCount() +
+                                   ", hits " + cache.getHitCount());
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Compares two renderings pixel for pixel.
+     */
+    protected TestReport compare(BufferedImage expected, BufferedImage actual,
+                                 Float width) {
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        int n = 0;
+        if (actual.getWidth() != w || actual.getHeight() != h) {
+            n = -1;
+        } else {
+            int[] e = expected.getRGB(0, 0, w, h, null, 0, w);
+            int[] a = actual.getRGB(0, 0, w, h, null, 0, w);
+            for (int i = 0; i < e.length; i++) {
+                if (e[i] != a[i]) n++;
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_DIFFERENT_RENDERING);
+        report.addDescriptionEntry("width", width.toString());
+        report.addDescriptionEntry("uncached size", w + "x" + h);
+        report.addDescriptionEntry("cached size", actual.getWidth() + "x" +
+                                   actual.getHeight());
+        report.addDescriptionEntry("pixels", String.valueOf(n));
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Renders a document.
+     * @param width The image width, or null.
+     * @param cache The cache to use, or null.
+     * @param dynamic Whether the scripts and animations are run.
+     */
+    protected BufferedImage render(TranscoderInput input, Float width,
+                                   GVTTreeCache cache, boolean dynamic)
+        throws Exception {
+        final BufferedImage[] image = new BufferedImage[1];
+        ImageTranscoder t = new ImageTranscoder() {
+                public BufferedImage createImage(int w, int h) {
+                    return new BufferedImage(w, h,
+                                             BufferedImage.TYPE_INT_ARGB);
+                }
+                public void writeImage(BufferedImage img,
+                                       TranscoderOutput output) {
+                    image[0] = img;
+                }
+            };
+        if (width != null) {
+            t.addTranscodingHint(ImageTranscoder.KEY_WIDTH, width);
+        }
+        if (cache != null) {
+            t.addTranscodingHint(ImageTranscoder.KEY_GVT_TREE_CACHE, cache);
+        }
+        if (dynamic) {
+            t.addTranscodingHint(ImageTranscoder.KEY_EXECUTE_ONLOAD,
+                                 Boolean.TRUE);
+        }
+        t.transcode(input, null);
+        return image[0];
+    }
+
+    /**
+     * Returns a failed report.
+     */
+    protected TestReport report(String code, String key, String value) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(key, value);
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * A bridge context that counts how many times it is disposed.
+     */
+    protected static class TestBridgeContext extends BridgeContext {
+        int disposed;
+
+        TestBridgeContext() {
+            super(new UserAgentAdapter());
+        }
+
+        public void dispose() {
+            disposed++;
+            super.dispose();
+        }
+    }
+}
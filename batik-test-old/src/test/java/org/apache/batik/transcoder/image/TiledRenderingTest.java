@@ -0,0 +1,113 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+
+/**
+ * Checks that an image rendered one tile at a time on several threads,
+ * with <code>KEY_RENDER_THREADS</code>, is the same, pixel for pixel,
+ * as the image painted at once.
+ *
+ * @version $Id$
+ */
+public class TiledRenderingTest extends AbstractTest {
+
+    /**
+     * The tiled and untiled renderings differ.
+     */
+    public static final String ERROR_DIFFERENT_RENDERING
+        = "TiledRenderingTest.error.different.rendering";
+
+    /**
+     * The number of threads of the tiled rendering.
+     */
+    public static final int THREADS = 3;
+
+    /**
+     * The document to render.
+     */
+    protected String file;
+
+    /**
+     * @param file The document to render.
+     */
+    public TiledRenderingTest(String file) {
+        this.file = file;
+    }
+
+    public TestReport runImpl() throws Exception {
+        BufferedImage expected = render(null);
+        BufferedImage actual = render(new Integer(THREADS));
+
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        int[] e = expected.getRGB(0, 0, w, h, null, 0, w);
+        int[] a = actual.getRGB(0, 0, w, h, null, 0, w);
+        int n = 0;
+        int first = -1;
+        for (int i = 0; i < e.length; i++) {
+            if (e[i] != a[i]) {
+                if (n++ == 0) first = i;
+            }
+        }
+        if (n != 0) {
+            DefaultTestReport report = new DefaultTestReport(this);
+            report.setErrorCode(ERROR_DIFFERENT_RENDERING);
+            report.addDescriptionEntry("pixels", String.valueOf(n));
+            report.addDescriptionEntry
+                ("first", "(" + (first % w) + ", " + (first / w) + ")");
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Renders the document.
+     * @param threads The number of rendering threads, or null to
+     *        paint the image at once.
+     */
+    protected BufferedImage render(Integer threads) throws Exception {
+        final BufferedImage[] image = new BufferedImage[1];
+        ImageTranscoder t = new ImageTranscoder() {
+                public BufferedImage createImage(int w, int h) {
+                    return new BufferedImage(w, h,
+                                             BufferedImage.TYPE_INT_ARGB);
+                }
+                public void writeImage(BufferedImage img,
+                                       TranscoderOutput output) {
+                    image[0] = img;
+                }
+            };
+        if (threads != null) {
+            t.addTranscodingHint(ImageTranscoder.KEY_RENDER_THREADS, threads);
+        }
+        String uri = new File(file).getAbsoluteFile().toURI().toString();
+        t.transcode(new TranscoderInput(uri), null);
+        return image[0];
+    }
+}
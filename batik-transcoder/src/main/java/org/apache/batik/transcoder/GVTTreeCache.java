@@ -0,0 +1,617 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder;
+
+import java.awt.Cursor;
+import java.awt.Point;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Dimension2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.BridgeExtension;
+import org.apache.batik.bridge.ExternalResourceSecurity;
+import org.apache.batik.bridge.FontFamilyResolver;
+import org.apache.batik.bridge.Mark;
+import org.apache.batik.bridge.ScriptSecurity;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.event.EventDispatcher;
+import org.apache.batik.util.MimeTypeConstants;
+import org.apache.batik.util.ParsedURL;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.svg.SVGAElement;
+import org.w3c.dom.svg.SVGDocument;
+
+/**
+ * A cache of static GVT trees, so that transcoding the same document
+ * again, for example at another size, does not parse the document
+ * and build its GVT tree again.
+ *
+ * <p>Trees are keyed by the URI of the document, a digest of its
+ * content and the transcoding hints that affect how the tree is
+ * built.  Hints that only affect how the tree is rendered (the image
+ * size, the area of interest, the background color...) are left out
+ * of the key.  Only trees of documents that are neither scripted nor
+ * animated are cached.  A tree is only cached once it has been
+ * rendered, and is then never modified, so that any number of
+ * transcoders can render it at the same time.
+ *
+ * <p>The bridge contexts of the cached trees are created with the
+ * {@link TreeUserAgent} of the cache, which forwards to the user agent
+ * of the transcoder using the tree on the current thread, so that a
+ * cached tree does not keep the transcoder that built it.  The bridge
+ * context of a tree is disposed once the tree has been dropped from
+ * the cache and is no longer being rendered.
+ *
+ * <p>The cache is given to a transcoder with the
+ * <code>SVGAbstractTranscoder.KEY_GVT_TREE_CACHE</code> hint.  The
+ * same cache can be shared by any number of transcoders.
+ *
+ * @version $Id$
+ */
+public class GVTTreeCache {
+
+    /**
+     * The default maximum number of trees kept in the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /**
+     * A cached GVT tree, with the document and bridge context it was
+     * built from.
+     */
+    public static class Entry {
+        protected Document document;
+        protected BridgeContext ctx;
+        protected GraphicsNode root;
+
+        /**
+         * The number of transcoders rendering the tree.
+         */
+        protected int users;
+
+        /**
+         * Whether the tree has been dropped from the cache.
+         */
+        protected boolean dropped;
+
+        public Entry(Document document, BridgeContext ctx,
+                     GraphicsNode root) {
+            this.document = document;
+            this.ctx = ctx;
+            this.root = root;
+        }
+
+        public Document getDocument() {
+            return document;
+        }
+
+        public BridgeContext getBridgeContext() {
+            return ctx;
+        }
+
+        public GraphicsNode getRoot() {
+            return root;
+        }
+    }
+
+    /**
+     * The key of a cached tree.
+     */
+    protected static class Key {
+        Object owner;
+        String uri;
+        byte [] digest;
+        Map hints;
+        int hashCode;
+
+        Key(Object owner, String uri, byte [] digest, Map hints) {
+            this.owner = owner;
+            this.uri = uri;
+            this.digest = digest;
+            this.hints = hints;
+            int h = owner.hashCode();
+            h = 31 * h + ((uri == null) ? 0 : uri.hashCode());
+            h = 31 * h + Arrays.hashCode(digest);
+            hashCode = 31 * h + hints.hashCode();
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key)o;
+            return hashCode == k.hashCode
+                && owner.equals(k.owner)
+                && ((uri == null) ? k.uri == null : uri.equals(k.uri))
+                && Arrays.equals(digest, k.digest)
+                && hints.equals(k.hints);
+        }
+    }
+
+    protected int maxEntries;
+    protected LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+    protected long hits;
+    protected long misses;
+    protected TreeUserAgent userAgent = new TreeUserAgent();
+
+    /**
+     * Creates a cache of at most <code>DEFAULT_MAX_ENTRIES</code> trees.
+     */
+    public GVTTreeCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries The maximum number of trees kept in the cache.
+     */
+    public GVTTreeCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the maximum number of trees kept in the cache.
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of trees kept in the cache.  Least
+     * recently used trees are dropped right away if there are too
+     * many.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        trim();
+    }
+
+    /**
+     * Returns the number of trees in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops all the trees of the cache.
+     */
+    public synchronized void clear() {
+        Iterator i = entries.values().iterator();
+        while (i.hasNext()) {
+            drop((Entry)i.next());
+        }
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of lookups that found their tree in the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to build their tree.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the user agent to create the bridge contexts of the
+     * cached trees with.
+     */
+    public TreeUserAgent getTreeUserAgent() {
+        return userAgent;
+    }
+
+    /**
+     * Returns the tree cached for <code>key</code>, or null.  The
+     * returned tree must be given back to {@link #release(Entry)} once
+     * rendered.
+     */
+    public synchronized Entry get(Object key) {
+        Entry e = (Entry)entries.get(key);
+        if (e == null) {
+            misses++;
+        } else {
+            hits++;
+            e.users++;
+        }
+        return e;
+    }
+
+    /**
+     * Tells that a tree returned by {@link #get(Object)} has been
+     * rendered.  Its bridge context is disposed if the tree has been
+     * dropped from the cache in the meantime.
+     */
+    public synchronized void release(Entry e) {
+        e.users--;
+        if (e.dropped && e.users == 0) {
+            e.ctx.dispose();
+        }
+    }
+
+    /**
+     * Caches <code>entry</code> for <code>key</code>.  If another
+     * thread cached a tree for the same key in the meantime, that tree
+     * is kept.
+     * @return the entry cached for <code>key</code>.
+     */
+    public synchronized Entry put(Object key, Entry entry) {
+        Entry e = (Entry)entries.get(key);
+        if (e != null) {
+            return e;
+        }
+        entries.put(key, entry);
+        trim();
+        return entry;
+    }
+
+    /**
+     * Drops least recently used trees until there are no more than
+     * <code>maxEntries</code>.
+     */
+    protected void trim() {
+        Iterator i = entries.values().iterator();
+        int n = entries.size();
+        while (n > maxEntries && i.hasNext()) {
+            drop((Entry)i.next());
+            i.remove();
+            n--;
+        }
+    }
+
+    /**
+     * Marks <code>e</code> as dropped from the cache, and disposes its
+     * bridge context unless the tree is being rendered.
+     */
+    protected void drop(Entry e) {
+        e.dropped = true;
+        if (e.users == 0) {
+            e.ctx.dispose();
+        }
+    }
+
+    /**
+     * Returns the key of the tree built from <code>input</code>, or null
+     * if it cannot be cached.  Only inputs given as a byte stream, a
+     * character stream or a URI can be cached.  The content of byte
+     * and character streams is read in memory and copied to
+     * <code>in</code>, from which the document is parsed if the tree
+     * is not in the cache.  The content at a URI is read in memory
+     * the same way, so that the document parsed is the one the digest
+     * was computed from.
+     *
+     * @param owner the class of the transcoder building the tree
+     * @param input the input to transcode
+     * @param in the input to parse the document from
+     * @param hints the hints that affect how the tree is built
+     */
+    public Object createKey(Object owner, TranscoderInput input,
+                            TranscoderInput in, Map hints)
+            throws IOException {
+        if (input.getDocument() != null || input.getXMLReader() != null) {
+            return null;
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            return null;
+        }
+        String uri = input.getURI();
+        in.setURI(uri);
+        if (input.getInputStream() != null) {
+            byte [] b = readBytes(input.getInputStream());
+            md.update(b);
+            in.setInputStream(new ByteArrayInputStream(b));
+        } else if (input.getReader() != null) {
+            char [] c = readChars(input.getReader());
+            md.update((byte)'c');
+            for (int i = 0; i < c.length; i++) {
+                md.update((byte)(c[i] >>> 8));
+                md.update((byte)c[i]);
+            }
+            in.setReader(new CharArrayReader(c));
+        } else if (uri != null) {
+            ParsedURL purl = new ParsedURL(uri);
+            InputStream is = purl.openStream
+                (MimeTypeConstants.MIME_TYPES_SVG_LIST.iterator());
+            byte [] b;
+            try {
+                b = readBytes(is);
+            } finally {
+                is.close();
+            }
+            md.update(b);
+            in.setURI(purl.getPostConnectionURL());
+            in.setInputStream(new ByteArrayInputStream(b));
+
+            // Keep the charset given by the content type, as when the
+            // document is parsed from the URI.
+            String charset = purl.getContentTypeCharset();
+            if (charset != null) {
+                try {
+                    in.setReader(new InputStreamReader
+                                 (new ByteArrayInputStream(b), charset));
+                    in.setInputStream(null);
+                    md.update(charset.getBytes("UTF-8"));
+                } catch (UnsupportedEncodingException ex) {
+                }
+            }
+        } else {
+            return null;
+        }
+        return new Key(owner, uri, md.digest(), hints);
+    }
+
+    /**
+     * Reads <code>is</code> to the end.
+     */
+    protected static byte [] readBytes(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte [] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads <code>r</code> to the end.
+     */
+    protected static char [] readChars(Reader r) throws IOException {
+        CharArrayWriter out = new CharArrayWriter();
+        char [] buf = new char[4096];
+        int n;
+        while ((n = r.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toCharArray();
+    }
+
+    /**
+     * The user agent of the bridge contexts of the cached trees.  It
+     * forwards to the user agent set for the current thread, which is
+     * the one of the transcoder building or rendering a tree, and to a
+     * <code>UserAgentAdapter</code> on other threads.
+     */
+    public static class TreeUserAgent implements UserAgent {
+
+        /**
+         * The user agent used on threads with no user agent set.
+         */
+        protected UserAgent defaultUserAgent = new UserAgentAdapter();
+
+        /**
+         * The user agent of each thread.
+         */
+        protected ThreadLocal current = new ThreadLocal();
+
+        /**
+         * Sets the user agent to forward to on the current thread.
+         * @param ua the user agent, or null to remove it
+         * @return the user agent previously set for the thread, or null
+         */
+        public UserAgent setUserAgent(UserAgent ua) {
+            UserAgent old = (UserAgent)current.get();
+            if (ua == null) {
+                current.remove();
+            } else {
+                current.set(ua);
+            }
+            return old;
+        }
+
+        /**
+         * Returns the user agent to forward to on the current thread.
+         */
+        public UserAgent getUserAgent() {
+            UserAgent ua = (UserAgent)current.get();
+            return (ua == null) ? defaultUserAgent : ua;
+        }
+
+        public EventDispatcher getEventDispatcher() {
+            return getUserAgent().getEventDispatcher();
+        }
+
+        public Dimension2D getViewportSize() {
+            return getUserAgent().getViewportSize();
+        }
+
+        public void displayError(Exception ex) {
+            getUserAgent().displayError(ex);
+        }
+
+        public void displayMessage(String message) {
+            getUserAgent().displayMessage(message);
+        }
+
+        public void showAlert(String message) {
+            getUserAgent().showAlert(message);
+        }
+
+        public String showPrompt(String message) {
+            return getUserAgent().showPrompt(message);
+        }
+
+        public String showPrompt(String message, String defaultValue) {
+            return getUserAgent().showPrompt(message, defaultValue);
+        }
+
+        public boolean showConfirm(String message) {
+            return getUserAgent().showConfirm(message);
+        }
+
+        public float getPixelUnitToMillimeter() {
+            return getUserAgent().getPixelUnitToMillimeter();
+        }
+
+        public float getPixelToMM() {
+            return getUserAgent().getPixelToMM();
+        }
+
+        public float getMediumFontSize() {
+            return getUserAgent().getMediumFontSize();
+        }
+
+        public float getLighterFontWeight(float f) {
+            return getUserAgent().getLighterFontWeight(f);
+        }
+
+        public float getBolderFontWeight(float f) {
+            return getUserAgent().getBolderFontWeight(f);
+        }
+
+        public String getDefaultFontFamily() {
+            return getUserAgent().getDefaultFontFamily();
+        }
+
+        public String getLanguages() {
+            return getUserAgent().getLanguages();
+        }
+
+        public String getUserStyleSheetURI() {
+            return getUserAgent().getUserStyleSheetURI();
+        }
+
+        public void openLink(SVGAElement elt) {
+            getUserAgent().openLink(elt);
+        }
+
+        public void setSVGCursor(Cursor cursor) {
+            getUserAgent().setSVGCursor(cursor);
+        }
+
+        public void setTextSelection(Mark start, Mark end) {
+            getUserAgent().setTextSelection(start, end);
+        }
+
+        public void deselectAll() {
+            getUserAgent().deselectAll();
+        }
+
+        public String getXMLParserClassName() {
+            return getUserAgent().getXMLParserClassName();
+        }
+
+        public boolean isXMLParserValidating() {
+            return getUserAgent().isXMLParserValidating();
+        }
+
+        public AffineTransform getTransform() {
+            return getUserAgent().getTransform();
+        }
+
+        public void setTransform(AffineTransform at) {
+            getUserAgent().setTransform(at);
+        }
+
+        public String getMedia() {
+            return getUserAgent().getMedia();
+        }
+
+        public String getAlternateStyleSheet() {
+            return getUserAgent().getAlternateStyleSheet();
+        }
+
+        public Point getClientAreaLocationOnScreen() {
+            return getUserAgent().getClientAreaLocationOnScreen();
+        }
+
+        public boolean hasFeature(String s) {
+            return getUserAgent().hasFeature(s);
+        }
+
+        public boolean supportExtension(String s) {
+            return getUserAgent().supportExtension(s);
+        }
+
+        public void registerExtension(BridgeExtension ext) {
+            getUserAgent().registerExtension(ext);
+        }
+
+        public void handleElement(Element elt, Object data) {
+            getUserAgent().handleElement(elt, data);
+        }
+
+        public ScriptSecurity getScriptSecurity(String scriptType,
+                                                ParsedURL scriptURL,
+                                                ParsedURL docURL) {
+            return getUserAgent().getScriptSecurity
+                (scriptType, scriptURL, docURL);
+        }
+
+        public void checkLoadScript(String scriptType,
+                                    ParsedURL scriptURL,
+                                    ParsedURL docURL)
+                throws SecurityException {
+            getUserAgent().checkLoadScript(scriptType, scriptURL, docURL);
+        }
+
+        public ExternalResourceSecurity
+            getExternalResourceSecurity(ParsedURL resourceURL,
+                                        ParsedURL docURL) {
+            return getUserAgent().getExternalResourceSecurity
+                (resourceURL, docURL);
+        }
+
+        public void checkLoadExternalResource(ParsedURL resourceURL,
+                                              ParsedURL docURL)
+                throws SecurityException {
+            getUserAgent().checkLoadExternalResource(resourceURL, docURL);
+        }
+
+        public SVGDocument getBrokenLinkDocument(Element e, String url,
+                                                 String message) {
+            return getUserAgent().getBrokenLinkDocument(e, url, message);
+        }
+
+        public void loadDocument(String url) {
+            getUserAgent().loadDocument(url);
+        }
+
+        public FontFamilyResolver getFontFamilyResolver() {
+            return getUserAgent().getFontFamilyResolver();
+        }
+    }
+}
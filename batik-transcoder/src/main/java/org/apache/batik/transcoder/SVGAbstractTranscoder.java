@@ -22,8 +22,12 @@ import java.awt.Dimension;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Dimension2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
@@ -47,8 +51,10 @@ import org.apache.batik.dom.util.DocumentFactory;
 import org.apache.batik.gvt.CanvasGraphicsNode;
 import org.apache.batik.gvt.CompositeGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ProxyGraphicsNode;
 import org.apache.batik.transcoder.keys.BooleanKey;
 import org.apache.batik.transcoder.keys.FloatKey;
+import org.apache.batik.transcoder.keys.GVTTreeCacheKey;
 import org.apache.batik.transcoder.keys.LengthKey;
 import org.apache.batik.transcoder.keys.Rectangle2DKey;
 import org.apache.batik.transcoder.keys.StringKey;
@@ -113,6 +119,30 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
     /** The user agent dedicated to an SVG Transcoder. */
     protected UserAgent userAgent;
 
+    /**
+     * The key of the current document in the GVT tree cache, or null
+     * if its tree is not to be cached.
+     */
+    protected Object treeCacheKey;
+
+    /**
+     * The cached tree of the current document, or null.
+     */
+    protected GVTTreeCache.Entry cachedTree;
+
+    /**
+     * The tree built for the current document, if it can be cached.
+     * It is only put in the cache once rendered.
+     */
+    protected GVTTreeCache.Entry builtTree;
+
+    /**
+     * Whether the user agent's viewport size was used while building
+     * the current tree.  Such a tree depends on the image size and is
+     * not cached.
+     */
+    protected boolean viewportSizeUsed;
+
     protected SVGAbstractTranscoder() {
         userAgent = createUserAgent();
 
@@ -153,11 +183,113 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
     public void transcode(TranscoderInput input, TranscoderOutput output)
             throws TranscoderException {
 
-        super.transcode(input, output);
+        GVTTreeCache cache = (GVTTreeCache)hints.get(KEY_GVT_TREE_CACHE);
+        if (cache == null || isDynamic()) {
+            super.transcode(input, output);
+
+            if (ctx != null)
+                ctx.dispose();
+            return;
+        }
+
+        TranscoderInput in = new TranscoderInput();
+        try {
+            treeCacheKey = cache.createKey(getClass(), input, in,
+                                           getTreeCacheHints());
+        } catch (IOException ex) {
+            handler.fatalError(new TranscoderException(ex));
+            return;
+        }
+        if (treeCacheKey == null) {
+            super.transcode(input, output);
+
+            if (ctx != null)
+                ctx.dispose();
+            return;
+        }
 
-        if (ctx != null)
-            ctx.dispose();
+        // The bridge context of a cached tree forwards to the user agent
+        // of the transcoder using it on this thread.
+        GVTTreeCache.TreeUserAgent tua = cache.getTreeUserAgent();
+        UserAgent ua = tua.setUserAgent(userAgent);
+        try {
+            cachedTree = cache.get(treeCacheKey);
+            if (cachedTree != null) {
+                try {
+                    transcode(cachedTree.getDocument(), in.getURI(), output);
+                } catch (TranscoderException ex) {
+                    handler.fatalError(ex);
+                }
+            } else {
+                super.transcode(in, output);
+
+                // A cached tree may be rendered by several transcoders
+                // at the same time, so it is not modified any more: its
+                // canvas gets an identity viewing transform, and the
+                // transcoders render it through a proxy instead.
+                if (builtTree != null) {
+                    CanvasGraphicsNode cgn =
+                        getCanvasGraphicsNode(builtTree.getRoot());
+                    if (cgn != null)
+                        cgn.setViewingTransform(new AffineTransform());
+                }
+
+                // The bridge context of a cached tree is kept alive.
+                if (builtTree == null ||
+                    cache.put(treeCacheKey, builtTree) != builtTree) {
+                    if (ctx != null)
+                        ctx.dispose();
+                }
+            }
+        } finally {
+            tua.setUserAgent(ua);
+            if (cachedTree != null)
+                cache.release(cachedTree);
+            treeCacheKey = null;
+            cachedTree = null;
+            builtTree = null;
+        }
+    }
+
+    /**
+     * Returns the transcoding hints that affect how the GVT tree is
+     * built, which are part of the key of cached trees.
+     */
+    protected Map getTreeCacheHints() {
+        Map m = new HashMap();
+        Iterator i = hints.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            if (!isRenderingHint((TranscodingHints.Key)e.getKey())) {
+                m.put(e.getKey(), e.getValue());
+            }
+        }
+        return m;
     }
+
+    /**
+     * Returns true if the document is to be processed as a dynamic
+     * document, that is with its scripts and animations run.
+     */
+    protected boolean isDynamic() {
+        return hints.containsKey(KEY_EXECUTE_ONLOAD) &&
+            (Boolean) hints.get(KEY_EXECUTE_ONLOAD);
+    }
+
+    /**
+     * Returns true if <code>key</code> only affects how the GVT tree is
+     * rendered, and so can change without the tree being built again.
+     * Subclasses override this method to add their own rendering hints.
+     */
+    protected boolean isRenderingHint(TranscodingHints.Key key) {
+        return key == KEY_WIDTH
+            || key == KEY_HEIGHT
+            || key == KEY_MAX_WIDTH
+            || key == KEY_MAX_HEIGHT
+            || key == KEY_AOI
+            || key == KEY_GVT_TREE_CACHE;
+    }
+
     /**
      * Transcodes the specified Document as an image in the specified output.
      *
@@ -191,39 +323,12 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
 
         SVGOMDocument svgDoc = (SVGOMDocument)document;
         SVGSVGElement root = svgDoc.getRootElement();
-        ctx = createBridgeContext(svgDoc);
-
-        // build the GVT tree
-        builder = new GVTBuilder();
-        // flag that indicates if the document is dynamic
-        boolean isDynamic =
-            hints.containsKey(KEY_EXECUTE_ONLOAD) &&
-                    (Boolean) hints.get(KEY_EXECUTE_ONLOAD);
-
         GraphicsNode gvtRoot;
-        try {
-            if (isDynamic)
-                ctx.setDynamicState(BridgeContext.DYNAMIC);
-
-            gvtRoot = builder.build(ctx, svgDoc);
-
-            // dispatch an 'onload' event if needed
-            if (ctx.isDynamic()) {
-                BaseScriptingEnvironment se;
-                se = new BaseScriptingEnvironment(ctx);
-                se.loadScripts();
-                se.dispatchSVGLoadEvent();
-                if (hints.containsKey(KEY_SNAPSHOT_TIME)) {
-                    float t =
-                            (Float) hints.get(KEY_SNAPSHOT_TIME);
-                    ctx.getAnimationEngine().setCurrentTime(t);
-                } else if (ctx.isSVG12()) {
-                    float t = SVGUtilities.convertSnapshotTime(root, null);
-                    ctx.getAnimationEngine().setCurrentTime(t);
-                }
-            }
-        } catch (BridgeException ex) {
-            throw new TranscoderException(ex);
+        if (cachedTree != null) {
+            ctx = cachedTree.getBridgeContext();
+            gvtRoot = cachedTree.getRoot();
+        } else {
+            gvtRoot = buildGVTTree(svgDoc, root);
         }
 
         // get the 'width' and 'height' attributes of the SVG document
@@ -278,7 +383,18 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
         }
 
         CanvasGraphicsNode cgn = getCanvasGraphicsNode(gvtRoot);
-        if (cgn != null) {
+        if (cgn != null && cachedTree != null) {
+            // A cached tree may be rendered by other transcoders at the
+            // same time, so it is not modified: Px is set on a proxy of
+            // the tree, its canvas having an identity viewing transform.
+            ProxyGraphicsNode pgn = new ProxyGraphicsNode();
+            pgn.setSource(gvtRoot);
+            pgn.setTransform(Px);
+            CompositeGraphicsNode proxyRoot = new CompositeGraphicsNode();
+            proxyRoot.getChildren().add(pgn);
+            gvtRoot = proxyRoot;
+            curTxf = new AffineTransform();
+        } else if (cgn != null) {
             cgn.setViewingTransform(Px);
             curTxf = new AffineTransform();
         } else {
@@ -288,6 +404,65 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
         this.root = gvtRoot;
     }
 
+    /**
+     * Builds the GVT tree of the specified document.  If a GVT tree
+     * cache is in use and the document is static, the tree is kept in
+     * <code>builtTree</code> to be cached once rendered.  Its bridge
+     * context is then created with the user agent of the cache, so
+     * that the tree does not keep this transcoder.
+     */
+    protected GraphicsNode buildGVTTree(SVGOMDocument svgDoc, SVGSVGElement root)
+            throws TranscoderException {
+
+        if (treeCacheKey != null) {
+            GVTTreeCache cache = (GVTTreeCache)hints.get(KEY_GVT_TREE_CACHE);
+            UserAgent ua = userAgent;
+            userAgent = cache.getTreeUserAgent();
+            try {
+                ctx = createBridgeContext(svgDoc);
+            } finally {
+                userAgent = ua;
+            }
+        } else {
+            ctx = createBridgeContext(svgDoc);
+        }
+
+        // build the GVT tree
+        builder = new GVTBuilder();
+
+        GraphicsNode gvtRoot;
+        viewportSizeUsed = false;
+        try {
+            if (isDynamic())
+                ctx.setDynamicState(BridgeContext.DYNAMIC);
+
+            gvtRoot = builder.build(ctx, svgDoc);
+
+            // dispatch an 'onload' event if needed
+            if (ctx.isDynamic()) {
+                BaseScriptingEnvironment se;
+                se = new BaseScriptingEnvironment(ctx);
+                se.loadScripts();
+                se.dispatchSVGLoadEvent();
+                if (hints.containsKey(KEY_SNAPSHOT_TIME)) {
+                    float t =
+                            (Float) hints.get(KEY_SNAPSHOT_TIME);
+                    ctx.getAnimationEngine().setCurrentTime(t);
+                } else if (ctx.isSVG12()) {
+                    float t = SVGUtilities.convertSnapshotTime(root, null);
+                    ctx.getAnimationEngine().setCurrentTime(t);
+                }
+            }
+        } catch (BridgeException ex) {
+            throw new TranscoderException(ex);
+        }
+
+        if (treeCacheKey != null && !ctx.isDynamic() && !viewportSizeUsed) {
+            builtTree = new GVTTreeCache.Entry(svgDoc, ctx, gvtRoot);
+        }
+        return gvtRoot;
+    }
+
     protected CanvasGraphicsNode getCanvasGraphicsNode(GraphicsNode gn) {
         if (!(gn instanceof CompositeGraphicsNode))
             return null;
@@ -876,6 +1051,41 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
     public static final TranscodingHints.Key KEY_CONSTRAIN_SCRIPT_ORIGIN
         = new BooleanKey();
 
+    /**
+     * The cache of GVT trees to use.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_GVT_TREE_CACHE</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">GVTTreeCache</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">null</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">When specified, the GVT tree of a static
+     *       document is kept in the cache, and reused instead of being
+     *       built again when the same document is transcoded with
+     *       the same hints, except for the hints that only affect the
+     *       rendering such as the image size or the area of interest.
+     *       Documents given as a <code>Document</code> or through an
+     *       <code>XMLReader</code> are not cached.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_GVT_TREE_CACHE
+        = new GVTTreeCacheKey();
+
 
     /**
      * A user agent implementation for <code>PrintTranscoder</code>.
@@ -908,6 +1118,7 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
          * Returns the default size of this user agent (400x400).
          */
         public Dimension2D getViewportSize() {
+            SVGAbstractTranscoder.this.viewportSizeUsed = true;
             return new Dimension((int)SVGAbstractTranscoder.this.width,
                                  (int)SVGAbstractTranscoder.this.height);
         }
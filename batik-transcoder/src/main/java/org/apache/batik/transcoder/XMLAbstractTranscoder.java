@@ -109,6 +109,11 @@ public abstract class XMLAbstractTranscoder extends AbstractTranscoder {
             Object xmlParserValidating = hints.get(KEY_XML_PARSER_VALIDATING);
             boolean validating = xmlParserValidating != null && (Boolean) xmlParserValidating;
             f.setValidating(validating);
+            if (f instanceof SAXDocumentFactory) {
+                Object compact = hints.get(KEY_COMPACT_ATTRIBUTES);
+                ((SAXDocumentFactory)f).setCompactAttributes
+                    (compact != null && (Boolean) compact);
+            }
             try {
                 if (input.getInputStream() != null) {
                     document = f.createDocument(namespaceURI,
@@ -235,6 +240,37 @@ public abstract class XMLAbstractTranscoder extends AbstractTranscoder {
     public static final TranscodingHints.Key KEY_XML_PARSER_VALIDATING
         = new BooleanKey();
 
+    /**
+     * The compact attributes key.
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_COMPACT_ATTRIBUTES</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Boolean</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">false</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Specify whether the elements of the parsed
+     *       document keep their attributes in a compact form, where the
+     *       attribute nodes are only created when they are requested.
+     *       This saves a lot of memory on large documents.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_COMPACT_ATTRIBUTES
+        = new BooleanKey();
+
     /**
      * Document element key.
      * <table summary="" border="0" cellspacing="0" cellpadding="1">
@@ -0,0 +1,283 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.TranscodingHints;
+import org.apache.batik.transcoder.image.resources.Messages;
+
+/**
+ * This class is a <code>FrameSequenceTranscoder</code> that produces an
+ * animated PNG (APNG) image.
+ *
+ * <p>Each frame is encoded by a <code>PNGTranscoder</code> given the hints
+ * of this transcoder, except <code>PNGTranscoder.KEY_INDEXED</code> as
+ * all the frames must share the same color type.  Frames after the first
+ * one only hold the area that changed since the previous frame, and are
+ * written to the output as soon as they are rendered.  Viewers that do
+ * not support APNG show the first frame.
+ *
+ * @version $Id$
+ */
+public class APNGTranscoder extends FrameSequenceTranscoder {
+
+    /**
+     * The PNG file signature.
+     */
+    protected static final byte[] SIGNATURE = {
+        (byte)137, 80, 78, 71, 13, 10, 26, 10
+    };
+
+    protected static final int IHDR = 0x49484452;
+    protected static final int IDAT = 0x49444154;
+    protected static final int IEND = 0x49454e44;
+    protected static final int ACTL = 0x6163544c;
+    protected static final int FCTL = 0x6663544c;
+    protected static final int FDAT = 0x66644154;
+
+    /**
+     * The transcoder that encodes the frames.
+     */
+    protected PNGTranscoder encoder = new PNGTranscoder();
+
+    /**
+     * The stream the image is written to.
+     */
+    protected DataOutputStream ostream;
+
+    /**
+     * The next sequence number of the fcTL and fdAT chunks.
+     */
+    protected int sequenceNumber;
+
+    /**
+     * The header of the first frame, which the other frames must match.
+     */
+    protected byte[] header;
+
+    protected int numFrames;
+    protected int delayNum;
+    protected int delayDen;
+
+    /**
+     * Constructs a new transcoder that produces animated png images.
+     */
+    public APNGTranscoder() {
+        hints.putAll(encoder.getTranscodingHints());
+    }
+
+    protected void startFrames(int width, int height, int count, float rate,
+                               TranscoderOutput output)
+        throws TranscoderException {
+        OutputStream os = output.getOutputStream();
+        if (os == null) {
+            throw new TranscoderException(
+                Messages.formatMessage("apng.badoutput", null));
+        }
+        ostream = new DataOutputStream(os);
+        sequenceNumber = 0;
+        header = null;
+        numFrames = count;
+
+        // The delay is a fraction of a second on 16 bits.
+        delayNum = 100;
+        delayDen = Math.max(1, Math.min(0xffff, Math.round(rate * 100)));
+
+        TranscodingHints encoderHints = new TranscodingHints(hints);
+        encoderHints.remove(PNGTranscoder.KEY_INDEXED);
+        encoder.setTranscodingHints(encoderHints);
+    }
+
+    /**
+     * Encodes the area of the frame that changed, and writes it to the
+     * output.
+     */
+    protected void writeFrame(BufferedImage img, Rectangle dirty,
+                              int frame, TranscoderOutput output)
+        throws TranscoderException {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        Rectangle r = dirty;
+        if (frame == 0) {
+            r = new Rectangle(0, 0, w, h);
+        } else if (r.isEmpty()) {
+            // Nothing changed, but a frame needs at least one pixel.
+            r = new Rectangle(0, 0, 1, 1);
+        }
+
+        // The image is reused for the next frame and the encoder may
+        // change the image it is given, so a copy is encoded.
+        BufferedImage sub = createImage(r.width, r.height);
+        sub.setData(img.getRaster().createChild
+                    (r.x, r.y, r.width, r.height, 0, 0, null));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        encoder.writeImage(sub, new TranscoderOutput(bos));
+        byte[] png = bos.toByteArray();
+
+        try {
+            int pos = SIGNATURE.length;
+            if (frame == 0) {
+                ostream.write(SIGNATURE);
+            }
+            boolean started = false;
+            while (pos + 8 <= png.length) {
+                int len  = readInt(png, pos);
+                int type = readInt(png, pos + 4);
+                int data = pos + 8;
+                pos = data + len + 4;
+
+                if (type == IHDR) {
+                    if (frame == 0) {
+                        header = new byte[len];
+                        System.arraycopy(png, data, header, 0, len);
+                        writeChunk(IHDR, png, data, len);
+                        writeAnimationControl();
+                    } else if (!sameFormat(png, data)) {
+                        throw new TranscoderException(
+                            Messages.formatMessage("apng.badframe", null));
+                    }
+                } else if (type == IDAT) {
+                    if (!started) {
+                        writeFrameControl(r);
+                        started = true;
+                    }
+                    if (frame == 0) {
+                        writeChunk(IDAT, png, data, len);
+                    } else {
+                        writeFrameData(png, data, len);
+                    }
+                } else if (type == IEND) {
+                    break;
+                } else if (frame == 0 && !started) {
+                    // Ancillary chunks of the first frame apply to all.
+                    writeChunk(type, png, data, len);
+                }
+            }
+            ostream.flush();
+        } catch (IOException ex) {
+            throw new TranscoderException(ex);
+        }
+    }
+
+    protected void endFrames(TranscoderOutput output)
+        throws TranscoderException {
+        try {
+            writeChunk(IEND, new byte[0], 0, 0);
+            ostream.flush();
+        } catch (IOException ex) {
+            throw new TranscoderException(ex);
+        } finally {
+            ostream = null;
+            header = null;
+        }
+    }
+
+    /**
+     * Returns true if the header of a frame, at <code>off</code> in
+     * <code>png</code>, has the same format as the first frame's.
+     */
+    protected boolean sameFormat(byte[] png, int off) {
+        // Skip the width and height.
+        for (int i = 8; i < header.length; i++) {
+            if (png[off + i] != header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the acTL chunk.
+     */
+    protected void writeAnimationControl() throws IOException {
+        byte[] b = new byte[8];
+        writeInt(b, 0, numFrames);
+        writeInt(b, 4, 0); // loop forever
+        writeChunk(ACTL, b, 0, b.length);
+    }
+
+    /**
+     * Writes the fcTL chunk of a frame covering <code>r</code>.
+     */
+    protected void writeFrameControl(Rectangle r) throws IOException {
+        byte[] b = new byte[26];
+        writeInt(b, 0, sequenceNumber++);
+        writeInt(b, 4, r.width);
+        writeInt(b, 8, r.height);
+        writeInt(b, 12, r.x);
+        writeInt(b, 16, r.y);
+        b[20] = (byte)(delayNum >> 8);
+        b[21] = (byte)delayNum;
+        b[22] = (byte)(delayDen >> 8);
+        b[23] = (byte)delayDen;
+        b[24] = 0; // APNG_DISPOSE_OP_NONE
+        b[25] = 0; // APNG_BLEND_OP_SOURCE
+        writeChunk(FCTL, b, 0, b.length);
+    }
+
+    /**
+     * Writes IDAT data as an fdAT chunk.
+     */
+    protected void writeFrameData(byte[] png, int off, int len)
+        throws IOException {
+        byte[] b = new byte[len + 4];
+        writeInt(b, 0, sequenceNumber++);
+        System.arraycopy(png, off, b, 4, len);
+        writeChunk(FDAT, b, 0, b.length);
+    }
+
+    /**
+     * Writes a chunk and its CRC.
+     */
+    protected void writeChunk(int type, byte[] data, int off, int len)
+        throws IOException {
+        byte[] t = new byte[4];
+        writeInt(t, 0, type);
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(data, off, len);
+
+        ostream.writeInt(len);
+        ostream.write(t);
+        ostream.write(data, off, len);
+        ostream.writeInt((int)crc.getValue());
+    }
+
+    protected static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+            | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    protected static void writeInt(byte[] b, int off, int v) {
+        b[off]     = (byte)(v >>> 24);
+        b[off + 1] = (byte)(v >>> 16);
+        b[off + 2] = (byte)(v >>> 8);
+        b[off + 3] = (byte)v;
+    }
+}
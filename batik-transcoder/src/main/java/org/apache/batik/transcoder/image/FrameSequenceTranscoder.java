@@ -0,0 +1,344 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.batik.bridge.RepaintManager;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.RootGraphicsNode;
+import org.apache.batik.gvt.UpdateTracker;
+import org.apache.batik.gvt.renderer.ConcreteImageRendererFactory;
+import org.apache.batik.gvt.renderer.ImageRenderer;
+import org.apache.batik.gvt.renderer.ImageRendererFactory;
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.TranscodingHints;
+import org.apache.batik.transcoder.keys.FloatKey;
+import org.apache.batik.transcoder.keys.IntegerKey;
+import org.w3c.dom.Document;
+
+/**
+ * This class enables to transcode an animated document to a sequence
+ * of frames.
+ *
+ * <p>The document is loaded and its GVT tree built once.  The frames
+ * are then taken at a fixed rate, starting at <code>KEY_SNAPSHOT_TIME</code>,
+ * by seeking the animation engine to the time of each frame.  Only the
+ * areas of the tree that changed since the previous frame are
+ * repainted, on top of the previous frame.
+ *
+ * <p><code>KEY_FRAME_RATE</code> and <code>KEY_FRAME_COUNT</code> give the
+ * number of frames per second and the number of frames to produce.
+ * <code>KEY_WIDTH</code>, <code>KEY_HEIGHT</code>, <code>KEY_AOI</code>
+ * and <code>ImageTranscoder.KEY_BACKGROUND_COLOR</code> apply as they do
+ * for <code>ImageTranscoder</code>.  The document is always processed as
+ * a dynamic document.
+ *
+ * @version $Id$
+ */
+public abstract class FrameSequenceTranscoder extends SVGAbstractTranscoder {
+
+    /**
+     * The default number of frames per second.
+     */
+    public static final float DEFAULT_FRAME_RATE = 25;
+
+    /**
+     * Constructs a new <code>FrameSequenceTranscoder</code>.
+     */
+    protected FrameSequenceTranscoder() {
+    }
+
+    /**
+     * Returns true: the animations of the document must run.
+     */
+    protected boolean isDynamic() {
+        return true;
+    }
+
+    /**
+     * Transcodes the specified Document as a sequence of frames in the
+     * specified output.
+     *
+     * @param document the document to transcode
+     * @param uri the uri of the document or null if any
+     * @param output the ouput where to transcode
+     * @exception TranscoderException if an error occured while transcoding
+     */
+    protected void transcode(Document document,
+                             String uri,
+                             TranscoderOutput output)
+            throws TranscoderException {
+
+        // Sets up root, curTxf & curAoi
+        super.transcode(document, uri, output);
+
+        int w = (int)(width+0.5);
+        int h = (int)(height+0.5);
+        float rate = getFrameRate();
+        int count = getFrameCount();
+        float start = 0;
+        if (hints.containsKey(KEY_SNAPSHOT_TIME)) {
+            start = (Float) hints.get(KEY_SNAPSHOT_TIME);
+        }
+
+        ImageRenderer renderer = createRenderer();
+        renderer.updateOffScreen(w, h);
+        renderer.setTransform(curTxf);
+        renderer.setTree(this.root);
+
+        // Track the changes made by the animations from the first frame.
+        ctx.getAnimationEngine().setCurrentTime(start);
+        UpdateTracker tracker = new UpdateTracker();
+        RootGraphicsNode rgn = this.root.getRoot();
+        if (rgn != null) {
+            rgn.addTreeGraphicsNodeChangeListener(tracker);
+        }
+        this.root = null; // We're done with it...
+
+        try {
+            RepaintManager repaintManager = new RepaintManager(renderer);
+            Rectangle bounds = new Rectangle(0, 0, w, h);
+            Shape raoi = new Rectangle2D.Float(0, 0, width, height);
+            // Warning: the renderer's AOI must be in user space
+            renderer.repaint(curTxf.createInverse().
+                             createTransformedShape(raoi));
+
+            BufferedImage frame = createImage(w, h);
+            Collection areas = Collections.singletonList(bounds);
+            startFrames(w, h, count, rate, output);
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    ctx.getAnimationEngine().setCurrentTime(start + i / rate);
+                    areas = Collections.EMPTY_LIST;
+                    List dirtyAreas = tracker.getDirtyAreas();
+                    tracker.clear();
+                    if (dirtyAreas != null) {
+                        areas = repaintManager.updateRendering(dirtyAreas);
+                    }
+                }
+                Rectangle dirty = updateFrame(frame, renderer.getOffScreen(),
+                                              areas);
+                writeFrame(frame, dirty, i, output);
+            }
+            endFrames(output);
+        } catch (TranscoderException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new TranscoderException(ex);
+        } finally {
+            if (rgn != null) {
+                rgn.removeTreeGraphicsNodeChangeListener(tracker);
+            }
+            renderer.dispose();
+        }
+    }
+
+    /**
+     * Copies the repainted <code>areas</code> of the renderer's offscreen
+     * to <code>frame</code>, over the background color if any.
+     * @return the bounds of the area of the frame that changed, which
+     *         may be empty.
+     */
+    protected Rectangle updateFrame(BufferedImage frame, BufferedImage rend,
+                                    Collection areas) {
+        Rectangle bounds = new Rectangle(0, 0,
+                                         frame.getWidth(), frame.getHeight());
+        Rectangle dirty = new Rectangle();
+        Paint bgcolor = null;
+        if (hints.containsKey(ImageTranscoder.KEY_BACKGROUND_COLOR)) {
+            bgcolor = (Paint)hints.get(ImageTranscoder.KEY_BACKGROUND_COLOR);
+        }
+        Graphics2D g2d = GraphicsUtil.createGraphics(frame);
+        for (Object area : areas) {
+            Rectangle r = bounds.intersection((Rectangle)area);
+            if (r.isEmpty()) continue;
+            dirty = dirty.isEmpty() ? r : dirty.union(r);
+
+            g2d.setClip(r);
+            g2d.setComposite(AlphaComposite.Src);
+            if (bgcolor != null) {
+                g2d.setPaint(bgcolor);
+                g2d.fill(r);
+                g2d.setComposite(AlphaComposite.SrcOver);
+            }
+            if (rend != null) { // might be null if the svg document is empty
+                g2d.drawRenderedImage(rend, new AffineTransform());
+            } else if (bgcolor == null) {
+                g2d.setComposite(AlphaComposite.Clear);
+                g2d.fill(r);
+            }
+        }
+        g2d.dispose();
+        return dirty;
+    }
+
+    /**
+     * Method so subclasses can modify the Renderer used to render the
+     * frames.  The renderer must be able to repaint parts of its
+     * offscreen.
+     */
+    protected ImageRenderer createRenderer() {
+        ImageRendererFactory rendFactory = new ConcreteImageRendererFactory();
+        return rendFactory.createDynamicImageRenderer();
+    }
+
+    /**
+     * Returns the number of frames per second.
+     */
+    protected float getFrameRate() {
+        if (hints.containsKey(KEY_FRAME_RATE)) {
+            return (Float) hints.get(KEY_FRAME_RATE);
+        }
+        return DEFAULT_FRAME_RATE;
+    }
+
+    /**
+     * Returns the number of frames to produce.
+     */
+    protected int getFrameCount() {
+        if (hints.containsKey(KEY_FRAME_COUNT)) {
+            return (Integer) hints.get(KEY_FRAME_COUNT);
+        }
+        return 1;
+    }
+
+    /**
+     * Creates the image the frames are composed in.  The same image is
+     * passed to <code>writeFrame</code> for every frame.
+     * @param width the image width in pixels
+     * @param height the image height in pixels
+     */
+    public BufferedImage createImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Called before the first frame is written.
+     * @param width the frame width in pixels
+     * @param height the frame height in pixels
+     * @param count the number of frames that will be written
+     * @param rate the number of frames per second
+     * @param output the output where to store the frames
+     * @throws TranscoderException if an error occured
+     */
+    protected void startFrames(int width, int height, int count, float rate,
+                               TranscoderOutput output)
+        throws TranscoderException {
+    }
+
+    /**
+     * Writes a frame to the specified output.  The image is reused for
+     * the next frame, so it must not be modified or kept.
+     * @param img the image of the frame
+     * @param dirty the area of the image that changed since the previous
+     *              frame, which is the whole image for the first frame
+     * @param frame the index of the frame, starting at 0
+     * @param output the output where to store the frame
+     * @throws TranscoderException if an error occured while storing the frame
+     */
+    protected abstract void writeFrame(BufferedImage img, Rectangle dirty,
+                                       int frame, TranscoderOutput output)
+        throws TranscoderException;
+
+    /**
+     * Called after the last frame is written.
+     * @param output the output where the frames were stored
+     * @throws TranscoderException if an error occured
+     */
+    protected void endFrames(TranscoderOutput output)
+        throws TranscoderException {
+    }
+
+    // --------------------------------------------------------------------
+    // Keys definition
+    // --------------------------------------------------------------------
+
+    /**
+     * The frame rate key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_FRAME_RATE</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Float</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">25</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">The number of frames per second of document
+     *       time.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_FRAME_RATE
+        = new FloatKey();
+
+    /**
+     * The frame count key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_FRAME_COUNT</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">1</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">The number of frames to produce.  The first
+     *       frame is taken at <code>KEY_SNAPSHOT_TIME</code>.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_FRAME_COUNT
+        = new IntegerKey();
+}
@@ -0,0 +1,122 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.resources.Messages;
+
+/**
+ * This class is a <code>FrameSequenceTranscoder</code> that writes each
+ * frame to its own image file.
+ *
+ * <p>The frames are encoded by an <code>ImageTranscoder</code>, which
+ * defaults to a <code>PNGTranscoder</code>, and which is given the hints
+ * of this transcoder.  The URI of the output is a pattern for the file
+ * names of the frames, in which the index of the frame is substituted
+ * as by <code>String.format</code>, for example
+ * <code>frames/frame%04d.png</code>.
+ *
+ * @version $Id$
+ */
+public class ImageSequenceTranscoder extends FrameSequenceTranscoder {
+
+    /**
+     * The transcoder that encodes the frames.
+     */
+    protected ImageTranscoder encoder;
+
+    /**
+     * Constructs a new transcoder that produces a sequence of png images.
+     */
+    public ImageSequenceTranscoder() {
+        this(new PNGTranscoder());
+    }
+
+    /**
+     * Constructs a new transcoder that produces a sequence of images
+     * encoded by <code>encoder</code>.
+     */
+    public ImageSequenceTranscoder(ImageTranscoder encoder) {
+        this.encoder = encoder;
+        // The defaults of the encoder, such as the background color of
+        // JPEG images, apply to the frames.
+        hints.putAll(encoder.getTranscodingHints());
+    }
+
+    /**
+     * Returns the transcoder that encodes the frames.
+     */
+    public ImageTranscoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Creates the image the frames are composed in, as the encoder would.
+     */
+    public BufferedImage createImage(int width, int height) {
+        return encoder.createImage(width, height);
+    }
+
+    protected void startFrames(int width, int height, int count, float rate,
+                               TranscoderOutput output)
+        throws TranscoderException {
+        if (output.getURI() == null) {
+            throw new TranscoderException(
+                Messages.formatMessage("sequence.badoutput", null));
+        }
+        encoder.setTranscodingHints(hints);
+    }
+
+    /**
+     * Encodes the frame to the file named after its index.
+     */
+    protected void writeFrame(BufferedImage img, Rectangle dirty,
+                              int frame, TranscoderOutput output)
+        throws TranscoderException {
+        if (hints.containsKey(ImageTranscoder.KEY_FORCE_TRANSPARENT_WHITE) &&
+            (Boolean) hints.get(ImageTranscoder.KEY_FORCE_TRANSPARENT_WHITE)) {
+            // The encoder changes the image it is given in that case.
+            BufferedImage copy = createImage(img.getWidth(), img.getHeight());
+            copy.setData(img.getRaster());
+            img = copy;
+        }
+        String name = String.format(output.getURI(), frame);
+        File file = name.startsWith("file:")
+            ? new File(URI.create(name)) : new File(name);
+        try {
+            OutputStream ostream = new FileOutputStream(file);
+            try {
+                encoder.writeImage(img, new TranscoderOutput(ostream));
+            } finally {
+                ostream.close();
+            }
+        } catch (IOException ex) {
+            throw new TranscoderException(ex);
+        }
+    }
+}
@@ -27,17 +27,22 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.gvt.renderer.ConcreteImageRendererFactory;
 import org.apache.batik.gvt.renderer.ImageRenderer;
 import org.apache.batik.gvt.renderer.ImageRendererFactory;
+import org.apache.batik.gvt.renderer.StaticRenderer;
 import org.apache.batik.transcoder.SVGAbstractTranscoder;
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.TranscodingHints;
 import org.apache.batik.transcoder.keys.BooleanKey;
+import org.apache.batik.transcoder.keys.IntegerKey;
 import org.apache.batik.transcoder.keys.PaintKey;
+import org.apache.batik.util.Instrument;
+import org.apache.batik.util.Instrumentation;
 import org.w3c.dom.Document;
 
 /**
@@ -64,6 +69,15 @@ import org.w3c.dom.Document;
  * stylesheet, and <code>KEY_MM_PER_PIXEL</code> to specify the number of
  * millimeters in each pixel .
  *
+ * <p><code>KEY_RENDER_THREADS</code> can be used to render the image
+ * one tile at a time on several threads at once.  It is off by default,
+ * as the tiled image is not guaranteed to be bit-identical to the one
+ * painted at once.
+ *
+ * <p><code>KEY_GVT_TREE_CACHE</code> can be used to build the GVT tree
+ * of a static document once, and render it again at other sizes
+ * without parsing the document again.
+ *
  * @author <a href="mailto:Thierry.Kormann@sophia.inria.fr">Thierry Kormann</a>
  * @version $Id$
  */
@@ -104,12 +118,20 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
         renderer.setTree(this.root);
         this.root = null; // We're done with it...
 
+        ExecutorService executor = createTileExecutor(renderer);
+        Instrument inst = Instrumentation.getInstrument();
         try {
             // now we are sure that the aoi is the image size
             Shape raoi = new Rectangle2D.Float(0, 0, width, height);
-            // Warning: the renderer's AOI must be in user space
-            renderer.repaint(curTxf.createInverse().
-                             createTransformedShape(raoi));
+            Object token = (inst == null)
+                ? null : inst.enter(Instrument.RENDER, "image");
+            try {
+                // Warning: the renderer's AOI must be in user space
+                renderer.repaint(curTxf.createInverse().
+                                 createTransformedShape(raoi));
+            } finally {
+                if (inst != null) inst.exit(token);
+            }
             BufferedImage rend = renderer.getOffScreen();
             renderer = null; // We're done with it...
 
@@ -127,12 +149,61 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
             }
             g2d.dispose();
             rend = null; // We're done with it...
-            writeImage(dest, output);
+            if (inst != null) {
+                String cn = getClass().getName();
+                token = inst.enter(Instrument.ENCODE,
+                                   cn.substring(cn.lastIndexOf('.') + 1));
+            }
+            try {
+                writeImage(dest, output);
+            } finally {
+                if (inst != null) inst.exit(token);
+            }
         } catch (Exception ex) {
             throw new TranscoderException(ex);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
     }
 
+    /**
+     * Sets up tiled rendering on <code>renderer</code> when
+     * <code>KEY_RENDER_THREADS</code> is specified.
+     * @return the executor that was installed, or null if the image
+     *         is rendered on the calling thread.
+     */
+    protected ExecutorService createTileExecutor(ImageRenderer renderer) {
+        if (!(renderer instanceof StaticRenderer)) {
+            return null;
+        }
+        if (!hints.containsKey(KEY_RENDER_THREADS)) {
+            return null;
+        }
+        int n = ((Integer)hints.get(KEY_RENDER_THREADS)).intValue();
+        if (n == 0) {
+            n = Runtime.getRuntime().availableProcessors();
+        }
+        if (n < 1) {
+            return null;
+        }
+        ExecutorService executor = StaticRenderer.createTileExecutor(n);
+        ((StaticRenderer)renderer).setTileExecutor(executor);
+        return executor;
+    }
+
+    /**
+     * Returns true if <code>key</code> only affects how the GVT tree is
+     * rendered.
+     */
+    protected boolean isRenderingHint(TranscodingHints.Key key) {
+        return key == KEY_BACKGROUND_COLOR
+            || key == KEY_FORCE_TRANSPARENT_WHITE
+            || key == KEY_RENDER_THREADS
+            || super.isRenderingHint(key);
+    }
+
     /**
      * Method so subclasses can modify the Renderer used to render document.
      */
@@ -275,4 +346,43 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
      */
     public static final TranscodingHints.Key KEY_FORCE_TRANSPARENT_WHITE
         = new BooleanKey();
+
+    /**
+     * The number of threads used to render the image.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_RENDER_THREADS</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">null</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">When specified the offscreen image is split
+     *       along its tile grid and the tiles are painted concurrently
+     *       on that many threads.  A value of zero uses one thread per
+     *       available processor.  The output does not depend on the
+     *       number of threads.  The clips of the document apply to
+     *       each tile as they do to the whole image, but Java2D still
+     *       clips paths and evaluates gradients and textures tile by
+     *       tile, so the output is not guaranteed to be bit-identical
+     *       to the rendering made when this key is not set: antialiased
+     *       edges and paints may differ slightly along the tile
+     *       boundaries.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_RENDER_THREADS
+        = new IntegerKey();
 }
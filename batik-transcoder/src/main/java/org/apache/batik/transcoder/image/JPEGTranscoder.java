@@ -55,6 +55,14 @@ public class JPEGTranscoder extends ImageTranscoder {
         return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
     }
 
+    /**
+     * Returns true if <code>key</code> only affects how the GVT tree is
+     * rendered or how the image is encoded.
+     */
+    protected boolean isRenderingHint(TranscodingHints.Key key) {
+        return key == KEY_QUALITY || super.isRenderingHint(key);
+    }
+
     /**
      * Writes the specified image to the specified output.
      * @param img the image to write
@@ -60,6 +60,19 @@ public class PNGTranscoder extends ImageTranscoder {
         return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     }
 
+    /**
+     * Returns true if <code>key</code> only affects how the GVT tree is
+     * rendered or how the image is encoded.
+     */
+    protected boolean isRenderingHint(TranscodingHints.Key key) {
+        return key == KEY_GAMMA
+            || key == KEY_INDEXED
+            || key == KEY_INDEXED_QUALITY
+            || key == KEY_COMPRESSION_LEVEL
+            || key == KEY_COMPRESSION_THREADS
+            || super.isRenderingHint(key);
+    }
+
     private WriteAdapter getWriteAdapter(String className) {
         WriteAdapter adapter;
         try {
@@ -225,4 +238,101 @@ public class PNGTranscoder extends ImageTranscoder {
      */
     public static final TranscodingHints.Key KEY_INDEXED
         = new IntegerKey();
+
+    /**
+     * The color indexed image quality key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_INDEXED_QUALITY</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">0</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Specifies how the image is reduced to index
+     *       colors when KEY_INDEXED is set: 0 uses the median cut palette
+     *       and the JDK's dither, 1 refines the palette and maps each
+     *       pixel to its nearest color, 2 also applies Floyd-Steinberg
+     *       error diffusion.  See the QUALITY_ constants of
+     *       IndexImage.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_INDEXED_QUALITY
+        = new IntegerKey();
+
+    /**
+     * The compression level key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_COMPRESSION_LEVEL</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">9</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Specifies the deflate compression level of the
+     *       image data, from 0 (none, fastest) to 9 (best, slowest).
+     *       Only used by the internal PNG codec.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_COMPRESSION_LEVEL
+        = new IntegerKey();
+
+    /**
+     * The compression threads key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_COMPRESSION_THREADS</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">1</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Specifies the number of threads compressing
+     *       the image data, 0 meaning one per available processor.
+     *       Compressing with several threads makes the file slightly
+     *       larger.  Only used by the internal PNG codec.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_COMPRESSION_THREADS
+        = new IntegerKey();
 }
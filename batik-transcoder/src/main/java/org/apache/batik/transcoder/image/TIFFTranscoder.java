@@ -59,6 +59,14 @@ public class TIFFTranscoder extends ImageTranscoder {
         return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     }
 
+    /**
+     * Returns true if <code>key</code> only affects how the GVT tree is
+     * rendered or how the image is encoded.
+     */
+    protected boolean isRenderingHint(TranscodingHints.Key key) {
+        return key == KEY_COMPRESSION_METHOD || super.isRenderingHint(key);
+    }
+
     private WriteAdapter getWriteAdapter(String className) {
         WriteAdapter adapter;
         try {
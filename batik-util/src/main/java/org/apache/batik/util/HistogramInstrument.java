@@ -0,0 +1,386 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link Instrument} that aggregates the timings it receives, per
+ * stage and name, into counts, totals and histograms.
+ *
+ * <p>Both the total time and the self time of each piece of work are
+ * recorded, the self time excluding the pieces of work nested in it,
+ * so the self times of all the entries add up to the time spent in
+ * instrumented code.  When the JVM supports it, the number of bytes
+ * allocated by each piece of work, nested ones included, is recorded
+ * too.
+ *
+ * @version $Id$
+ */
+public class HistogramInstrument implements Instrument {
+
+    /**
+     * The number of buckets of the histograms.  Bucket <code>i</code>
+     * counts the durations between 2^(i-1) and 2^i nanoseconds.
+     */
+    protected static final int BUCKETS = 48;
+
+    /**
+     * The aggregated timings of a stage and name.
+     */
+    public static class Statistics {
+
+        protected String stage;
+        protected String name;
+        protected long count;
+        protected long totalTime;
+        protected long selfTime;
+        protected long maxTime;
+        protected long allocated;
+        protected long[] histogram = new long[BUCKETS];
+
+        protected Statistics(String stage, String name) {
+            this.stage = stage;
+            this.name = name;
+        }
+
+        protected synchronized void record(long time, long self,
+                                           long alloc) {
+            count++;
+            totalTime += time;
+            selfTime += self;
+            if (time > maxTime) maxTime = time;
+            allocated += alloc;
+            histogram[bucket(time)]++;
+        }
+
+        protected synchronized Statistics copy() {
+            Statistics ret = new Statistics(stage, name);
+            ret.count = count;
+            ret.totalTime = totalTime;
+            ret.selfTime = selfTime;
+            ret.maxTime = maxTime;
+            ret.allocated = allocated;
+            ret.histogram = histogram.clone();
+            return ret;
+        }
+
+        /**
+         * Returns the stage.
+         */
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * Returns the name, within the stage.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of recorded pieces of work.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the total time, in nanoseconds.
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * Returns the total time, in nanoseconds, excluding the time
+         * spent in nested pieces of work.
+         */
+        public long getSelfTime() {
+            return selfTime;
+        }
+
+        /**
+         * Returns the longest time, in nanoseconds.
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        /**
+         * Returns the number of bytes allocated, or 0 if the JVM
+         * cannot tell.
+         */
+        public long getAllocatedBytes() {
+            return allocated;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the times,
+         * in nanoseconds, as known from the histogram.
+         * @param p The percentile, between 0 and 100.
+         */
+        public long getPercentile(double p) {
+            long n = (long)Math.ceil(count * p / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= n && seen > 0) {
+                    return Math.min(1L << i, maxTime);
+                }
+            }
+            return maxTime;
+        }
+    }
+
+    /**
+     * A piece of work in progress.
+     */
+    protected static class Frame {
+        Frame parent;
+        Statistics stats;
+        long start;
+        long children;
+        long allocStart;
+    }
+
+    /**
+     * The statistics, per stage, then per name.
+     */
+    protected Map stages = new ConcurrentHashMap();
+
+    /**
+     * The innermost piece of work of each thread.
+     */
+    protected ThreadLocal current = new ThreadLocal();
+
+    /**
+     * Whether allocations are counted.
+     */
+    protected boolean countAllocations;
+
+    /**
+     * Gets the bytes allocated by a thread, or null if not supported.
+     */
+    protected static Method allocatedBytesMethod;
+    protected static ThreadMXBean threadMXBean;
+
+    static {
+        try {
+            ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+            Class c = Class.forName("com.sun.management.ThreadMXBean");
+            if (c.isInstance(tmx)) {
+                Method m = c.getMethod("getThreadAllocatedBytes",
+                                       new Class[] { Long.TYPE });
+                m.invoke(tmx, new Object[] {
+                    new Long(Thread.currentThread().getId()) });
+                allocatedBytesMethod = m;
+                threadMXBean = tmx;
+            }
+        } catch (Throwable t) {
+            // Not supported by this JVM.
+        }
+    }
+
+    /**
+     * Creates an instrument that does not count allocations.
+     */
+    public HistogramInstrument() {
+        this(false);
+    }
+
+    /**
+     * @param countAllocations Whether to count the bytes allocated,
+     *        which makes each measure more expensive.
+     */
+    public HistogramInstrument(boolean countAllocations) {
+        this.countAllocations = countAllocations &&
+            allocatedBytesMethod != null;
+    }
+
+    /**
+     * Returns the histogram bucket of the given duration.
+     */
+    protected static int bucket(long time) {
+        int b = 64 - Long.numberOfLeadingZeros(time);
+        return (b < BUCKETS) ? b : BUCKETS - 1;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current
+     * thread.
+     */
+    protected static long allocatedBytes() {
+        try {
+            Long l = (Long)allocatedBytesMethod.invoke
+                (threadMXBean,
+                 new Object[] { new Long(Thread.currentThread().getId()) });
+            return l.longValue();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the statistics of the given stage and name, creating
+     * them if needed.
+     */
+    protected Statistics getStatistics(String stage, String name) {
+        Map names = (Map)stages.get(stage);
+        if (names == null) {
+            synchronized (stages) {
+                names = (Map)stages.get(stage);
+                if (names == null) {
+                    names = new ConcurrentHashMap();
+                    stages.put(stage, names);
+                }
+            }
+        }
+        if (name == null) {
+            name = "";
+        }
+        Statistics s = (Statistics)names.get(name);
+        if (s == null) {
+            synchronized (names) {
+                s = (Statistics)names.get(name);
+                if (s == null) {
+                    s = new Statistics(stage, name);
+                    names.put(name, s);
+                }
+            }
+        }
+        return s;
+    }
+
+    public Object enter(String stage, String name) {
+        Frame f = new Frame();
+        f.stats = getStatistics(stage, name);
+        f.parent = (Frame)current.get();
+        current.set(f);
+        if (countAllocations) {
+            f.allocStart = allocatedBytes();
+        }
+        f.start = System.nanoTime();
+        return f;
+    }
+
+    public void exit(Object token) {
+        long end = System.nanoTime();
+        Frame f = (Frame)token;
+        long time = end - f.start;
+        long alloc = 0;
+        if (countAllocations) {
+            alloc = allocatedBytes() - f.allocStart;
+        }
+        f.stats.record(time, time - f.children, alloc);
+        if (f.parent != null) {
+            f.parent.children += time;
+        }
+        current.set(f.parent);
+    }
+
+    /**
+     * Returns a snapshot of the statistics, by decreasing self time.
+     */
+    public List getStatistics() {
+        List ret = new ArrayList();
+        for (Iterator i = stages.values().iterator(); i.hasNext();) {
+            Map names = (Map)i.next();
+            for (Iterator j = names.values().iterator(); j.hasNext();) {
+                ret.add(((Statistics)j.next()).copy());
+            }
+        }
+        Collections.sort(ret, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    long t1 = ((Statistics)o1).selfTime;
+                    long t2 = ((Statistics)o2).selfTime;
+                    return (t1 > t2) ? -1 : ((t1 == t2) ? 0 : 1);
+                }
+            });
+        return ret;
+    }
+
+    /**
+     * Forgets all the statistics.
+     */
+    public void reset() {
+        stages.clear();
+    }
+
+    /**
+     * Writes a report of the statistics, by decreasing self time.
+     * Times are in milliseconds.
+     */
+    public void printReport(Writer w) {
+        PrintWriter pw = new PrintWriter(w);
+        pw.println(pad("stage", 9) + pad("name", 28) +
+                   lpad("count", 9) + lpad("total", 11) + lpad("self", 11) +
+                   lpad("p50", 9) + lpad("p90", 9) + lpad("max", 9) +
+                   (countAllocations ? lpad("alloc KB", 12) : ""));
+        List l = getStatistics();
+        for (Iterator i = l.iterator(); i.hasNext();) {
+            Statistics s = (Statistics)i.next();
+            pw.println(pad(s.stage, 9) + pad(s.name, 28) +
+                       lpad(Long.toString(s.count), 9) +
+                       lpad(ms(s.totalTime), 11) +
+                       lpad(ms(s.selfTime), 11) +
+                       lpad(ms(s.getPercentile(50)), 9) +
+                       lpad(ms(s.getPercentile(90)), 9) +
+                       lpad(ms(s.maxTime), 9) +
+                       (countAllocations
+                        ? lpad(Long.toString(s.allocated / 1024), 12) : ""));
+        }
+        pw.flush();
+    }
+
+    private static String ms(long ns) {
+        long us = ns / 1000;
+        StringBuffer sb = new StringBuffer();
+        sb.append(us / 1000).append('.');
+        long f = us % 1000;
+        if (f < 100) sb.append('0');
+        if (f < 10) sb.append('0');
+        sb.append(f);
+        return sb.toString();
+    }
+
+    private static String pad(String s, int n) {
+        StringBuffer sb = new StringBuffer(s);
+        while (sb.length() < n - 1) sb.append(' ');
+        return sb.append(' ').toString();
+    }
+
+    private static String lpad(String s, int n) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = s.length(); i < n; i++) sb.append(' ');
+        return sb.append(s).toString();
+    }
+}
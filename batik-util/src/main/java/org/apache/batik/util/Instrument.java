@@ -0,0 +1,91 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+/**
+ * Receives the timings of the various stages of the processing of a
+ * document: parsing, styling, building, painting, filtering and
+ * encoding.  See {@link Instrumentation} for how to install one.
+ *
+ * <p>Each measured piece of work is bracketed by a call to {@link
+ * #enter} and a call to {@link #exit} on the same thread, and pieces
+ * of work nest: painting a group includes painting its children.
+ * {@link #exit} may not be called for a piece of work that ends with
+ * an exception, in which case the next call to {@link #exit} on that
+ * thread is for an enclosing piece of work.  Implementations must be
+ * thread-safe, as several documents may be processed at once.
+ *
+ * @version $Id$
+ */
+public interface Instrument {
+
+    /**
+     * The stage of the parsing of documents and style-sheets.
+     */
+    String PARSE = "parse";
+
+    /**
+     * The stage of the computation of the cascaded style of elements.
+     * The name is the local name of the element.
+     */
+    String CASCADE = "cascade";
+
+    /**
+     * The stage of the building of the GVT tree.  The name is the
+     * local name of the element being built.
+     */
+    String BUILD = "build";
+
+    /**
+     * The stage of the rendering of a whole image.
+     */
+    String RENDER = "render";
+
+    /**
+     * The stage of the painting of graphics nodes.  The name is the
+     * unqualified class name of the node.
+     */
+    String PAINT = "paint";
+
+    /**
+     * The stage of the computation of filter primitives.  The name is
+     * the local name of the filter primitive element.
+     */
+    String FILTER = "filter";
+
+    /**
+     * The stage of the encoding of images.
+     */
+    String ENCODE = "encode";
+
+    /**
+     * Called when a piece of work starts.
+     * @param stage The stage, one of the constants of this interface
+     *              or another interned string.
+     * @param name What is being worked on, within the stage.
+     * @return A token to pass to {@link #exit}.
+     */
+    Object enter(String stage, String name);
+
+    /**
+     * Called when a piece of work ends, on the thread that started it.
+     * @param token The value returned by the matching {@link #enter}.
+     */
+    void exit(Object token);
+}
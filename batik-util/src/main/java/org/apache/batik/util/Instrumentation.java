@@ -0,0 +1,104 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+/**
+ * Gives access to the {@link Instrument} Batik reports its timings to.
+ * None is installed by default, in which case the instrumented code
+ * only pays for a field read:
+ *
+ * <pre>
+ *   Instrument inst = Instrumentation.getInstrument();
+ *   Object t = (inst == null) ? null : inst.enter(Instrument.PAINT, name);
+ *   try {
+ *       ...
+ *   } finally {
+ *       if (inst != null) inst.exit(t);
+ *   }
+ * </pre>
+ *
+ * The instrument can be installed programmatically, or by setting the
+ * <code>org.apache.batik.util.Instrument</code> system property to the
+ * name of a class implementing {@link Instrument}.  If that class can't
+ * be instantiated the error is reported on <code>System.err</code> and
+ * no instrument is installed.
+ *
+ * @version $Id$
+ */
+public abstract class Instrumentation {
+
+    /**
+     * The system property naming the instrument class to install.
+     */
+    public static final String INSTRUMENT_PROPERTY =
+        "org.apache.batik.util.Instrument";
+
+    /**
+     * The installed instrument, or null.
+     */
+    protected static volatile Instrument instrument;
+
+    /**
+     * The message key for an instrument class that can't be installed.
+     */
+    public static final String ERROR_CANNOT_INSTALL_INSTRUMENT =
+        "Instrumentation.error.cannot.install.instrument";
+
+    static {
+        String cn = null;
+        try {
+            cn = System.getProperty(INSTRUMENT_PROPERTY);
+        } catch (SecurityException se) {
+        }
+        if (cn != null && cn.length() > 0) {
+            try {
+                instrument = (Instrument)Class.forName(cn).newInstance();
+            } catch (Exception e) {
+                reportInstallError(cn, e);
+            } catch (LinkageError e) {
+                reportInstallError(cn, e);
+            }
+        }
+    }
+
+    /**
+     * Reports an instrument class that can't be installed.  This is
+     * only a diagnostics setting, so rendering goes on without it.
+     */
+    private static void reportInstallError(String cn, Throwable t) {
+        System.err.println
+            (Messages.formatMessage(ERROR_CANNOT_INSTALL_INSTRUMENT,
+                                    new Object[] { cn, t }));
+    }
+
+    /**
+     * Installs an instrument.
+     * @param inst The instrument, or null to disable instrumentation.
+     */
+    public static void setInstrument(Instrument inst) {
+        instrument = inst;
+    }
+
+    /**
+     * Returns the installed instrument, or null.
+     */
+    public static Instrument getInstrument() {
+        return instrument;
+    }
+}